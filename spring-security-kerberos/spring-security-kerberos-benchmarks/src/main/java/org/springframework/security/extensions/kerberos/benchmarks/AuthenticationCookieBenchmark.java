@@ -0,0 +1,156 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.extensions.kerberos.ActiveDirectoryAuthenticationProvider;
+import org.springframework.security.extensions.kerberos.ActiveDirectoryUserDetailsService;
+import org.springframework.security.extensions.kerberos.SidMappingAuthoritiesPopulator;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosTicketValidator;
+import org.springframework.security.extensions.kerberos.web.AuthenticationCookieService;
+import org.springframework.security.extensions.kerberos.web.SpnegoAuthenticationProcessingFilter;
+
+/**
+ * A request of an already authenticated browser in a stateless application, through the
+ * filter: <code>spnego</code> validates a fresh ticket and maps the groups again,
+ * <code>cookie</code> checks the cookie issued by the first request. <code>issueCookie</code>
+ * is the extra work of a successful SPNEGO request.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.security.krb5.rcache=none")
+public class AuthenticationCookieBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean encrypt;
+
+    private TokenCorpus corpus;
+    private SunJaasKerberosTicketValidator validator;
+    private SpnegoAuthenticationProcessingFilter filter;
+    private AuthenticationCookieService cookieService;
+    private MockHttpServletRequest cookieRequest;
+    private MockHttpServletResponse response;
+    private Authentication authentication;
+    private String[] headers;
+    private int next;
+    private final FilterChain chain = new FilterChain() {
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+        }
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        corpus = new TokenCorpus(1024, 100);
+        headers = new String[1024];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = "Negotiate " + new String(Base64.encode(corpus.next()), "US-ASCII");
+        }
+        validator = corpus.createValidator();
+        validator.afterPropertiesSet();
+        SidMappingAuthoritiesPopulator populator = new SidMappingAuthoritiesPopulator();
+        populator.setMappings(new ByteArrayResource((TokenCorpus.DOMAIN + "-10001=ROLE_ADMIN\n" + TokenCorpus.DOMAIN
+                + "-513=ROLE_USER\n").getBytes("US-ASCII")));
+        populator.afterPropertiesSet();
+        ActiveDirectoryUserDetailsService userDetailsService = new ActiveDirectoryUserDetailsService();
+        userDetailsService.setAuthoritiesPopulator(populator);
+        ActiveDirectoryAuthenticationProvider provider = new ActiveDirectoryAuthenticationProvider();
+        provider.setTicketValidator(validator);
+        provider.setUserDetailsService(userDetailsService);
+        ProviderManager authenticationManager = new ProviderManager();
+        authenticationManager.setProviders(Arrays.<AuthenticationProvider> asList(provider));
+        authenticationManager.afterPropertiesSet();
+
+        cookieService = new AuthenticationCookieService();
+        cookieService.setKeys(Arrays.asList("MDEyMzQ1Njc4OWFiY2RlZjAxMjM0NTY3ODlhYmNkZWY="));
+        cookieService.setEncrypt(encrypt);
+        cookieService.afterPropertiesSet();
+        filter = new SpnegoAuthenticationProcessingFilter();
+        filter.setAuthenticationManager(authenticationManager);
+        filter.setAuthenticationCookieService(cookieService);
+        filter.afterPropertiesSet();
+
+        response = new MockHttpServletResponse();
+        authentication = spnego();
+        cookieRequest = new MockHttpServletRequest("GET", "/secure/");
+        cookieRequest.setCookies(new Cookie[] { new Cookie("SPNEGO_AUTH", cookieService.encode(authentication)) });
+    }
+
+    @TearDown
+    public void tearDown() {
+        validator.destroy();
+        corpus.delete();
+    }
+
+    @Benchmark
+    public Authentication spnego() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/secure/");
+        request.addHeader("Authorization", headers[next++ & 1023]);
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+        Authentication result = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return result;
+    }
+
+    @Benchmark
+    public Authentication cookie() throws Exception {
+        filter.doFilter(cookieRequest, response, chain);
+        Authentication result = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return result;
+    }
+
+    @Benchmark
+    public String issueCookie() {
+        return cookieService.encode(authentication);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.benchmarks;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.extensions.kerberos.KerberosCrypto;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosTicketValidator;
+
+/**
+ * Ticket decryption with the {@link KerberosCrypto} backends, to pick the faster one for
+ * the encryption types of the service key.
+ *
+ * <ul>
+ * <li><code>decrypt</code> does the JCA calls of the JRE for one ticket of
+ * <code>size</code> bytes: key derivation, cipher and integrity check, each with its own
+ * <code>getInstance</code> lookup, for <code>rc4-hmac</code> (RFC 4757) and the AES
+ * encryption types (RFC 3962)</li>
+ * <li><code>validateTicket</code> is the whole validation by the JRE, for the AES encryption
+ * types only, as the ticket factory of the benchmarks doesn't issue RC4 tickets</li>
+ * </ul>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.security.krb5.rcache=none")
+public class CryptoBackendBenchmark {
+
+    private static final int TICKET_USAGE = 2;
+
+    @State(Scope.Benchmark)
+    public static class Backend {
+        @Param({ "JDK", "BOUNCY_CASTLE" })
+        public KerberosCrypto.Backend backend;
+
+        @Setup
+        public void setUp() {
+            KerberosCrypto.install(backend);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class EncryptedTicket {
+        @Param({ "rc4-hmac", "aes128-cts-hmac-sha1-96", "aes256-cts-hmac-sha1-96" })
+        public String enctype;
+
+        @Param({ "1024", "16384" })
+        public int size;
+
+        byte[] key;
+        byte[] cipherText;
+
+        @Setup
+        public void setUp() {
+            SecureRandom random = new SecureRandom();
+            key = new byte[enctype.startsWith("aes256") ? 32 : 16];
+            random.nextBytes(key);
+            // whole blocks, the ciphertext stealing of the last two blocks costs nothing
+            cipherText = new byte[size + 16];
+            random.nextBytes(cipherText);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Tickets {
+        @Param({ "17", "18" })
+        public int etype;
+
+        TokenCorpus corpus;
+        SunJaasKerberosTicketValidator validator;
+
+        @Setup
+        public void setUp(Backend backend) throws Exception {
+            corpus = new TokenCorpus(1024, 100, etype);
+            validator = corpus.createValidator();
+            validator.afterPropertiesSet();
+        }
+
+        @TearDown
+        public void tearDown() {
+            validator.destroy();
+            corpus.delete();
+        }
+    }
+
+    @Benchmark
+    public Object decrypt(Backend backend, EncryptedTicket ticket) throws GeneralSecurityException {
+        if (ticket.enctype.equals("rc4-hmac")) {
+            return decryptRc4Hmac(ticket.key, ticket.cipherText);
+        }
+        return decryptAesCts(ticket.key, ticket.cipherText);
+    }
+
+    @Benchmark
+    public String validateTicket(Tickets tickets) {
+        return tickets.validator.validateTicket(tickets.corpus.next());
+    }
+
+    private static boolean decryptRc4Hmac(byte[] key, byte[] cipherText) throws GeneralSecurityException {
+        byte[] usage = { TICKET_USAGE, 0, 0, 0 };
+        byte[] k1 = hmac("HmacMD5", key, usage, 0, usage.length);
+        byte[] k3 = hmac("HmacMD5", k1, cipherText, 0, 16);
+        Cipher rc4 = Cipher.getInstance("ARCFOUR");
+        rc4.init(Cipher.DECRYPT_MODE, new SecretKeySpec(k3, "ARCFOUR"));
+        byte[] plainText = rc4.doFinal(cipherText, 16, cipherText.length - 16);
+        return MessageDigest.isEqual(hmac("HmacMD5", k1, plainText, 0, plainText.length),
+                Arrays.copyOf(cipherText, 16));
+    }
+
+    private static boolean decryptAesCts(byte[] key, byte[] cipherText) throws GeneralSecurityException {
+        byte[] ke = deriveKey(key, 0xaa);
+        byte[] ki = deriveKey(key, 0x55);
+        Cipher aes = Cipher.getInstance("AES/CBC/NoPadding");
+        aes.init(Cipher.DECRYPT_MODE, new SecretKeySpec(ke, "AES"), new IvParameterSpec(new byte[16]));
+        byte[] plainText = aes.doFinal(cipherText);
+        byte[] checksum = hmac("HmacSHA1", ki, plainText, 0, plainText.length);
+        return MessageDigest.isEqual(Arrays.copyOf(checksum, 12), Arrays.copyOf(cipherText, 12));
+    }
+
+    /**
+     * DK(key, usage | type) of RFC 3961, one AES block per 16 bytes of key.
+     */
+    private static byte[] deriveKey(byte[] key, int type) throws GeneralSecurityException {
+        Cipher aes = Cipher.getInstance("AES/ECB/NoPadding");
+        aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+        byte[] block = new byte[16];
+        block[3] = TICKET_USAGE;
+        block[4] = (byte) type;
+        byte[] derived = new byte[key.length];
+        for (int i = 0; i < derived.length; i += 16) {
+            block = aes.doFinal(block);
+            System.arraycopy(block, 0, derived, i, 16);
+        }
+        return derived;
+    }
+
+    private static byte[] hmac(String algorithm, byte[] key, byte[] data, int offset, int length)
+            throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(algorithm);
+        mac.init(new SecretKeySpec(key, algorithm));
+        mac.update(data, offset, length);
+        return mac.doFinal();
+    }
+}
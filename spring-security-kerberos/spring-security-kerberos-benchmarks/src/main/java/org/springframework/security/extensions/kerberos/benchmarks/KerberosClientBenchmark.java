@@ -0,0 +1,87 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.extensions.kerberos.KerberosLoginCache;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosClient;
+import org.springframework.security.extensions.kerberos.test.EmbeddedKdc;
+
+/**
+ * Repeated form logins of one user with {@link SunJaasKerberosClient}, with an AS exchange
+ * against an {@link EmbeddedKdc} on localhost each time or served from a
+ * {@link KerberosLoginCache}. A remote KDC adds the network round trip to the first.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KerberosClientBenchmark {
+
+    @Param({ "true", "false" })
+    public boolean loginCache;
+
+    private EmbeddedKdc kdc;
+    private File keyTab;
+    private SunJaasKerberosClient client;
+
+    @Setup
+    public void setUp() throws Exception {
+        kdc = new EmbeddedKdc();
+        kdc.afterPropertiesSet();
+        kdc.createUser("alice", "secret");
+        keyTab = File.createTempFile("http", ".keytab");
+        kdc.createServicePrincipals(keyTab, "HTTP/localhost");
+        // loads the krb5.conf of the KDC
+        kdc.createSpnegoToken("alice", "secret", "HTTP/localhost");
+        client = new SunJaasKerberosClient();
+        if (loginCache) {
+            client.setLoginCache(new KerberosLoginCache());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        kdc.destroy();
+        keyTab.delete();
+    }
+
+    @Benchmark
+    public String login() {
+        return client.login("alice", "secret");
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.extensions.kerberos.ActiveDirectoryAuthenticationProvider;
+import org.springframework.security.extensions.kerberos.ActiveDirectoryUserDetailsService;
+import org.springframework.security.extensions.kerberos.SidMappingAuthoritiesPopulator;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosTicketValidator;
+import org.springframework.security.extensions.kerberos.web.AsyncSpnegoAuthenticationProcessingFilter;
+import org.springframework.security.extensions.kerberos.web.SpnegoAuthenticationProcessingFilter;
+
+/**
+ * Load test of an embedded Tomcat with a small request thread pool, serving SPNEGO
+ * authenticated requests to <code>/secure/</code> and requests without authentication
+ * to <code>/static/</code> at the same time. With the synchronous filter the validations
+ * occupy the request threads and the static requests queue behind them, the
+ * asynchronous filter validates on its own executor. Compare throughput and the p99 of
+ * both request types, e.g. with <code>-bm sample</code> for the percentiles.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Dsun.security.krb5.rcache=none",
+        "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog" })
+public class MixedWorkloadBenchmark {
+
+    private static final int REQUEST_THREADS = 4;
+
+    @Param({ "false", "true" })
+    public boolean async;
+
+    private TokenCorpus corpus;
+    private String[] headers;
+    private SunJaasKerberosTicketValidator validator;
+    private Tomcat tomcat;
+    private File baseDir;
+    private String baseUrl;
+
+    @Setup
+    public void setUp() throws Exception {
+        corpus = new TokenCorpus(1024, 100);
+        headers = new String[1024];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = "Negotiate " + new String(Base64.encode(corpus.next()), "US-ASCII");
+        }
+        validator = corpus.createValidator();
+        validator.afterPropertiesSet();
+        SidMappingAuthoritiesPopulator populator = new SidMappingAuthoritiesPopulator();
+        populator.setMappings(new ByteArrayResource((TokenCorpus.DOMAIN + "-513=ROLE_USER\n").getBytes("US-ASCII")));
+        populator.afterPropertiesSet();
+        ActiveDirectoryUserDetailsService userDetailsService = new ActiveDirectoryUserDetailsService();
+        userDetailsService.setAuthoritiesPopulator(populator);
+        ActiveDirectoryAuthenticationProvider provider = new ActiveDirectoryAuthenticationProvider();
+        provider.setTicketValidator(validator);
+        provider.setUserDetailsService(userDetailsService);
+        ProviderManager authenticationManager = new ProviderManager();
+        authenticationManager.setProviders(Arrays.<AuthenticationProvider> asList(provider));
+        authenticationManager.afterPropertiesSet();
+        SpnegoAuthenticationProcessingFilter filter = async ? new AsyncSpnegoAuthenticationProcessingFilter()
+                : new SpnegoAuthenticationProcessingFilter();
+        filter.setAuthenticationManager(authenticationManager);
+        filter.afterPropertiesSet();
+
+        baseDir = File.createTempFile("tomcat", "");
+        baseDir.delete();
+        baseDir.mkdirs();
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        Connector connector = new Connector("HTTP/1.1");
+        connector.setPort(0);
+        connector.setProperty("maxThreads", String.valueOf(REQUEST_THREADS));
+        connector.setProperty("minSpareThreads", String.valueOf(REQUEST_THREADS));
+        tomcat.getService().addConnector(connector);
+        tomcat.setConnector(connector);
+        Context context = tomcat.addContext("", baseDir.getAbsolutePath());
+        Tomcat.addServlet(context, "ok", new OkServlet()).setAsyncSupported(true);
+        context.addServletMappingDecoded("/*", "ok");
+        addFilter(context, "securityContext", new SecurityContextClearingFilter(), "/*");
+        addFilter(context, "spnego", filter, "/secure/*");
+        tomcat.start();
+        baseUrl = "http://localhost:" + connector.getLocalPort();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        tomcat.stop();
+        tomcat.destroy();
+        validator.destroy();
+        corpus.delete();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public int authenticated(ClientState client) throws IOException {
+        return get(baseUrl + "/secure/", headers[client.next++ & 1023]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(8)
+    public int unauthenticated() throws IOException {
+        return get(baseUrl + "/static/", null);
+    }
+
+    private static int get(String url, String authorization) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (authorization != null) {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            // read to the end, so the connection is kept alive
+            byte[] buffer = new byte[256];
+            while (in.read(buffer) >= 0) {
+            }
+            in.close();
+        }
+        if (status != HttpServletResponse.SC_OK) {
+            throw new IllegalStateException("GET " + url + " returned " + status);
+        }
+        return status;
+    }
+
+    private static void addFilter(Context context, String name, Filter filter, String urlPattern) {
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName(name);
+        filterDef.setFilter(filter);
+        filterDef.setAsyncSupported("true");
+        context.addFilterDef(filterDef);
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName(name);
+        filterMap.addURLPattern(urlPattern);
+        filterMap.setDispatcher("REQUEST");
+        filterMap.setDispatcher("ASYNC");
+        context.addFilterMap(filterMap);
+    }
+
+    @State(Scope.Thread)
+    public static class ClientState {
+        int next;
+    }
+
+    private static class OkServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            response.setContentType("text/plain");
+            response.getWriter().write("ok");
+        }
+    }
+
+    /**
+     * Stands in for the <code>SecurityContextPersistenceFilter</code>, the request threads
+     * must not keep the authentication of the previous request.
+     */
+    private static class SecurityContextClearingFilter implements Filter {
+        public void init(FilterConfig filterConfig) {
+        }
+
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                SecurityContextHolder.clearContext();
+            }
+        }
+
+        public void destroy() {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.security.extensions.kerberos.PacDecoder;
+import org.springframework.security.extensions.kerberos.PacUtility;
+import org.springframework.security.extensions.kerberos.SidSet;
+import org.springframework.security.extensions.kerberos.test.SyntheticTokens;
+
+/**
+ * Decoding the group SIDs of a PAC at the sizes found in large forests, and the SID
+ * conversions of {@link PacUtility}. <code>binarySidToStringSidEscaped</code> is the former
+ * path, which went through the escaped string form of the jaaslounge <code>PacSid</code>.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacBenchmark {
+
+    @Param({ "50", "500", "1500" })
+    public int groups;
+
+    private byte[] pac;
+    private List<String> sids;
+    private byte[][] binarySids;
+    private String[] escapedSids;
+    private final StringBuilder builder = new StringBuilder(64);
+
+    @Setup
+    public void setUp() {
+        pac = SyntheticTokens.createPac(groups);
+        sids = PacDecoder.getGroupSids(pac);
+        binarySids = new byte[sids.size()][];
+        escapedSids = new String[sids.size()];
+        for (int i = 0; i < binarySids.length; i++) {
+            binarySids[i] = PacUtility.stringSidToByteArraySid(sids.get(i));
+            StringBuilder escaped = new StringBuilder();
+            for (byte b : binarySids[i]) {
+                escaped.append('\\').append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+                        Character.forDigit(b & 0xf, 16));
+            }
+            escapedSids[i] = escaped.toString();
+        }
+    }
+
+    @Benchmark
+    public List<String> decodePac() {
+        return PacDecoder.getGroupSids(pac);
+    }
+
+    @Benchmark
+    public SidSet compactSidSet() {
+        return SidSet.valueOf(sids);
+    }
+
+    @Benchmark
+    public void binarySidToStringSidEscaped(Blackhole blackhole) {
+        for (String sid : escapedSids) {
+            blackhole.consume(PacUtility.binarySidToStringSid(sid));
+        }
+    }
+
+    @Benchmark
+    public void binarySidToStringSid(Blackhole blackhole) {
+        for (byte[] sid : binarySids) {
+            blackhole.consume(PacUtility.binarySidToStringSid(sid));
+        }
+    }
+
+    @Benchmark
+    public void appendStringSid(Blackhole blackhole) {
+        for (byte[] sid : binarySids) {
+            builder.setLength(0);
+            blackhole.consume(PacUtility.appendStringSid(sid, 0, builder).toString());
+        }
+    }
+
+    @Benchmark
+    public void stringSidToByteArraySid(Blackhole blackhole) {
+        for (String sid : sids) {
+            blackhole.consume(PacUtility.stringSidToByteArraySid(sid));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.extensions.kerberos.ActiveDirectoryAuthenticationProvider;
+import org.springframework.security.extensions.kerberos.ActiveDirectoryUserDetailsService;
+import org.springframework.security.extensions.kerberos.KerberosServiceRequestToken;
+import org.springframework.security.extensions.kerberos.SidMappingAuthoritiesPopulator;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosTicketValidator;
+
+/**
+ * The security contexts of many sessions, authenticated by an
+ * {@link ActiveDirectoryAuthenticationProvider} which retains the Kerberos token or keeps
+ * only its digest. The heap retained per session and the size of a serialized session are
+ * reported as the {@link Footprint} counters of each benchmark.
+ *
+ * <ul>
+ * <li><code>contextHashCode</code> is done twice per request by the
+ * <code>HttpSessionSecurityContextRepository</code>, to find out if the context changed</li>
+ * <li><code>serializeSession</code> is done for session persistence and replication</li>
+ * </ul>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.security.krb5.rcache=none")
+public class SessionFootprintBenchmark {
+
+    private static final int SESSIONS = 1024;
+
+    @Param({ "10", "500" })
+    public int groups;
+
+    @Param({ "true", "false" })
+    public boolean retainToken;
+
+    private TokenCorpus corpus;
+    private SunJaasKerberosTicketValidator validator;
+    private List<SecurityContext> sessions;
+    private int next;
+    private long retainedHeapBytes;
+    private long serializedBytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        corpus = new TokenCorpus(SESSIONS, groups);
+        validator = corpus.createValidator();
+        validator.afterPropertiesSet();
+        SidMappingAuthoritiesPopulator populator = new SidMappingAuthoritiesPopulator();
+        populator.setMappings(new ByteArrayResource((TokenCorpus.DOMAIN + "-513=ROLE_USER\n").getBytes("US-ASCII")));
+        populator.afterPropertiesSet();
+        ActiveDirectoryUserDetailsService userDetailsService = new ActiveDirectoryUserDetailsService();
+        userDetailsService.setAuthoritiesPopulator(populator);
+        ActiveDirectoryAuthenticationProvider provider = new ActiveDirectoryAuthenticationProvider();
+        provider.setTicketValidator(validator);
+        provider.setUserDetailsService(userDetailsService);
+        provider.setRetainToken(retainToken);
+        provider.afterPropertiesSet();
+
+        long before = usedHeap();
+        sessions = new ArrayList<SecurityContext>(SESSIONS);
+        for (int i = 0; i < SESSIONS; i++) {
+            SecurityContext context = new SecurityContextImpl();
+            // each request decodes its own copy of the token from the header
+            byte[] token = corpus.next().clone();
+            context.setAuthentication(provider.authenticate(new KerberosServiceRequestToken(token)));
+            sessions.add(context);
+        }
+        retainedHeapBytes = (usedHeap() - before) / SESSIONS;
+        serializedBytes = serializeSession(sessions.get(0)).length;
+    }
+
+    @TearDown
+    public void tearDown() {
+        validator.destroy();
+        corpus.delete();
+    }
+
+    @Benchmark
+    public int contextHashCode(Footprint footprint) {
+        return nextSession().hashCode();
+    }
+
+    @Benchmark
+    public byte[] serializeSession(Footprint footprint) throws IOException {
+        return serializeSession(nextSession());
+    }
+
+    private SecurityContext nextSession() {
+        next = (next + 1) % SESSIONS;
+        return sessions.get(next);
+    }
+
+    private static byte[] serializeSession(SecurityContext context) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(context);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * The footprint of one session, measured once by the setup. JMH lists the fields as
+     * secondary results of the benchmarks which take this state.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        /** heap retained by one security context, in bytes */
+        public long retainedHeapBytes;
+        /** size of one serialized security context, in bytes */
+        public long serializedBytes;
+
+        // JMH zeroes the counters after the iteration setup, they are read after the teardown
+        @TearDown(Level.Iteration)
+        public void record(SessionFootprintBenchmark benchmark) {
+            retainedHeapBytes = benchmark.retainedHeapBytes;
+            serializedBytes = benchmark.serializedBytes;
+        }
+    }
+}
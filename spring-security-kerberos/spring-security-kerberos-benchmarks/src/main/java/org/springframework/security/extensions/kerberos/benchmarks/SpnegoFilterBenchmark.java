@@ -0,0 +1,130 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.extensions.kerberos.KerberosServiceRequestToken;
+import org.springframework.security.extensions.kerberos.web.NegotiateHeader;
+import org.springframework.security.extensions.kerberos.web.SpnegoAuthenticationProcessingFilter;
+
+/**
+ * The work of the filter around the ticket validation: reading the header, decoding
+ * Base64 and storing the result. The authentication manager answers right away, so
+ * only the filter is measured. The header size follows the number of groups in the PAC.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpnegoFilterBenchmark {
+
+    @Param({ "0", "100", "1500" })
+    public int groups;
+
+    private SpnegoAuthenticationProcessingFilter filter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+    private String header;
+    private final FilterChain chain = new FilterChain() {
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+        }
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        TokenCorpus corpus = new TokenCorpus(1, groups);
+        byte[] token = corpus.next();
+        corpus.delete();
+        header = "Negotiate " + new String(Base64.encode(token), "US-ASCII");
+
+        final Authentication authenticated = new KerberosServiceRequestToken("user0@EXAMPLE.COM",
+                new ArrayList<GrantedAuthority>(), token);
+        filter = new SpnegoAuthenticationProcessingFilter();
+        filter.setAuthenticationManager(new AuthenticationManager() {
+            public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+                return authenticated;
+            }
+        });
+        filter.afterPropertiesSet();
+
+        request = new MockHttpServletRequest("GET", "/secure/");
+        request.addHeader("Authorization", header);
+        response = new MockHttpServletResponse();
+    }
+
+    @TearDown
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Benchmark
+    public Authentication doFilter() throws Exception {
+        filter.doFilter(request, response, chain);
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return authentication;
+    }
+
+    @Benchmark
+    public byte[] decodeHeader() {
+        int offset = NegotiateHeader.PREFIX.length();
+        return NegotiateHeader.decode(header, offset, NegotiateHeader.decodedLength(header, offset));
+    }
+
+    /**
+     * The decoding of the filter up to 1.0: two copies of the header before the decoder
+     * allocates its own buffer and trims it to the token.
+     */
+    @Benchmark
+    public byte[] decodeHeaderCopying() throws Exception {
+        return Base64.decode(header.substring(10).getBytes("UTF-8"));
+    }
+}
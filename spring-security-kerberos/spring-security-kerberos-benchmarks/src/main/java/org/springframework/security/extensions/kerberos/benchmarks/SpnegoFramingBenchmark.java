@@ -0,0 +1,104 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.jaaslounge.decoding.DecodingException;
+import org.jaaslounge.decoding.spnego.SpnegoInitToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.extensions.kerberos.ActiveDirectorySecurityIntegration;
+import org.springframework.security.extensions.kerberos.ApRequestFrame;
+
+/**
+ * Finding the Kerberos mechToken in a SPNEGO token, the part of
+ * {@link ActiveDirectorySecurityIntegration} which no longer goes through jaaslounge.
+ *
+ * <ul>
+ * <li><code>frame</code> finds the mechToken and the ticket enc-part as offsets</li>
+ * <li><code>frameAndCopyMechToken</code> also copies the mechToken for the
+ * <code>KerberosToken</code> of jaaslounge, as the integration does</li>
+ * <li><code>spnegoInitToken</code> is the former path through the object tree of
+ * <code>SpnegoInitToken</code></li>
+ * </ul>
+ *
+ * The decryption by <code>KerberosToken</code> is the same on both paths and not measured here.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpnegoFramingBenchmark {
+
+    @Param({ "100", "1000" })
+    public int groups;
+
+    private TokenCorpus corpus;
+
+    @Setup
+    public void setUp() throws Exception {
+        corpus = new TokenCorpus(1024, groups);
+        byte[] token = corpus.next();
+        if (!Arrays.equals(frameAndCopyMechToken(token), new SpnegoInitToken(token).getMechanismToken())) {
+            throw new IllegalStateException("Frame and SpnegoInitToken disagree on the mechToken");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public ApRequestFrame frame() {
+        return ApRequestFrame.parse(corpus.next());
+    }
+
+    @Benchmark
+    public byte[] frameAndCopyMechToken() {
+        return frameAndCopyMechToken(corpus.next());
+    }
+
+    @Benchmark
+    public byte[] spnegoInitToken() throws DecodingException {
+        return new SpnegoInitToken(corpus.next()).getMechanismToken();
+    }
+
+    private static byte[] frameAndCopyMechToken(byte[] token) {
+        ApRequestFrame frame = ApRequestFrame.parse(token);
+        return Arrays.copyOfRange(token, frame.getMechTokenOffset(), frame.getMechTokenOffset()
+                + frame.getMechTokenLength());
+    }
+}
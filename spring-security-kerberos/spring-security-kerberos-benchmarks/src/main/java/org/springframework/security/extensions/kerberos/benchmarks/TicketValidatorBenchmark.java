@@ -0,0 +1,130 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.extensions.kerberos.ActiveDirectorySecurityIntegration;
+import org.springframework.security.extensions.kerberos.ActiveDirectoryTicketValidation;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosTicketValidator;
+import org.springframework.security.extensions.kerberos.ValidatedTicketCache;
+
+/**
+ * Ticket validation as done per request by the authentication providers.
+ *
+ * <ul>
+ * <li><code>validateTicket</code> against <code>reuseAcceptorCredential=false</code> compares the
+ * acceptor credential acquired once with the key lookup in the subject per ticket</li>
+ * <li><code>validateTicketAndGroupSids</code> reads the PAC from the same decryption, the
+ * difference to <code>validateTicket</code> is the whole cost of the groups</li>
+ * <li><code>validateTicketThenDecryptAgain</code> is the former path, which decrypted the ticket
+ * a second time with jaaslounge to get at the PAC</li>
+ * <li><code>validateCachedTicket</code> is a token which was already validated, e.g. resent
+ * by the browser</li>
+ * </ul>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.security.krb5.rcache=none")
+public class TicketValidatorBenchmark {
+
+    /** the client which presented the cached tickets, see {@link ValidatedTicketCache} */
+    private static final String CLIENT = "192.168.0.1";
+
+    @Param({ "10", "500" })
+    public int groups;
+
+    @Param({ "true", "false" })
+    public boolean reuseAcceptorCredential;
+
+    private TokenCorpus corpus;
+    private SunJaasKerberosTicketValidator validator;
+    private SunJaasKerberosTicketValidator cachingValidator;
+    private ActiveDirectorySecurityIntegration integration;
+
+    @Setup
+    public void setUp() throws Exception {
+        corpus = new TokenCorpus(1024, groups);
+        validator = corpus.createValidator();
+        validator.setReuseAcceptorCredential(reuseAcceptorCredential);
+        validator.afterPropertiesSet();
+
+        cachingValidator = corpus.createValidator();
+        cachingValidator.setReuseAcceptorCredential(reuseAcceptorCredential);
+        ValidatedTicketCache cache = new ValidatedTicketCache();
+        // the whole corpus fits and stays for the trial, so every token is a hit
+        cache.setMaxEntries(2048);
+        cache.setTimeToLive(ValidatedTicketCache.MAX_TIME_TO_LIVE);
+        cache.setMaxUses(Integer.MAX_VALUE);
+        cachingValidator.setTicketCache(cache);
+        cachingValidator.afterPropertiesSet();
+        for (int i = 0; i < 1024; i++) {
+            cachingValidator.validateTicketAndGroupSids(corpus.next(), CLIENT);
+        }
+
+        integration = new ActiveDirectorySecurityIntegration();
+        integration.setTicketValidator(validator);
+    }
+
+    @TearDown
+    public void tearDown() {
+        validator.destroy();
+        cachingValidator.destroy();
+        corpus.delete();
+    }
+
+    @Benchmark
+    public String validateTicket() {
+        return validator.validateTicket(corpus.next());
+    }
+
+    @Benchmark
+    public ActiveDirectoryTicketValidation validateTicketAndGroupSids() {
+        return validator.validateTicketAndGroupSids(corpus.next());
+    }
+
+    @Benchmark
+    public Object validateTicketThenDecryptAgain() {
+        byte[] token = corpus.next();
+        validator.validateTicket(token);
+        return integration.getUserGroupSids(token);
+    }
+
+    @Benchmark
+    public ActiveDirectoryTicketValidation validateCachedTicket() {
+        return cachingValidator.validateTicketAndGroupSids(corpus.next(), CLIENT);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.security.extensions.kerberos.ServiceTicketFactory;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosTicketValidator;
+import org.springframework.security.extensions.kerberos.test.SyntheticTokens;
+
+/**
+ * Tokens for the benchmarks, issued offline by a {@link ServiceTicketFactory} together with
+ * a keytab holding the service key. No KDC or network is needed.
+ *
+ * <p>Each token is distinct, but the acceptor of the JRE keeps a replay cache, so the
+ * benchmarks which cycle through the corpus run with <code>-Dsun.security.krb5.rcache=none</code>.
+ * The tokens are valid for five minutes of clock skew after creation, longer than a trial.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class TokenCorpus {
+
+    public static final String SERVICE_PRINCIPAL = "HTTP/web.example.com@EXAMPLE.COM";
+    public static final String DOMAIN = SyntheticTokens.DOMAIN_SID;
+
+    private final ServiceTicketFactory tickets;
+    private final File keyTab;
+    private final byte[][] tokens;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param size number of distinct tokens
+     * @param groups number of group SIDs in the PAC of each token, no PAC if negative
+     */
+    public TokenCorpus(int size, int groups) throws IOException {
+        this(size, groups, ServiceTicketFactory.AES256_CTS_HMAC_SHA1_96);
+    }
+
+    /**
+     * @param size number of distinct tokens
+     * @param groups number of group SIDs in the PAC of each token, no PAC if negative
+     * @param etype encryption type of the service key, see {@link ServiceTicketFactory}
+     */
+    public TokenCorpus(int size, int groups, int etype) throws IOException {
+        this.tickets = new ServiceTicketFactory(SERVICE_PRINCIPAL, etype, 1);
+        this.keyTab = File.createTempFile("benchmark", ".keytab");
+        this.keyTab.deleteOnExit();
+        this.tickets.writeKeyTab(this.keyTab);
+        this.tokens = SyntheticTokens.createTokens(this.tickets, size, groups).toArray(new byte[size][]);
+    }
+
+    /**
+     * @return the tokens round robin
+     */
+    public byte[] next() {
+        return this.tokens[(this.next.getAndIncrement() & 0x7fffffff) % this.tokens.length];
+    }
+
+    public SunJaasKerberosTicketValidator createValidator() {
+        SunJaasKerberosTicketValidator validator = new SunJaasKerberosTicketValidator();
+        validator.setServicePrincipal(SERVICE_PRINCIPAL);
+        validator.setKeyTabLocation(new FileSystemResource(this.keyTab));
+        return validator;
+    }
+
+    public void delete() {
+        this.keyTab.delete();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.security.core.userdetails.memory.InMemoryDaoImpl;
+import org.springframework.security.core.userdetails.memory.UserMap;
+import org.springframework.security.extensions.kerberos.KerberosServiceAuthenticationProvider;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosTicketValidator;
+import org.springframework.security.extensions.kerberos.web.SpnegoAuthenticationProcessingFilter;
+
+/**
+ * Requests of misconfigured clients: NTLM after a failed Kerberos ticket request and
+ * truncated tokens. With <code>rejectUnsupportedTokens</code> the filter challenges them
+ * after a look at the DER structure, without it they go through the authentication
+ * manager and fail in the GSS acceptor. Logging is off, the cost of the warnings comes
+ * on top in production.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Dsun.security.krb5.rcache=none",
+        "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog" })
+public class TokenRejectBenchmark {
+
+    private static final String NTLM = "Negotiate TlRMTVNTUAABAAAAl4II4gAAAAAAAAAAAAAAAAAAAAAGAbEdAAAADw==";
+
+    @Param({ "true", "false" })
+    public boolean rejectUnsupportedTokens;
+
+    private TokenCorpus corpus;
+    private SunJaasKerberosTicketValidator validator;
+    private SpnegoAuthenticationProcessingFilter filter;
+    private String truncated;
+    private final FilterChain chain = new FilterChain() {
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+        }
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        corpus = new TokenCorpus(1, 10);
+        byte[] token = corpus.next();
+        truncated = "Negotiate " + new String(Base64.encode(Arrays.copyOf(token, token.length / 2)), "US-ASCII");
+        validator = corpus.createValidator();
+        validator.afterPropertiesSet();
+        KerberosServiceAuthenticationProvider provider = new KerberosServiceAuthenticationProvider();
+        provider.setTicketValidator(validator);
+        InMemoryDaoImpl userDetailsService = new InMemoryDaoImpl();
+        userDetailsService.setUserMap(new UserMap());
+        provider.setUserDetailsService(userDetailsService);
+        ProviderManager authenticationManager = new ProviderManager();
+        authenticationManager.setProviders(Arrays.<AuthenticationProvider> asList(provider));
+        authenticationManager.afterPropertiesSet();
+
+        filter = new SpnegoAuthenticationProcessingFilter();
+        filter.setAuthenticationManager(authenticationManager);
+        filter.setRejectUnsupportedTokens(rejectUnsupportedTokens);
+        filter.afterPropertiesSet();
+    }
+
+    @TearDown
+    public void tearDown() {
+        validator.destroy();
+        corpus.delete();
+    }
+
+    @Benchmark
+    public int ntlm() throws Exception {
+        return doFilter(NTLM);
+    }
+
+    @Benchmark
+    public int truncated() throws Exception {
+        return doFilter(truncated);
+    }
+
+    private int doFilter(String header) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/secure/");
+        request.addHeader("Authorization", header);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        return response.getStatus();
+    }
+}
@@ -19,30 +19,31 @@ package org.springframework.security.extensions.kerberos;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.authentication.AccountStatusException;
 import org.springframework.security.authentication.AccountStatusUserDetailsChecker;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
-import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsChecker;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.util.Assert;
 
-import java.util.ArrayList;
-import java.util.Collection;
-
 /**
  * @author Grant Cermak
  * @since 1.1
  * @version $Id$
  *
- * This class works with the SpnegoAuthenticationProcessingFilter
+ * This class works with the SpnegoAuthenticationProcessingFilter. It keeps no per-request
+ * state, so one instance can authenticate concurrent requests.
  */
 public class ActiveDirectoryAuthenticationProvider implements AuthenticationProvider, InitializingBean {
 
     private KerberosTicketValidator ticketValidator;
     private ActiveDirectoryUserDetailsService userDetailsService;
     private UserDetailsChecker userDetailsChecker = new AccountStatusUserDetailsChecker();
+    private KerberosMetrics metrics = NoOpKerberosMetrics.INSTANCE;
+    private boolean retainToken = true;
 
     public void setUserDetailsService(ActiveDirectoryUserDetailsService userDetailsService) {
         this.userDetailsService = userDetailsService;
@@ -52,23 +53,80 @@ public class ActiveDirectoryAuthenticationProvider implements AuthenticationProv
         this.ticketValidator = ticketValidator;
     }
 
+    /**
+     * @param metrics receives the user details load times, successful authentications and
+     *        unknown or locked users, default is a {@link NoOpKerberosMetrics}
+     */
+    public void setMetrics(KerberosMetrics metrics) {
+        Assert.notNull(metrics, "metrics must not be null");
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param retainToken keep the Kerberos token in the authenticated token, default is true
+     * @see KerberosServiceAuthenticationProvider#setRetainToken(boolean)
+     */
+    public void setRetainToken(boolean retainToken) {
+        this.retainToken = retainToken;
+    }
+
     @Override
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
         KerberosServiceRequestToken auth = (KerberosServiceRequestToken) authentication;
         byte[] token = auth.getToken();
 
         LOG.debug("Try to validate Kerberos Token");
-        String username = this.ticketValidator.validateTicket(token);
-        LOG.debug("Succesfully validated " + username);
+        UserDetails userDetails;
+        String servicePrincipal = null;
+        long start;
+        try {
+            if (this.ticketValidator instanceof ActiveDirectoryTicketValidator) {
+                // validate and read the PAC with a single decryption of the ticket
+                ActiveDirectoryTicketValidation validation = validateTicketAndGroupSids(
+                        (ActiveDirectoryTicketValidator) this.ticketValidator, token, auth.getDetails());
+                LOG.debug("Succesfully validated " + validation.getUsername());
+                servicePrincipal = validation.getServicePrincipal();
+
+                start = System.nanoTime();
+                userDetails = this.userDetailsService.loadUser(validation.getUsername(), validation.getGroupSids());
+            } else {
+                String username = this.ticketValidator.validateTicket(token);
+                LOG.debug("Succesfully validated " + username);
 
-        userDetailsService.setToken(token);
-        UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
-        userDetailsChecker.check(userDetails);
+                start = System.nanoTime();
+                userDetails = this.userDetailsService.loadUser(username, token);
+            }
+        } catch (UsernameNotFoundException e) {
+            metrics.recordFailure(KerberosMetrics.Failure.USER_NOT_FOUND);
+            throw e;
+        }
+        metrics.recordTime(KerberosMetrics.Stage.USER_DETAILS, System.nanoTime() - start);
+        try {
+            userDetailsChecker.check(userDetails);
+        } catch (AccountStatusException e) {
+            metrics.recordFailure(KerberosMetrics.Failure.ACCOUNT_STATUS);
+            throw e;
+        }
 
-        Collection<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>();
-        authorities.addAll(userDetails.getAuthorities());
+        metrics.recordSuccess();
+        KerberosServiceRequestToken result = new KerberosServiceRequestToken(userDetails,
+                userDetails.getAuthorities(), token, servicePrincipal);
+        if (!this.retainToken) {
+            result.eraseToken();
+        }
+        return result;
+    }
 
-        return new KerberosServiceRequestToken(userDetails, authorities, token);
+    /**
+     * The details of the request, e.g. remote address and session, identify the client
+     * for a {@link ValidatedTicketCache}.
+     */
+    static ActiveDirectoryTicketValidation validateTicketAndGroupSids(ActiveDirectoryTicketValidator validator,
+            byte[] token, Object details) {
+        if (details == null) {
+            return validator.validateTicketAndGroupSids(token);
+        }
+        return validator.validateTicketAndGroupSids(token, details);
     }
 
     @Override
@@ -22,10 +22,35 @@ import java.util.Collection;
 import java.util.List;
 
 /**
+ * Maps the group SIDs of a user to authorities. {@link ActiveDirectoryUserDetailsService}
+ * calls the {@link SidSet} variant, which implementations with a compact rule table override,
+ * the list based method remains for callers which only have the SIDs in string form.
+ *
+ * <p>Callers which remember mapped authorities, like the {@link MemoizingAuthoritiesPopulator},
+ * compare the {@link #getMappingGeneration() mapping generation} to notice changed mappings.</p>
+ *
  * @author Grant Cermak
  * @since 1.1
  * @version $Id$
  */
 public interface ActiveDirectoryAuthoritiesPopulator {
     Collection<GrantedAuthority> getGrantedAuthorities(List<String> sids);
+
+    /**
+     * @param sids the group SIDs of the user
+     * @return by default the authorities of the SIDs in string form
+     */
+    default Collection<GrantedAuthority> getGrantedAuthorities(SidSet sids) {
+        return getGrantedAuthorities(sids.toStringList());
+    }
+
+    /**
+     * Populators which refresh their mappings change it on every refresh, as callers
+     * with remembered authorities don't call {@link #getGrantedAuthorities(SidSet)} anymore.
+     *
+     * @return a number which changes whenever the mappings change, by default 0 for fixed mappings
+     */
+    default long getMappingGeneration() {
+        return 0;
+    }
 }
@@ -16,7 +16,6 @@
 
 package org.springframework.security.extensions.kerberos;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.jaaslounge.decoding.DecodingException;
 import org.jaaslounge.decoding.kerberos.KerberosAuthData;
 import org.jaaslounge.decoding.kerberos.KerberosPacAuthData;
@@ -26,14 +25,20 @@ import org.jaaslounge.decoding.pac.PacSid;
 import org.jaaslounge.decoding.spnego.SpnegoConstants;
 import org.jaaslounge.decoding.spnego.SpnegoInitToken;
 
-import javax.security.auth.Subject;
 import javax.security.auth.kerberos.KerberosKey;
-import java.security.Security;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
 /**
+ * Decrypts the ticket a second time to read the group SIDs out of its PAC.
+ *
+ * <p>The Kerberos mechToken is found with the {@link ApRequestFrame} instead of the
+ * SPNEGO object tree of jaaslounge. A token which the frame doesn't recognize is still parsed
+ * with the <code>SpnegoInitToken</code> of jaaslounge. Decryption of the ticket and the check
+ * of the PAC signature stay with jaaslounge. An {@link ActiveDirectoryTicketValidator} returns the
+ * group SIDs from its own decryption by JGSS and makes this class unnecessary.</p>
+ *
  * @author Grant Cermak
  * @since 1.1
  * @version $Id$
@@ -47,27 +52,34 @@ public class ActiveDirectorySecurityIntegration  {
         List<String> sids = new ArrayList<String>();
 
         try {
-            // Parse the ASN.1 byte stream into the SpengoInitToken, of which we need to get at the mechanism token
+            // Find the Kerberos mechanism token in the SPNEGO token without building the ASN.1 objects
             // http://msdn.microsoft.com/en-us/library/ms995330.aspx
-            SpnegoInitToken spnegoToken = new SpnegoInitToken(token);
-            String mechanism = spnegoToken.getMechanism();
+            ApRequestFrame frame = ApRequestFrame.parse(token);
+            byte[] mechanismToken;
+            String mechanism = SpnegoConstants.KERBEROS_MECHANISM;
+            if (frame != null) {
+                mechanismToken = Arrays.copyOfRange(token, frame.getMechTokenOffset(),
+                        frame.getMechTokenOffset() + frame.getMechTokenLength());
+            } else {
+                // not framed, parse the ASN.1 byte stream into the SpnegoInitToken as before
+                SpnegoInitToken spnegoToken = new SpnegoInitToken(token);
+                mechanism = spnegoToken.getMechanism();
+                mechanismToken = spnegoToken.getMechanismToken();
+            }
 
             // If the mechanism token is the Microsoft Kerberos Oid or the MIT Kerberos v5 Oid then we proceed
             if (SpnegoConstants.KERBEROS_MECHANISM.equals(mechanism)
                     || SpnegoConstants.LEGACY_KERBEROS_MECHANISM.equals(mechanism)) {
 
                 if (ticketValidator instanceof SunJaasKerberosTicketValidator) {
-                    byte[] mechanismToken = spnegoToken.getMechanismToken();
 
-                    // subject is based on the keytab configured in the ticketValidator
-                    Subject subject = ((SunJaasKerberosTicketValidator) ticketValidator).getServiceSubject();
-
-                    // creds are the Kerberos decryption keys available to the subject bound to the keytab file
-                    Set<KerberosKey> creds = subject.getPrivateCredentials(KerberosKey.class);
-                    KerberosKey[] keys = creds.toArray(new KerberosKey[creds.size()]);
+                    // the Kerberos decryption keys of the keytab configured in the ticketValidator,
+                    // published by its last (possibly renewed) login
+                    KerberosKey[] keys = ((SunJaasKerberosTicketValidator) ticketValidator).getServiceKeys();
 
                     // decrypt the Kerberos ticket encrypted for the server (this is the magic/expensive step!)
-                    Security.addProvider(new BouncyCastleProvider());
+                    // the providers are registered once, not per request
+                    KerberosCrypto.bootstrap();
                     KerberosToken kerberosToken = new KerberosToken(mechanismToken, keys);
 
                     // the authorization data bound in the kerberos ticket has the PAC (Privileged Attribute Certificate)
@@ -82,18 +94,19 @@ public class ActiveDirectorySecurityIntegration  {
                         // we've got the PAC so crack it open and collect up all the SIDs
                         // a SID is a unique identifier in Active Directory that has the form
                         // S-1-5-21-185937884-2362668773-3192785854-1139
-                        // PacUtility.binarySidToStringSid converts the string representation of the
-                        // byte data into the more readable/familiar form
+                        // PacUtility.appendStringSid converts the binary SID straight into the more
+                        // readable/familiar form, one builder is reused for all SIDs of the PAC
                         PacLogonInfo logonInfo = ((KerberosPacAuthData) authorization).getPac().getLogonInfo();
+                        StringBuilder sid = new StringBuilder(64);
 
                         if (logonInfo.getGroupSid() != null)
-                            sids.add(PacUtility.binarySidToStringSid(logonInfo.getGroupSid().toString()));
+                            addSid(logonInfo.getGroupSid(), sid, sids);
                         for (PacSid pacSid : logonInfo.getGroupSids())
-                            sids.add(PacUtility.binarySidToStringSid(pacSid.toString()));
+                            addSid(pacSid, sid, sids);
                         for (PacSid pacSid : logonInfo.getExtraSids())
-                            sids.add(PacUtility.binarySidToStringSid(pacSid.toString()));
+                            addSid(pacSid, sid, sids);
                         for (PacSid pacSid : logonInfo.getResourceGroupSids())
-                            sids.add(PacUtility.binarySidToStringSid(pacSid.toString()));
+                            addSid(pacSid, sid, sids);
                     }
                 }
             }
@@ -106,6 +119,11 @@ public class ActiveDirectorySecurityIntegration  {
         return sids;
     }
 
+    private static void addSid(PacSid pacSid, StringBuilder sid, List<String> sids) {
+        sid.setLength(0);
+        sids.add(PacUtility.appendStringSid(pacSid.getBytes(), 0, sid).toString());
+    }
+
     public void setTicketValidator(KerberosTicketValidator ticketValidator) {
         this.ticketValidator = ticketValidator;
     }
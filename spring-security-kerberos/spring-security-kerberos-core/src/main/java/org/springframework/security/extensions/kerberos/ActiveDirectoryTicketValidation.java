@@ -0,0 +1,66 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of an {@link ActiveDirectoryTicketValidator}: the authenticated principal together
+ * with the group SIDs read from the PAC of the very same ticket.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class ActiveDirectoryTicketValidation {
+
+    private final String username;
+    private final List<String> groupSids;
+    private final String servicePrincipal;
+
+    public ActiveDirectoryTicketValidation(String username, List<String> groupSids) {
+        this(username, groupSids, null);
+    }
+
+    public ActiveDirectoryTicketValidation(String username, List<String> groupSids, String servicePrincipal) {
+        this.username = username;
+        this.groupSids = Collections.unmodifiableList(groupSids);
+        this.servicePrincipal = servicePrincipal;
+    }
+
+    /**
+     * @return the authenticated kerberos principal
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return the group SIDs from the PAC, empty if the ticket did not contain a PAC
+     */
+    public List<String> getGroupSids() {
+        return groupSids;
+    }
+
+    /**
+     * @return the service principal whose key accepted the ticket, null if the validator doesn't tell
+     */
+    public String getServicePrincipal() {
+        return servicePrincipal;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import org.springframework.security.authentication.BadCredentialsException;
+
+/**
+ * A {@link KerberosTicketValidator} which is also able to return the group SIDs
+ * from the PAC of the ticket it validated. The ticket is only decrypted once, so
+ * {@link ActiveDirectoryAuthenticationProvider} prefers this over
+ * {@link ActiveDirectorySecurityIntegration#getUserGroupSids(byte[])}.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ * @see ActiveDirectoryAuthenticationProvider
+ */
+public interface ActiveDirectoryTicketValidator extends KerberosTicketValidator {
+
+    /** Validates a Kerberos/SPNEGO ticket and extracts the group SIDs of the user.
+     * @param token Kerberos/SPNEGO ticket
+     * @return authenticated kerberos principal and its group SIDs
+     * @throws BadCredentialsException if the ticket is not valid
+     */
+    public ActiveDirectoryTicketValidation validateTicketAndGroupSids(byte[] token) throws BadCredentialsException;
+
+    /** Validates a Kerberos/SPNEGO ticket presented by a known client, which makes a
+     * {@link ValidatedTicketCache} usable.
+     * @param token Kerberos/SPNEGO ticket
+     * @param client the client which presented the token, e.g. the details of the
+     *        authentication request, null if unknown
+     * @return authenticated kerberos principal and its group SIDs
+     * @throws BadCredentialsException if the ticket is not valid
+     */
+    public ActiveDirectoryTicketValidation validateTicketAndGroupSids(byte[] token, Object client)
+            throws BadCredentialsException;
+
+    /** Validates a Kerberos/SPNEGO ticket presented by a known client, like
+     * {@link #validateTicket(byte[])}. The PAC is only read if the validation goes into
+     * a {@link ValidatedTicketCache}, so the group SIDs may be empty.
+     * @param token Kerberos/SPNEGO ticket
+     * @param client the client which presented the token, null if unknown
+     * @return authenticated kerberos principal and the accepting service principal
+     * @throws BadCredentialsException if the ticket is not valid
+     */
+    public ActiveDirectoryTicketValidation validateTicket(byte[] token, Object client) throws BadCredentialsException;
+
+}
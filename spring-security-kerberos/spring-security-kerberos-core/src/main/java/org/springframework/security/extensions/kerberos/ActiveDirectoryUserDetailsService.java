@@ -16,10 +16,15 @@
 
 package org.springframework.security.extensions.kerberos;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -34,15 +39,73 @@ public class ActiveDirectoryUserDetailsService {
 
     protected byte[] token;
 
+    /**
+     * @deprecated the token is shared between all callers of this bean, use
+     * {@link #loadUser(String, byte[])} instead
+     */
+    @Deprecated
     public void setToken(byte[] token) {
         this.token = token;
     }
 
+    /**
+     * @deprecated relies on {@link #setToken(byte[])} and is therefore not thread safe,
+     * use {@link #loadUser(String, byte[])} instead
+     */
+    @Deprecated
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        return loadUser(username, token);
+    }
+
+    /**
+     * Loads the user and its authorities from the group SIDs in the PAC of the given ticket.
+     * Doesn't touch any shared state, so a single instance can serve concurrent requests.
+     *
+     * @param username the authenticated kerberos principal
+     * @param token the Kerberos/SPNEGO ticket of the current request
+     */
+    public UserDetails loadUser(String username, byte[] token) throws UsernameNotFoundException {
         List<String> groupSids = securityIntegration.getUserGroupSids(token);
 
-        return new User(username, new String(token), true, true,
-            true, true, authoritiesPopulator.getGrantedAuthorities(groupSids));
+        return loadUser(username, groupSids);
+    }
+
+    /**
+     * Loads the user with group SIDs which were already extracted from the ticket,
+     * e.g. by an {@link ActiveDirectoryTicketValidator}, so the ticket doesn't need
+     * to be decrypted again.
+     *
+     * @param username the authenticated kerberos principal
+     * @param groupSids the group SIDs from the PAC
+     */
+    public UserDetails loadUser(String username, List<String> groupSids) throws UsernameNotFoundException {
+        // Kerberos users have no password, and the token must not end up in the session twice
+        return new User(username, "", true, true,
+            true, true, getGrantedAuthorities(groupSids));
+    }
+
+    private Collection<GrantedAuthority> getGrantedAuthorities(List<String> groupSids) {
+        SidSet sids;
+        try {
+            sids = SidSet.valueOf(groupSids);
+        } catch (IllegalArgumentException e) {
+            // e.g. a SID without sub authority, which can't be mapped anyway
+            sids = SidSet.valueOf(mappableSids(groupSids));
+        }
+        return authoritiesPopulator.getGrantedAuthorities(sids);
+    }
+
+    private static List<String> mappableSids(List<String> groupSids) {
+        List<String> mappable = new ArrayList<String>(groupSids.size());
+        for (String sid : groupSids) {
+            try {
+                Sid.valueOf(sid);
+                mappable.add(sid);
+            } catch (IllegalArgumentException e) {
+                LOG.debug("Ignoring group SID " + sid + ": " + e.getMessage());
+            }
+        }
+        return mappable;
     }
 
     public void setSecurityIntegration(ActiveDirectorySecurityIntegration securityIntegration) {
@@ -52,4 +115,6 @@ public class ActiveDirectoryUserDetailsService {
     public void setAuthoritiesPopulator(ActiveDirectoryAuthoritiesPopulator authoritiesPopulator) {
         this.authoritiesPopulator = authoritiesPopulator;
     }
+
+    private static final Log LOG = LogFactory.getLog(ActiveDirectoryUserDetailsService.class);
 }
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+/**
+ * Locates the parts of the Kerberos AP-REQ inside a SPNEGO or Kerberos GSS token without
+ * decrypting or copying anything. All positions are offsets into the original token.
+ *
+ * <p>Accepted framings are the SPNEGO <code>NegTokenInit</code>, the Kerberos GSS token
+ * (RFC 1964) and the bare AP-REQ.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public final class ApRequestFrame {
+
+    // 1.3.6.1.5.5.2
+    private static final byte[] SPNEGO_OID = { 0x2b, 0x06, 0x01, 0x05, 0x05, 0x02 };
+    // 1.2.840.113554.1.2.2
+    private static final byte[] KERBEROS_OID = { 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x12, 0x01, 0x02, 0x02 };
+    // 1.2.840.48018.1.2.2, used by older Windows clients
+    private static final byte[] LEGACY_KERBEROS_OID = { 0x2a, (byte) 0x86, 0x48, (byte) 0x82, (byte) 0xf7, 0x12, 0x01, 0x02, 0x02 };
+
+    private final byte[] token;
+    private int mechTokenOffset;
+    private int mechTokenLength;
+    private int realmOffset;
+    private int realmLength;
+    private int serverNameOffset;
+    private int serverNameLength;
+    private int ticketEncryptionType;
+    private int ticketKvno = -1;
+    private int ticketCipherOffset;
+    private int ticketCipherLength;
+    private int authenticatorCipherOffset;
+    private int authenticatorCipherLength;
+
+    private ApRequestFrame(byte[] token) {
+        this.token = token;
+    }
+
+    /**
+     * @param token SPNEGO or Kerberos token as sent by the client
+     * @return the frame, or null if the token doesn't contain an AP-REQ
+     */
+    public static ApRequestFrame parse(byte[] token) {
+        if (token == null || token.length == 0) {
+            return null;
+        }
+        try {
+            ApRequestFrame frame = new ApRequestFrame(token);
+            DerReader der = new DerReader(token, 0, token.length);
+            frame.mechTokenLength = token.length;
+            if (der.peekTag() == 0x60) {
+                der.enter(0x60);
+                if (der.nextOidEquals(SPNEGO_OID)) {
+                    int mechTokenEnd = enterMechToken(der);
+                    frame.mechTokenOffset = der.position();
+                    frame.mechTokenLength = mechTokenEnd - frame.mechTokenOffset;
+                    der.enter(0x60);
+                }
+                if (!der.nextOidEquals(KERBEROS_OID) && !der.nextOidEquals(LEGACY_KERBEROS_OID)) {
+                    return null;
+                }
+                // TOK_ID of an AP-REQ
+                if (token.length < der.position() + 2 || token[der.position()] != 0x01 || token[der.position() + 1] != 0x00) {
+                    return null;
+                }
+                der.position(der.position() + 2);
+            }
+            frame.readApRequest(der);
+            return frame;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Positions the reader at the content of the mechToken of a NegTokenInit.
+     *
+     * @return the end of the mechToken
+     */
+    private static int enterMechToken(DerReader der) {
+        der.enter(0xa0);
+        int end = der.enter(0x30);
+        while (der.hasMore(end)) {
+            if (der.peekTag() == 0xa2) {
+                der.enter(0xa2);
+                return der.enter(0x04);
+            }
+            der.skip();
+        }
+        throw new IllegalArgumentException("NegTokenInit without mechToken");
+    }
+
+    private void readApRequest(DerReader der) {
+        der.enter(0x6e);
+        der.enter(0x30);
+        der.enter(0xa0);
+        der.readInteger(); // pvno
+        der.enter(0xa1);
+        if (der.readInteger() != 14) {
+            throw new IllegalArgumentException("Not an AP-REQ");
+        }
+        der.enter(0xa2);
+        der.skip(); // ap-options
+
+        // Ticket ::= [APPLICATION 1] SEQUENCE { tkt-vno, realm, sname, enc-part }
+        der.enter(0xa3);
+        der.enter(0x61);
+        der.enter(0x30);
+        der.enter(0xa0);
+        der.skip();
+        der.enter(0xa1);
+        int realmEnd = der.enter(0x1b);
+        realmOffset = der.position();
+        realmLength = realmEnd - realmOffset;
+        der.position(realmEnd);
+        der.enter(0xa2);
+        int serverNameEnd = der.enter(0x30);
+        serverNameOffset = der.position();
+        serverNameLength = serverNameEnd - serverNameOffset;
+        readServerName(serverNameOffset, serverNameLength, null);
+        der.position(serverNameEnd);
+        der.enter(0xa3);
+        // EncryptedData ::= SEQUENCE { etype [0] Int32, kvno [1] UInt32 OPTIONAL, cipher [2] OCTET STRING }
+        der.enter(0x30);
+        der.enter(0xa0);
+        ticketEncryptionType = der.readInteger();
+        if (der.peekTag() == 0xa1) {
+            der.enter(0xa1);
+            ticketKvno = der.readInteger();
+        }
+        int ticketCipherEnd = enterCipher(der);
+        ticketCipherOffset = der.position();
+        ticketCipherLength = ticketCipherEnd - ticketCipherOffset;
+        der.position(ticketCipherEnd);
+
+        der.enter(0xa4);
+        der.enter(0x30);
+        der.enter(0xa0);
+        der.readInteger();
+        if (der.peekTag() == 0xa1) {
+            der.enter(0xa1);
+            der.skip();
+        }
+        int authenticatorCipherEnd = enterCipher(der);
+        authenticatorCipherOffset = der.position();
+        authenticatorCipherLength = authenticatorCipherEnd - authenticatorCipherOffset;
+    }
+
+    /**
+     * Walks a PrincipalName ::= SEQUENCE { name-type [0] Int32, name-string [1] SEQUENCE OF KerberosString }
+     * and appends the components separated by '/', or only validates it if name is null.
+     */
+    private void readServerName(int offset, int length, StringBuilder name) {
+        DerReader der = new DerReader(token, offset, length);
+        der.enter(0xa0);
+        der.readInteger(); // name-type
+        der.enter(0xa1);
+        int end = der.enter(0x30);
+        boolean first = true;
+        while (der.hasMore(end)) {
+            int componentEnd = der.enter(0x1b);
+            if (name != null) {
+                if (!first) {
+                    name.append('/');
+                }
+                appendString(der.position(), componentEnd, name);
+            }
+            first = false;
+            der.position(componentEnd);
+        }
+        if (first) {
+            throw new IllegalArgumentException("Ticket without server name");
+        }
+    }
+
+    private void appendString(int start, int end, StringBuilder out) {
+        // KerberosString is IA5 in practice
+        for (int i = start; i < end; i++) {
+            out.append((char) (token[i] & 0xff));
+        }
+    }
+
+    private static int enterCipher(DerReader der) {
+        der.enter(0xa2);
+        return der.enter(0x04);
+    }
+
+    /**
+     * @return the token this frame points into
+     */
+    public byte[] getToken() {
+        return token;
+    }
+
+    /**
+     * The Kerberos GSS token inside the SPNEGO token, or the whole token if the client
+     * didn't wrap it in SPNEGO.
+     */
+    public int getMechTokenOffset() {
+        return mechTokenOffset;
+    }
+
+    public int getMechTokenLength() {
+        return mechTokenLength;
+    }
+
+    /**
+     * @return the realm of the service the ticket was issued for, e.g. <code>CORP.EXAMPLE.COM</code>
+     */
+    public String getTicketRealm() {
+        StringBuilder realm = new StringBuilder(realmLength);
+        appendString(realmOffset, realmOffset + realmLength, realm);
+        return realm.toString();
+    }
+
+    /**
+     * @return the service name the ticket was issued for without realm, e.g. <code>HTTP/app1.example.com</code>
+     */
+    public String getTicketServerName() {
+        StringBuilder name = new StringBuilder(serverNameLength);
+        readServerName(serverNameOffset, serverNameLength, name);
+        return name.toString();
+    }
+
+    /**
+     * The service principal the client asked for. It travels in the clear and is not
+     * integrity protected, so it only tells which key to try, decrypting the ticket
+     * is what proves it.
+     *
+     * @return e.g. <code>HTTP/app1.example.com@CORP.EXAMPLE.COM</code>
+     */
+    public String getServicePrincipal() {
+        StringBuilder principal = new StringBuilder(serverNameLength + realmLength + 1);
+        readServerName(serverNameOffset, serverNameLength, principal);
+        principal.append('@');
+        appendString(realmOffset, realmOffset + realmLength, principal);
+        return principal.toString();
+    }
+
+    /**
+     * @return the encryption type of the ticket, e.g. 18 for aes256-cts-hmac-sha1-96
+     */
+    public int getTicketEncryptionType() {
+        return ticketEncryptionType;
+    }
+
+    /**
+     * @return the version of the service key the ticket is encrypted with, -1 if the client didn't send it
+     */
+    public int getTicketKvno() {
+        return ticketKvno;
+    }
+
+    public int getTicketCipherOffset() {
+        return ticketCipherOffset;
+    }
+
+    public int getTicketCipherLength() {
+        return ticketCipherLength;
+    }
+
+    /**
+     * The encrypted authenticator is unique for every AP-REQ the client creates.
+     */
+    public int getAuthenticatorCipherOffset() {
+        return authenticatorCipherOffset;
+    }
+
+    public int getAuthenticatorCipherLength() {
+        return authenticatorCipherLength;
+    }
+}
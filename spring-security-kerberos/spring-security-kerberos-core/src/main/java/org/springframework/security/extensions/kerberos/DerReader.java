@@ -0,0 +1,124 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+/**
+ * Minimal DER cursor which works on offsets into the original byte array, so walking
+ * down to a nested element doesn't copy anything. Only definite lengths are supported,
+ * which is all Kerberos and SPNEGO use.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+final class DerReader {
+
+    private final byte[] data;
+    private final int limit;
+    private int pos;
+
+    DerReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    void position(int pos) {
+        this.pos = pos;
+    }
+
+    boolean hasMore(int end) {
+        return pos < end;
+    }
+
+    /** @return the tag of the next element without consuming it, or -1 at the end */
+    int peekTag() {
+        return pos < limit ? data[pos] & 0xff : -1;
+    }
+
+    /**
+     * Consumes the tag and length of the next element.
+     *
+     * @return the end offset of the element's content, the cursor is at its start
+     * @throws IllegalArgumentException if the tag doesn't match or the element is truncated
+     */
+    int enter(int tag) {
+        if (pos >= limit || (data[pos] & 0xff) != tag) {
+            throw new IllegalArgumentException("Expected DER tag " + tag + " at offset " + pos);
+        }
+        pos++;
+        return readLength();
+    }
+
+    /** Skips over the next element, whatever its tag is */
+    void skip() {
+        if (pos >= limit) {
+            throw new IllegalArgumentException("Unexpected end of DER data");
+        }
+        pos++;
+        pos = readLength();
+    }
+
+    int readInteger() {
+        int end = enter(0x02);
+        if (end == pos || end - pos > 4) {
+            throw new IllegalArgumentException("Invalid DER integer at offset " + pos);
+        }
+        int value = data[pos++];
+        while (pos < end) {
+            value = value << 8 | data[pos++] & 0xff;
+        }
+        return value;
+    }
+
+    /** @return true if the next element is an OBJECT IDENTIFIER with exactly the given encoded value */
+    boolean nextOidEquals(byte[] encodedOid) {
+        int start = pos;
+        int end = enter(0x06);
+        boolean equal = end - pos == encodedOid.length;
+        for (int i = 0; equal && i < encodedOid.length; i++) {
+            equal = data[pos + i] == encodedOid[i];
+        }
+        pos = equal ? end : start;
+        return equal;
+    }
+
+    private int readLength() {
+        if (pos >= limit) {
+            throw new IllegalArgumentException("Unexpected end of DER data");
+        }
+        int length = data[pos++] & 0xff;
+        if (length > 0x7f) {
+            int octets = length & 0x7f;
+            if (octets == 0 || octets > 3 || pos + octets > limit) {
+                throw new IllegalArgumentException("Unsupported DER length at offset " + pos);
+            }
+            length = 0;
+            for (int i = 0; i < octets; i++) {
+                length = length << 8 | data[pos++] & 0xff;
+            }
+        }
+        if (pos + length > limit) {
+            throw new IllegalArgumentException("Unexpected end of DER data");
+        }
+        return pos + length;
+    }
+}
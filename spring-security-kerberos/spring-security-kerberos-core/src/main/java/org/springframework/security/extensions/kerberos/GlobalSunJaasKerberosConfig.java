@@ -18,6 +18,7 @@ package org.springframework.security.extensions.kerberos;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.util.Assert;
 
 /**
  * @author Mike Wiesner
@@ -28,6 +29,8 @@ public class GlobalSunJaasKerberosConfig implements BeanPostProcessor, Initializ
 
     private boolean debug = false;
     private String krbConfLocation;
+    private Krb5Config krb5Config;
+    private KerberosCrypto.Backend cryptoBackend;
 
     public void afterPropertiesSet() throws Exception {
         if (debug) {
@@ -36,6 +39,13 @@ public class GlobalSunJaasKerberosConfig implements BeanPostProcessor, Initializ
         if (krbConfLocation != null) {
             System.setProperty("java.security.krb5.conf", krbConfLocation);
         }
+        if (krb5Config != null) {
+            Assert.isNull(krbConfLocation, "Either krbConfLocation or krb5Config can be specified");
+            krb5Config.apply();
+        }
+        if (cryptoBackend != null) {
+            KerberosCrypto.install(cryptoBackend);
+        }
 
     }
 
@@ -55,6 +65,28 @@ public class GlobalSunJaasKerberosConfig implements BeanPostProcessor, Initializ
         this.krbConfLocation = krbConfLocation;
     }
 
+    /**
+     * Generates the Kerberos config file instead of reading it from {@link #setKrbConfLocation(String)}.
+     *
+     * @param krb5Config realms, KDCs and timeouts
+     */
+    public void setKrb5Config(Krb5Config krb5Config) {
+        this.krb5Config = krb5Config;
+    }
+
+    /**
+     * Selects the provider which decrypts Kerberos tickets, <code>JDK</code> or
+     * <code>BOUNCY_CASTLE</code>, by reordering the providers of the JVM. Default is to
+     * leave the order alone, the <code>ActiveDirectorySecurityIntegration</code> only adds
+     * Bouncy Castle as last provider if it is missing.
+     *
+     * @param cryptoBackend the backend
+     * @see KerberosCrypto
+     */
+    public void setCryptoBackend(KerberosCrypto.Backend cryptoBackend) {
+        this.cryptoBackend = cryptoBackend;
+    }
+
     /*
      *  The following methods are not used here. This Bean implements only BeanPostProcessor to ensure that it
      *  is created before any other bean is created, because the system properties needed to be set very early
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Measures the latency of the KDCs of a {@link Krb5Config} in the background and lets the
+ * JRE try the fastest one first. KDCs which don't answer are left out until they answer
+ * again, unless no KDC of the realm answers, then the configured order is used.
+ *
+ * <p>A KDC counts as alive if it answers an AS-REQ over TCP, which it does with an error
+ * for the unknown {@link #setProbePrincipal(String) probe principal}. A TCP connect alone
+ * would miss a KDC which accepts connections but hangs. Latencies are compared in whole
+ * milliseconds, KDCs which are about as fast keep their configured order, so the order
+ * doesn't flap.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class KdcHealthProber implements InitializingBean, DisposableBean {
+
+    private static final int KRB_ERROR = 0x7e;
+    private static final int AS_REP = 0x6b;
+
+    private Krb5Config krb5Config;
+    private long probeInterval = 30 * 1000L;
+    private int probeTimeout = 1000;
+    private String probePrincipal = "kdc-health-probe";
+    private ScheduledExecutorService scheduler;
+
+    // KDC to latency in microseconds, -1 if dead
+    private final Map<String, Long> latencies = new ConcurrentHashMap<String, Long>();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong reorders = new AtomicLong();
+    private final Random nonces = new Random();
+    private static final Log LOG = LogFactory.getLog(KdcHealthProber.class);
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(this.krb5Config, "krb5Config must be specified");
+        probe();
+        if (this.probeInterval > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "kerberos-kdc-prober");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        probe();
+                    } catch (Exception e) {
+                        LOG.warn("Probing KDCs failed", e);
+                    }
+                }
+            }, this.probeInterval, this.probeInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Probes all KDCs once and reorders them.
+     */
+    public void probe() throws IOException {
+        for (Map.Entry<String, List<String>> realm : this.krb5Config.getRealms().entrySet()) {
+            List<String> alive = new ArrayList<String>();
+            for (String kdc : realm.getValue()) {
+                long latency = probe(kdc, realm.getKey());
+                this.latencies.put(kdc, latency);
+                if (latency >= 0) {
+                    alive.add(kdc);
+                }
+            }
+            if (alive.isEmpty()) {
+                LOG.warn("No KDC of " + realm.getKey() + " answered, trying all of " + realm.getValue());
+                alive = realm.getValue();
+            } else {
+                // stable, equal latencies keep the configured order
+                Collections.sort(alive, new Comparator<String>() {
+                    public int compare(String kdc1, String kdc2) {
+                        long millis1 = latencies.get(kdc1) / 1000;
+                        long millis2 = latencies.get(kdc2) / 1000;
+                        return millis1 < millis2 ? -1 : (millis1 == millis2 ? 0 : 1);
+                    }
+                });
+            }
+            if (this.krb5Config.setActiveKdcs(realm.getKey(), alive)) {
+                this.reorders.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the latency in microseconds, -1 if the KDC didn't answer
+     */
+    long probe(String kdc, String realm) {
+        this.probes.incrementAndGet();
+        InetSocketAddress address = Krb5Config.parseKdc(kdc);
+        long start = System.nanoTime();
+        Socket socket = new Socket();
+        try {
+            // resolved on every probe, so a changed DNS entry is noticed
+            socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), this.probeTimeout);
+            socket.setSoTimeout(this.probeTimeout);
+            byte[] request = asRequest(realm);
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[] { (byte) (request.length >>> 24), (byte) (request.length >>> 16),
+                    (byte) (request.length >>> 8), (byte) request.length });
+            out.write(request);
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            int length = in.readInt();
+            int tag = in.read();
+            if (length <= 0 || (tag != KRB_ERROR && tag != AS_REP)) {
+                throw new IOException("No Kerberos reply");
+            }
+            return (System.nanoTime() - start) / 1000;
+        } catch (IOException e) {
+            this.failures.incrementAndGet();
+            LOG.debug("KDC " + kdc + " didn't answer: " + e);
+            return -1;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * AS-REQ for a ticket granting ticket of the probe principal, without pre-authentication.
+     */
+    private byte[] asRequest(String realm) throws IOException {
+        SimpleDateFormat kerberosTime = new SimpleDateFormat("yyyyMMddHHmmss'Z'", Locale.ENGLISH);
+        kerberosTime.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String till = kerberosTime.format(new Date(System.currentTimeMillis() + 60 * 60 * 1000L));
+        int nonce;
+        synchronized (this.nonces) {
+            nonce = this.nonces.nextInt() & 0x7fffffff;
+        }
+        byte[] body = der(0x30, concat(
+                der(0xa0, der(0x03, new byte[] { 0, 0, 0, 0, 0 })),
+                der(0xa1, principalName(1, this.probePrincipal)),
+                der(0xa2, der(0x1b, realm.getBytes("UTF-8"))),
+                der(0xa3, principalName(2, "krbtgt", realm)),
+                der(0xa5, der(0x18, till.getBytes("US-ASCII"))),
+                der(0xa7, integer(nonce)),
+                // aes256-cts-hmac-sha1-96, aes128-cts-hmac-sha1-96, rc4-hmac
+                der(0xa8, der(0x30, concat(integer(18), integer(17), integer(23))))));
+        return der(0x6a, der(0x30, concat(der(0xa1, integer(5)), der(0xa2, integer(10)), der(0xa4, body))));
+    }
+
+    private static byte[] principalName(int type, String... names) throws IOException {
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        for (String name : names) {
+            strings.write(der(0x1b, name.getBytes("UTF-8")));
+        }
+        return der(0x30, concat(der(0xa0, integer(type)), der(0xa1, der(0x30, strings.toByteArray()))));
+    }
+
+    private static byte[] integer(int value) {
+        if (value < 0x80) {
+            return der(0x02, new byte[] { (byte) value });
+        }
+        if (value < 0x8000) {
+            return der(0x02, new byte[] { (byte) (value >>> 8), (byte) value });
+        }
+        if (value < 0x800000) {
+            return der(0x02, new byte[] { (byte) (value >>> 16), (byte) (value >>> 8), (byte) value });
+        }
+        return der(0x02, new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8),
+                (byte) value });
+    }
+
+    private static byte[] der(int tag, byte[] content) {
+        int length = content.length;
+        int lengthBytes = length < 0x80 ? 0 : (length < 0x100 ? 1 : 2);
+        byte[] der = new byte[2 + lengthBytes + length];
+        der[0] = (byte) tag;
+        if (lengthBytes == 0) {
+            der[1] = (byte) length;
+        } else {
+            der[1] = (byte) (0x80 | lengthBytes);
+            for (int i = 0; i < lengthBytes; i++) {
+                der[2 + i] = (byte) (length >>> (8 * (lengthBytes - 1 - i)));
+            }
+        }
+        System.arraycopy(content, 0, der, 2 + lengthBytes, length);
+        return der;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param krb5Config the configuration with the KDCs to probe and reorder
+     */
+    public void setKrb5Config(Krb5Config krb5Config) {
+        this.krb5Config = krb5Config;
+    }
+
+    /**
+     * @param probeInterval milliseconds between probes, default is 30 seconds, 0 probes only
+     *        once on startup
+     */
+    public void setProbeInterval(long probeInterval) {
+        Assert.isTrue(probeInterval >= 0, "probeInterval must not be negative");
+        this.probeInterval = probeInterval;
+    }
+
+    /**
+     * @param probeTimeout milliseconds a KDC has to answer, default is 1000
+     */
+    public void setProbeTimeout(int probeTimeout) {
+        Assert.isTrue(probeTimeout > 0, "probeTimeout must be positive");
+        this.probeTimeout = probeTimeout;
+    }
+
+    /**
+     * The KDC answers the probe with an error for an unknown principal, which Active
+     * Directory may audit as a failed logon. Use an existing account to avoid that, the KDC
+     * then asks for pre-authentication.
+     *
+     * @param probePrincipal the client of the probe requests, default is
+     *        <code>kdc-health-probe</code>
+     */
+    public void setProbePrincipal(String probePrincipal) {
+        Assert.hasText(probePrincipal, "probePrincipal must not be empty");
+        this.probePrincipal = probePrincipal;
+    }
+
+    /**
+     * @return the latency of each KDC in microseconds from the last probe, -1 if it didn't answer
+     */
+    public Map<String, Long> getLatencies() {
+        return Collections.unmodifiableMap(this.latencies);
+    }
+
+    /**
+     * @return number of probes sent
+     */
+    public long getProbes() {
+        return probes.get();
+    }
+
+    /**
+     * @return number of probes without answer
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return number of times the order of the KDCs of a realm changed
+     */
+    public long getReorders() {
+        return reorders.get();
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.security.Provider;
+import java.security.Security;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.springframework.util.Assert;
+
+/**
+ * Registers the Bouncy Castle provider once per JVM and selects which provider decrypts
+ * tickets. The Kerberos implementation of the JRE and jaaslounge ask for their ciphers and
+ * MACs without naming a provider, so the first registered provider supporting an algorithm
+ * does the work. That makes the order of the providers the backend.
+ *
+ * <p>Only an explicitly {@link #install(Backend) installed} backend reorders the providers,
+ * usually set on the {@link GlobalSunJaasKerberosConfig}. {@link ActiveDirectorySecurityIntegration}
+ * only {@link #bootstrap() bootstraps} Bouncy Castle, which never moves providers the
+ * application registered.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public final class KerberosCrypto {
+
+    public enum Backend {
+        /**
+         * The JRE providers come first, with the AES and SHA-1 intrinsics of the JIT. Bouncy
+         * Castle is registered last, for algorithms only it supports.
+         */
+        JDK,
+        /**
+         * Bouncy Castle comes first and decrypts all tickets.
+         */
+        BOUNCY_CASTLE
+    }
+
+    private static final Log LOG = LogFactory.getLog(KerberosCrypto.class);
+    private static volatile Backend backend;
+    private static volatile boolean bootstrapped;
+
+    private KerberosCrypto() {
+    }
+
+    /**
+     * Registers and orders the providers for the backend, does nothing if it is already
+     * installed. Affects the whole JVM, a provider which loses its place is logged.
+     */
+    public static synchronized void install(Backend backend) {
+        Assert.notNull(backend, "backend must not be null");
+        if (backend == KerberosCrypto.backend) {
+            return;
+        }
+        Provider registered = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+        Provider first = Security.getProviders()[0];
+        if (backend == Backend.BOUNCY_CASTLE) {
+            if (registered == null || first != registered) {
+                LOG.warn((registered == null ? "Registering" : "Moving") + " the Bouncy Castle provider in front of "
+                        + first.getName() + " for the " + backend + " backend");
+                Security.removeProvider(BouncyCastleProvider.PROVIDER_NAME);
+                Security.insertProviderAt(registered == null ? new BouncyCastleProvider() : registered, 1);
+            }
+        } else {
+            if (registered == null) {
+                Security.addProvider(new BouncyCastleProvider());
+            } else if (first == registered) {
+                // registered by someone else, or by a former BOUNCY_CASTLE backend
+                LOG.warn("Moving the Bouncy Castle provider behind the JRE providers for the " + backend
+                        + " backend");
+                Security.removeProvider(BouncyCastleProvider.PROVIDER_NAME);
+                Security.addProvider(registered);
+            }
+        }
+        LOG.info("Kerberos tickets are decrypted by the " + backend + " backend");
+        KerberosCrypto.backend = backend;
+        bootstrapped = true;
+    }
+
+    /**
+     * Registers Bouncy Castle as last provider if it isn't registered yet. Never changes the
+     * order of registered providers. Cheap after the first call.
+     */
+    public static void bootstrap() {
+        if (!bootstrapped) {
+            synchronized (KerberosCrypto.class) {
+                if (!bootstrapped) {
+                    if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+                        Security.addProvider(new BouncyCastleProvider());
+                    }
+                    bootstrapped = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the installed backend, null if none was installed explicitly
+     */
+    public static Backend getBackend() {
+        return backend;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.springframework.util.Assert;
+
+/**
+ * Bounded cache of successful logins for {@link SunJaasKerberosClient}. Applications which
+ * send the credentials with every request, e.g. with basic authentication, would otherwise
+ * do an AS exchange with the KDC for each of them. A cached login costs one local password
+ * hash instead.
+ *
+ * <p>The password is not stored, only a PBKDF2 hash with a random salt per entry. A
+ * different password for the same user is a miss and goes to the KDC, a failed login
+ * removes the entry of the user. Entries expire after {@link #setTimeToLive(long)
+ * timeToLive}, but never later than the ticket granting ticket of the login. A changed
+ * or disabled password is still accepted until then.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ * @see SunJaasKerberosClient#setLoginCache(KerberosLoginCache)
+ */
+public class KerberosLoginCache {
+
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 256;
+
+    private int maxEntries = 1000;
+    private long timeToLive = 5 * 60 * 1000L;
+    private String algorithm = "PBKDF2WithHmacSHA256";
+    private int iterations = 1000;
+
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final Map<String, CachedLogin> entries = new LinkedHashMap<String, CachedLogin>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedLogin> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * @return the validated username of a cached login with the same password or null
+     */
+    public String get(String username, String password) {
+        CachedLogin entry;
+        synchronized (entries) {
+            entry = entries.get(username);
+            if (entry != null && entry.expires <= System.currentTimeMillis()) {
+                entries.remove(username);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null || !MessageDigest.isEqual(entry.hash, hash(password, entry.salt))) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.validatedUsername;
+    }
+
+    /**
+     * @param username as entered by the user
+     * @param password the password which was accepted by the KDC
+     * @param validatedUsername the principal returned by the login
+     * @param ticketLifetime remaining lifetime of the ticket granting ticket in milliseconds
+     */
+    public void put(String username, String password, String validatedUsername, long ticketLifetime) {
+        long lifetime = Math.min(timeToLive, ticketLifetime);
+        if (lifetime <= 0) {
+            return;
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        CachedLogin entry = new CachedLogin(salt, hash(password, salt), validatedUsername,
+                System.currentTimeMillis() + lifetime);
+        synchronized (entries) {
+            entries.put(username, entry);
+        }
+    }
+
+    /**
+     * Removes the login of a user, called after a failed login.
+     */
+    public void remove(String username) {
+        synchronized (entries) {
+            if (entries.remove(username) != null) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /** Removes all entries */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** @return number of entries removed because the cache was full */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** @return number of entries removed because their lifetime was over */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    /** @return number of entries removed after a failed login */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /** @return hits / (hits + misses), 0 if the cache was never used */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Maximum number of cached logins, the least recently used are evicted first.
+     * @param maxEntries default is 1000
+     */
+    public void setMaxEntries(int maxEntries) {
+        Assert.isTrue(maxEntries > 0, "maxEntries must be positive");
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * How long a login is cached, at most as long as its ticket granting ticket is valid.
+     * @param timeToLive in milliseconds, default is 5 minutes
+     */
+    public void setTimeToLive(long timeToLive) {
+        Assert.isTrue(timeToLive > 0, "timeToLive must be positive");
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @param algorithm the <code>SecretKeyFactory</code> for the password hashes, default is
+     *        <code>PBKDF2WithHmacSHA256</code>
+     */
+    public void setAlgorithm(String algorithm) {
+        Assert.hasText(algorithm, "algorithm must not be empty");
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Iterations of the password hash, every lookup costs one hash. More iterations make
+     * a memory dump of the cache harder to brute force.
+     * @param iterations default is 1000
+     */
+    public void setIterations(int iterations) {
+        Assert.isTrue(iterations > 0, "iterations must be positive");
+        this.iterations = iterations;
+    }
+
+    private byte[] hash(String password, byte[] salt) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(algorithm + " not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static class CachedLogin {
+        final byte[] salt;
+        final byte[] hash;
+        final String validatedUsername;
+        final long expires;
+
+        CachedLogin(byte[] salt, byte[] hash, String validatedUsername, long expires) {
+            this.salt = salt;
+            this.hash = hash;
+            this.validatedUsername = validatedUsername;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+/**
+ * Receives timings and counts from the SPNEGO authentication chain: the
+ * {@link org.springframework.security.extensions.kerberos.web.SpnegoAuthenticationProcessingFilter filter},
+ * the authentication providers and the ticket validators. Implement it to feed a metrics
+ * library, or use {@link SimpleKerberosMetrics}. The default everywhere is
+ * {@link NoOpKerberosMetrics}.
+ *
+ * <p>The methods are called on the request threads for every authentication, so they must be
+ * thread safe and should neither block nor allocate. Stages and failure causes are enums, so an
+ * implementation can register its meters up front and look them up by ordinal.</p>
+ *
+ * <p>Every outcome is recorded once, by the component which decides it: the filter records
+ * headers it can't decode, which are too large, contain no Kerberos token or failed
+ * shortly before, the validators rejected tickets and PACs, the providers unknown or locked
+ * users and successful authentications. Give all components the same instance.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public interface KerberosMetrics {
+
+    /**
+     * The timed parts of an authentication.
+     */
+    enum Stage {
+        /** Base64 decoding of the Negotiate header, in the filter */
+        HEADER_DECODE,
+        /** the whole call of the authentication manager, in the filter */
+        AUTHENTICATION,
+        /** checking an authentication cookie which was accepted, in the filter */
+        AUTHENTICATION_COOKIE,
+        /** waiting for a permit of the filter's bulkhead before the authentication */
+        BULKHEAD_WAIT,
+        /** decryption and validation of the ticket by the GSS acceptor */
+        GSS_ACCEPT,
+        /** reading the PAC and its group SIDs from the accepted ticket */
+        PAC_DECODE,
+        /** loading the user and mapping its authorities, in the providers */
+        USER_DETAILS
+    }
+
+    /**
+     * Why an authentication failed.
+     */
+    enum Failure {
+        /** the Negotiate header isn't valid Base64 */
+        MALFORMED_HEADER,
+        /** the token in the Negotiate header exceeds the maximum size of the filter */
+        TOKEN_TOO_LARGE,
+        /** the token is an NTLM message, the client couldn't get a Kerberos ticket */
+        NTLM_TOKEN,
+        /** the token doesn't contain a Kerberos AP-REQ */
+        MALFORMED_TOKEN,
+        /** the bulkhead of the filter had no permit, the request was answered with a 503 */
+        OVERLOADED,
+        /** the same token failed shortly before and was rejected from the filter's failed token cache */
+        KNOWN_BAD_TOKEN,
+        /** the ticket was issued for a service principal without keys */
+        UNKNOWN_SERVICE_PRINCIPAL,
+        /** the GSS acceptor rejected the ticket, e.g. wrong key, expired or replayed */
+        TICKET_REJECTED,
+        /** the PAC of the ticket couldn't be decoded */
+        PAC_INVALID,
+        /** the user details service doesn't know the user */
+        USER_NOT_FOUND,
+        /** the user is disabled, locked or expired */
+        ACCOUNT_STATUS
+    }
+
+    /**
+     * @param nanos duration measured with {@link System#nanoTime()}
+     */
+    void recordTime(Stage stage, long nanos);
+
+    void recordSuccess();
+
+    void recordFailure(Failure cause);
+
+    /**
+     * @param bytes size of the decoded SPNEGO token
+     */
+    void recordTokenSize(int bytes);
+
+    /**
+     * @param count number of group SIDs in the PAC of an accepted ticket
+     */
+    void recordGroupSids(int count);
+}
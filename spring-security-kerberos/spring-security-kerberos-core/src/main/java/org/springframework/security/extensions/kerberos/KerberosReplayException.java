@@ -0,0 +1,41 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import org.springframework.security.authentication.BadCredentialsException;
+
+/**
+ * Thrown if a Kerberos authenticator is presented again with another ticket or by
+ * another client than the first time, see {@link ValidatedTicketCache}. The token itself
+ * may be valid for the client it was issued to, so the rejection must not be remembered
+ * for the token.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class KerberosReplayException extends BadCredentialsException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param msg the detail message
+     */
+    public KerberosReplayException(String msg) {
+        super(msg);
+    }
+}
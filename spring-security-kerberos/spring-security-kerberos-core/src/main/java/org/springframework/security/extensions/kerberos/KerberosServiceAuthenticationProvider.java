@@ -19,6 +19,7 @@ package org.springframework.security.extensions.kerberos;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.authentication.AccountStatusException;
 import org.springframework.security.authentication.AccountStatusUserDetailsChecker;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.core.Authentication;
@@ -26,6 +27,7 @@ import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsChecker;
 import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.extensions.kerberos.web.SpnegoAuthenticationProcessingFilter;
 import org.springframework.util.Assert;
 
@@ -58,6 +60,8 @@ public class KerberosServiceAuthenticationProvider implements
     private KerberosTicketValidator ticketValidator;
     private UserDetailsService userDetailsService;
     private UserDetailsChecker userDetailsChecker = new AccountStatusUserDetailsChecker();
+    private KerberosMetrics metrics = NoOpKerberosMetrics.INSTANCE;
+    private boolean retainToken = true;
 
 
     /** The <code>UserDetailsService</code> to use, for loading the user properties
@@ -74,6 +78,26 @@ public class KerberosServiceAuthenticationProvider implements
         this.ticketValidator = ticketValidator;
     }
 
+    /** Receives the user details load times, successful authentications and
+     * unknown or locked users.
+     *
+     * @param metrics default is a {@link NoOpKerberosMetrics}
+     */
+    public void setMetrics(KerberosMetrics metrics) {
+        Assert.notNull(metrics, "metrics must not be null");
+        this.metrics = metrics;
+    }
+
+    /** The authenticated token is usually kept in the HTTP session, with the Kerberos
+     * token of 10 to 60 KB if the PAC has many groups. Without it, the authenticated token
+     * holds only a SHA-256 digest and {@link KerberosServiceRequestToken#getToken()} is null.
+     *
+     * @param retainToken default is true
+     */
+    public void setRetainToken(boolean retainToken) {
+        this.retainToken = retainToken;
+    }
+
     /* (non-Javadoc)
      * @see org.springframework.security.authentication.AuthenticationProvider#authenticate(org.springframework.security.core.Authentication)
      */
@@ -83,12 +107,41 @@ public class KerberosServiceAuthenticationProvider implements
         KerberosServiceRequestToken auth = (KerberosServiceRequestToken) authentication;
         byte[] token = auth.getToken();
         LOG.debug("Try to validate Kerberos Token");
-        String username = this.ticketValidator.validateTicket(token);
+        String username;
+        String servicePrincipal = null;
+        if (this.ticketValidator instanceof ActiveDirectoryTicketValidator) {
+            // the details make cached validations usable, the PAC is only read for the cache
+            ActiveDirectoryTicketValidation validation = ((ActiveDirectoryTicketValidator) this.ticketValidator)
+                    .validateTicket(token, auth.getDetails());
+            username = validation.getUsername();
+            servicePrincipal = validation.getServicePrincipal();
+        } else {
+            username = this.ticketValidator.validateTicket(token);
+        }
         LOG.debug("Succesfully validated " + username);
-        UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
-        userDetailsChecker.check(userDetails);
+        long start = System.nanoTime();
+        UserDetails userDetails;
+        try {
+            userDetails = this.userDetailsService.loadUserByUsername(username);
+        } catch (UsernameNotFoundException e) {
+            metrics.recordFailure(KerberosMetrics.Failure.USER_NOT_FOUND);
+            throw e;
+        }
+        metrics.recordTime(KerberosMetrics.Stage.USER_DETAILS, System.nanoTime() - start);
+        try {
+            userDetailsChecker.check(userDetails);
+        } catch (AccountStatusException e) {
+            metrics.recordFailure(KerberosMetrics.Failure.ACCOUNT_STATUS);
+            throw e;
+        }
         additionalAuthenticationChecks(userDetails, auth);
-        return new KerberosServiceRequestToken(userDetails, userDetails.getAuthorities(), token);
+        metrics.recordSuccess();
+        KerberosServiceRequestToken result = new KerberosServiceRequestToken(userDetails,
+                userDetails.getAuthorities(), token, servicePrincipal);
+        if (!this.retainToken) {
+            result.eraseToken();
+        }
+        return result;
     }
 
 
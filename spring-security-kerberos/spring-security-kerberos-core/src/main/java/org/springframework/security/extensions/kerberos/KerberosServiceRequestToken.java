@@ -16,6 +16,8 @@
 
 package org.springframework.security.extensions.kerberos;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collection;
 
@@ -31,6 +33,8 @@ import org.springframework.security.extensions.kerberos.web.SpnegoAuthentication
  * and authenticated in <code>KerberosServiceAuthenticationProvider</code>.
  *
  * This token cannot be re-authenticated, as you will get a Kerberos Reply error.
+ * After authentication the token is no longer needed, {@link #eraseCredentials()}
+ * replaces it with its SHA-256 digest, so it doesn't stay in the session.
  *
  * @author Mike Wiesner
  * @since 1.0
@@ -42,8 +46,11 @@ import org.springframework.security.extensions.kerberos.web.SpnegoAuthentication
 public class KerberosServiceRequestToken extends AbstractAuthenticationToken {
 
     private static final long serialVersionUID = 395488921064775014L;
-    private final byte[] token;
+    private byte[] token;
+    private byte[] tokenDigest;
+    private transient int tokenHash;
     private final Object principal;
+    private final String servicePrincipal;
 
     /** Creates an authenticated token, normally used as an output of an authentication provider.
      * @param principal the user principal (mostly of instance <code>UserDetails</code>
@@ -52,9 +59,22 @@ public class KerberosServiceRequestToken extends AbstractAuthenticationToken {
      * @see UserDetails
      */
     public KerberosServiceRequestToken(Object principal, Collection<GrantedAuthority> authorities, byte[] token) {
+        this(principal, authorities, token, null);
+    }
+
+    /** Creates an authenticated token, normally used as an output of an authentication provider.
+     * @param principal the user principal (mostly of instance <code>UserDetails</code>
+     * @param authorities the authorities which are granted to the user
+     * @param token the Kerberos/SPNEGO token
+     * @param servicePrincipal the service principal which accepted the token, may be null
+     * @see UserDetails
+     */
+    public KerberosServiceRequestToken(Object principal, Collection<GrantedAuthority> authorities, byte[] token,
+            String servicePrincipal) {
         super(authorities);
         this.token = token;
         this.principal = principal;
+        this.servicePrincipal = servicePrincipal;
         super.setAuthenticated(true);
     }
 
@@ -69,16 +89,25 @@ public class KerberosServiceRequestToken extends AbstractAuthenticationToken {
         super(null);
         this.token = token;
         this.principal = null;
+        this.servicePrincipal = null;
     }
 
     /**
-     * Calculates hashcode based on the Kerberos token
+     * Calculates hashcode based on the Kerberos token. The part of the token is computed
+     * once, the security context is hashed on each request.
      */
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = super.hashCode();
-        result = prime * result + Arrays.hashCode(token);
+        int hash = this.tokenHash;
+        if (hash == 0) {
+            byte[] digest = getTokenDigest();
+            hash = digest == null ? 1 : (digest[0] << 24) | ((digest[1] & 0xff) << 16) | ((digest[2] & 0xff) << 8)
+                    | (digest[3] & 0xff) | 1;
+            this.tokenHash = hash;
+        }
+        result = prime * result + hash;
         return result;
     }
 
@@ -94,11 +123,33 @@ public class KerberosServiceRequestToken extends AbstractAuthenticationToken {
         if (getClass() != obj.getClass())
             return false;
         KerberosServiceRequestToken other = (KerberosServiceRequestToken) obj;
-        if (!Arrays.equals(token, other.token))
+        if (token != null && other.token != null)
+            return Arrays.equals(token, other.token);
+        if (!Arrays.equals(getTokenDigest(), other.getTokenDigest()))
             return false;
         return true;
     }
 
+    /**
+     * Drops the Kerberos token, see {@link #eraseToken()}, and erases the principal. Called by
+     * the <code>ProviderManager</code> if <code>eraseCredentialsAfterAuthentication</code> is set.
+     */
+    @Override
+    public void eraseCredentials() {
+        eraseToken();
+        super.eraseCredentials();
+    }
+
+    /**
+     * Drops the Kerberos token and keeps only its digest, which is enough for
+     * {@link #equals(Object)} and {@link #hashCode()}. Called by the authentication
+     * providers unless they retain the token.
+     */
+    void eraseToken() {
+        getTokenDigest();
+        this.token = null;
+    }
+
     /* (non-Javadoc)
      * @see org.springframework.security.core.Authentication#getCredentials()
      */
@@ -115,10 +166,32 @@ public class KerberosServiceRequestToken extends AbstractAuthenticationToken {
         return this.principal;
     }
 
-    /** Returns the Kerberos token
+    /** Returns the service principal the client authenticated to, e.g.
+     * <code>HTTP/app1.example.com@EXAMPLE.COM</code>. Useful when one application
+     * serves several virtual hosts. Null if unknown or not authenticated yet.
+     */
+    public String getServicePrincipal() {
+        return this.servicePrincipal;
+    }
+
+    /** Returns the Kerberos token, null after {@link #eraseCredentials()}
      */
     public byte[] getToken() {
         return this.token;
     }
 
+    /** Returns the SHA-256 digest of the Kerberos token, also after {@link #eraseCredentials()}.
+     * Null if there is no token.
+     */
+    public byte[] getTokenDigest() {
+        if (this.tokenDigest == null && this.token != null) {
+            try {
+                this.tokenDigest = MessageDigest.getInstance("SHA-256").digest(this.token);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+        return this.tokenDigest;
+    }
+
 }
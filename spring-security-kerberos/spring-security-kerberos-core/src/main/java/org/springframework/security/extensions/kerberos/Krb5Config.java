@@ -0,0 +1,294 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Generates the <code>krb5.conf</code> of the JVM from bean properties, instead of
+ * maintaining a file next to the application. Set it on the {@link GlobalSunJaasKerberosConfig}.
+ *
+ * <p>The defaults differ from the ones of the JRE, which make a single unreachable KDC
+ * cost half a minute: UDP is not used at all (<code>udp_preference_limit = 1</code>), as
+ * tickets with a PAC rarely fit into a datagram anyway, a KDC gets 3 seconds to answer and
+ * is tried once. KDCs and realms are never looked up in DNS.</p>
+ *
+ * <p>The order of the KDCs can be changed at runtime, see {@link KdcHealthProber}. Each
+ * change rewrites the file. The JRE reads it only once, so {@link SunJaasKerberosClient}
+ * reloads the configuration with its next login.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class Krb5Config {
+
+    /** the port of a KDC without one */
+    static final int DEFAULT_KDC_PORT = 88;
+
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+    private static final Log LOG = LogFactory.getLog(Krb5Config.class);
+
+    private String defaultRealm;
+    private Map<String, List<String>> realms = Collections.emptyMap();
+    private Map<String, String> domainRealms = Collections.emptyMap();
+    private int udpPreferenceLimit = 1;
+    private int kdcTimeout = 3000;
+    private int maxRetries = 1;
+    private File location;
+
+    private final Map<String, List<String>> activeKdcs = new LinkedHashMap<String, List<String>>();
+
+    /**
+     * Writes the file and points <code>java.security.krb5.conf</code> to it.
+     */
+    public synchronized void apply() throws IOException {
+        Assert.hasText(this.defaultRealm, "defaultRealm must be specified");
+        Assert.notEmpty(this.realms, "realms must be specified");
+        for (Map.Entry<String, List<String>> realm : this.realms.entrySet()) {
+            Assert.notEmpty(realm.getValue(), "No KDC for realm " + realm.getKey());
+        }
+        if (this.location == null) {
+            this.location = File.createTempFile("krb5", ".conf");
+            this.location.deleteOnExit();
+        }
+        write();
+        System.setProperty("java.security.krb5.conf", this.location.getAbsolutePath());
+    }
+
+    /**
+     * Changes the order of the KDCs of a realm and rewrites the file if it differs.
+     *
+     * @param kdcs the KDCs to use, in the order they are tried
+     * @return true if the order changed
+     */
+    public synchronized boolean setActiveKdcs(String realm, List<String> kdcs) throws IOException {
+        Assert.isTrue(this.realms.containsKey(realm), "Unknown realm " + realm);
+        Assert.notEmpty(kdcs, "No KDC for realm " + realm);
+        if (kdcs.equals(getActiveKdcs(realm))) {
+            return false;
+        }
+        LOG.info("KDCs of " + realm + " are now " + kdcs);
+        this.activeKdcs.put(realm, new ArrayList<String>(kdcs));
+        write();
+        return true;
+    }
+
+    /**
+     * @return the KDCs of the realm in the order they are tried now, null for an unknown realm
+     */
+    public synchronized List<String> getActiveKdcs(String realm) {
+        List<String> kdcs = this.activeKdcs.get(realm);
+        if (kdcs == null) {
+            kdcs = this.realms.get(realm);
+        }
+        return kdcs == null ? null : Collections.unmodifiableList(kdcs);
+    }
+
+    /**
+     * @return the configured realms with their KDCs
+     */
+    public Map<String, List<String>> getRealms() {
+        return Collections.unmodifiableMap(this.realms);
+    }
+
+    /**
+     * @return the content of the file
+     */
+    public synchronized String render() {
+        StringBuilder conf = new StringBuilder();
+        conf.append("[libdefaults]\n");
+        conf.append("    default_realm = ").append(this.defaultRealm).append('\n');
+        conf.append("    udp_preference_limit = ").append(this.udpPreferenceLimit).append('\n');
+        conf.append("    kdc_timeout = ").append(this.kdcTimeout).append('\n');
+        conf.append("    max_retries = ").append(this.maxRetries).append('\n');
+        conf.append("    dns_lookup_kdc = false\n");
+        conf.append("    dns_lookup_realm = false\n");
+        conf.append("[realms]\n");
+        for (String realm : this.realms.keySet()) {
+            conf.append("    ").append(realm).append(" = {\n");
+            for (String kdc : getActiveKdcs(realm)) {
+                conf.append("        kdc = ").append(kdc).append('\n');
+            }
+            conf.append("    }\n");
+        }
+        if (!this.domainRealms.isEmpty()) {
+            conf.append("[domain_realm]\n");
+            for (Map.Entry<String, String> domain : this.domainRealms.entrySet()) {
+                conf.append("    ").append(domain.getKey()).append(" = ").append(domain.getValue()).append('\n');
+            }
+        }
+        return conf.toString();
+    }
+
+    /**
+     * @return the number of times any configuration was written, so a changed file can be
+     *         reloaded
+     */
+    static int generation() {
+        return GENERATION.get();
+    }
+
+    private void write() throws IOException {
+        if (this.location == null) {
+            // not applied yet
+            return;
+        }
+        File tmp = new File(this.location.getAbsolutePath() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            out.write(render());
+        } finally {
+            out.close();
+        }
+        // readers see either the old or the new file
+        if (!tmp.renameTo(this.location) && !(this.location.delete() && tmp.renameTo(this.location))) {
+            throw new IOException("Could not replace " + this.location);
+        }
+        GENERATION.incrementAndGet();
+    }
+
+    /**
+     * @param defaultRealm e.g. <code>EXAMPLE.COM</code>
+     */
+    public void setDefaultRealm(String defaultRealm) {
+        this.defaultRealm = defaultRealm;
+    }
+
+    /**
+     * @param realms the KDCs of each realm, <code>host</code>, <code>host:port</code> or an
+     *        IPv6 address like <code>[::1]:88</code>, in the order they are tried
+     * @throws IllegalArgumentException if a KDC has an invalid port
+     */
+    public void setRealms(Map<String, List<String>> realms) {
+        for (Map.Entry<String, List<String>> realm : realms.entrySet()) {
+            for (String kdc : realm.getValue()) {
+                parseKdc(kdc);
+            }
+        }
+        this.realms = new LinkedHashMap<String, List<String>>(realms);
+    }
+
+    /**
+     * @param kdc <code>host</code>, <code>host:port</code>, <code>[ipv6]:port</code> or an
+     *        IPv6 address without port
+     * @return the unresolved address of the KDC, with port 88 if it has none
+     * @throws IllegalArgumentException if the port is not a number from 1 to 65535
+     */
+    static InetSocketAddress parseKdc(String kdc) {
+        Assert.hasText(kdc, "KDC must not be empty");
+        String host;
+        String port = null;
+        if (kdc.startsWith("[")) {
+            int bracket = kdc.indexOf(']');
+            if (bracket < 0 || (bracket + 1 < kdc.length() && kdc.charAt(bracket + 1) != ':')) {
+                throw new IllegalArgumentException("Invalid KDC " + kdc + ", expected [address]:port");
+            }
+            host = kdc.substring(1, bracket);
+            if (bracket + 1 < kdc.length()) {
+                port = kdc.substring(bracket + 2);
+            }
+        } else {
+            int colon = kdc.indexOf(':');
+            if (colon >= 0 && kdc.indexOf(':', colon + 1) < 0) {
+                host = kdc.substring(0, colon);
+                port = kdc.substring(colon + 1);
+            } else {
+                // a host name or an IPv6 address without port
+                host = kdc;
+            }
+        }
+        if (host.length() == 0) {
+            throw new IllegalArgumentException("Invalid KDC " + kdc + ", no host");
+        }
+        if (port == null) {
+            return InetSocketAddress.createUnresolved(host, DEFAULT_KDC_PORT);
+        }
+        int number;
+        try {
+            number = Integer.parseInt(port);
+        } catch (NumberFormatException e) {
+            number = -1;
+        }
+        if (number < 1 || number > 65535) {
+            throw new IllegalArgumentException("Invalid port of KDC " + kdc + ", expected 1 to 65535");
+        }
+        return InetSocketAddress.createUnresolved(host, number);
+    }
+
+    /**
+     * @param domainRealms e.g. <code>.example.com</code> to <code>EXAMPLE.COM</code>, default
+     *        is none
+     */
+    public void setDomainRealms(Map<String, String> domainRealms) {
+        this.domainRealms = new LinkedHashMap<String, String>(domainRealms);
+    }
+
+    /**
+     * @param udpPreferenceLimit messages up to this size go over UDP, default is 1, which
+     *        means always TCP
+     */
+    public void setUdpPreferenceLimit(int udpPreferenceLimit) {
+        Assert.isTrue(udpPreferenceLimit > 0, "udpPreferenceLimit must be positive");
+        this.udpPreferenceLimit = udpPreferenceLimit;
+    }
+
+    /**
+     * @param kdcTimeout how long to wait for a KDC in milliseconds, default is 3000
+     */
+    public void setKdcTimeout(int kdcTimeout) {
+        Assert.isTrue(kdcTimeout > 0, "kdcTimeout must be positive");
+        this.kdcTimeout = kdcTimeout;
+    }
+
+    /**
+     * @param maxRetries attempts per KDC, default is 1
+     */
+    public void setMaxRetries(int maxRetries) {
+        Assert.isTrue(maxRetries > 0, "maxRetries must be positive");
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @param location where the file is written, default is a temporary file
+     */
+    public void setLocation(File location) {
+        this.location = location;
+    }
+
+    /**
+     * @return the file, null before {@link #apply()}
+     */
+    public File getLocation() {
+        return this.location;
+    }
+}
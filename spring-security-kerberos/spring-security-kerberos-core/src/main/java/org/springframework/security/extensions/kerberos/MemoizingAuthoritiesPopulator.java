@@ -0,0 +1,192 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.util.Assert;
+
+/**
+ * Remembers the authorities of recently seen group memberships. Users of the same
+ * department usually carry identical PAC group lists, so the mapping work of the
+ * wrapped populator only needs to be done once per distinct SID set.
+ *
+ * <p>Entries are keyed by the compact {@link SidSet} and kept in a bounded LRU. The cached
+ * collections are immutable, every user with the same groups gets the same instance.</p>
+ *
+ * <p>Each entry remembers the {@link ActiveDirectoryAuthoritiesPopulator#getMappingGeneration()
+ * mapping generation} of the wrapped populator, entries of older mappings are mapped again,
+ * e.g. after a {@link SidMappingAuthoritiesPopulator} reloaded its rules. Authorities of other
+ * populators which depend on anything but the SIDs, or change while the application runs,
+ * need a call to {@link #clear()}.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class MemoizingAuthoritiesPopulator implements ActiveDirectoryAuthoritiesPopulator, InitializingBean {
+
+    private ActiveDirectoryAuthoritiesPopulator authoritiesPopulator;
+    private int maxEntries = 1000;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final Map<SidSet, Memo> memos = new LinkedHashMap<SidSet, Memo>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SidSet, Memo> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public MemoizingAuthoritiesPopulator() {
+    }
+
+    public MemoizingAuthoritiesPopulator(ActiveDirectoryAuthoritiesPopulator authoritiesPopulator) {
+        this.authoritiesPopulator = authoritiesPopulator;
+    }
+
+    public Collection<GrantedAuthority> getGrantedAuthorities(List<String> sids) {
+        SidSet sidSet;
+        try {
+            sidSet = SidSet.valueOf(sids);
+        } catch (IllegalArgumentException e) {
+            // not representable as compact SIDs, leave it to the wrapped populator
+            misses.incrementAndGet();
+            return authoritiesPopulator.getGrantedAuthorities(sids);
+        }
+        return getGrantedAuthorities(sidSet, sids);
+    }
+
+    public Collection<GrantedAuthority> getGrantedAuthorities(SidSet sids) {
+        return getGrantedAuthorities(sids, null);
+    }
+
+    /**
+     * @return the generation of the wrapped populator
+     */
+    public long getMappingGeneration() {
+        return authoritiesPopulator.getMappingGeneration();
+    }
+
+    private Collection<GrantedAuthority> getGrantedAuthorities(SidSet sids, List<String> original) {
+        // read before mapping, so authorities of a concurrent reload are at worst mapped again
+        long generation = getMappingGeneration();
+        Memo memo;
+        synchronized (memos) {
+            memo = memos.get(sids);
+        }
+        if (memo != null && memo.generation == generation) {
+            hits.incrementAndGet();
+            return memo.authorities;
+        }
+        misses.incrementAndGet();
+
+        Collection<GrantedAuthority> authorities;
+        if (original != null) {
+            // called with strings, the wrapped populator gets them as they came
+            authorities = authoritiesPopulator.getGrantedAuthorities(original);
+        } else {
+            authorities = authoritiesPopulator.getGrantedAuthorities(sids);
+        }
+        // returned to every user with the same groups from now on
+        authorities = Collections.unmodifiableList(new ArrayList<GrantedAuthority>(authorities));
+        synchronized (memos) {
+            memos.put(sids, new Memo(generation, authorities));
+        }
+        return authorities;
+    }
+
+    /** Forgets all memorized authorities, e.g. after the group mappings changed */
+    public void clear() {
+        synchronized (memos) {
+            memos.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (memos) {
+            return memos.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** @return number of entries removed because the cache was full */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** @return hits / (hits + misses), 0 if the populator was never used */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(this.authoritiesPopulator, "authoritiesPopulator must be specified");
+    }
+
+    /**
+     * @param authoritiesPopulator the populator doing the actual mapping
+     */
+    public void setAuthoritiesPopulator(ActiveDirectoryAuthoritiesPopulator authoritiesPopulator) {
+        this.authoritiesPopulator = authoritiesPopulator;
+    }
+
+    /**
+     * Maximum number of memorized SID sets, the least recently used are evicted first.
+     * @param maxEntries default is 1000
+     */
+    public void setMaxEntries(int maxEntries) {
+        Assert.isTrue(maxEntries > 0, "maxEntries must be positive");
+        this.maxEntries = maxEntries;
+    }
+
+    private static final class Memo {
+        final long generation;
+        final Collection<GrantedAuthority> authorities;
+
+        Memo(long generation, Collection<GrantedAuthority> authorities) {
+            this.generation = generation;
+            this.authorities = authorities;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.util.Assert;
+
+/**
+ * Validates tickets for several service principals, e.g. one application serving
+ * <code>HTTP/app1.example.com</code> and <code>HTTP/app2.example.com</code>. The keys
+ * of all principals come from one keytab.
+ *
+ * <p>The realm and server name of the ticket are not encrypted, so the matching principal
+ * is found with a single hash lookup and only its keys are used for decryption. Unknown
+ * principals are rejected without any decryption. The name is not integrity protected,
+ * but a ticket sent to the wrong principal can't be decrypted with its keys, so it still
+ * fails. The accepting principal is available from
+ * {@link ActiveDirectoryTicketValidation#getServicePrincipal()}.</p>
+ *
+ * <p>Principals may be configured with or without realm. Host names are compared case
+ * insensitive, realms in upper case. Keytab checks and renewals of all principals share
+ * one background thread.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ * @see SunJaasKerberosTicketValidator
+ */
+public class MultiSpnKerberosTicketValidator implements ActiveDirectoryTicketValidator, InitializingBean,
+        DisposableBean {
+
+    private List<String> servicePrincipals;
+    private Resource keyTabLocation;
+    private ValidatedTicketCache ticketCache;
+    private boolean reuseAcceptorCredential = true;
+    private long keyTabCheckInterval;
+    private long keyRotationGracePeriod = 10 * 60 * 60 * 1000L;
+    private long renewalInterval;
+    private boolean debug = false;
+    private KerberosMetrics metrics = NoOpKerberosMetrics.INSTANCE;
+    private ScheduledExecutorService scheduler;
+
+    // "http/app1.example.com@EXAMPLE.COM" and "http/app1.example.com" for principals without realm
+    private final Map<String, SunJaasKerberosTicketValidator> validatorsByPrincipal = new HashMap<String, SunJaasKerberosTicketValidator>();
+    private final Map<String, SunJaasKerberosTicketValidator> validatorsByName = new HashMap<String, SunJaasKerberosTicketValidator>();
+    private final List<SunJaasKerberosTicketValidator> validators = new ArrayList<SunJaasKerberosTicketValidator>();
+    private final AtomicLong unknownPrincipals = new AtomicLong();
+    private static final Log LOG = LogFactory.getLog(MultiSpnKerberosTicketValidator.class);
+
+    /* (non-Javadoc)
+     * @see org.springframework.security.extensions.kerberos.KerberosTicketValidator#validateTicket(byte[])
+     */
+    public String validateTicket(byte[] token) {
+        return route(token).validateTicket(token);
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.security.extensions.kerberos.ActiveDirectoryTicketValidator#validateTicketAndGroupSids(byte[])
+     */
+    public ActiveDirectoryTicketValidation validateTicketAndGroupSids(byte[] token) {
+        return route(token).validateTicketAndGroupSids(token);
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.security.extensions.kerberos.ActiveDirectoryTicketValidator#validateTicketAndGroupSids(byte[], java.lang.Object)
+     */
+    public ActiveDirectoryTicketValidation validateTicketAndGroupSids(byte[] token, Object client) {
+        return route(token).validateTicketAndGroupSids(token, client);
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.security.extensions.kerberos.ActiveDirectoryTicketValidator#validateTicket(byte[], java.lang.Object)
+     */
+    public ActiveDirectoryTicketValidation validateTicket(byte[] token, Object client) {
+        return route(token).validateTicket(token, client);
+    }
+
+    private SunJaasKerberosTicketValidator route(byte[] token) {
+        ApRequestFrame frame = ApRequestFrame.parse(token);
+        if (frame == null) {
+            metrics.recordFailure(KerberosMetrics.Failure.MALFORMED_TOKEN);
+            throw new BadCredentialsException("Kerberos validation not succesfull, no AP-REQ in token");
+        }
+        String name = frame.getTicketServerName().toLowerCase(Locale.ENGLISH);
+        SunJaasKerberosTicketValidator validator = this.validatorsByPrincipal.get(name + '@'
+                + frame.getTicketRealm().toUpperCase(Locale.ENGLISH));
+        if (validator == null) {
+            validator = this.validatorsByName.get(name);
+        }
+        if (validator == null) {
+            unknownPrincipals.incrementAndGet();
+            metrics.recordFailure(KerberosMetrics.Failure.UNKNOWN_SERVICE_PRINCIPAL);
+            throw new BadCredentialsException("Kerberos validation not succesfull, no key for "
+                    + frame.getServicePrincipal());
+        }
+        return validator;
+    }
+
+    /**
+     * @param servicePrincipals the service principals of the application,
+     *        e.g. <code>HTTP/app1.example.com@EXAMPLE.COM</code>
+     */
+    public void setServicePrincipals(List<String> servicePrincipals) {
+        this.servicePrincipals = servicePrincipals;
+    }
+
+    /**
+     * @param keyTabLocation the keytab with the keys of all service principals
+     * @see SunJaasKerberosTicketValidator#setKeyTabLocation(Resource)
+     */
+    public void setKeyTabLocation(Resource keyTabLocation) {
+        this.keyTabLocation = keyTabLocation;
+    }
+
+    /**
+     * @param ticketCache shared by all service principals, default is null
+     * @see SunJaasKerberosTicketValidator#setTicketCache(ValidatedTicketCache)
+     */
+    public void setTicketCache(ValidatedTicketCache ticketCache) {
+        this.ticketCache = ticketCache;
+    }
+
+    /**
+     * @see SunJaasKerberosTicketValidator#setReuseAcceptorCredential(boolean)
+     */
+    public void setReuseAcceptorCredential(boolean reuseAcceptorCredential) {
+        this.reuseAcceptorCredential = reuseAcceptorCredential;
+    }
+
+    /**
+     * @see SunJaasKerberosTicketValidator#setKeyTabCheckInterval(long)
+     */
+    public void setKeyTabCheckInterval(long keyTabCheckInterval) {
+        Assert.isTrue(keyTabCheckInterval >= 0, "keyTabCheckInterval must not be negative");
+        this.keyTabCheckInterval = keyTabCheckInterval;
+    }
+
+    /**
+     * @see SunJaasKerberosTicketValidator#setKeyRotationGracePeriod(long)
+     */
+    public void setKeyRotationGracePeriod(long keyRotationGracePeriod) {
+        Assert.isTrue(keyRotationGracePeriod >= 0, "keyRotationGracePeriod must not be negative");
+        this.keyRotationGracePeriod = keyRotationGracePeriod;
+    }
+
+    /**
+     * @see SunJaasKerberosTicketValidator#setRenewalInterval(long)
+     */
+    public void setRenewalInterval(long renewalInterval) {
+        Assert.isTrue(renewalInterval >= 0, "renewalInterval must not be negative");
+        this.renewalInterval = renewalInterval;
+    }
+
+    /** Enables the debug mode of the JAAS Kerberos login module
+     * @param debug default is false
+     */
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
+    /**
+     * @param metrics shared by all service principals, default is a {@link NoOpKerberosMetrics}
+     * @see SunJaasKerberosTicketValidator#setMetrics(KerberosMetrics)
+     */
+    public void setMetrics(KerberosMetrics metrics) {
+        Assert.notNull(metrics, "metrics must not be null");
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the configured service principals
+     */
+    public List<String> getServicePrincipals() {
+        return Collections.unmodifiableList(this.servicePrincipals);
+    }
+
+    /**
+     * @return number of tickets rejected because they were issued for a principal without keys
+     */
+    public long getUnknownPrincipals() {
+        return unknownPrincipals.get();
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.notEmpty(this.servicePrincipals, "servicePrincipals must be specified");
+        Assert.notNull(this.keyTabLocation, "keyTab must be specified");
+        if (this.keyTabCheckInterval > 0 || this.renewalInterval > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "kerberos-keytab-" + keyTabLocation.getFilename());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        try {
+            for (String servicePrincipal : this.servicePrincipals) {
+                SunJaasKerberosTicketValidator validator = new SunJaasKerberosTicketValidator();
+                validator.setServicePrincipal(servicePrincipal);
+                validator.setKeyTabLocation(this.keyTabLocation);
+                validator.setTicketCache(this.ticketCache);
+                validator.setReuseAcceptorCredential(this.reuseAcceptorCredential);
+                validator.setKeyTabCheckInterval(this.keyTabCheckInterval);
+                validator.setKeyRotationGracePeriod(this.keyRotationGracePeriod);
+                validator.setRenewalInterval(this.renewalInterval);
+                validator.setDebug(this.debug);
+                validator.setMetrics(this.metrics);
+                validator.setScheduler(this.scheduler);
+                validator.afterPropertiesSet();
+                addValidator(servicePrincipal, validator);
+            }
+        } catch (Exception e) {
+            destroy();
+            throw e;
+        }
+        LOG.debug("Accepting tickets for " + this.servicePrincipals);
+    }
+
+    /**
+     * Registers the validator of a service principal, called during initialization only.
+     */
+    void addValidator(String servicePrincipal, SunJaasKerberosTicketValidator validator) {
+        String key = routingKey(servicePrincipal);
+        Map<String, SunJaasKerberosTicketValidator> validators = key.indexOf('@') < 0 ? this.validatorsByName
+                : this.validatorsByPrincipal;
+        Assert.isTrue(!validators.containsKey(key), "Duplicate service principal " + servicePrincipal);
+        validators.put(key, validator);
+        this.validators.add(validator);
+    }
+
+    private static String routingKey(String servicePrincipal) {
+        int at = servicePrincipal.lastIndexOf('@');
+        if (at < 0) {
+            return servicePrincipal.toLowerCase(Locale.ENGLISH);
+        }
+        return servicePrincipal.substring(0, at).toLowerCase(Locale.ENGLISH) + '@'
+                + servicePrincipal.substring(at + 1).toUpperCase(Locale.ENGLISH);
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        for (SunJaasKerberosTicketValidator validator : this.validators) {
+            validator.destroy();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+/**
+ * Discards everything, the default {@link KerberosMetrics}.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public final class NoOpKerberosMetrics implements KerberosMetrics {
+
+    public static final KerberosMetrics INSTANCE = new NoOpKerberosMetrics();
+
+    private NoOpKerberosMetrics() {
+    }
+
+    public void recordTime(Stage stage, long nanos) {
+    }
+
+    public void recordSuccess() {
+    }
+
+    public void recordFailure(Failure cause) {
+    }
+
+    public void recordTokenSize(int bytes) {
+    }
+
+    public void recordGroupSids(int count) {
+    }
+}
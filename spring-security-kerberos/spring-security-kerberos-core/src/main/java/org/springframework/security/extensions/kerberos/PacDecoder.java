@@ -0,0 +1,311 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.security.jgss.AuthorizationDataEntry;
+
+/**
+ * Extracts the group SIDs out of the authorization data of an already decrypted Kerberos ticket.
+ * Used by {@link SunJaasKerberosTicketValidator} so the PAC can be read from the same GSS accept
+ * which validated the ticket instead of decrypting the ticket a second time.
+ *
+ * <p>Only the <code>KERB_VALIDATION_INFO</code> (logon info) buffer of the PAC is decoded, see
+ * <a href="http://msdn.microsoft.com/en-us/library/cc237917.aspx">[MS-PAC]</a>.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public final class PacDecoder {
+
+    static final int AD_IF_RELEVANT = 1;
+    static final int AD_WIN2K_PAC = 128;
+    static final int PAC_LOGON_INFO = 1;
+
+    private PacDecoder() {
+    }
+
+    /**
+     * @param authzData the authorization data of the ticket, as returned by the GSS context
+     * @return the group SIDs of the user in the order primary group, groups, extra SIDs and resource groups,
+     *         or an empty list if the ticket carries no PAC
+     * @throws IllegalArgumentException if the PAC is malformed
+     */
+    public static List<String> getGroupSids(AuthorizationDataEntry[] authzData) {
+        List<String> sids = new ArrayList<String>();
+        if (authzData == null) {
+            return sids;
+        }
+        for (AuthorizationDataEntry entry : authzData) {
+            collectGroupSids(entry.getType(), entry.getData(), sids);
+        }
+        return sids;
+    }
+
+    /**
+     * @param pac the raw PAC (ad-data of an AD-WIN2K-PAC element)
+     * @return the group SIDs of the user
+     * @throws IllegalArgumentException if the PAC is malformed
+     */
+    public static List<String> getGroupSids(byte[] pac) {
+        List<String> sids = new ArrayList<String>();
+        collectGroupSids(AD_WIN2K_PAC, pac, sids);
+        return sids;
+    }
+
+    private static void collectGroupSids(int adType, byte[] adData, List<String> sids) {
+        if (adType == AD_WIN2K_PAC) {
+            decodePac(adData, sids);
+        } else if (adType == AD_IF_RELEVANT) {
+            // AuthorizationData ::= SEQUENCE OF SEQUENCE { ad-type [0] Int32, ad-data [1] OCTET STRING }
+            DerReader der = new DerReader(adData, 0, adData.length);
+            int end = der.enter(0x30);
+            while (der.hasMore(end)) {
+                int elementEnd = der.enter(0x30);
+                der.enter(0xa0);
+                int type = der.readInteger();
+                der.enter(0xa1);
+                int dataLength = der.enter(0x04) - der.position();
+                byte[] data = new byte[dataLength];
+                System.arraycopy(adData, der.position(), data, 0, dataLength);
+                collectGroupSids(type, data, sids);
+                der.position(elementEnd);
+            }
+        }
+    }
+
+    private static void decodePac(byte[] pac, List<String> sids) {
+        Ndr buffers = new Ndr(pac, 0, pac.length);
+        int count = buffers.readInt();
+        buffers.readInt(); // version
+        for (int i = 0; i < count; i++) {
+            int type = buffers.readInt();
+            int size = buffers.readInt();
+            long offset = buffers.readLong();
+            if (type == PAC_LOGON_INFO) {
+                if (offset < 0 || offset + size > pac.length) {
+                    throw new IllegalArgumentException("PAC logon info buffer out of bounds");
+                }
+                decodeLogonInfo(new Ndr(pac, (int) offset, size), sids);
+            }
+        }
+    }
+
+    private static void decodeLogonInfo(Ndr ndr, List<String> sids) {
+        // common and private type serialization header, followed by the top level referent
+        ndr.skip(16);
+        ndr.readInt();
+
+        ndr.skip(48); // logon, logoff, kickoff, password last set, can change, must change
+        int[] names = new int[6];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = ndr.readUnicodeStringPointer();
+        }
+        ndr.skip(4); // logon count, bad password count
+        ndr.readInt(); // user id
+        int primaryGroupId = ndr.readInt();
+        int groupCount = ndr.readInt();
+        int groupIdsPointer = ndr.readInt();
+        ndr.readInt(); // user flags
+        ndr.skip(16); // user session key
+        int logonServer = ndr.readUnicodeStringPointer();
+        int logonDomainName = ndr.readUnicodeStringPointer();
+        int logonDomainIdPointer = ndr.readInt();
+        ndr.skip(8); // reserved
+        ndr.readInt(); // user account control
+        ndr.readInt(); // sub auth status
+        ndr.skip(16); // last successful and failed interactive logon
+        ndr.readInt(); // failed interactive logon count
+        ndr.readInt(); // reserved
+        int extraSidCount = ndr.readInt();
+        int extraSidsPointer = ndr.readInt();
+        int resourceDomainPointer = ndr.readInt();
+        int resourceGroupCount = ndr.readInt();
+        int resourceGroupIdsPointer = ndr.readInt();
+
+        // deferred referents follow in the order of their pointers
+        for (int name : names) {
+            ndr.skipUnicodeString(name);
+        }
+        int[] groupIds = groupIdsPointer != 0 ? ndr.readGroupIds(groupCount) : new int[0];
+        ndr.skipUnicodeString(logonServer);
+        ndr.skipUnicodeString(logonDomainName);
+        byte[] logonDomainId = logonDomainIdPointer != 0 ? ndr.readSid() : null;
+
+        List<byte[]> extraSids = new ArrayList<byte[]>();
+        if (extraSidsPointer != 0) {
+            int max = ndr.readInt();
+            if (max != extraSidCount) {
+                throw new IllegalArgumentException("Extra SID count mismatch");
+            }
+            // pointer and attributes per SID
+            ndr.requireElements(extraSidCount, 8);
+            int[] pointers = new int[extraSidCount];
+            for (int i = 0; i < extraSidCount; i++) {
+                pointers[i] = ndr.readInt();
+                ndr.readInt(); // attributes
+            }
+            for (int pointer : pointers) {
+                if (pointer != 0) {
+                    extraSids.add(ndr.readSid());
+                }
+            }
+        }
+        byte[] resourceDomainId = resourceDomainPointer != 0 ? ndr.readSid() : null;
+        int[] resourceGroupIds = resourceGroupIdsPointer != 0 ? ndr.readGroupIds(resourceGroupCount) : new int[0];
+
+        // the domain prefix is formatted once, every group only appends its RID
+        StringBuilder sid = new StringBuilder(64);
+        if (logonDomainId != null) {
+            int prefix = PacUtility.appendStringSid(logonDomainId, 0, sid).length();
+            sids.add(appendRid(sid, prefix, primaryGroupId));
+            for (int rid : groupIds) {
+                sids.add(appendRid(sid, prefix, rid));
+            }
+        }
+        for (byte[] extraSid : extraSids) {
+            sid.setLength(0);
+            sids.add(PacUtility.appendStringSid(extraSid, 0, sid).toString());
+        }
+        if (resourceDomainId != null) {
+            sid.setLength(0);
+            int prefix = PacUtility.appendStringSid(resourceDomainId, 0, sid).length();
+            for (int rid : resourceGroupIds) {
+                sids.add(appendRid(sid, prefix, rid));
+            }
+        }
+    }
+
+    private static String appendRid(StringBuilder domainSid, int prefix, int rid) {
+        domainSid.setLength(prefix);
+        return domainSid.append('-').append(rid & 0xffffffffL).toString();
+    }
+
+    /**
+     * Little endian NDR reader over a slice of the PAC, alignment is relative to the start of the slice.
+     */
+    private static final class Ndr {
+        private final byte[] data;
+        private final int start;
+        private final int end;
+        private int pos;
+
+        Ndr(byte[] data, int start, int length) {
+            this.data = data;
+            this.start = start;
+            this.end = start + length;
+            this.pos = start;
+        }
+
+        void skip(int bytes) {
+            require(bytes);
+            pos += bytes;
+        }
+
+        void align(int boundary) {
+            int misalignment = (pos - start) % boundary;
+            if (misalignment != 0) {
+                skip(boundary - misalignment);
+            }
+        }
+
+        int readInt() {
+            align(4);
+            require(4);
+            int value = (data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8 | (data[pos + 2] & 0xff) << 16
+                    | (data[pos + 3] & 0xff) << 24;
+            pos += 4;
+            return value;
+        }
+
+        long readLong() {
+            long low = readInt() & 0xffffffffL;
+            long high = readInt() & 0xffffffffL;
+            return high << 32 | low;
+        }
+
+        /** Reads an RPC_UNICODE_STRING and returns its buffer pointer */
+        int readUnicodeStringPointer() {
+            skip(4); // length, maximum length
+            return readInt();
+        }
+
+        void skipUnicodeString(int pointer) {
+            if (pointer == 0) {
+                return;
+            }
+            readInt(); // maximum count
+            readInt(); // offset
+            int actualCount = readInt();
+            if (actualCount < 0) {
+                throw new IllegalArgumentException("Invalid string length in PAC");
+            }
+            skip(actualCount * 2);
+        }
+
+        int[] readGroupIds(int count) {
+            int max = readInt();
+            if (max != count) {
+                throw new IllegalArgumentException("Group count mismatch in PAC");
+            }
+            // RID and attributes per group
+            requireElements(count, 8);
+            int[] rids = new int[count];
+            for (int i = 0; i < count; i++) {
+                rids[i] = readInt();
+                readInt(); // attributes
+            }
+            return rids;
+        }
+
+        /** Reads a conformant RPC_SID in the binary layout expected by PacUtility */
+        byte[] readSid() {
+            int subAuthorityCount = readInt();
+            if (subAuthorityCount < 0 || subAuthorityCount > 15) {
+                throw new IllegalArgumentException("Invalid SID in PAC");
+            }
+            int length = 8 + 4 * subAuthorityCount;
+            require(length);
+            if ((data[pos + 1] & 0xff) != subAuthorityCount) {
+                throw new IllegalArgumentException("SID sub authority count mismatch in PAC");
+            }
+            byte[] sid = new byte[length];
+            System.arraycopy(data, pos, sid, 0, length);
+            pos += length;
+            return sid;
+        }
+
+        /**
+         * Checks a count from the stream against the rest of the slice before an array of that
+         * size is allocated. Multiplying the count could overflow.
+         */
+        void requireElements(int count, int elementSize) {
+            if (count < 0 || count > (end - pos) / elementSize) {
+                throw new IllegalArgumentException("Element count " + count + " exceeds the PAC");
+            }
+        }
+
+        private void require(int bytes) {
+            if (bytes < 0 || pos + bytes > end) {
+                throw new IllegalArgumentException("Unexpected end of PAC");
+            }
+        }
+    }
+}
@@ -1,156 +1,172 @@
 package org.springframework.security.extensions.kerberos;
 
-import java.io.ByteArrayOutputStream;
-import java.util.StringTokenizer;
-
 /**
  * User: Grant Cermak - grant.cermak@gmail.com
  * Date: Nov 29, 2010
  * Time: 1:37:40 PM
+ *
+ * Conversions between the binary SID layout used in the PAC and its string form
+ * <code>S-1-5-21-185937884-2362668773-3192785854-1139</code>. The binary layout is
+ * revision (1 byte), sub authority count (1 byte), identifier authority (6 bytes, big endian)
+ * followed by the sub authorities (4 bytes each, little endian), see
+ * http://msdn.microsoft.com/en-us/library/cc230371%28v=PROT.13%29.aspx
  */
 public class PacUtility {
+
+    private static final int MAX_SUB_AUTHORITIES = 15;
+
     // Shim function to adapt PAC string representation of byte array into other functions
     public static String binarySidToStringSid(String SID) {
-        // A SID is always 28 bytes - http://msdn.microsoft.com/en-us/library/cc221018%28v=PROT.13%29.aspx
-        byte[] bytes = new byte[28];
-        int byteNum = 0;
-
         // parse unsigned SID represented as \01\05\00\00\00\00\00\05\15\00\00\00\dc\2f\15\0b\e5\76\d3\8c\be\0b\4e\be\01\02\00\00
-        // into corresponding signed byte array (in Java bytes are signed so we need to do a little fancy footwork)
-        for (int i = 0; i < SID.length(); i++) {
-            char c = SID.charAt(i);
-
-
-            if (c == '\\') {
+        // every byte is a backslash followed by two hex digits
+        byte[] bytes = new byte[SID.length() / 3];
+        int byteNum = 0;
+        for (int i = 0; i + 2 < SID.length(); i++) {
+            if (SID.charAt(i) == '\\') {
                 int highByte = Character.digit(SID.charAt(++i), 16);
                 int lowByte = Character.digit(SID.charAt(++i), 16);
-
-                int value = 16 * highByte + lowByte;
-
-                // convert the byte to a signed value, Java requires this since byte is signed
-                if (value < 128)
-                    bytes[byteNum++] = (byte) value;
-                else
-                    bytes[byteNum++] = (byte) (value - 256);
+                bytes[byteNum++] = (byte) (highByte << 4 | lowByte);
             }
         }
 
         return binarySidToStringSid(bytes);
     }
 
-    // Cribbed from http://www.jroller.com/eyallupu/entry/java_jndi_how_to_convert
     public static String binarySidToStringSid(byte[] SID) {
-        StringBuilder strSID = new StringBuilder("S-");
+        return appendStringSid(SID, 0, new StringBuilder(64)).toString();
+    }
 
-        // bytes[0] : in the array is the version (must be 1 but might
-        // change in the future)
-        strSID.append(SID[0]).append('-');
+    /**
+     * Decodes a binary SID straight into the given builder, so callers decoding many SIDs
+     * can reuse one builder and only pay for the resulting strings.
+     *
+     * @param sid buffer holding the binary SID
+     * @param offset start of the SID in the buffer
+     * @param out the string form is appended here
+     * @return the builder
+     * @throws IllegalArgumentException if the SID is truncated
+     */
+    public static StringBuilder appendStringSid(byte[] sid, int offset, StringBuilder out) {
+        int count = getSubAuthorityCount(sid, offset);
+        if (offset + 8 + 4 * count > sid.length) {
+            throw new IllegalArgumentException("Truncated SID");
+        }
+        // bytes[0] : the revision, bytes[2..7] : the 48 bit authority in big endian
+        out.append("S-").append(sid[offset] & 0xff).append('-').append(getIdentifierAuthority(sid, offset));
 
-        // bytes[2..7] : the Authority
-        StringBuilder tmpBuff = new StringBuilder();
-        for (int t = 2; t <= 7; t++) {
-            String hexString = Integer.toHexString(SID[t] & 0xFF);
-            tmpBuff.append(hexString);
+        // bytes[8..end] : the sub authorities, unsigned 32 bit integers in little endian
+        for (int i = 0; i < count; i++) {
+            out.append('-').append(getSubAuthority(sid, offset, i) & 0xffffffffL);
         }
-        strSID.append(Long.parseLong(tmpBuff.toString(), 16));
+        return out;
+    }
 
-        // bytes[1] : the sub authorities count
-        int count = SID[1];
+    /**
+     * @return the number of sub authorities of the binary SID at offset
+     */
+    public static int getSubAuthorityCount(byte[] sid, int offset) {
+        if (offset + 8 > sid.length) {
+            throw new IllegalArgumentException("Truncated SID");
+        }
+        int count = sid[offset + 1] & 0xff;
+        if (count > MAX_SUB_AUTHORITIES) {
+            throw new IllegalArgumentException("Invalid SID sub authority count " + count);
+        }
+        return count;
+    }
 
-        // bytes[8..end] : the sub authorities (these are Integers - notice
-        // the endian)
-        for (int i = 0; i < count; i++) {
-            int currSubAuthOffset = i * 4;
-            tmpBuff.setLength(0);
-            tmpBuff.append(String.format("%02X%02X%02X%02X",
-                    (SID[11 + currSubAuthOffset] & 0xFF),
-                    (SID[10 + currSubAuthOffset] & 0xFF),
-                    (SID[9 + currSubAuthOffset] & 0xFF),
-                    (SID[8 + currSubAuthOffset] & 0xFF)));
-
-            strSID.append('-').append(Long.parseLong(tmpBuff.toString(), 16));
+    /**
+     * @return the 48 bit identifier authority of the binary SID at offset
+     */
+    public static long getIdentifierAuthority(byte[] sid, int offset) {
+        long authority = 0;
+        for (int i = 2; i <= 7; i++) {
+            authority = authority << 8 | sid[offset + i] & 0xff;
         }
+        return authority;
+    }
 
-        return strSID.toString();
+    /**
+     * @return the sub authority with the given index of the binary SID at offset,
+     *         as the raw 32 bits (mask with <code>0xffffffffL</code> for the unsigned value)
+     */
+    public static int getSubAuthority(byte[] sid, int offset, int index) {
+        int pos = offset + 8 + 4 * index;
+        return (sid[pos] & 0xff) | (sid[pos + 1] & 0xff) << 8 | (sid[pos + 2] & 0xff) << 16 | (sid[pos + 3] & 0xff) << 24;
     }
 
-    // Cribbed from http://forums.sun.com/thread.jspa?threadID=5155925
+    /**
+     * Encodes a SID in string form into its binary layout.
+     *
+     * @param SID e.g. <code>S-1-5-21-185937884-2362668773-3192785854-1139</code>
+     * @return the binary SID
+     * @throws IllegalArgumentException if the string is not a valid SID
+     */
     public static byte[] stringSidToByteArraySid(String SID) {
-        ByteArrayOutputStream obyte = new ByteArrayOutputStream();
-        StringTokenizer tokens = new StringTokenizer(SID, "-");
-
-        int idx = 0, sub_authorities_sz = 0;
-        long[] sub_authorities_buff = new long[8];
-        while (tokens.hasMoreElements()) {
-            String sval = (String) tokens.nextElement();
-            long val = 0;
-            try {
-                val = Long.parseLong(sval);
-            } catch (NumberFormatException e) {
-                idx++;
-                continue; // skip S.
-            }
-
-            // SID revision
-            if (idx == 1)
-                obyte.write((byte) (val & 0xFF));
-                // 48-bit SID authority
-            else if (idx == 2) {
-                byte[] bval = longToByteArray(val);
-                obyte.write(bval[0]);
-                obyte.write(bval[1]);
-                obyte.write(bval[2]);
-                obyte.write(bval[3]);
-                obyte.write(bval[4]);
-                obyte.write(bval[5]);
-                // N number of 32-bit SID sub-authorities.
-            } else {
-                sub_authorities_buff[idx - 3] = val;
-                sub_authorities_sz++;
+        int length = SID.length();
+        if (length < 4 || (SID.charAt(0) != 'S' && SID.charAt(0) != 's') || SID.charAt(1) != '-') {
+            throw new IllegalArgumentException("Not a SID: " + SID);
+        }
+        int dashes = 0;
+        for (int i = 1; i < length; i++) {
+            if (SID.charAt(i) == '-') {
+                dashes++;
             }
-
-            idx++;
+        }
+        // S-revision-authority has two dashes, each sub authority adds one
+        int count = dashes - 2;
+        if (count < 0 || count > MAX_SUB_AUTHORITIES) {
+            throw new IllegalArgumentException("Not a SID: " + SID);
         }
 
-        // Write the number of SID sub-authorities.
-        obyte.write((byte) sub_authorities_sz);
+        byte[] bytes = new byte[8 + 4 * count];
+        int pos = 2;
+        int end = nextDash(SID, pos);
+        bytes[0] = (byte) parseUnsigned(SID, pos, end, 0xffL);
+        bytes[1] = (byte) count;
+
+        pos = end + 1;
+        end = nextDash(SID, pos);
+        long authority = parseUnsigned(SID, pos, end, 0xffffffffffffL);
+        for (int i = 7; i >= 2; i--) {
+            bytes[i] = (byte) authority;
+            authority >>>= 8;
+        }
 
-        // Write each SID sub-authority.
-        for (int i = 0; i < sub_authorities_sz; i++) {
-            byte[] bval = longToByteArray(sub_authorities_buff[i]);
-            obyte.write(bval[0]);
-            obyte.write(bval[1]);
-            obyte.write(bval[2]);
-            obyte.write(bval[3]);
+        for (int i = 0; i < count; i++) {
+            pos = end + 1;
+            end = nextDash(SID, pos);
+            long subAuthority = parseUnsigned(SID, pos, end, 0xffffffffL);
+            int offset = 8 + 4 * i;
+            bytes[offset] = (byte) subAuthority;
+            bytes[offset + 1] = (byte) (subAuthority >>> 8);
+            bytes[offset + 2] = (byte) (subAuthority >>> 16);
+            bytes[offset + 3] = (byte) (subAuthority >>> 24);
         }
 
-        return obyte.toByteArray();
+        return bytes;
+    }
+
+    private static int nextDash(String s, int from) {
+        int dash = s.indexOf('-', from);
+        return dash < 0 ? s.length() : dash;
     }
 
-    // Cribbed from http://forums.sun.com/thread.jspa?threadID=5155925
-    private static byte[] longToByteArray(long value) {
-        byte[] result = new byte[8];
-
-        // FYI - The effect of this operation is to break
-        // down the long into an array of eight bytes.
-        //
-        // What's going on: The FF selects selects the byte
-        // of interest within value. The the >> shifts the
-        // target bits to the right the desired result. The
-        // shift ensures the result will fit into a single
-        // 8-bit byte. Depending upon the byte of interest
-        // it must be shifted appropriately so it's always
-        // in the lower-order 8-bits.
-
-        result[0] = (byte) (value & 0x00000000000000FFL);
-        result[1] = (byte) ((value & 0x000000000000FF00L) >> 8);
-        result[2] = (byte) ((value & 0x0000000000FF0000L) >> 16);
-        result[3] = (byte) ((value & 0x00000000FF000000L) >> 24);
-        result[4] = (byte) ((value & 0x000000FF00000000L) >> 32);
-        result[5] = (byte) ((value & 0x0000FF0000000000L) >> 40);
-        result[6] = (byte) ((value & 0x00FF000000000000L) >> 48);
-        result[7] = (byte) ((value & 0xFF00000000000000L) >> 56);
-
-        return result;
+    private static long parseUnsigned(String s, int start, int end, long max) {
+        if (start >= end || end - start > 15) {
+            throw new IllegalArgumentException("Not a SID: " + s);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Not a SID: " + s);
+            }
+            value = value * 10 + digit;
+        }
+        if (value > max) {
+            throw new IllegalArgumentException("SID component out of range: " + s);
+        }
+        return value;
     }
 }
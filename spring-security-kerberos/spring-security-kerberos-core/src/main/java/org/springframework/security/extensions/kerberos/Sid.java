@@ -0,0 +1,176 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.io.Serializable;
+
+/**
+ * Compact SID: the id of the domain prefix in the {@link SidDictionary} plus the
+ * last sub authority (the RID). Both fit into a single <code>long</code>, which is how
+ * {@link SidSet} stores them.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public final class Sid implements Comparable<Sid>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int domainId;
+    private final int rid;
+
+    private Sid(int domainId, int rid) {
+        this.domainId = domainId;
+        this.rid = rid;
+    }
+
+    /**
+     * @param sid SID in string form, e.g. <code>S-1-5-21-185937884-2362668773-3192785854-1139</code>
+     * @throws IllegalArgumentException if the SID has no sub authority
+     */
+    public static Sid valueOf(String sid) {
+        return fromLong(pack(sid, true));
+    }
+
+    /**
+     * @param domainSid the domain prefix, e.g. <code>S-1-5-21-1-2-3</code>
+     * @param rid the relative id within the domain
+     */
+    public static Sid valueOf(String domainSid, int rid) {
+        return new Sid(SidDictionary.getInstance().intern(domainSid), rid);
+    }
+
+    static Sid fromLong(long packed) {
+        return new Sid((int) (packed >>> 32), (int) packed);
+    }
+
+    /**
+     * Packs a SID into domain id and RID.
+     *
+     * @param intern whether an unknown domain prefix is registered
+     * @return the packed SID, or -1 if the prefix is unknown and intern is false
+     */
+    static long pack(String sid, boolean intern) {
+        int dash = sid.lastIndexOf('-');
+        int dashes = 0;
+        for (int i = 0; i < dash; i++) {
+            if (sid.charAt(i) == '-') {
+                dashes++;
+            }
+        }
+        // S-revision-authority is the shortest prefix
+        if (dashes < 2 || !sid.startsWith("S-")) {
+            throw new IllegalArgumentException("SID without sub authority: " + sid);
+        }
+        // parse the RID before the prefix is interned, so invalid input doesn't grow the dictionary
+        long rid = 0;
+        int length = sid.length();
+        if (dash + 1 == length || length - dash > 11 || sid.charAt(dash - 1) == '-') {
+            throw new IllegalArgumentException("Invalid SID: " + sid);
+        }
+        for (int i = dash + 1; i < length; i++) {
+            int digit = sid.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Invalid SID: " + sid);
+            }
+            rid = rid * 10 + digit;
+        }
+        if (rid > 0xffffffffL) {
+            throw new IllegalArgumentException("Invalid SID: " + sid);
+        }
+        String domainSid = sid.substring(0, dash);
+        SidDictionary dictionary = SidDictionary.getInstance();
+        int domainId = intern ? dictionary.intern(domainSid) : dictionary.lookup(domainSid);
+        if (domainId < 0) {
+            return -1;
+        }
+        return pack(domainId, (int) rid);
+    }
+
+    static long pack(int domainId, int rid) {
+        return (long) domainId << 32 | rid & 0xffffffffL;
+    }
+
+    long toLong() {
+        return pack(domainId, rid);
+    }
+
+    /**
+     * @return the id of the domain prefix in the {@link SidDictionary}
+     */
+    public int getDomainId() {
+        return domainId;
+    }
+
+    /**
+     * @return the domain prefix in string form
+     */
+    public String getDomainSid() {
+        return SidDictionary.getInstance().getDomainSid(domainId);
+    }
+
+    /**
+     * @return the RID as raw 32 bits, mask with <code>0xffffffffL</code> for the unsigned value
+     */
+    public int getRid() {
+        return rid;
+    }
+
+    public int compareTo(Sid other) {
+        long a = toLong();
+        long b = other.toLong();
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Sid)) {
+            return false;
+        }
+        Sid other = (Sid) obj;
+        return domainId == other.domainId && rid == other.rid;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * domainId + rid;
+    }
+
+    @Override
+    public String toString() {
+        return getDomainSid() + '-' + (rid & 0xffffffffL);
+    }
+
+    // the domain id is only valid within this process
+    private Object writeReplace() {
+        return new SerializedSid(toString());
+    }
+
+    private static final class SerializedSid implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String sid;
+
+        SerializedSid(String sid) {
+            this.sid = sid;
+        }
+
+        private Object readResolve() {
+            return Sid.valueOf(sid);
+        }
+    }
+}
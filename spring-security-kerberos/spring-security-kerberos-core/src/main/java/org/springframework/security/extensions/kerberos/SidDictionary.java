@@ -0,0 +1,106 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process wide dictionary of SID domain prefixes. A SID like
+ * <code>S-1-5-21-185937884-2362668773-3192785854-1139</code> is split into the prefix
+ * <code>S-1-5-21-185937884-2362668773-3192785854</code>, which is shared by almost all
+ * groups of a forest and stored here once, and the RID <code>1139</code>. See {@link Sid}.
+ *
+ * <p>Ids are never reused or removed. Lookups don't lock, interning a new prefix does.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public final class SidDictionary {
+
+    /** Upper bound on distinct prefixes, a forest has a handful of domains plus the well known prefixes */
+    public static final int MAX_DOMAINS = 1 << 16;
+
+    private static final SidDictionary INSTANCE = new SidDictionary();
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] domains = new String[0];
+
+    private SidDictionary() {
+    }
+
+    public static SidDictionary getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param domainSid SID prefix in string form, e.g. <code>S-1-5-21-1-2-3</code>
+     * @return the id of the prefix, registering it if it wasn't known yet
+     * @throws IllegalStateException if {@link #MAX_DOMAINS} prefixes are registered already
+     */
+    public int intern(String domainSid) {
+        Integer id = ids.get(domainSid);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(domainSid);
+            if (id != null) {
+                return id;
+            }
+            String[] current = domains;
+            if (current.length >= MAX_DOMAINS) {
+                throw new IllegalStateException("Too many distinct SID domains");
+            }
+            String[] grown = new String[current.length + 1];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            grown[current.length] = domainSid;
+            // publish the array before the id, so every id handed out can be resolved
+            domains = grown;
+            ids.put(domainSid, current.length);
+            return current.length;
+        }
+    }
+
+    /**
+     * @return the id of the prefix, or -1 if it was never interned
+     */
+    public int lookup(String domainSid) {
+        Integer id = ids.get(domainSid);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @return the prefix registered for the id
+     * @throws IllegalArgumentException for an unknown id
+     */
+    public String getDomainSid(int id) {
+        String[] current = domains;
+        if (id < 0 || id >= current.length) {
+            throw new IllegalArgumentException("Unknown SID domain id " + id);
+        }
+        return current[id];
+    }
+
+    /**
+     * @return number of registered prefixes
+     */
+    public int size() {
+        return domains.length;
+    }
+}
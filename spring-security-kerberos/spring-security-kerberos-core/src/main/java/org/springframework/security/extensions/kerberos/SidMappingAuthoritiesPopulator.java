@@ -0,0 +1,375 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.GrantedAuthorityImpl;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Maps group SIDs to authorities with a rule table loaded from a properties resource,
+ * one SID per key and a comma separated list of authorities as value:
+ *
+ * <pre>
+ * S-1-5-21-185937884-2362668773-3192785854-1139=ROLE_ADMIN,ROLE_USER
+ * S-1-5-21-185937884-2362668773-3192785854-513=ROLE_USER
+ * </pre>
+ *
+ * <p>The table is compiled into an open addressing hash index over the packed
+ * {@link Sid}s, so a lookup costs one probe per SID of the user and no boxing. The returned
+ * collections are immutable and sorted by name.</p>
+ *
+ * <p>With a {@link #setRefreshInterval(long) refresh interval} the resource is checked for
+ * modifications and recompiled on a background thread, lookups keep using the previous table
+ * until the new one is swapped in and never touch the resource. A table which fails to load is
+ * logged and the previous one stays active.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class SidMappingAuthoritiesPopulator implements ActiveDirectoryAuthoritiesPopulator, InitializingBean,
+        DisposableBean {
+
+    private Resource mappings;
+    private List<String> defaultAuthorities = Collections.emptyList();
+    private long refreshInterval;
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile CompiledMappings compiled;
+    // only accessed by the refresh
+    private long failedLastModified;
+    private final AtomicLong generations = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong reloadFailures = new AtomicLong();
+
+    public Collection<GrantedAuthority> getGrantedAuthorities(List<String> sids) {
+        CompiledMappings current = this.compiled;
+        long[] roles = current.newRoleSet();
+        for (String sid : sids) {
+            long packed;
+            try {
+                packed = Sid.pack(sid, false);
+            } catch (IllegalArgumentException e) {
+                // e.g. a SID without sub authority, which can't be mapped anyway
+                continue;
+            }
+            if (packed >= 0) {
+                current.addRoles(packed, roles);
+            }
+        }
+        return current.toAuthorities(roles);
+    }
+
+    public Collection<GrantedAuthority> getGrantedAuthorities(SidSet sids) {
+        CompiledMappings current = this.compiled;
+        long[] roles = current.newRoleSet();
+        for (int i = 0; i < sids.size(); i++) {
+            current.addRoles(sids.getPacked(i), roles);
+        }
+        return current.toAuthorities(roles);
+    }
+
+    /**
+     * @return a new number after every successful (re)load
+     */
+    public long getMappingGeneration() {
+        return this.compiled.generation;
+    }
+
+    /**
+     * Loads and compiles the mappings again and swaps them in.
+     *
+     * @throws IOException if the resource can't be read, the current mappings stay active
+     * @throws IllegalArgumentException if the resource contains an invalid SID
+     */
+    public void reload() throws IOException {
+        long lastModified = lastModified();
+        Properties properties = PropertiesLoaderUtils.loadProperties(mappings);
+        this.compiled = new CompiledMappings(properties, defaultAuthorities, lastModified,
+                generations.incrementAndGet());
+        reloads.incrementAndGet();
+        LOG.debug("Loaded " + compiled.size() + " SID mappings from " + mappings);
+    }
+
+    /**
+     * Runs on the scheduler thread, never on a request thread.
+     */
+    void refresh() {
+        long lastModified = 0;
+        try {
+            lastModified = lastModified();
+            // a broken file is only reported once, not on every check until it gets fixed
+            if (lastModified != compiled.lastModified && lastModified != failedLastModified) {
+                reload();
+            }
+        } catch (Exception e) {
+            failedLastModified = lastModified;
+            reloadFailures.incrementAndGet();
+            LOG.warn("Reloading SID mappings from " + mappings + " failed, keeping the previous mappings", e);
+        }
+    }
+
+    private long lastModified() {
+        try {
+            return mappings.lastModified();
+        } catch (IOException e) {
+            // not a file, modifications can't be detected
+            return 0;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(this.mappings, "mappings must be specified");
+        reload();
+        if (this.refreshInterval > 0 && this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "sid-mappings");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    refresh();
+                }
+            }, this.refreshInterval, this.refreshInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * @param mappings properties resource with SIDs as keys and comma separated authorities as values
+     */
+    public void setMappings(Resource mappings) {
+        this.mappings = mappings;
+    }
+
+    /**
+     * @param defaultAuthorities authorities every authenticated user gets, e.g. <code>ROLE_USER</code>
+     */
+    public void setDefaultAuthorities(List<String> defaultAuthorities) {
+        this.defaultAuthorities = new ArrayList<String>(defaultAuthorities);
+    }
+
+    /**
+     * How often the mappings resource is checked for modifications, by a daemon thread
+     * which is stopped on {@link #destroy()}.
+     * @param refreshInterval in milliseconds, 0 (the default) disables the check
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        Assert.isTrue(refreshInterval >= 0, "refreshInterval must not be negative");
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * @return all authorities of the active mappings and the defaults in alphabetical order, e.g.
+     *         for {@link org.springframework.security.extensions.kerberos.web.AuthenticationCookieService#setAuthorityNames(Collection)}
+     */
+    public List<String> getAuthorityNames() {
+        return this.compiled.names();
+    }
+
+    /** @return number of SIDs in the active mappings */
+    public int getMappedSidCount() {
+        return compiled.size();
+    }
+
+    /** @return number of successful loads, including the initial one */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    /** @return number of refreshes which failed and kept the previous mappings */
+    public long getReloadFailures() {
+        return reloadFailures.get();
+    }
+
+    /**
+     * Immutable snapshot of the mappings. Authorities are numbered in alphabetical order
+     * and a user's authorities are collected in a bit set over these numbers.
+     */
+    private static final class CompiledMappings {
+        private static final long FREE = -1L;
+
+        final long lastModified;
+        final long generation;
+        private final GrantedAuthority[] authorities;
+        private final long[] defaults;
+        private final long[] keys;
+        private final int[][] values;
+        private final int mask;
+        private final int size;
+
+        CompiledMappings(Properties properties, List<String> defaultAuthorities, long lastModified, long generation) {
+            this.lastModified = lastModified;
+            this.generation = generation;
+
+            SortedSet<String> names = new TreeSet<String>();
+            List<String> defaultNames = authorityNames(defaultAuthorities.toArray(new String[defaultAuthorities.size()]));
+            names.addAll(defaultNames);
+            Map<Long, List<String>> namesBySid = new HashMap<Long, List<String>>();
+            for (String sid : properties.stringPropertyNames()) {
+                long packed;
+                try {
+                    packed = Sid.pack(sid.trim(), true);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Invalid SID in mappings: " + sid, e);
+                }
+                List<String> sidNames = authorityNames(StringUtils.commaDelimitedListToStringArray(properties.getProperty(sid)));
+                names.addAll(sidNames);
+                namesBySid.put(packed, sidNames);
+            }
+
+            Map<String, Integer> numbers = new HashMap<String, Integer>();
+            authorities = new GrantedAuthority[names.size()];
+            for (String name : names) {
+                authorities[numbers.size()] = new GrantedAuthorityImpl(name);
+                numbers.put(name, numbers.size());
+            }
+            defaults = newRoleSet();
+            for (String name : defaultNames) {
+                set(defaults, numbers.get(name));
+            }
+            Map<Long, int[]> rules = new HashMap<Long, int[]>();
+            for (Map.Entry<Long, List<String>> sidNames : namesBySid.entrySet()) {
+                int[] roles = new int[sidNames.getValue().size()];
+                for (int i = 0; i < roles.length; i++) {
+                    roles[i] = numbers.get(sidNames.getValue().get(i));
+                }
+                rules.put(sidNames.getKey(), roles);
+            }
+
+            // open addressing with linear probing, at most half full
+            int capacity = Integer.highestOneBit(Math.max(rules.size(), 1) * 2 - 1) << 1;
+            keys = new long[capacity];
+            Arrays.fill(keys, FREE);
+            values = new int[capacity][];
+            mask = capacity - 1;
+            for (Map.Entry<Long, int[]> rule : rules.entrySet()) {
+                int slot = slot(rule.getKey());
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = rule.getKey();
+                values[slot] = rule.getValue();
+            }
+            size = rules.size();
+        }
+
+        private static List<String> authorityNames(String[] authorities) {
+            List<String> names = new ArrayList<String>();
+            for (String authority : authorities) {
+                String name = authority.trim();
+                if (name.length() > 0) {
+                    names.add(name);
+                }
+            }
+            return names;
+        }
+
+        private int slot(long packed) {
+            return (int) ((packed * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+
+        int size() {
+            return size;
+        }
+
+        List<String> names() {
+            List<String> names = new ArrayList<String>(authorities.length);
+            for (GrantedAuthority authority : authorities) {
+                names.add(authority.getAuthority());
+            }
+            return Collections.unmodifiableList(names);
+        }
+
+        long[] newRoleSet() {
+            return new long[(authorities.length + 63) >>> 6];
+        }
+
+        void addRoles(long packed, long[] roles) {
+            int slot = slot(packed);
+            long key;
+            while ((key = keys[slot]) != FREE) {
+                if (key == packed) {
+                    for (int role : values[slot]) {
+                        set(roles, role);
+                    }
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private static void set(long[] roles, int role) {
+            roles[role >>> 6] |= 1L << role;
+        }
+
+        Collection<GrantedAuthority> toAuthorities(long[] roles) {
+            for (int i = 0; i < roles.length; i++) {
+                roles[i] |= defaults[i];
+            }
+            List<GrantedAuthority> list = new ArrayList<GrantedAuthority>();
+            for (int i = 0; i < authorities.length; i++) {
+                if ((roles[i >>> 6] & 1L << i) != 0) {
+                    list.add(authorities[i]);
+                }
+            }
+            return Collections.unmodifiableList(list);
+        }
+    }
+
+    private static final Log LOG = LogFactory.getLog(SidMappingAuthoritiesPopulator.class);
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable set of {@link Sid}s backed by a sorted <code>long[]</code> of packed
+ * domain id / RID pairs. Membership tests are binary searches and intersections are
+ * merges of the two arrays, neither allocates.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ * @see ActiveDirectoryAuthoritiesPopulator#getGrantedAuthorities(SidSet)
+ */
+public final class SidSet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final SidSet EMPTY = new SidSet(new long[0]);
+
+    // the domain ids are only valid within this process, see writeReplace
+    private final transient long[] sids;
+
+    private SidSet(long[] sids) {
+        this.sids = sids;
+    }
+
+    /**
+     * @param sids SIDs in string form, duplicates are ignored
+     * @throws IllegalArgumentException if one of the strings is not a SID with a sub authority
+     */
+    public static SidSet valueOf(Collection<String> sids) {
+        if (sids.isEmpty()) {
+            return EMPTY;
+        }
+        long[] packed = new long[sids.size()];
+        int i = 0;
+        for (String sid : sids) {
+            packed[i++] = Sid.pack(sid, true);
+        }
+        return create(packed);
+    }
+
+    public static SidSet of(Sid... sids) {
+        long[] packed = new long[sids.length];
+        for (int i = 0; i < sids.length; i++) {
+            packed[i] = sids[i].toLong();
+        }
+        return create(packed);
+    }
+
+    private static SidSet create(long[] packed) {
+        Arrays.sort(packed);
+        int size = 0;
+        for (int i = 0; i < packed.length; i++) {
+            if (size == 0 || packed[size - 1] != packed[i]) {
+                packed[size++] = packed[i];
+            }
+        }
+        if (size == 0) {
+            return EMPTY;
+        }
+        return new SidSet(size == packed.length ? packed : Arrays.copyOf(packed, size));
+    }
+
+    public int size() {
+        return sids.length;
+    }
+
+    public boolean isEmpty() {
+        return sids.length == 0;
+    }
+
+    public boolean contains(Sid sid) {
+        return Arrays.binarySearch(sids, sid.toLong()) >= 0;
+    }
+
+    public boolean contains(int domainId, int rid) {
+        return Arrays.binarySearch(sids, Sid.pack(domainId, rid)) >= 0;
+    }
+
+    /**
+     * Doesn't register unknown domain prefixes, a SID of an unknown domain is never contained.
+     */
+    public boolean contains(String sid) {
+        long packed = Sid.pack(sid, false);
+        return packed >= 0 && Arrays.binarySearch(sids, packed) >= 0;
+    }
+
+    /**
+     * @return true if at least one SID is in both sets
+     */
+    public boolean intersects(SidSet other) {
+        long[] a = sids;
+        long[] b = other.sids;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                return true;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of SIDs in both sets
+     */
+    public int intersectionSize(SidSet other) {
+        long[] a = sids;
+        long[] b = other.sids;
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                count++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true if every SID of other is in this set
+     */
+    public boolean containsAll(SidSet other) {
+        return intersectionSize(other) == other.size();
+    }
+
+    /**
+     * @param index 0 to size - 1, SIDs are ordered by domain id and RID
+     */
+    public Sid get(int index) {
+        return Sid.fromLong(sids[index]);
+    }
+
+    /**
+     * Packed form of the SID at index, the domain id in the upper and the RID in the lower 32 bits.
+     */
+    public long getPacked(int index) {
+        return sids[index];
+    }
+
+    /**
+     * @return the SIDs in string form
+     */
+    public List<String> toStringList() {
+        List<String> result = new ArrayList<String>(sids.length);
+        for (int i = 0; i < sids.length; i++) {
+            result.add(get(i).toString());
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof SidSet && Arrays.equals(sids, ((SidSet) obj).sids);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(sids);
+    }
+
+    @Override
+    public String toString() {
+        return toStringList().toString();
+    }
+
+    private Object writeReplace() {
+        return new SerializedSidSet(toStringList());
+    }
+
+    private static final class SerializedSidSet implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final List<String> sids;
+
+        SerializedSidSet(List<String> sids) {
+            this.sids = sids;
+        }
+
+        private Object readResolve() {
+            return SidSet.valueOf(sids);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the {@link KerberosMetrics} in memory, for JMX export or a status page.
+ *
+ * <p>Distributions are histograms with power of two buckets: bucket <code>i</code> counts
+ * the values from <code>2<sup>i-1</sup></code> up to <code>2<sup>i</sup> - 1</code>, bucket
+ * 0 counts zeros. All counters are preallocated, recording is a few atomic increments.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class SimpleKerberosMetrics implements KerberosMetrics {
+
+    /** number of buckets of every histogram */
+    public static final int BUCKETS = 64;
+
+    private static final int STAGES = Stage.values().length;
+
+    private final AtomicLongArray stageCounts = new AtomicLongArray(STAGES);
+    private final AtomicLongArray stageNanos = new AtomicLongArray(STAGES);
+    private final AtomicLongArray stageHistograms = new AtomicLongArray(STAGES * BUCKETS);
+    private final AtomicLongArray failures = new AtomicLongArray(Failure.values().length);
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLongArray tokenSizes = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray groupSids = new AtomicLongArray(BUCKETS);
+
+    public void recordTime(Stage stage, long nanos) {
+        int index = stage.ordinal();
+        stageCounts.incrementAndGet(index);
+        stageNanos.addAndGet(index, nanos);
+        stageHistograms.incrementAndGet(index * BUCKETS + bucket(nanos));
+    }
+
+    public void recordSuccess() {
+        successes.incrementAndGet();
+    }
+
+    public void recordFailure(Failure cause) {
+        failures.incrementAndGet(cause.ordinal());
+    }
+
+    public void recordTokenSize(int bytes) {
+        tokenSizes.incrementAndGet(bucket(bytes));
+    }
+
+    public void recordGroupSids(int count) {
+        groupSids.incrementAndGet(bucket(count));
+    }
+
+    /**
+     * @return the histogram bucket of the value, negative values count as 0
+     */
+    static int bucket(long value) {
+        return value <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+    }
+
+    /** @return number of times the stage was recorded */
+    public long getCount(Stage stage) {
+        return stageCounts.get(stage.ordinal());
+    }
+
+    /** @return total time spent in the stage in nanoseconds */
+    public long getTotalNanos(Stage stage) {
+        return stageNanos.get(stage.ordinal());
+    }
+
+    /** @return the histogram of the durations of the stage in nanoseconds */
+    public long[] getHistogram(Stage stage) {
+        long[] histogram = new long[BUCKETS];
+        int offset = stage.ordinal() * BUCKETS;
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = stageHistograms.get(offset + i);
+        }
+        return histogram;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile of the stage durations in
+     *         nanoseconds, 0 if the stage wasn't recorded yet
+     */
+    public long getPercentile(Stage stage, double percentile) {
+        return percentile(getHistogram(stage), percentile);
+    }
+
+    public long getSuccesses() {
+        return successes.get();
+    }
+
+    public long getFailures(Failure cause) {
+        return failures.get(cause.ordinal());
+    }
+
+    /** @return the failures of all causes */
+    public long getFailures() {
+        long total = 0;
+        for (int i = 0; i < failures.length(); i++) {
+            total += failures.get(i);
+        }
+        return total;
+    }
+
+    /** @return the histogram of the token sizes in bytes */
+    public long[] getTokenSizes() {
+        return toArray(tokenSizes);
+    }
+
+    /** @return the histogram of the group SID counts */
+    public long[] getGroupSidCounts() {
+        return toArray(groupSids);
+    }
+
+    private static long[] toArray(AtomicLongArray counters) {
+        long[] values = new long[counters.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = counters.get(i);
+        }
+        return values;
+    }
+
+    static long percentile(long[] histogram, double percentile) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max((long) Math.ceil(percentile / 100 * total), 1);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
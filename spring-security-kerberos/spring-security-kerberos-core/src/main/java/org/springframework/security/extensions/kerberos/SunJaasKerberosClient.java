@@ -18,12 +18,14 @@ package org.springframework.security.extensions.kerberos;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Set;
 
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
 import javax.security.auth.callback.PasswordCallback;
 import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.auth.kerberos.KerberosTicket;
 import javax.security.auth.login.AppConfigurationEntry;
 import javax.security.auth.login.Configuration;
 import javax.security.auth.login.LoginContext;
@@ -46,6 +48,8 @@ import org.springframework.security.authentication.BadCredentialsException;
 public class SunJaasKerberosClient implements KerberosClient {
 
     private boolean debug = false;
+    private KerberosLoginCache loginCache;
+    private volatile int krb5ConfigGeneration;
 
     private static final Log LOG = LogFactory.getLog(SunJaasKerberosClient.class);
 
@@ -53,33 +57,75 @@ public class SunJaasKerberosClient implements KerberosClient {
     public String login(String username, String password) {
         LOG.debug("Trying to authenticate " + username + " with Kerberos");
         String validatedUsername;
+        if (this.loginCache != null) {
+            validatedUsername = this.loginCache.get(username, password);
+            if (validatedUsername != null) {
+                LOG.debug("Found login of " + validatedUsername + " in cache");
+                return validatedUsername;
+            }
+        }
         
+        // the JRE keeps the krb5.conf it read first, reload it if a Krb5Config changed it
+        int generation = Krb5Config.generation();
+        boolean refreshKrb5Config = generation != this.krb5ConfigGeneration;
+        this.krb5ConfigGeneration = generation;
         try {
             LoginContext loginContext = new LoginContext("", null, new KerberosClientCallbackHandler(username, password),
-                    new LoginConfig(this.debug));
+                    new LoginConfig(this.debug, refreshKrb5Config));
             loginContext.login();
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Kerberos authenticated user: "+loginContext.getSubject());
             }
             validatedUsername = loginContext.getSubject().getPrincipals().iterator().next().toString();
+            if (this.loginCache != null) {
+                this.loginCache.put(username, password, validatedUsername, ticketLifetime(loginContext
+                        .getSubject().getPrivateCredentials(KerberosTicket.class)));
+            }
             loginContext.logout();
         } catch (LoginException e) {
+            if (this.loginCache != null) {
+                this.loginCache.remove(username);
+            }
             throw new BadCredentialsException("Kerberos authentication failed", e);
         }
         return validatedUsername;
 
     }
 
+    /**
+     * @return milliseconds until the ticket granting ticket expires, 0 without one
+     */
+    private static long ticketLifetime(Set<KerberosTicket> tickets) {
+        long lifetime = 0;
+        for (KerberosTicket ticket : tickets) {
+            if (ticket.getServer().getName().startsWith("krbtgt/") && ticket.getEndTime() != null) {
+                lifetime = Math.max(lifetime, ticket.getEndTime().getTime() - System.currentTimeMillis());
+            }
+        }
+        return lifetime;
+    }
+
     public void setDebug(boolean debug) {
         this.debug = debug;
     }
 
+    /**
+     * Caches successful logins, so repeated logins with the same password don't go to the KDC.
+     * 
+     * @param loginCache default is null, which means every login goes to the KDC
+     */
+    public void setLoginCache(KerberosLoginCache loginCache) {
+        this.loginCache = loginCache;
+    }
+
     private static class LoginConfig extends Configuration {
         private boolean debug;
+        private boolean refreshKrb5Config;
 
-        public LoginConfig(boolean debug) {
+        public LoginConfig(boolean debug, boolean refreshKrb5Config) {
             super();
             this.debug = debug;
+            this.refreshKrb5Config = refreshKrb5Config;
         }
 
         @Override
@@ -89,6 +135,9 @@ public class SunJaasKerberosClient implements KerberosClient {
             if (debug) {
                 options.put("debug", "true");
             }
+            if (refreshKrb5Config) {
+                options.put("refreshKrb5Config", "true");
+            }
 
             return new AppConfigurationEntry[] { new AppConfigurationEntry("com.sun.security.auth.module.Krb5LoginModule",
                     AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options), };
@@ -16,59 +16,188 @@
 
 package org.springframework.security.extensions.kerberos;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.security.Principal;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.security.auth.Subject;
+import javax.security.auth.kerberos.KerberosKey;
 import javax.security.auth.kerberos.KerberosPrincipal;
+import javax.security.auth.kerberos.KerberosTicket;
+import javax.security.auth.kerberos.KeyTab;
 import javax.security.auth.login.AppConfigurationEntry;
 import javax.security.auth.login.Configuration;
 import javax.security.auth.login.LoginContext;
+import javax.security.auth.login.LoginException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.ietf.jgss.GSSContext;
 import org.ietf.jgss.GSSCredential;
+import org.ietf.jgss.GSSException;
 import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.util.Assert;
 
+import com.sun.security.jgss.AuthorizationDataEntry;
+import com.sun.security.jgss.ExtendedGSSContext;
+import com.sun.security.jgss.InquireType;
+
 /**
  * Implementation of {@link KerberosTicketValidator} which uses the SUN JAAS
  * login module, which is included in the SUN JRE, it will not work with an IBM JRE.
  * The whole configuration is done in this class, no additional JAAS configuration
- * is needed.
+ * is needed.<br />
+ * <br />
+ * It also implements {@link ActiveDirectoryTicketValidator}, in which case the PAC is
+ * read from the authorization data of the same security context, so the ticket is
+ * decrypted only once.<br />
+ * <br />
+ * The keys are read from the keytab once per login. With a
+ * {@link #setKeyTabCheckInterval(long) check interval} a changed keytab is picked up in the
+ * background and swapped in without pausing validations. A keytab in the file system is
+ * watched with a <code>WatchService</code>, so its modification time is only read after
+ * something in its directory changed. For the
+ * {@link #setKeyRotationGracePeriod(long) grace period} after such a change, tickets which
+ * are still encrypted with a key version only the previous keytab had are validated with
+ * the previous keys.<br />
+ * <br />
+ * With a {@link #setRenewalInterval(long) renewal interval} the keytab login is also repeated
+ * on the scheduler thread, ahead of the end time of any ticket in the service subject, so a
+ * request thread never has to log in.
  *
  * @author Mike Wiesner
  * @since 1.0
  * @version $Id$
  */
-public class SunJaasKerberosTicketValidator implements KerberosTicketValidator, InitializingBean {
+public class SunJaasKerberosTicketValidator implements ActiveDirectoryTicketValidator, InitializingBean, DisposableBean {
 
     private String servicePrincipal;
     private Resource keyTabLocation;
-    private Subject serviceSubject;
+    private volatile ServiceCredentials serviceCredentials;
+    private volatile RetiredCredentials retiredCredentials;
+    private long keyTabCheckInterval;
+    private long keyRotationGracePeriod = 10 * 60 * 60 * 1000L;
+    private long renewalInterval;
+    private ScheduledExecutorService scheduler;
+    private boolean sharedScheduler;
+    private final AtomicLong renewals = new AtomicLong();
+    private final AtomicLong renewalFailures = new AtomicLong();
+    private long pendingKeyTabModified = -1;
+    private long failedKeyTabModified = -1;
+    private volatile WatchService keyTabWatcher;
     private boolean debug = false;
+    private boolean reuseAcceptorCredential = true;
+    private ValidatedTicketCache ticketCache;
+    private KerberosMetrics metrics = NoOpKerberosMetrics.INSTANCE;
     private static final Log LOG = LogFactory.getLog(SunJaasKerberosTicketValidator.class);
+    private static final long RENEWAL_RETRY_DELAY = 60 * 1000L;
+    private static final Oid KRB5_MECHANISM = createOid("1.2.840.113554.1.2.2");
+    private static final Oid KRB5_PRINCIPAL_NAME = createOid("1.2.840.113554.1.2.2.1");
+    private static final Oid SPNEGO_MECHANISM = createOid("1.3.6.1.5.5.2");
 
     /* (non-Javadoc)
      * @see org.springframework.security.extensions.kerberos.KerberosTicketValidator#validateTicket(byte[])
      */
     public String validateTicket(byte[] token) {
-        String username = null;
+        return validate(token, null, false).getUsername();
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.security.extensions.kerberos.ActiveDirectoryTicketValidator#validateTicketAndGroupSids(byte[])
+     */
+    public ActiveDirectoryTicketValidation validateTicketAndGroupSids(byte[] token) {
+        return validate(token, null, true);
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.security.extensions.kerberos.ActiveDirectoryTicketValidator#validateTicketAndGroupSids(byte[], java.lang.Object)
+     */
+    public ActiveDirectoryTicketValidation validateTicketAndGroupSids(byte[] token, Object client) {
+        return validate(token, client, true);
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.security.extensions.kerberos.ActiveDirectoryTicketValidator#validateTicket(byte[], java.lang.Object)
+     */
+    public ActiveDirectoryTicketValidation validateTicket(byte[] token, Object client) {
+        return validate(token, client, false);
+    }
+
+    private ActiveDirectoryTicketValidation validate(byte[] token, Object client, boolean decodePac) {
+        RetiredCredentials retired = this.retiredCredentials;
+        ApRequestFrame frame = null;
+        boolean cache = this.ticketCache != null && this.ticketCache.isCacheable(client);
+        if (cache || retired != null) {
+            frame = ApRequestFrame.parse(token);
+        }
+        cache = cache && frame != null;
+        if (cache) {
+            ActiveDirectoryTicketValidation cached = this.ticketCache.get(frame, client);
+            if (cached != null) {
+                return cached;
+            }
+        }
         try {
-            username = Subject.doAs(this.serviceSubject, new KerberosValidateAction(token));
+            ServiceCredentials credentials = selectCredentials(frame, retired);
+            // cached entries must be usable for both kinds of validation, so always read the PAC then
+            KerberosValidateAction action = new KerberosValidateAction(token, credentials.acceptorCredential,
+                    decodePac || cache, this.metrics);
+            ActiveDirectoryTicketValidation validation = Subject.doAs(credentials.subject, action);
+            if (cache) {
+                this.ticketCache.put(frame, client, validation, action.lifetime);
+            }
+            return validation;
         } catch (PrivilegedActionException e) {
+            this.metrics.recordFailure(KerberosMetrics.Failure.TICKET_REJECTED);
             throw new BadCredentialsException("Kerberos validation not succesfull", e);
+        } catch (IllegalArgumentException e) {
+            this.metrics.recordFailure(KerberosMetrics.Failure.PAC_INVALID);
+            throw new BadCredentialsException("PAC decoding not succesfull", e);
         }
-        return username;
+    }
+
+    /**
+     * Picks the previous keys for a ticket whose key version only the previous keytab had.
+     */
+    private ServiceCredentials selectCredentials(ApRequestFrame frame, RetiredCredentials retired) {
+        ServiceCredentials current = this.serviceCredentials;
+        if (retired == null || frame == null || frame.getTicketKvno() < 0) {
+            return current;
+        }
+        if (System.currentTimeMillis() >= retired.until) {
+            this.retiredCredentials = null;
+            return current;
+        }
+        int kvno = frame.getTicketKvno();
+        if (!current.hasKvno(kvno) && retired.credentials.hasKvno(kvno)) {
+            return retired.credentials;
+        }
+        return current;
     }
 
     /** The service principal of the application.
@@ -86,7 +215,35 @@ public class SunJaasKerberosTicketValidator implements KerberosTicketValidator,
      * @return  The subject associated with the keytab
      */
     public Subject getServiceSubject() {
-        return serviceSubject;
+        ServiceCredentials credentials = this.serviceCredentials;
+        return credentials != null ? credentials.subject : null;
+    }
+
+    /**
+     * @return the keys of the service principal from the last login, without a lookup
+     *         in the private credentials of the subject
+     */
+    public KerberosKey[] getServiceKeys() {
+        ServiceCredentials credentials = this.serviceCredentials;
+        return credentials != null ? credentials.keys.clone() : new KerberosKey[0];
+    }
+
+    /**
+     * @return time of the last successful keytab login in milliseconds, 0 before the first one
+     */
+    public long getLastRenewalTime() {
+        ServiceCredentials credentials = this.serviceCredentials;
+        return credentials != null ? credentials.loginTime : 0;
+    }
+
+    /** @return number of successful scheduled renewals */
+    public long getRenewals() {
+        return renewals.get();
+    }
+
+    /** @return number of scheduled renewals which failed and kept the previous credentials */
+    public long getRenewalFailures() {
+        return renewalFailures.get();
     }
 
     /**
@@ -106,6 +263,67 @@ public class SunJaasKerberosTicketValidator implements KerberosTicketValidator,
         this.keyTabLocation = keyTabLocation;
     }
 
+    /**
+     * Caches validated tickets, so a Negotiate header which is sent again
+     * doesn't need to be decrypted again. Only validations with a cacheable client, see
+     * {@link #validateTicketAndGroupSids(byte[], Object)} and
+     * {@link ValidatedTicketCache#isCacheable(Object)}, use the cache, and a cached ticket
+     * is only accepted again from the same client, a bounded number of times.
+     *
+     * @param ticketCache default is null, which means no caching
+     */
+    public void setTicketCache(ValidatedTicketCache ticketCache) {
+        this.ticketCache = ticketCache;
+    }
+
+    /**
+     * Acquires the acceptor <code>GSSCredential</code> of the service principal once after login
+     * and uses it for every request. Otherwise the JRE has to look up the key in the subject's
+     * private credentials for every ticket.
+     *
+     * @param reuseAcceptorCredential default is true
+     */
+    public void setReuseAcceptorCredential(boolean reuseAcceptorCredential) {
+        this.reuseAcceptorCredential = reuseAcceptorCredential;
+    }
+
+    /**
+     * How often the keytab is checked. A changed keytab is loaded once its modification time
+     * stayed the same for one more check, so a file which is still being written isn't picked
+     * up. For a file the modification time is only read after the <code>WatchService</code>
+     * reported a change in the keytab's directory, which also covers a keytab that is a
+     * symbolic link replaced by a secret volume. Other resources are read on every check.
+     *
+     * @param keyTabCheckInterval in milliseconds, default is 0 which disables the check
+     * @see #reloadKeyTab()
+     */
+    public void setKeyTabCheckInterval(long keyTabCheckInterval) {
+        Assert.isTrue(keyTabCheckInterval >= 0, "keyTabCheckInterval must not be negative");
+        this.keyTabCheckInterval = keyTabCheckInterval;
+    }
+
+    /**
+     * How long the keys of the previous keytab are still used for tickets with their key
+     * version, after the keytab was reloaded. Should cover the maximum service ticket lifetime.
+     *
+     * @param keyRotationGracePeriod in milliseconds, default is 10 hours, 0 drops the previous keys right away
+     */
+    public void setKeyRotationGracePeriod(long keyRotationGracePeriod) {
+        Assert.isTrue(keyRotationGracePeriod >= 0, "keyRotationGracePeriod must not be negative");
+        this.keyRotationGracePeriod = keyRotationGracePeriod;
+    }
+
+    /**
+     * How often the keytab login is repeated in the background. Independent of this a login is
+     * repeated when four fifths of the lifetime of a ticket in the service subject are over.
+     *
+     * @param renewalInterval in milliseconds, default is 0 which disables renewal
+     */
+    public void setRenewalInterval(long renewalInterval) {
+        Assert.isTrue(renewalInterval >= 0, "renewalInterval must not be negative");
+        this.renewalInterval = renewalInterval;
+    }
+
     /** Enables the debug mode of the JAAS Kerberos login module
      * @param debug default is false
      */
@@ -113,6 +331,26 @@ public class SunJaasKerberosTicketValidator implements KerberosTicketValidator,
         this.debug = debug;
     }
 
+    /**
+     * Receives the GSS accept and PAC decode times, the group SID counts and rejected tickets.
+     * Cached tickets are not timed.
+     *
+     * @param metrics default is a {@link NoOpKerberosMetrics}
+     */
+    public void setMetrics(KerberosMetrics metrics) {
+        Assert.notNull(metrics, "metrics must not be null");
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs the keytab checks and renewals on a scheduler owned by someone else,
+     * which also shuts it down.
+     */
+    void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        this.sharedScheduler = scheduler != null;
+    }
+
     /* (non-Javadoc)
      * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
      */
@@ -123,6 +361,207 @@ public class SunJaasKerberosTicketValidator implements KerberosTicketValidator,
         if (keyTabLocation instanceof ClassPathResource) {
             LOG.warn("Your keytab is in the classpath. This file needs special protection and shouldn't be in the classpath. JAAS may also not be able to load this file from classpath.");
         }
+        if (this.keyTabCheckInterval > 0) {
+            // watch before the login, so a change during the login isn't missed
+            this.keyTabWatcher = watchKeyTab();
+        }
+        this.serviceCredentials = login();
+        if (this.scheduler == null && (this.keyTabCheckInterval > 0 || this.renewalInterval > 0)) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "kerberos-keytab-" + servicePrincipal);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        if (this.keyTabCheckInterval > 0) {
+            this.scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    checkKeyTab();
+                }
+            }, this.keyTabCheckInterval, this.keyTabCheckInterval, TimeUnit.MILLISECONDS);
+        }
+        if (this.renewalInterval > 0) {
+            scheduleRenewal(renewalDelay(this.serviceCredentials));
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() {
+        if (this.scheduler != null && !this.sharedScheduler) {
+            this.scheduler.shutdownNow();
+        }
+        closeKeyTabWatcher();
+    }
+
+    /**
+     * Logs in again with the keytab and replaces the service subject and acceptor credential.
+     * Validations which are in flight finish with the previous credentials, which are kept
+     * for the {@link #setKeyRotationGracePeriod(long) grace period}.
+     *
+     * @throws Exception if the login with the keytab fails, the previous credentials stay active then
+     */
+    public synchronized void reloadKeyTab() throws Exception {
+        ServiceCredentials credentials = login();
+        ServiceCredentials previous = this.serviceCredentials;
+        if (previous != null && previous.kvnos.equals(credentials.kvnos)) {
+            // a renewal with the same keys, a rotation which is still in its grace period stays there
+            this.serviceCredentials = credentials;
+            LOG.debug("Renewed login from keytab " + this.keyTabLocation);
+            return;
+        }
+        if (previous != null && this.keyRotationGracePeriod > 0) {
+            this.retiredCredentials = new RetiredCredentials(previous, System.currentTimeMillis()
+                    + this.keyRotationGracePeriod);
+        } else {
+            this.retiredCredentials = null;
+        }
+        this.serviceCredentials = credentials;
+        if (this.ticketCache != null) {
+            this.ticketCache.clear();
+        }
+        LOG.info("Reloaded keytab " + this.keyTabLocation + " with key versions " + credentials.kvnos);
+    }
+
+    private void scheduleRenewal(long delay) {
+        this.scheduler.schedule(new Runnable() {
+            public void run() {
+                renew();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on the scheduler thread. A failed renewal is retried after a minute at the latest,
+     * the previous credentials stay active in the meantime.
+     */
+    void renew() {
+        long delay;
+        try {
+            reloadKeyTab();
+            renewals.incrementAndGet();
+            delay = renewalDelay(this.serviceCredentials);
+        } catch (Exception e) {
+            renewalFailures.incrementAndGet();
+            LOG.warn("Renewing the login from keytab " + this.keyTabLocation + " failed, keeping the previous credentials", e);
+            delay = Math.min(this.renewalInterval, RENEWAL_RETRY_DELAY);
+        }
+        scheduleRenewal(delay);
+    }
+
+    private long renewalDelay(ServiceCredentials credentials) {
+        long delay = this.renewalInterval;
+        if (credentials.expires != Long.MAX_VALUE) {
+            delay = Math.min(delay, (credentials.expires - System.currentTimeMillis()) * 4 / 5);
+        }
+        return Math.max(delay, 1000);
+    }
+
+    /**
+     * Runs on the scheduler thread, never on a request thread.
+     */
+    void checkKeyTab() {
+        if (this.pendingKeyTabModified == -1 && !keyTabDirectoryChanged()) {
+            return;
+        }
+        long modified = keyTabModified();
+        if (modified == this.serviceCredentials.keyTabModified || modified == this.failedKeyTabModified) {
+            this.pendingKeyTabModified = -1;
+            return;
+        }
+        if (modified != this.pendingKeyTabModified) {
+            // wait one more interval in case the file is still being written
+            this.pendingKeyTabModified = modified;
+            return;
+        }
+        try {
+            reloadKeyTab();
+        } catch (Exception e) {
+            this.failedKeyTabModified = modified;
+            LOG.warn("Reloading keytab " + this.keyTabLocation + " failed, keeping the previous keys", e);
+        }
+        this.pendingKeyTabModified = -1;
+    }
+
+    private WatchService watchKeyTab() {
+        File directory;
+        try {
+            directory = this.keyTabLocation.getFile().getAbsoluteFile().getParentFile();
+        } catch (IOException e) {
+            LOG.debug("Keytab " + this.keyTabLocation + " is not a file, checking its modification time instead");
+            return null;
+        }
+        WatchService watcher = null;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            directory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            return watcher;
+        } catch (IOException e) {
+            LOG.warn("Could not watch " + directory + ", checking the modification time of the keytab instead", e);
+            close(watcher);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if anything in the keytab's directory changed since the last call,
+     *         or if the directory isn't watched
+     */
+    private boolean keyTabDirectoryChanged() {
+        WatchService watcher = this.keyTabWatcher;
+        if (watcher == null) {
+            return true;
+        }
+        boolean changed = false;
+        try {
+            WatchKey key;
+            while ((key = watcher.poll()) != null) {
+                // any event counts, the keytab may be a symbolic link into a directory which is swapped
+                changed |= !key.pollEvents().isEmpty();
+                if (!key.reset()) {
+                    LOG.warn("Keytab directory of " + this.keyTabLocation
+                            + " is no longer watched, checking the modification time instead");
+                    closeKeyTabWatcher();
+                    return true;
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // destroyed while a shared scheduler still runs the check
+            return false;
+        }
+        return changed;
+    }
+
+    private void closeKeyTabWatcher() {
+        close(this.keyTabWatcher);
+        this.keyTabWatcher = null;
+    }
+
+    private static void close(WatchService watcher) {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOG.debug("Could not close the keytab watcher", e);
+            }
+        }
+    }
+
+    private long keyTabModified() {
+        try {
+            return this.keyTabLocation.lastModified();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private ServiceCredentials login() throws Exception {
+        long keyTabModified = keyTabModified();
         LoginConfig loginConfig = new LoginConfig(this.keyTabLocation.getURL().toExternalForm(), this.servicePrincipal,
                 this.debug);
         Set<Principal> princ = new HashSet<Principal>(1);
@@ -130,7 +569,110 @@ public class SunJaasKerberosTicketValidator implements KerberosTicketValidator,
         Subject sub = new Subject(false, princ, new HashSet<Object>(), new HashSet<Object>());
         LoginContext lc = new LoginContext("", sub, null, loginConfig);
         lc.login();
-        this.serviceSubject = lc.getSubject();
+        Subject subject = lc.getSubject();
+        Set<Integer> kvnos = snapshotKeys(subject);
+        if (kvnos.isEmpty()) {
+            // the login module doesn't read the keytab for an acceptor, a missing file only shows up here
+            throw new LoginException("No key for " + this.servicePrincipal + " in keytab " + this.keyTabLocation);
+        }
+        long expires = Long.MAX_VALUE;
+        for (KerberosTicket ticket : subject.getPrivateCredentials(KerberosTicket.class)) {
+            expires = Math.min(expires, ticket.getEndTime().getTime());
+        }
+        GSSCredential credential = null;
+        if (this.reuseAcceptorCredential) {
+            try {
+                credential = Subject.doAs(subject, new AcquireCredentialAction(this.servicePrincipal));
+            } catch (PrivilegedActionException e) {
+                LOG.warn("Could not acquire acceptor credential for " + this.servicePrincipal
+                        + ", falling back to a lookup per request", e.getException());
+            }
+        }
+        Set<KerberosKey> keys = subject.getPrivateCredentials(KerberosKey.class);
+        return new ServiceCredentials(subject, credential, keys.toArray(new KerberosKey[keys.size()]), kvnos,
+                keyTabModified, expires);
+    }
+
+    /**
+     * Since Java 7 the login module stores a {@link KeyTab}, which reads the file again whenever
+     * it changes. It is replaced by the keys it holds right now, so every subject keeps the key
+     * versions it was logged in with.
+     *
+     * @return the key versions in the subject
+     */
+    private static Set<Integer> snapshotKeys(Subject subject) {
+        Set<Object> credentials = subject.getPrivateCredentials();
+        for (KeyTab keyTab : new ArrayList<KeyTab>(subject.getPrivateCredentials(KeyTab.class))) {
+            for (KerberosPrincipal principal : subject.getPrincipals(KerberosPrincipal.class)) {
+                Collections.addAll(credentials, keyTab.getKeys(principal));
+            }
+            credentials.remove(keyTab);
+        }
+        Set<Integer> kvnos = new HashSet<Integer>();
+        for (KerberosKey key : subject.getPrivateCredentials(KerberosKey.class)) {
+            kvnos.add(key.getVersionNumber());
+        }
+        return Collections.unmodifiableSet(kvnos);
+    }
+
+    /**
+     * Subject and acceptor credential belong together and are replaced as one.
+     */
+    private static class ServiceCredentials {
+        final Subject subject;
+        final GSSCredential acceptorCredential;
+        final KerberosKey[] keys;
+        final Set<Integer> kvnos;
+        final long keyTabModified;
+        final long loginTime = System.currentTimeMillis();
+        final long expires;
+
+        ServiceCredentials(Subject subject, GSSCredential acceptorCredential, KerberosKey[] keys, Set<Integer> kvnos,
+                long keyTabModified, long expires) {
+            this.subject = subject;
+            this.acceptorCredential = acceptorCredential;
+            this.keys = keys;
+            this.kvnos = kvnos;
+            this.keyTabModified = keyTabModified;
+            this.expires = expires;
+        }
+
+        boolean hasKvno(int kvno) {
+            return kvnos.contains(kvno);
+        }
+    }
+
+    /**
+     * Credentials of the previous keytab and until when they are used.
+     */
+    private static class RetiredCredentials {
+        final ServiceCredentials credentials;
+        final long until;
+
+        RetiredCredentials(ServiceCredentials credentials, long until) {
+            this.credentials = credentials;
+            this.until = until;
+        }
+    }
+
+    /**
+     * Acquires the acceptor credential for Kerberos and SPNEGO tokens,
+     * has to run with the service subject.
+     */
+    private static class AcquireCredentialAction implements PrivilegedExceptionAction<GSSCredential> {
+        String servicePrincipal;
+
+        public AcquireCredentialAction(String servicePrincipal) {
+            this.servicePrincipal = servicePrincipal;
+        }
+
+        @Override
+        public GSSCredential run() throws Exception {
+            GSSManager manager = GSSManager.getInstance();
+            GSSName name = manager.createName(servicePrincipal, KRB5_PRINCIPAL_NAME);
+            return manager.createCredential(name, GSSCredential.INDEFINITE_LIFETIME,
+                    new Oid[] { KRB5_MECHANISM, SPNEGO_MECHANISM }, GSSCredential.ACCEPT_ONLY);
+        }
     }
 
     /**
@@ -140,24 +682,62 @@ public class SunJaasKerberosTicketValidator implements KerberosTicketValidator,
      * @author Mike Wiesner
      * @since 1.0
      */
-    private static class KerberosValidateAction implements PrivilegedExceptionAction<String> {
+    private static class KerberosValidateAction implements PrivilegedExceptionAction<ActiveDirectoryTicketValidation> {
         byte[] kerberosTicket;
+        GSSCredential acceptorCredential;
+        boolean decodePac;
+        KerberosMetrics metrics;
+        long lifetime;
 
-        public KerberosValidateAction(byte[] kerberosTicket) {
+        public KerberosValidateAction(byte[] kerberosTicket, GSSCredential acceptorCredential, boolean decodePac,
+                KerberosMetrics metrics) {
             this.kerberosTicket = kerberosTicket;
+            this.acceptorCredential = acceptorCredential;
+            this.decodePac = decodePac;
+            this.metrics = metrics;
         }
 
         @Override
-        public String run() throws Exception {
-            GSSContext context = GSSManager.getInstance().createContext((GSSCredential) null);
-            context.acceptSecContext(kerberosTicket, 0, kerberosTicket.length);
-            String user = context.getSrcName().toString();
-            context.dispose();
-            return user;
+        public ActiveDirectoryTicketValidation run() throws Exception {
+            // with a null credential the JRE looks up the key in the subject for every ticket
+            GSSContext context = GSSManager.getInstance().createContext(acceptorCredential);
+            try {
+                long start = System.nanoTime();
+                try {
+                    context.acceptSecContext(kerberosTicket, 0, kerberosTicket.length);
+                } finally {
+                    // rejected tickets take time as well
+                    metrics.recordTime(KerberosMetrics.Stage.GSS_ACCEPT, System.nanoTime() - start);
+                }
+                String user = context.getSrcName().toString();
+                int seconds = context.getLifetime();
+                lifetime = seconds == GSSContext.INDEFINITE_LIFETIME ? Long.MAX_VALUE : seconds * 1000L;
+                List<String> groupSids = Collections.emptyList();
+                if (decodePac && context instanceof ExtendedGSSContext) {
+                    // the ticket was already decrypted by acceptSecContext, so the PAC comes for free
+                    start = System.nanoTime();
+                    AuthorizationDataEntry[] authzData = (AuthorizationDataEntry[]) ((ExtendedGSSContext) context)
+                            .inquireSecContext(InquireType.KRB5_GET_AUTHZ_DATA);
+                    groupSids = PacDecoder.getGroupSids(authzData);
+                    metrics.recordTime(KerberosMetrics.Stage.PAC_DECODE, System.nanoTime() - start);
+                    metrics.recordGroupSids(groupSids.size());
+                }
+                return new ActiveDirectoryTicketValidation(user, groupSids, context.getTargName().toString());
+            } finally {
+                context.dispose();
+            }
         }
 
     }
 
+    private static Oid createOid(String oid) {
+        try {
+            return new Oid(oid);
+        } catch (GSSException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Normally you need a JAAS config file in order to use the JAAS Kerberos Login Module,
      * with this class it is not needed and you can have different configurations in one JVM.
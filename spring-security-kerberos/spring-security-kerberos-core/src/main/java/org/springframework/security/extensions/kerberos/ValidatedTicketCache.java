@@ -0,0 +1,254 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+import org.springframework.util.Assert;
+
+/**
+ * Bounded cache of already validated tickets for {@link SunJaasKerberosTicketValidator}.
+ * Browsers often send the same Negotiate header again on the following requests of a
+ * keep-alive connection, these don't need to go through <code>acceptSecContext</code> again.
+ *
+ * <p>A hit is an exact replay of an AP-REQ, which the replay cache of the JRE would reject
+ * and which never reaches it. Every entry is therefore bound to the client which presented
+ * the token first, e.g. the <code>WebAuthenticationDetails</code> set by the
+ * <code>SpnegoAuthenticationProcessingFilter</code>. Only {@link #isCacheable(Object) clients}
+ * with a session are cached, as the remote address alone is shared by everyone behind the
+ * same proxy, while the session id is only known to its browser. The same token from another
+ * client is rejected as a replay. An entry serves at most {@link #setMaxUses(int) maxUses}
+ * hits, afterwards the token goes to the JRE again, which rejects it.</p>
+ *
+ * <p>Entries are keyed by a SHA-256 digest of the encrypted AP-REQ authenticator and expire
+ * after the time to live, but never later than the end time of the ticket. A cached
+ * authenticator which comes back with a different ticket is rejected as a replay as well. As
+ * the time to live is capped to the default Kerberos clock skew of 5 minutes, a token which was
+ * evicted from this cache is still caught by the replay cache of the JRE.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ * @see SunJaasKerberosTicketValidator#setTicketCache(ValidatedTicketCache)
+ */
+public class ValidatedTicketCache {
+
+    /** Default Kerberos clock skew, longer lifetimes would escape the replay cache of the JRE */
+    public static final long MAX_TIME_TO_LIVE = 5 * 60 * 1000L;
+
+    private int maxEntries = 1000;
+    private long timeToLive = 60 * 1000L;
+    private int maxUses = 10;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong replays = new AtomicLong();
+
+    private final Map<ByteBuffer, CachedTicket> entries = new LinkedHashMap<ByteBuffer, CachedTicket>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CachedTicket> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * @param client the client which presents a token, e.g. the details of the authentication request
+     * @return true if validations for this client may be cached, false without a client and for
+     *         <code>WebAuthenticationDetails</code> without a session id
+     */
+    public boolean isCacheable(Object client) {
+        if (client instanceof WebAuthenticationDetails) {
+            return ((WebAuthenticationDetails) client).getSessionId() != null;
+        }
+        return client != null;
+    }
+
+    /**
+     * @param frame the AP-REQ to validate
+     * @param client a {@link #isCacheable(Object) cacheable} client which presented it, compared
+     *        with {@link Object#equals(Object)}
+     * @return the cached validation or null if the ticket has not been validated yet
+     * @throws KerberosReplayException if the authenticator was already seen with another ticket
+     *         or from another client
+     */
+    public ActiveDirectoryTicketValidation get(ApRequestFrame frame, Object client) {
+        Assert.isTrue(isCacheable(client), "client must be cacheable");
+        ByteBuffer key = ByteBuffer.wrap(digest(frame.getToken(), frame.getAuthenticatorCipherOffset(),
+                frame.getAuthenticatorCipherLength()));
+        byte[] ticketDigest = digest(frame.getToken(), frame.getTicketCipherOffset(), frame.getTicketCipherLength());
+        synchronized (entries) {
+            CachedTicket entry = entries.get(key);
+            if (entry != null && entry.expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (!Arrays.equals(ticketDigest, entry.ticketDigest)) {
+                replays.incrementAndGet();
+                throw new KerberosReplayException("Kerberos authenticator was replayed with a different ticket");
+            }
+            if (!client.equals(entry.client)) {
+                replays.incrementAndGet();
+                throw new KerberosReplayException("Kerberos authenticator was replayed by another client");
+            }
+            if (++entry.uses >= maxUses) {
+                entries.remove(key);
+            }
+            hits.incrementAndGet();
+            return entry.validation;
+        }
+    }
+
+    /**
+     * @param frame the validated AP-REQ
+     * @param client the client which presented it, the only one to get the cached validation
+     * @param validation the result of the validation
+     * @param ticketLifetime remaining lifetime of the ticket in milliseconds
+     */
+    public void put(ApRequestFrame frame, Object client, ActiveDirectoryTicketValidation validation,
+            long ticketLifetime) {
+        Assert.isTrue(isCacheable(client), "client must be cacheable");
+        long lifetime = Math.min(timeToLive, ticketLifetime);
+        if (lifetime <= 0) {
+            return;
+        }
+        CachedTicket entry = new CachedTicket(validation, client,
+                digest(frame.getToken(), frame.getTicketCipherOffset(), frame.getTicketCipherLength()),
+                System.currentTimeMillis() + lifetime);
+        ByteBuffer key = ByteBuffer.wrap(digest(frame.getToken(), frame.getAuthenticatorCipherOffset(),
+                frame.getAuthenticatorCipherLength()));
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /** Removes all entries, e.g. after the keytab changed */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** @return number of entries removed because the cache was full */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** @return number of entries removed because their lifetime was over */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    /** @return number of authenticators which came back with a different ticket or from another client */
+    public long getReplaysDetected() {
+        return replays.get();
+    }
+
+    /** @return hits / (hits + misses), 0 if the cache was never used */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Maximum number of cached tickets, the least recently used are evicted first.
+     * @param maxEntries default is 1000
+     */
+    public void setMaxEntries(int maxEntries) {
+        Assert.isTrue(maxEntries > 0, "maxEntries must be positive");
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * How long a validated ticket is cached, at most {@link #MAX_TIME_TO_LIVE}.
+     * @param timeToLive in milliseconds, default is one minute
+     */
+    public void setTimeToLive(long timeToLive) {
+        Assert.isTrue(timeToLive > 0 && timeToLive <= MAX_TIME_TO_LIVE, "timeToLive must be between 1 and "
+                + MAX_TIME_TO_LIVE + " ms");
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * How many resends of the same token are served from one entry.
+     * @param maxUses default is 10
+     */
+    public void setMaxUses(int maxUses) {
+        Assert.isTrue(maxUses > 0, "maxUses must be positive");
+        this.maxUses = maxUses;
+    }
+
+    private static byte[] digest(byte[] data, int offset, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data, offset, length);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static class CachedTicket {
+        final ActiveDirectoryTicketValidation validation;
+        final Object client;
+        final byte[] ticketDigest;
+        final long expires;
+        // guarded by the entries
+        int uses;
+
+        CachedTicket(ActiveDirectoryTicketValidation validation, Object client, byte[] ticketDigest, long expires) {
+            this.validation = validation;
+            this.client = client;
+            this.ticketDigest = ticketDigest;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Warnings about failed authentications, at most one per cause and interval. A client
+ * which retries a bad token in a loop would otherwise write a stack trace per request.
+ * The first failure of a cause is logged with its stack trace, the following ones are
+ * counted and reported as one line with the count once the interval is over. The cause
+ * is the exception type and message together with the message of the underlying
+ * exception, e.g. the <code>GSSException</code> of the acceptor.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+final class AggregatingFailureLog {
+
+    /** Further causes are counted together, their messages may contain user names */
+    static final int MAX_CAUSES = 100;
+    static final String OTHER_CAUSES = "other causes";
+
+    private final Log log;
+    private final long interval;
+    private final Clock clock;
+    private final ConcurrentMap<String, Cause> causes = new ConcurrentHashMap<String, Cause>();
+
+    /**
+     * @param log where the warnings go
+     * @param interval minimum time between two warnings of the same cause in milliseconds,
+     *        0 logs every failure with its stack trace
+     */
+    AggregatingFailureLog(Log log, long interval) {
+        this(log, interval, Clock.systemUTC());
+    }
+
+    /**
+     * @param clock decides when an interval is over
+     */
+    AggregatingFailureLog(Log log, long interval, Clock clock) {
+        this.log = log;
+        this.interval = interval;
+        this.clock = clock;
+    }
+
+    /**
+     * @param fingerprint of the Negotiate header
+     * @param failure why the authentication failed
+     */
+    void failed(String fingerprint, AuthenticationException failure) {
+        if (!log.isWarnEnabled()) {
+            return;
+        }
+        if (interval == 0) {
+            log.warn("Negotiate Header was invalid: " + fingerprint, failure);
+            return;
+        }
+        String key = key(failure);
+        Cause cause = causes.get(key);
+        if (cause == null) {
+            if (causes.size() >= MAX_CAUSES) {
+                key = OTHER_CAUSES;
+                cause = causes.get(key);
+            }
+            if (cause == null) {
+                Cause created = new Cause();
+                cause = causes.putIfAbsent(key, created);
+                if (cause == null) {
+                    cause = created;
+                }
+            }
+        }
+        long now = clock.millis();
+        boolean first;
+        int count;
+        synchronized (cause) {
+            if (now < cause.nextReport) {
+                cause.suppressed++;
+                count = 0;
+                first = false;
+            } else {
+                first = cause.nextReport == 0;
+                count = cause.suppressed + 1;
+                cause.suppressed = 0;
+                cause.nextReport = now + interval;
+            }
+        }
+        if (first) {
+            log.warn("Negotiate Header was invalid: " + fingerprint, failure);
+        } else if (count > 0) {
+            log.warn(summary(key, count, fingerprint));
+        } else if (log.isDebugEnabled()) {
+            log.debug("Negotiate Header was invalid: " + fingerprint + " (" + key + ")");
+        }
+    }
+
+    /**
+     * Reports the failures which were counted but not logged yet, e.g. at shutdown.
+     */
+    void flush() {
+        for (Map.Entry<String, Cause> entry : causes.entrySet()) {
+            int count;
+            synchronized (entry.getValue()) {
+                count = entry.getValue().suppressed;
+                entry.getValue().suppressed = 0;
+            }
+            if (count > 0) {
+                log.warn(summary(entry.getKey(), count, null));
+            }
+        }
+    }
+
+    private String summary(String cause, int count, String fingerprint) {
+        StringBuilder summary = new StringBuilder("Negotiate Header was invalid ").append(count).append(
+                count == 1 ? " time" : " times").append(" since the last report: ").append(cause);
+        if (fingerprint != null) {
+            summary.append(", last header ").append(fingerprint);
+        }
+        return summary.toString();
+    }
+
+    private static String key(AuthenticationException failure) {
+        StringBuilder key = new StringBuilder(failure.getClass().getSimpleName()).append(": ").append(
+                failure.getMessage());
+        Throwable cause = failure.getCause();
+        if (cause != null) {
+            key.append(" (").append(cause.getClass().getSimpleName()).append(": ").append(cause.getMessage())
+                    .append(')');
+        }
+        return key.toString();
+    }
+
+    private static class Cause {
+        // 0 until the first failure was logged
+        long nextReport;
+        int suppressed;
+    }
+}
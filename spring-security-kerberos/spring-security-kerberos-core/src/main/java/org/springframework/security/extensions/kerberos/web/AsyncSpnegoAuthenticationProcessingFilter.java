@@ -0,0 +1,273 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.util.Assert;
+
+/**
+ * {@link SpnegoAuthenticationProcessingFilter} for Servlet 3.0 containers, which
+ * validates tokens on its own executor instead of the request thread. The request is put
+ * into asynchronous mode while the ticket is validated and dispatched again with the
+ * result, so the container threads stay free for requests without authentication.
+ * Decoding and checking the header and the authentication cookie happen on the request
+ * thread, they are cheap.
+ *
+ * <p>When the result comes back the filter sets the {@link Authentication} into the
+ * <code>SecurityContextHolder</code> of the dispatch thread and continues the filter
+ * chain, or answers like the synchronous filter. The filter, the filters before it and
+ * the servlets behind it must support asynchronous requests, and the filter must be
+ * mapped for the <code>ASYNC</code> dispatcher too:</p>
+ *
+ * <pre>
+ * &lt;filter&gt;
+ * 	&lt;filter-name&gt;springSecurityFilterChain&lt;/filter-name&gt;
+ * 	&lt;filter-class&gt;org.springframework.web.filter.DelegatingFilterProxy&lt;/filter-class&gt;
+ * 	&lt;async-supported&gt;true&lt;/async-supported&gt;
+ * &lt;/filter&gt;
+ * &lt;filter-mapping&gt;
+ * 	&lt;filter-name&gt;springSecurityFilterChain&lt;/filter-name&gt;
+ * 	&lt;url-pattern&gt;/*&lt;/url-pattern&gt;
+ * 	&lt;dispatcher&gt;REQUEST&lt;/dispatcher&gt;
+ * 	&lt;dispatcher&gt;ASYNC&lt;/dispatcher&gt;
+ * &lt;/filter-mapping&gt;
+ * </pre>
+ *
+ * <p>Requests which don't support asynchronous processing are authenticated on the
+ * request thread. The default executor has one thread per processor, as validation is
+ * CPU bound, and a bounded queue. Requests which find the queue full or don't get a
+ * result within the {@link #setAsyncTimeout(long) timeout} are answered with a 503 and
+ * a <code>Retry-After</code> header.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class AsyncSpnegoAuthenticationProcessingFilter extends SpnegoAuthenticationProcessingFilter {
+
+    /** Request attribute with the result of the validation for the async dispatch */
+    static final String RESULT_ATTRIBUTE = AsyncSpnegoAuthenticationProcessingFilter.class.getName() + ".RESULT";
+    private static final Object OVERLOADED = new Object();
+
+    private Executor executor;
+    private ThreadPoolExecutor defaultExecutor;
+    private int maxConcurrentValidations = Runtime.getRuntime().availableProcessors();
+    private int maxQueuedValidations = 100;
+    private long asyncTimeout = 10 * 1000L;
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.springframework.security.extensions.kerberos.web.SpnegoAuthenticationProcessingFilter#doFilter(javax.servlet.ServletRequest,
+     * javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException,
+            ServletException {
+        Object result = req.getAttribute(RESULT_ATTRIBUTE);
+        if (result != null && req.getDispatcherType() == DispatcherType.ASYNC) {
+            req.removeAttribute(RESULT_ATTRIBUTE);
+            resume((HttpServletRequest) req, (HttpServletResponse) res, chain, result);
+            return;
+        }
+        super.doFilter(req, res, chain);
+    }
+
+    /**
+     * Starts the asynchronous mode and hands the token to the executor.
+     */
+    @Override
+    void processToken(HttpServletRequest request, HttpServletResponse response, FilterChain chain, String header,
+            final byte[] kerberosTicket) throws IOException, ServletException {
+        if (!request.isAsyncSupported()) {
+            super.processToken(request, response, chain, header, kerberosTicket);
+            return;
+        }
+        final Object details = buildDetails(request);
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(asyncTimeout);
+        final Resumption resumption = new Resumption(asyncContext);
+        asyncContext.addListener(resumption);
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    Object result;
+                    try {
+                        result = authenticateToken(kerberosTicket, details);
+                        if (result == null) {
+                            result = OVERLOADED;
+                        }
+                    } catch (RuntimeException e) {
+                        // failures are handled and other exceptions rethrown on the dispatch thread
+                        result = e;
+                    }
+                    resumption.resume(result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            resumption.resume(OVERLOADED);
+        }
+    }
+
+    private void resume(HttpServletRequest request, HttpServletResponse response, FilterChain chain, Object result)
+            throws IOException, ServletException {
+        if (result instanceof Authentication) {
+            successfulAuthentication(request, response, (Authentication) result);
+            chain.doFilter(request, response);
+        } else if (result instanceof AuthenticationException) {
+            unsuccessfulAuthentication(request, response, request.getHeader("Authorization"),
+                    (AuthenticationException) result);
+        } else if (result instanceof RuntimeException) {
+            throw (RuntimeException) result;
+        } else {
+            rejectOverloaded(request, response);
+        }
+    }
+
+    /**
+     * The executor for the validations, e.g. a shared pool of the application. On a JDK
+     * with virtual threads a virtual thread per task executor frees even the executor
+     * threads while the authentication waits for LDAP, but the ticket validation itself
+     * still needs a processor. Combine it with an {@link AuthenticationBulkhead} then.
+     * 
+     * @param executor default is a pool of {@link #setMaxConcurrentValidations(int)}
+     *        threads, which is shut down with the filter
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param maxConcurrentValidations threads of the default executor, default is the
+     *        number of available processors
+     */
+    public void setMaxConcurrentValidations(int maxConcurrentValidations) {
+        Assert.isTrue(maxConcurrentValidations > 0, "maxConcurrentValidations must be positive");
+        this.maxConcurrentValidations = maxConcurrentValidations;
+    }
+
+    /**
+     * @param maxQueuedValidations size of the queue of the default executor, default is 100
+     */
+    public void setMaxQueuedValidations(int maxQueuedValidations) {
+        Assert.isTrue(maxQueuedValidations > 0, "maxQueuedValidations must be positive");
+        this.maxQueuedValidations = maxQueuedValidations;
+    }
+
+    /**
+     * How long a request waits for its validation, including the time in the queue of the
+     * executor.
+     * 
+     * @param asyncTimeout in milliseconds, default is 10 seconds
+     */
+    public void setAsyncTimeout(long asyncTimeout) {
+        Assert.isTrue(asyncTimeout > 0, "asyncTimeout must be positive");
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.springframework.security.extensions.kerberos.web.SpnegoAuthenticationProcessingFilter#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() throws ServletException {
+        super.afterPropertiesSet();
+        if (this.executor == null) {
+            this.defaultExecutor = new ThreadPoolExecutor(this.maxConcurrentValidations,
+                    this.maxConcurrentValidations, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                            this.maxQueuedValidations), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "spnego-validation-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            this.executor = this.defaultExecutor;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.springframework.security.extensions.kerberos.web.SpnegoAuthenticationProcessingFilter#destroy()
+     */
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (this.defaultExecutor != null) {
+            this.defaultExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Dispatches the request once, with the result of the validation or as overloaded
+     * after a timeout, whichever comes first.
+     */
+    private static class Resumption implements AsyncListener {
+        private final AsyncContext asyncContext;
+        private final AtomicBoolean resumed = new AtomicBoolean();
+
+        Resumption(AsyncContext asyncContext) {
+            this.asyncContext = asyncContext;
+        }
+
+        void resume(Object result) {
+            if (resumed.compareAndSet(false, true)) {
+                asyncContext.getRequest().setAttribute(RESULT_ATTRIBUTE, result);
+                asyncContext.dispatch();
+            }
+        }
+
+        public void onTimeout(AsyncEvent event) {
+            resume(OVERLOADED);
+        }
+
+        public void onComplete(AsyncEvent event) {
+        }
+
+        public void onError(AsyncEvent event) {
+        }
+
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+/**
+ * Limits the number of concurrent authentications of the
+ * {@link SpnegoAuthenticationProcessingFilter}. Validating a ticket is CPU bound, so more
+ * concurrent validations than processors only make each of them slower. Without a limit a
+ * login storm ties up every servlet thread in the GSS acceptor, and requests which need no
+ * authentication at all starve.
+ *
+ * <p>A request which finds no free permit waits up to {@link #setMaxWait(long) maxWait}
+ * for one, but only if less than {@link #setMaxWaiting(int) maxWaiting} requests are
+ * waiting already. Otherwise it is rejected and the filter answers with
+ * <code>503 Service Unavailable</code> and a <code>Retry-After</code> header.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ * @see SpnegoAuthenticationProcessingFilter#setAuthenticationBulkhead(AuthenticationBulkhead)
+ */
+public class AuthenticationBulkhead {
+
+    private int maxConcurrent = Runtime.getRuntime().availableProcessors();
+    private int maxWaiting = 2 * maxConcurrent;
+    private long maxWait = 500;
+    private int retryAfter = 1;
+    private Semaphore permits = new Semaphore(maxConcurrent);
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    /**
+     * Takes a permit, waiting for one if necessary. Every successful call must be followed
+     * by a call of {@link #release()}.
+     *
+     * @return false if the request is rejected, because too many requests are waiting or
+     *         no permit became free within the maximum wait
+     */
+    public boolean acquire() {
+        Semaphore permits = this.permits;
+        if (permits.tryAcquire()) {
+            admitted.incrementAndGet();
+            return true;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        queued.incrementAndGet();
+        try {
+            if (permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                admitted.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.decrementAndGet();
+        }
+        timedOut.incrementAndGet();
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Returns the permit of a successful {@link #acquire()}.
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * @return number of authentications in progress
+     */
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * @return number of requests waiting for a permit, the current queue depth
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /** @return number of requests which got a permit */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /** @return number of requests which had to wait for a permit */
+    public long getQueued() {
+        return queued.get();
+    }
+
+    /** @return number of requests rejected, because the queue was full or their wait timed out */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /** @return number of requests rejected after waiting the maximum time */
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * @return the value of the <code>Retry-After</code> header in seconds
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Maximum number of concurrent authentications, to be set before the first request.
+     * @param maxConcurrent default is the number of available processors
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        Assert.isTrue(maxConcurrent > 0, "maxConcurrent must be positive");
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * Maximum number of requests waiting for a permit, each of them blocks a servlet thread.
+     * @param maxWaiting default is twice the number of available processors, 0 rejects
+     *        requests right away if all permits are taken
+     */
+    public void setMaxWaiting(int maxWaiting) {
+        Assert.isTrue(maxWaiting >= 0, "maxWaiting must not be negative");
+        this.maxWaiting = maxWaiting;
+    }
+
+    /**
+     * How long a request waits for a permit before it is rejected.
+     * @param maxWait in milliseconds, default is 500
+     */
+    public void setMaxWait(long maxWait) {
+        Assert.isTrue(maxWait >= 0, "maxWait must not be negative");
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @param retryAfter value of the <code>Retry-After</code> header of rejected requests
+     *        in seconds, default is 1
+     */
+    public void setRetryAfter(int retryAfter) {
+        Assert.isTrue(retryAfter >= 0, "retryAfter must not be negative");
+        this.retryAfter = retryAfter;
+    }
+}
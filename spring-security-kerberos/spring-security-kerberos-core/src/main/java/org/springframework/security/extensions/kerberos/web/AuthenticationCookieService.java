@@ -0,0 +1,569 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.GrantedAuthorityImpl;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.extensions.kerberos.KerberosServiceRequestToken;
+import org.springframework.security.web.authentication.logout.LogoutHandler;
+import org.springframework.util.Assert;
+
+/**
+ * Issues a short-lived cookie after a successful SPNEGO authentication, which carries the
+ * user name, the accepting service principal and the authorities, protected by an
+ * HMAC-SHA256. Following requests of the browser are authenticated with one MAC check
+ * instead of a Kerberos validation, which matters for stateless applications where
+ * {@link SpnegoAuthenticationProcessingFilter#setSkipIfAlreadyAuthenticated(boolean)} has
+ * no session to look at. Set it on the filter with
+ * {@link SpnegoAuthenticationProcessingFilter#setAuthenticationCookieService(AuthenticationCookieService)}.
+ *
+ * <pre>
+ * &lt;bean id=&quot;authenticationCookieService&quot;
+ * 	class=&quot;org.springframework.security.extensions.kerberos.web.AuthenticationCookieService&quot;&gt;
+ * 	&lt;property name=&quot;keys&quot;&gt;
+ * 		&lt;list&gt;
+ * 			&lt;value&gt;${cookie.key.current}&lt;/value&gt;
+ * 			&lt;value&gt;${cookie.key.previous}&lt;/value&gt;
+ * 		&lt;/list&gt;
+ * 	&lt;/property&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ *
+ * <p>The keys are Base64 encoded secrets of at least 32 bytes, shared by all nodes behind the
+ * load balancer. The first one signs new cookies, the others are only accepted, so a key is
+ * rotated by putting a new one in front and dropping the last one after the cookie lifetime.
+ * Every cookie names its key by a fingerprint, so only one MAC is computed per request.</p>
+ *
+ * <p>Browsers drop cookies over about 4 KB, which a user in a few dozen groups exceeds when
+ * every authority is written out. With the {@link #setAuthorityNames(Collection) authority
+ * names}, e.g. those of a {@link org.springframework.security.extensions.kerberos.SidMappingAuthoritiesPopulator},
+ * an authority takes one or two bytes. A cookie which is still too large isn't issued, the
+ * browser then authenticates with Kerberos again.</p>
+ *
+ * <p>The content is readable by the client unless {@link #setEncrypt(boolean) encryption}
+ * is enabled, which uses AES-CTR under a key derived from the same secret before the MAC is
+ * computed. A cookie stays valid until it expires, also after a logout elsewhere, so keep
+ * the {@link #setLifetime(long) lifetime} short. Register this class as a logout handler to
+ * remove the cookie on logout.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class AuthenticationCookieService implements LogoutHandler, InitializingBean {
+
+    private static final Log LOG = LogFactory.getLog(AuthenticationCookieService.class);
+    private static final int VERSION = 2;
+    private static final int ENCRYPTED = 1;
+    private static final int LITERAL = 0;
+    private static final int HEADER_LENGTH = 14;
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final int MIN_SECRET_LENGTH = 32;
+
+    private volatile CookieKey[] keys;
+    private String cookieName = "SPNEGO_AUTH";
+    private String cookiePath;
+    private long lifetime = 5 * 60 * 1000L;
+    private boolean secureCookie = true;
+    private boolean encrypt = false;
+    private int maxCookieSize = 4096;
+    private volatile AuthorityNames authorityNames = new AuthorityNames(Collections.<String> emptyList());
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong oversized = new AtomicLong();
+    private final AtomicBoolean oversizedLogged = new AtomicBoolean();
+
+    /**
+     * @return the authentication from a valid cookie of the request, null if there is no cookie
+     *         or it is invalid or expired
+     */
+    public Authentication readCookie(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
+            if (this.cookieName.equals(cookie.getName())) {
+                return decode(cookie.getValue());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the cookie for an authentication, unless it would be larger than the
+     * {@link #setMaxCookieSize(int) maximum size}.
+     */
+    public void writeCookie(HttpServletRequest request, HttpServletResponse response, Authentication authentication) {
+        String value = encode(authentication);
+        int size = this.cookieName.length() + 1 + value.length();
+        if (size > this.maxCookieSize) {
+            this.oversized.incrementAndGet();
+            if (this.oversizedLogged.compareAndSet(false, true)) {
+                LOG.warn("Not issuing an authentication cookie of " + size + " bytes for " + authentication.getName()
+                        + " with " + authentication.getAuthorities().size() + " authorities, the maximum is "
+                        + this.maxCookieSize + ". Configure the authority names to encode authorities compactly."
+                        + " Further oversized cookies are only logged at debug level.");
+            } else if (LOG.isDebugEnabled()) {
+                LOG.debug("Not issuing an authentication cookie of " + size + " bytes for " + authentication.getName());
+            }
+            return;
+        }
+        // Servlet 2.5 cookies can't be HttpOnly, so the header is written directly
+        response.addHeader("Set-Cookie", cookieHeader(request, value, this.lifetime / 1000));
+    }
+
+    /**
+     * Removes the cookie.
+     */
+    public void logout(HttpServletRequest request, HttpServletResponse response, Authentication authentication) {
+        response.addHeader("Set-Cookie", cookieHeader(request, "", 0));
+    }
+
+    private String cookieHeader(HttpServletRequest request, String value, long maxAge) {
+        StringBuilder header = new StringBuilder(this.cookieName.length() + value.length() + 64);
+        header.append(this.cookieName).append('=').append(value);
+        String path = this.cookiePath;
+        if (path == null) {
+            path = request.getContextPath();
+        }
+        header.append("; Path=").append(path.length() > 0 ? path : "/");
+        header.append("; Max-Age=").append(maxAge);
+        if (this.secureCookie) {
+            header.append("; Secure");
+        }
+        return header.append("; HttpOnly").toString();
+    }
+
+    /**
+     * @return the cookie value for the authentication, valid for the configured lifetime
+     */
+    public String encode(Authentication authentication) {
+        return encode(authentication, System.currentTimeMillis() + this.lifetime);
+    }
+
+    String encode(Authentication authentication, long expires) {
+        CookieKey key = this.keys[0];
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeByte(VERSION);
+            out.writeByte(this.encrypt ? ENCRYPTED : 0);
+            out.writeInt(key.id);
+            out.writeLong(expires);
+            byte[] iv = null;
+            if (this.encrypt) {
+                iv = new byte[IV_LENGTH];
+                this.random.nextBytes(iv);
+                out.write(iv);
+            }
+            out.writeUTF(authentication.getName());
+            String servicePrincipal = authentication instanceof KerberosServiceRequestToken
+                    ? ((KerberosServiceRequestToken) authentication).getServicePrincipal() : null;
+            out.writeUTF(servicePrincipal != null ? servicePrincipal : "");
+            AuthorityNames names = this.authorityNames;
+            out.writeInt(names.id);
+            Collection<GrantedAuthority> authorities = authentication.getAuthorities();
+            out.writeShort(authorities.size());
+            for (GrantedAuthority authority : authorities) {
+                Integer index = names.indexes.get(authority.getAuthority());
+                if (index != null) {
+                    writeVarInt(out, index + 1);
+                } else {
+                    writeVarInt(out, LITERAL);
+                    out.writeUTF(authority.getAuthority());
+                }
+            }
+            out.write(new byte[MAC_LENGTH]);
+            byte[] cookie = buffer.toByteArray();
+            int macOffset = cookie.length - MAC_LENGTH;
+            if (iv != null) {
+                int bodyOffset = HEADER_LENGTH + IV_LENGTH;
+                key.cipher(Cipher.ENCRYPT_MODE, iv).doFinal(cookie, bodyOffset, macOffset - bodyOffset, cookie,
+                        bodyOffset);
+            }
+            Mac mac = key.mac();
+            mac.update(cookie, 0, macOffset);
+            mac.doFinal(cookie, macOffset);
+            return encodeUrlSafe(cookie);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the authentication of a valid cookie, null if the cookie is invalid or expired
+     */
+    public Authentication decode(String value) {
+        byte[] cookie = decodeUrlSafe(value);
+        if (cookie == null || cookie.length < HEADER_LENGTH + MAC_LENGTH || cookie[0] != VERSION) {
+            return reject("malformed", null);
+        }
+        int id = (cookie[2] & 0xff) << 24 | (cookie[3] & 0xff) << 16 | (cookie[4] & 0xff) << 8 | cookie[5] & 0xff;
+        CookieKey key = null;
+        for (CookieKey candidate : this.keys) {
+            if (candidate.id == id) {
+                key = candidate;
+                break;
+            }
+        }
+        if (key == null) {
+            return reject("signed with an unknown key", null);
+        }
+        int macOffset = cookie.length - MAC_LENGTH;
+        Mac mac = key.mac();
+        mac.update(cookie, 0, macOffset);
+        byte[] expected = mac.doFinal();
+        byte[] actual = new byte[MAC_LENGTH];
+        System.arraycopy(cookie, macOffset, actual, 0, MAC_LENGTH);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            return reject("invalid MAC", null);
+        }
+        long expires = 0;
+        for (int i = 6; i < HEADER_LENGTH; i++) {
+            expires = expires << 8 | cookie[i] & 0xff;
+        }
+        if (System.currentTimeMillis() >= expires) {
+            return reject("expired", null);
+        }
+        try {
+            int bodyOffset = HEADER_LENGTH;
+            if ((cookie[1] & ENCRYPTED) != 0) {
+                bodyOffset += IV_LENGTH;
+                byte[] iv = Arrays.copyOfRange(cookie, HEADER_LENGTH, bodyOffset);
+                key.cipher(Cipher.DECRYPT_MODE, iv).doFinal(cookie, bodyOffset, macOffset - bodyOffset,
+                        cookie, bodyOffset);
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(cookie, bodyOffset, macOffset
+                    - bodyOffset));
+            String username = in.readUTF();
+            String servicePrincipal = in.readUTF();
+            AuthorityNames names = this.authorityNames;
+            if (in.readInt() != names.id) {
+                // e.g. a node with other authority names during a deployment
+                return reject("written with other authority names", null);
+            }
+            int count = in.readUnsignedShort();
+            List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>(count);
+            for (int i = 0; i < count; i++) {
+                int index = readVarInt(in);
+                if (index == LITERAL) {
+                    authorities.add(new GrantedAuthorityImpl(in.readUTF()));
+                } else if (index <= names.authorities.length) {
+                    authorities.add(names.authorities[index - 1]);
+                } else {
+                    throw new IOException("Unknown authority " + index);
+                }
+            }
+            this.accepted.incrementAndGet();
+            return new KerberosServiceRequestToken(new User(username, "", true, true, true, true, authorities),
+                    authorities, new byte[0], servicePrincipal.length() > 0 ? servicePrincipal : null);
+        } catch (IOException e) {
+            // a valid MAC over an unreadable body, only possible with a cookie of another format
+            return reject("unreadable", e);
+        } catch (GeneralSecurityException e) {
+            return reject("undecryptable", e);
+        }
+    }
+
+    private Authentication reject(String reason, Exception e) {
+        this.rejected.incrementAndGet();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Ignoring authentication cookie: " + reason, e);
+        }
+        return null;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed authority index");
+    }
+
+    private static String encodeUrlSafe(byte[] data) {
+        try {
+            String base64 = new String(Base64.encode(data), "US-ASCII");
+            int end = base64.length();
+            while (end > 0 && base64.charAt(end - 1) == '=') {
+                end--;
+            }
+            return base64.substring(0, end).replace('+', '-').replace('/', '_');
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] decodeUrlSafe(String value) {
+        int length = value.length();
+        if (length % 4 == 1) {
+            return null;
+        }
+        byte[] base64 = new byte[(length + 3) / 4 * 4];
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '-') {
+                c = '+';
+            } else if (c == '_') {
+                c = '/';
+            } else if (c == '+' || c == '/' || c == '=' || c > 127) {
+                return null;
+            }
+            base64[i] = (byte) c;
+        }
+        for (int i = length; i < base64.length; i++) {
+            base64[i] = '=';
+        }
+        try {
+            return Base64.decode(base64);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param keys Base64 encoded secrets of at least 32 bytes, the first one signs new cookies
+     */
+    public void setKeys(List<String> keys) {
+        Assert.notEmpty(keys, "keys must not be empty");
+        CookieKey[] cookieKeys = new CookieKey[keys.size()];
+        for (int i = 0; i < cookieKeys.length; i++) {
+            byte[] secret = Base64.decode(keys.get(i).trim().getBytes());
+            Assert.isTrue(secret.length >= MIN_SECRET_LENGTH, "keys must have at least " + MIN_SECRET_LENGTH
+                    + " bytes");
+            cookieKeys[i] = new CookieKey(secret);
+        }
+        this.keys = cookieKeys;
+    }
+
+    /**
+     * @param lifetime how long a cookie is accepted in milliseconds, default is 5 minutes
+     */
+    public void setLifetime(long lifetime) {
+        Assert.isTrue(lifetime >= 1000, "lifetime must be at least a second");
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * @param cookieName default is <code>SPNEGO_AUTH</code>
+     */
+    public void setCookieName(String cookieName) {
+        Assert.hasText(cookieName, "cookieName must not be empty");
+        this.cookieName = cookieName;
+    }
+
+    /**
+     * @param cookiePath default is the context path of the request
+     */
+    public void setCookiePath(String cookiePath) {
+        this.cookiePath = cookiePath;
+    }
+
+    /**
+     * Should the browser send the cookie over HTTPS only. Keep the default also if TLS
+     * ends at the load balancer, the browser still talks HTTPS.
+     *
+     * @param secureCookie default is true
+     */
+    public void setSecureCookie(boolean secureCookie) {
+        this.secureCookie = secureCookie;
+    }
+
+    /**
+     * @param encrypt hide user name, service principal and authorities from the client, default is false
+     */
+    public void setEncrypt(boolean encrypt) {
+        this.encrypt = encrypt;
+    }
+
+    /**
+     * Authorities with one of these names are written as their position in the list. All
+     * nodes need the same names in the same order, a cookie written with other names is
+     * ignored. Other authorities are still written out.
+     *
+     * @param authorityNames default is none, e.g. {@link org.springframework.security.extensions.kerberos.SidMappingAuthoritiesPopulator#getAuthorityNames()}
+     */
+    public void setAuthorityNames(Collection<String> authorityNames) {
+        Assert.notNull(authorityNames, "authorityNames must not be null");
+        this.authorityNames = new AuthorityNames(authorityNames);
+    }
+
+    /**
+     * @param maxCookieSize larger cookies aren't issued, default is 4096 which all browsers
+     *        accept for name and value
+     */
+    public void setMaxCookieSize(int maxCookieSize) {
+        Assert.isTrue(maxCookieSize > 0, "maxCookieSize must be positive");
+        this.maxCookieSize = maxCookieSize;
+    }
+
+    /** @return number of cookies which authenticated a request */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /** @return number of cookies which were ignored, because they were invalid or expired */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /** @return number of cookies which weren't issued because they were too large */
+    public long getOversized() {
+        return oversized.get();
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(this.keys, "keys must be specified");
+    }
+
+    /**
+     * The authority names with their positions and a fingerprint, which every cookie carries.
+     */
+    private static class AuthorityNames {
+        final int id;
+        final GrantedAuthority[] authorities;
+        final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        AuthorityNames(Collection<String> names) {
+            List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>(names.size());
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (String name : names) {
+                    if (!this.indexes.containsKey(name)) {
+                        this.indexes.put(name, authorities.size());
+                        authorities.add(new GrantedAuthorityImpl(name));
+                        digest.update(name.getBytes("UTF-8"));
+                        digest.update((byte) '\n');
+                    }
+                }
+                byte[] id = digest.digest();
+                this.id = (id[0] & 0xff) << 24 | (id[1] & 0xff) << 16 | (id[2] & 0xff) << 8 | id[3] & 0xff;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            this.authorities = authorities.toArray(new GrantedAuthority[authorities.size()]);
+        }
+    }
+
+    /**
+     * MAC and encryption key derived from one secret, with per thread instances of the
+     * algorithms, which are initialized once.
+     */
+    private static class CookieKey {
+        final int id;
+        final SecretKeySpec macKey;
+        final SecretKeySpec encryptionKey;
+        final ThreadLocal<Mac> macs = new ThreadLocal<Mac>();
+        final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>();
+
+        CookieKey(byte[] secret) {
+            try {
+                Mac derive = Mac.getInstance("HmacSHA256");
+                derive.init(new SecretKeySpec(secret, "HmacSHA256"));
+                byte[] id = derive.doFinal("id".getBytes("US-ASCII"));
+                this.id = (id[0] & 0xff) << 24 | (id[1] & 0xff) << 16 | (id[2] & 0xff) << 8 | id[3] & 0xff;
+                this.macKey = new SecretKeySpec(derive.doFinal("mac".getBytes("US-ASCII")), "HmacSHA256");
+                this.encryptionKey = new SecretKeySpec(derive.doFinal("encryption".getBytes("US-ASCII")), 0, 16,
+                        "AES");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        Mac mac() {
+            Mac mac = this.macs.get();
+            if (mac == null) {
+                try {
+                    mac = Mac.getInstance("HmacSHA256");
+                    mac.init(this.macKey);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+                this.macs.set(mac);
+            }
+            return mac;
+        }
+
+        Cipher cipher(int mode, byte[] iv) throws GeneralSecurityException {
+            Cipher cipher = this.ciphers.get();
+            if (cipher == null) {
+                cipher = Cipher.getInstance("AES/CTR/NoPadding");
+                this.ciphers.set(cipher);
+            }
+            cipher.init(mode, this.encryptionKey, new IvParameterSpec(iv));
+            return cipher;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.extensions.kerberos.KerberosReplayException;
+import org.springframework.util.Assert;
+
+/**
+ * Bounded cache of tokens which failed authentication, for the
+ * {@link SpnegoAuthenticationProcessingFilter}. Misconfigured clients, e.g. with a ticket
+ * for the wrong service principal or a skewed clock, send the same token again and again.
+ * A token found in this cache is rejected with the cached exception, without another
+ * call of the authentication manager.
+ *
+ * <p>Entries are keyed by a SHA-256 digest of the whole token and expire after
+ * {@link #setTimeToLive(long) timeToLive}, which is kept short as some failures go away
+ * by themselves, like a user which is not yet replicated. An
+ * {@link AuthenticationServiceException} is never cached, it reports a problem of the
+ * server and not of the token. Neither is a {@link KerberosReplayException}, otherwise a
+ * replay by an attacker would get the resends of the real client rejected.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ * @see SpnegoAuthenticationProcessingFilter#setFailedTokenCache(FailedTokenCache)
+ */
+public class FailedTokenCache {
+
+    private int maxEntries = 1000;
+    private long timeToLive = 30 * 1000L;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    private final Map<ByteBuffer, FailedToken> entries = new LinkedHashMap<ByteBuffer, FailedToken>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, FailedToken> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * @param token the decoded token
+     * @return the exception of the last failure of the token or null if it didn't fail
+     *         within the time to live
+     */
+    public AuthenticationException get(byte[] token) {
+        ByteBuffer key = ByteBuffer.wrap(digest(token));
+        FailedToken entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.failure;
+    }
+
+    /**
+     * @param token the decoded token
+     * @param failure the exception of the authentication manager
+     */
+    public void put(byte[] token, AuthenticationException failure) {
+        if (failure instanceof AuthenticationServiceException || failure instanceof KerberosReplayException) {
+            return;
+        }
+        FailedToken entry = new FailedToken(failure, System.currentTimeMillis() + timeToLive);
+        ByteBuffer key = ByteBuffer.wrap(digest(token));
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /** Removes all entries, e.g. after a configuration error was fixed */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** @return number of tokens rejected from the cache */
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** @return number of entries removed because the cache was full */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** @return number of entries removed because their lifetime was over */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    /**
+     * Maximum number of cached tokens, the least recently used are evicted first.
+     * @param maxEntries default is 1000
+     */
+    public void setMaxEntries(int maxEntries) {
+        Assert.isTrue(maxEntries > 0, "maxEntries must be positive");
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * How long a failed token is rejected without authentication.
+     * @param timeToLive in milliseconds, default is 30 seconds
+     */
+    public void setTimeToLive(long timeToLive) {
+        Assert.isTrue(timeToLive > 0, "timeToLive must be positive");
+        this.timeToLive = timeToLive;
+    }
+
+    private static byte[] digest(byte[] token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static class FailedToken {
+        final AuthenticationException failure;
+        final long expires;
+
+        FailedToken(AuthenticationException failure, long expires) {
+            this.failure = failure;
+            this.expires = expires;
+        }
+    }
+}
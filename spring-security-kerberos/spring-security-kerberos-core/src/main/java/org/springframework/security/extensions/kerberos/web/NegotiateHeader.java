@@ -0,0 +1,197 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import java.util.Arrays;
+
+import org.springframework.security.extensions.kerberos.ApRequestFrame;
+
+/**
+ * Reads the SPNEGO token straight out of a <code>Negotiate</code> header. The Base64 text is
+ * decoded from the header string into a byte array of the exact token size, without copying
+ * the header into intermediate strings or byte arrays first, and the size is known before any
+ * decoding, so oversized tokens are rejected for free.
+ *
+ * <p>Headers of users with many groups are tens of kilobytes, so they are never logged
+ * completely, only as a {@link #fingerprint(CharSequence, int) fingerprint}.</p>
+ *
+ * <p>The decoded token can be {@link #classify(byte[]) classified} by its structure alone,
+ * so NTLM tokens of clients which fell back from Kerberos and garbage are rejected before
+ * any cryptography.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public final class NegotiateHeader {
+
+    public static final String PREFIX = "Negotiate ";
+
+    /**
+     * What a client sent in a Negotiate header.
+     */
+    public enum TokenType {
+        /** a Kerberos AP-REQ, in a SPNEGO or Kerberos GSS token or bare */
+        KERBEROS,
+        /** an NTLMSSP message, bare or in a SPNEGO token */
+        NTLM,
+        /** anything else, e.g. a truncated token */
+        MALFORMED
+    }
+
+    private static final byte[] NTLMSSP = { 'N', 'T', 'L', 'M', 'S', 'S', 'P', 0 };
+
+    private static final int FINGERPRINT_CHARS = 16;
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private NegotiateHeader() {
+    }
+
+    /**
+     * @param header the value of the <code>Authorization</code> header
+     * @param offset where the Base64 text starts, usually <code>PREFIX.length()</code>
+     * @return the size of the decoded token, from the number of Base64 characters and the
+     *         padding, or -1 if no token can have this many characters. Trailing whitespace
+     *         is ignored.
+     */
+    public static int decodedLength(CharSequence header, int offset) {
+        int end = header.length();
+        while (end > offset && header.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int padding = 0;
+        while (padding < 2 && end > offset && header.charAt(end - 1) == '=') {
+            end--;
+            padding++;
+        }
+        int chars = end - offset;
+        if (chars <= 0 || header.charAt(end - 1) == '=' || chars % 4 == 1 || (padding > 0 && (chars + padding) % 4 != 0)) {
+            return -1;
+        }
+        return chars / 4 * 3 + (chars % 4 == 0 ? 0 : chars % 4 - 1);
+    }
+
+    /**
+     * @param header the value of the <code>Authorization</code> header
+     * @param offset where the Base64 text starts
+     * @param length the size of the token as returned by {@link #decodedLength(CharSequence, int)}
+     * @return the decoded token
+     * @throws IllegalArgumentException if the text contains a character which is not Base64
+     */
+    public static byte[] decode(CharSequence header, int offset, int length) {
+        byte[] token = new byte[length];
+        int in = offset;
+        int out = 0;
+        int whole = length / 3 * 3;
+        while (out < whole) {
+            int bits = value(header, in) << 18 | value(header, in + 1) << 12 | value(header, in + 2) << 6
+                    | value(header, in + 3);
+            token[out++] = (byte) (bits >> 16);
+            token[out++] = (byte) (bits >> 8);
+            token[out++] = (byte) bits;
+            in += 4;
+        }
+        if (out < length) {
+            int bits = value(header, in) << 18 | value(header, in + 1) << 12;
+            token[out++] = (byte) (bits >> 16);
+            if (out < length) {
+                bits |= value(header, in + 2) << 6;
+                token[out] = (byte) (bits >> 8);
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Looks at the DER structure of the token down to the AP-REQ, without decrypting
+     * anything. A token classified as {@link TokenType#KERBEROS} can still be invalid.
+     *
+     * @param token the decoded token
+     */
+    public static TokenType classify(byte[] token) {
+        if (ApRequestFrame.parse(token) != null) {
+            return TokenType.KERBEROS;
+        }
+        if (startsWith(token, 0, NTLMSSP)) {
+            return TokenType.NTLM;
+        }
+        // a NegTokenInit (0x60) or NegTokenResp (0xa1) around an NTLMSSP message
+        if (token.length > 0 && (token[0] == 0x60 || token[0] == (byte) 0xa1)) {
+            for (int i = 1; i <= token.length - NTLMSSP.length; i++) {
+                if (startsWith(token, i, NTLMSSP)) {
+                    return TokenType.NTLM;
+                }
+            }
+        }
+        return TokenType.MALFORMED;
+    }
+
+    private static boolean startsWith(byte[] token, int offset, byte[] prefix) {
+        if (token.length - offset < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (token[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int value(CharSequence header, int index) {
+        char c = header.charAt(index);
+        int value = c < 128 ? DECODE[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid Base64 character at position " + index);
+        }
+        return value;
+    }
+
+    /**
+     * Identifies a token in log messages without logging it: the first characters, the
+     * length and a hash of the whole text, e.g. <code>YIIHGwYGKwYBBQUC...(2396 chars, #1f0c2a7b)</code>.
+     *
+     * @param header the value of the <code>Authorization</code> header
+     * @param offset where the token starts
+     */
+    public static String fingerprint(CharSequence header, int offset) {
+        int length = Math.max(header.length() - offset, 0);
+        int hash = 0;
+        for (int i = offset; i < header.length(); i++) {
+            hash = 31 * hash + header.charAt(i);
+        }
+        StringBuilder fingerprint = new StringBuilder(FINGERPRINT_CHARS + 32);
+        for (int i = offset; i < offset + Math.min(length, FINGERPRINT_CHARS); i++) {
+            char c = header.charAt(i);
+            // the header comes from the client, keep control characters out of the log
+            fingerprint.append(c >= ' ' && c < 127 ? c : '?');
+        }
+        if (length > FINGERPRINT_CHARS) {
+            fingerprint.append("...");
+        }
+        return fingerprint.append('(').append(length).append(" chars, #").append(Integer.toHexString(hash))
+                .append(')').toString();
+    }
+}
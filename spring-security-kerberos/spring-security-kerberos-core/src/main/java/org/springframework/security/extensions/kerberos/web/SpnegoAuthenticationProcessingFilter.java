@@ -26,15 +26,19 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.AuthenticationDetailsSource;
 import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
-import org.springframework.security.core.codec.Base64;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.extensions.kerberos.KerberosMetrics;
 import org.springframework.security.extensions.kerberos.KerberosServiceAuthenticationProvider;
 import org.springframework.security.extensions.kerberos.KerberosServiceRequestToken;
+import org.springframework.security.extensions.kerberos.NoOpKerberosMetrics;
 import org.springframework.security.web.authentication.AuthenticationFailureHandler;
 import org.springframework.security.web.authentication.AuthenticationSuccessHandler;
+import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.util.Assert;
 import org.springframework.web.filter.GenericFilterBean;
 
@@ -110,7 +114,15 @@ public class SpnegoAuthenticationProcessingFilter extends GenericFilterBean {
     private AuthenticationManager authenticationManager;
     private AuthenticationSuccessHandler successHandler;
     private AuthenticationFailureHandler failureHandler;
+    private AuthenticationDetailsSource authenticationDetailsSource = new WebAuthenticationDetailsSource();
     private boolean skipIfAlreadyAuthenticated = true;
+    private int maxTokenSize = 65535;
+    private boolean rejectUnsupportedTokens = false;
+    private KerberosMetrics metrics = NoOpKerberosMetrics.INSTANCE;
+    private AuthenticationCookieService authenticationCookieService;
+    private FailedTokenCache failedTokenCache;
+    private AuthenticationBulkhead authenticationBulkhead;
+    private AggregatingFailureLog failureLog = new AggregatingFailureLog(logger, 60 * 1000L);
 
 
     /*
@@ -133,39 +145,210 @@ public class SpnegoAuthenticationProcessingFilter extends GenericFilterBean {
             }
         }
 
+        if (authenticationCookieService != null) {
+            long start = System.nanoTime();
+            Authentication authentication = authenticationCookieService.readCookie(request);
+            if (authentication != null) {
+                metrics.recordTime(KerberosMetrics.Stage.AUTHENTICATION_COOKIE, System.nanoTime() - start);
+                SecurityContextHolder.getContext().setAuthentication(authentication);
+                chain.doFilter(request, response);
+                return;
+            }
+        }
+
         String header = request.getHeader("Authorization");
 
-        if ((header != null) && header.startsWith("Negotiate ")) {
-            if (logger.isDebugEnabled()) {
-                logger.debug("Received Negotiate Header for request " + request.getRequestURL() + ": " + header);
+        if ((header != null) && header.startsWith(NegotiateHeader.PREFIX)) {
+            byte[] kerberosTicket = decodeToken(request, response, header);
+            if (kerberosTicket != null) {
+                processToken(request, response, chain, header, kerberosTicket);
             }
-            byte[] base64Token = header.substring(10).getBytes("UTF-8");
-            byte[] kerberosTicket = Base64.decode(base64Token);
-            KerberosServiceRequestToken authenticationRequest = new KerberosServiceRequestToken(kerberosTicket);
-            Authentication authentication;
+            return;
+        }
+
+        chain.doFilter(request, response);
+
+    }
+
+    /**
+     * Decodes and checks the token of the Negotiate header.
+     * 
+     * @return the token or null if the request was already answered
+     */
+    byte[] decodeToken(HttpServletRequest request, HttpServletResponse response, String header)
+            throws IOException, ServletException {
+        int offset = NegotiateHeader.PREFIX.length();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received Negotiate Header for request " + request.getRequestURL() + ": "
+                    + NegotiateHeader.fingerprint(header, offset));
+        }
+        long start = System.nanoTime();
+        int length = NegotiateHeader.decodedLength(header, offset);
+        if (length > maxTokenSize) {
+            metrics.recordFailure(KerberosMetrics.Failure.TOKEN_TOO_LARGE);
+            unsuccessfulAuthentication(request, response, header, new BadCredentialsException(
+                    "Negotiate Header exceeds the maximum token size of " + maxTokenSize + " bytes"));
+            return null;
+        }
+        byte[] kerberosTicket = null;
+        if (length > 0) {
             try {
-                authentication = authenticationManager.authenticate(authenticationRequest);
-            } catch (AuthenticationException e) {
-                // That shouldn't happen, as it is most likely a wrong
-                // configuration on the server side
-                logger.warn("Negotiate Header was invalid: " + header, e);
-                SecurityContextHolder.clearContext();
-                if (failureHandler != null) {
-                    failureHandler.onAuthenticationFailure(request, response, e);
-                } else {
-                    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                    response.flushBuffer();
-                }
-                return;
+                kerberosTicket = NegotiateHeader.decode(header, offset, length);
+            } catch (IllegalArgumentException e) {
+                // the position of the invalid character is in the message
+                logger.debug(e.getMessage());
             }
-            if (successHandler != null) {
-                successHandler.onAuthenticationSuccess(request, response, authentication);
+        }
+        if (kerberosTicket == null) {
+            metrics.recordFailure(KerberosMetrics.Failure.MALFORMED_HEADER);
+            unsuccessfulAuthentication(request, response, header, new BadCredentialsException(
+                    "Negotiate Header is not valid Base64"));
+            return null;
+        }
+        metrics.recordTime(KerberosMetrics.Stage.HEADER_DECODE, System.nanoTime() - start);
+        metrics.recordTokenSize(kerberosTicket.length);
+        if (rejectUnsupportedTokens) {
+            NegotiateHeader.TokenType type = NegotiateHeader.classify(kerberosTicket);
+            if (type != NegotiateHeader.TokenType.KERBEROS) {
+                rejectUnsupportedToken(request, response, header, type);
+                return null;
             }
-            SecurityContextHolder.getContext().setAuthentication(authentication);
         }
+        if (failedTokenCache != null) {
+            AuthenticationException failure = failedTokenCache.get(kerberosTicket);
+            if (failure != null) {
+                metrics.recordFailure(KerberosMetrics.Failure.KNOWN_BAD_TOKEN);
+                unsuccessfulAuthentication(request, response, header, failure);
+                return null;
+            }
+        }
+        return kerberosTicket;
+    }
 
+    /**
+     * Authenticates a decoded token and continues the filter chain if it succeeds, on the
+     * request thread.
+     */
+    void processToken(HttpServletRequest request, HttpServletResponse response, FilterChain chain,
+            String header, byte[] kerberosTicket) throws IOException, ServletException {
+        Authentication authentication;
+        try {
+            authentication = authenticateToken(kerberosTicket, buildDetails(request));
+        } catch (AuthenticationException e) {
+            unsuccessfulAuthentication(request, response, header, e);
+            return;
+        }
+        if (authentication == null) {
+            rejectOverloaded(request, response);
+            return;
+        }
+        successfulAuthentication(request, response, authentication);
         chain.doFilter(request, response);
+    }
+
+    /**
+     * @return the details of the authentication request, read on the request thread
+     */
+    Object buildDetails(HttpServletRequest request) {
+        return authenticationDetailsSource.buildDetails(request);
+    }
+
+    /**
+     * Calls the authentication manager, within the bulkhead if there is one. Doesn't touch
+     * the request, so it may run on another thread.
+     * 
+     * @param details of the request, see {@link #buildDetails(HttpServletRequest)}
+     * @return the authentication or null if the bulkhead had no permit
+     * @throws AuthenticationException if the authentication failed
+     */
+    Authentication authenticateToken(byte[] kerberosTicket, Object details) {
+        long start = System.nanoTime();
+        if (authenticationBulkhead != null) {
+            boolean permitted = authenticationBulkhead.acquire();
+            long admitted = System.nanoTime();
+            metrics.recordTime(KerberosMetrics.Stage.BULKHEAD_WAIT, admitted - start);
+            if (!permitted) {
+                return null;
+            }
+            start = admitted;
+        }
+        try {
+            KerberosServiceRequestToken authenticationRequest = new KerberosServiceRequestToken(kerberosTicket);
+            authenticationRequest.setDetails(details);
+            return authenticationManager.authenticate(authenticationRequest);
+        } catch (AuthenticationException e) {
+            if (failedTokenCache != null) {
+                failedTokenCache.put(kerberosTicket, e);
+            }
+            throw e;
+        } finally {
+            // the failure handler may write to a slow client, it doesn't get the permit
+            if (authenticationBulkhead != null) {
+                authenticationBulkhead.release();
+            }
+            metrics.recordTime(KerberosMetrics.Stage.AUTHENTICATION, System.nanoTime() - start);
+        }
+    }
 
+    void successfulAuthentication(HttpServletRequest request, HttpServletResponse response,
+            Authentication authentication) throws IOException, ServletException {
+        if (authenticationCookieService != null) {
+            authenticationCookieService.writeCookie(request, response, authentication);
+        }
+        if (successHandler != null) {
+            successHandler.onAuthenticationSuccess(request, response, authentication);
+        }
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+    }
+
+    /**
+     * Answers with a new challenge, without the authentication manager. Happens for every
+     * request of a misconfigured client, so there is neither a warning nor a stack trace.
+     */
+    private void rejectUnsupportedToken(HttpServletRequest request, HttpServletResponse response, String header,
+            NegotiateHeader.TokenType type) throws IOException {
+        metrics.recordFailure(type == NegotiateHeader.TokenType.NTLM ? KerberosMetrics.Failure.NTLM_TOKEN
+                : KerberosMetrics.Failure.MALFORMED_TOKEN);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Rejecting " + type + " token for request " + request.getRequestURL() + ": "
+                    + NegotiateHeader.fingerprint(header, NegotiateHeader.PREFIX.length()));
+        }
+        SecurityContextHolder.clearContext();
+        response.addHeader("WWW-Authenticate", "Negotiate");
+        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        response.flushBuffer();
+    }
+
+    /**
+     * Answers with a 503 when the bulkhead has no permit or the validation executor is
+     * full, the client may send the same token again after the <code>Retry-After</code>
+     * delay.
+     */
+    void rejectOverloaded(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        metrics.recordFailure(KerberosMetrics.Failure.OVERLOADED);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Too many concurrent authentications, rejecting request " + request.getRequestURL());
+        }
+        SecurityContextHolder.clearContext();
+        // without bulkhead the validation executor of the asynchronous filter was full
+        int retryAfter = authenticationBulkhead != null ? authenticationBulkhead.getRetryAfter() : 1;
+        response.setHeader("Retry-After", String.valueOf(retryAfter));
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.flushBuffer();
+    }
+
+    void unsuccessfulAuthentication(HttpServletRequest request, HttpServletResponse response,
+            String header, AuthenticationException failed) throws IOException, ServletException {
+        // That shouldn't happen, as it is most likely a wrong
+        // configuration on the server side
+        failureLog.failed(NegotiateHeader.fingerprint(header, NegotiateHeader.PREFIX.length()), failed);
+        SecurityContextHolder.clearContext();
+        if (failureHandler != null) {
+            failureHandler.onAuthenticationFailure(request, response, failed);
+        } else {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            response.flushBuffer();
+        }
     }
 
     /**
@@ -203,6 +386,19 @@ public class SpnegoAuthenticationProcessingFilter extends GenericFilterBean {
     }
     
     
+    /**
+     * Builds the details of the authentication request. They identify the client, so a
+     * <code>ValidatedTicketCache</code> only accepts a resent token from the client which
+     * presented it first.
+     * 
+     * @param authenticationDetailsSource default is a {@link WebAuthenticationDetailsSource},
+     *        which uses the remote address and session id
+     */
+    public void setAuthenticationDetailsSource(AuthenticationDetailsSource authenticationDetailsSource) {
+        Assert.notNull(authenticationDetailsSource, "authenticationDetailsSource must not be null");
+        this.authenticationDetailsSource = authenticationDetailsSource;
+    }
+
     /**
      * Should Kerberos authentication be skipped if a user is already authenticated
      * for this request (e.g. in the HTTP session).
@@ -213,6 +409,91 @@ public class SpnegoAuthenticationProcessingFilter extends GenericFilterBean {
         this.skipIfAlreadyAuthenticated = skipIfAlreadyAuthenticated;
     }
 
+    /**
+     * Issues a signed cookie after each successful authentication and authenticates
+     * requests with a valid cookie without looking at the Negotiate header. Meant for
+     * stateless applications, with a session <code>skipIfAlreadyAuthenticated</code>
+     * does the same.
+     * 
+     * @param authenticationCookieService default is null, which means no cookies
+     */
+    public void setAuthenticationCookieService(AuthenticationCookieService authenticationCookieService) {
+        this.authenticationCookieService = authenticationCookieService;
+    }
+
+    /**
+     * Remembers tokens which failed authentication for a short time and rejects them
+     * right away when they come again, as misconfigured clients do in a loop. The failure
+     * handler is still called, with the exception of the first failure.
+     * 
+     * @param failedTokenCache default is null, which means every token is authenticated
+     */
+    public void setFailedTokenCache(FailedTokenCache failedTokenCache) {
+        this.failedTokenCache = failedTokenCache;
+    }
+
+    /**
+     * Limits the number of concurrent calls of the authentication manager. Requests which
+     * get no permit in time are answered with a 503 and a <code>Retry-After</code> header,
+     * requests without Negotiate header or with a valid authentication cookie are not
+     * limited.
+     * 
+     * @param authenticationBulkhead default is null, which means no limit
+     */
+    public void setAuthenticationBulkhead(AuthenticationBulkhead authenticationBulkhead) {
+        this.authenticationBulkhead = authenticationBulkhead;
+    }
+
+    /**
+     * Failed authentications are logged as a warning with stack trace once per cause,
+     * further failures of the same cause are summed up in one line per interval.
+     * 
+     * @param failureLogInterval in milliseconds, default is one minute, 0 logs every
+     *        failure with its stack trace
+     */
+    public void setFailureLogInterval(long failureLogInterval) {
+        Assert.isTrue(failureLogInterval >= 0, "failureLogInterval must not be negative");
+        this.failureLog = new AggregatingFailureLog(logger, failureLogInterval);
+    }
+
+    /**
+     * Rejects tokens which contain no Kerberos AP-REQ, like the NTLM tokens of clients which
+     * couldn't get a Kerberos ticket, with a 401 and a new Negotiate challenge. Their
+     * structure is checked right after decoding, so neither the authentication manager
+     * nor the failure handler is called. Leave it off if the authentication manager
+     * handles other mechanisms, e.g. with a provider which accepts NTLM.
+     * 
+     * @param rejectUnsupportedTokens default is false, which passes every token to the
+     *        authentication manager like before
+     */
+    public void setRejectUnsupportedTokens(boolean rejectUnsupportedTokens) {
+        this.rejectUnsupportedTokens = rejectUnsupportedTokens;
+    }
+
+    /**
+     * Tokens above this size are rejected before they are decoded. Tokens grow with the
+     * number of groups of the user, Windows clients send up to 48000 or, from Windows 8
+     * and Server 2012 on, up to 65535 bytes by default.
+     * 
+     * @param maxTokenSize in bytes, default is 65535
+     */
+    public void setMaxTokenSize(int maxTokenSize) {
+        Assert.isTrue(maxTokenSize > 0, "maxTokenSize must be positive");
+        this.maxTokenSize = maxTokenSize;
+    }
+
+    /**
+     * Receives the header decode and authentication times, the token sizes and
+     * headers which are not valid Base64 or too large. Should be the same instance as the one
+     * of the authentication provider and the ticket validator.
+     * 
+     * @param metrics default is a {@link NoOpKerberosMetrics}
+     */
+    public void setMetrics(KerberosMetrics metrics) {
+        Assert.notNull(metrics, "metrics must not be null");
+        this.metrics = metrics;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -225,4 +506,14 @@ public class SpnegoAuthenticationProcessingFilter extends GenericFilterBean {
         Assert.notNull(this.authenticationManager, "authenticationManager must be specified");
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.springframework.web.filter.GenericFilterBean#destroy()
+     */
+    @Override
+    public void destroy() {
+        this.failureLog.flush();
+    }
+
 }
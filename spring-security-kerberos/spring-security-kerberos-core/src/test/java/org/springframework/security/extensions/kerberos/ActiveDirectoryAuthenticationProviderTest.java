@@ -18,6 +18,7 @@ package org.springframework.security.extensions.kerberos;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.security.authentication.LockedException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
@@ -25,13 +26,24 @@ import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 /**
@@ -75,7 +87,7 @@ public class ActiveDirectoryAuthenticationProviderTest {
 
     @Test
     public void testLoginOk() throws Exception {
-        when(userDetailsService.loadUserByUsername(TEST_USER)).thenReturn(USER_DETAILS);
+        when(userDetailsService.loadUser(TEST_USER, TOKEN)).thenReturn(USER_DETAILS);
         when(ticketValidator.validateTicket(TOKEN)).thenReturn(TEST_USER);
         when(securityIntegration.getUserGroupSids(TOKEN)).thenReturn(GROUP_SIDS);
         when(authoritiesPopulator.getGrantedAuthorities(GROUP_SIDS)).thenReturn(AUTHORITY_LIST);
@@ -87,4 +99,131 @@ public class ActiveDirectoryAuthenticationProviderTest {
         assertEquals(USER_DETAILS, authenticate.getPrincipal());
         assertEquals(AUTHORITY_LIST, authenticate.getAuthorities());
     }
+
+    @Test
+    public void testLoginOkWithSingleDecryption() throws Exception {
+        ActiveDirectoryTicketValidator adTicketValidator = mock(ActiveDirectoryTicketValidator.class);
+        provider.setTicketValidator(adTicketValidator);
+        when(adTicketValidator.validateTicketAndGroupSids(TOKEN)).thenReturn(
+                new ActiveDirectoryTicketValidation(TEST_USER, GROUP_SIDS));
+        when(userDetailsService.loadUser(TEST_USER, GROUP_SIDS)).thenReturn(USER_DETAILS);
+
+        Authentication authenticate = provider.authenticate(INPUT_TOKEN);
+
+        verify(adTicketValidator, never()).validateTicket(any(byte[].class));
+        verify(securityIntegration, never()).getUserGroupSids(any(byte[].class));
+        assertNotNull(authenticate);
+        assertEquals(TEST_USER, authenticate.getName());
+        assertEquals(AUTHORITY_LIST, authenticate.getAuthorities());
+    }
+
+    @Test
+    public void testDetailsIdentifyTheClient() throws Exception {
+        ActiveDirectoryTicketValidator adTicketValidator = mock(ActiveDirectoryTicketValidator.class);
+        provider.setTicketValidator(adTicketValidator);
+        when(adTicketValidator.validateTicketAndGroupSids(TOKEN, "192.168.0.1")).thenReturn(
+                new ActiveDirectoryTicketValidation(TEST_USER, GROUP_SIDS));
+        when(userDetailsService.loadUser(TEST_USER, GROUP_SIDS)).thenReturn(USER_DETAILS);
+        KerberosServiceRequestToken input = new KerberosServiceRequestToken(TOKEN);
+        input.setDetails("192.168.0.1");
+
+        assertEquals(TEST_USER, provider.authenticate(input).getName());
+        verify(adTicketValidator, never()).validateTicketAndGroupSids(TOKEN);
+    }
+
+    @Test
+    public void testSidsWithoutSubAuthorityAreIgnored() throws Exception {
+        ActiveDirectoryUserDetailsService realService = new ActiveDirectoryUserDetailsService();
+        realService.setAuthoritiesPopulator(authoritiesPopulator);
+        String sid = "S-1-5-21-185937884-2362668773-3192785854-513";
+        when(authoritiesPopulator.getGrantedAuthorities(SidSet.valueOf(Collections.singletonList(sid))))
+                .thenReturn(AUTHORITY_LIST);
+
+        UserDetails user = realService.loadUser(TEST_USER, Arrays.asList("S-1-18", sid));
+
+        assertEquals(AUTHORITY_LIST, new ArrayList<GrantedAuthority>(user.getAuthorities()));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        SimpleKerberosMetrics metrics = new SimpleKerberosMetrics();
+        provider.setMetrics(metrics);
+        when(ticketValidator.validateTicket(TOKEN)).thenReturn(TEST_USER);
+        when(userDetailsService.loadUser(TEST_USER, TOKEN)).thenReturn(USER_DETAILS).thenThrow(
+                new UsernameNotFoundException(TEST_USER)).thenReturn(
+                new User(TEST_USER, "empty", true, true, true, false, AUTHORITY_LIST));
+
+        provider.authenticate(INPUT_TOKEN);
+        try {
+            provider.authenticate(INPUT_TOKEN);
+            fail("Expected UsernameNotFoundException");
+        } catch (UsernameNotFoundException expected) {
+        }
+        try {
+            provider.authenticate(INPUT_TOKEN);
+            fail("Expected LockedException");
+        } catch (LockedException expected) {
+        }
+
+        assertEquals(1, metrics.getSuccesses());
+        assertEquals(1, metrics.getFailures(KerberosMetrics.Failure.USER_NOT_FOUND));
+        assertEquals(1, metrics.getFailures(KerberosMetrics.Failure.ACCOUNT_STATUS));
+        assertEquals(2, metrics.getCount(KerberosMetrics.Stage.USER_DETAILS));
+    }
+
+    @Test
+    public void testConcurrentLoginsDoNotLeak() throws Exception {
+        // real user details service shared by all threads, the ticket is the user name
+        ActiveDirectoryUserDetailsService sharedService = new ActiveDirectoryUserDetailsService();
+        sharedService.setSecurityIntegration(new ActiveDirectorySecurityIntegration() {
+            @Override
+            public List<String> getUserGroupSids(byte[] token) {
+                return Collections.singletonList("S-1-5-21-" + new String(token));
+            }
+        });
+        sharedService.setAuthoritiesPopulator(new ActiveDirectoryAuthoritiesPopulator() {
+            public Collection<GrantedAuthority> getGrantedAuthorities(List<String> sids) {
+                return AuthorityUtils.createAuthorityList("ROLE_" + sids.get(0));
+            }
+        });
+        final ActiveDirectoryAuthenticationProvider sharedProvider = new ActiveDirectoryAuthenticationProvider();
+        sharedProvider.setUserDetailsService(sharedService);
+        sharedProvider.setTicketValidator(new KerberosTicketValidator() {
+            public String validateTicket(byte[] token) {
+                return new String(token);
+            }
+        });
+
+        final int threads = 32;
+        final int loginsPerThread = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger leaks = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            results.add(executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < loginsPerThread; i++) {
+                        String user = thread + "-" + i;
+                        Authentication auth = sharedProvider.authenticate(
+                                new KerberosServiceRequestToken(user.getBytes()));
+                        String authority = auth.getAuthorities().iterator().next().getAuthority();
+                        if (!user.equals(auth.getName()) || !("ROLE_S-1-5-21-" + user).equals(authority)) {
+                            leaks.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(0, leaks.get());
+    }
 }
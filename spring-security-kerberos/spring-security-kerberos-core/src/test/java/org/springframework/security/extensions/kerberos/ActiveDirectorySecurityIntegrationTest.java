@@ -0,0 +1,58 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Test;
+import org.springframework.security.core.codec.Base64;
+
+/**
+ * Test class for {@link ActiveDirectorySecurityIntegration}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class ActiveDirectorySecurityIntegrationTest {
+
+    @Test
+    public void testNoKerberosMechanism() {
+        SunJaasKerberosTicketValidator validator = mock(SunJaasKerberosTicketValidator.class);
+        ActiveDirectorySecurityIntegration integration = new ActiveDirectorySecurityIntegration();
+        integration.setTicketValidator(validator);
+
+        // NegTokenInit offering NTLM, which the frame doesn't recognize and jaaslounge parses
+        byte[] ntlm = Base64.decode(("YE4GBisGAQUFAqBEMEKgDjAMBgorBgEEAYI3AgIKojAELk5UTE1TU1AAAQAAAJeCCOIAAAAAAAAAAAAAAA"
+                + "AAAAAABgGxHQAAAA8=").getBytes());
+        assertNull(ApRequestFrame.parse(ntlm));
+
+        assertTrue(integration.getUserGroupSids(ntlm).isEmpty());
+        verifyZeroInteractions(validator);
+    }
+
+    @Test
+    public void testValidatorWithoutKeys() {
+        ActiveDirectorySecurityIntegration integration = new ActiveDirectorySecurityIntegration();
+        integration.setTicketValidator(mock(KerberosTicketValidator.class));
+
+        assertTrue(integration.getUserGroupSids(KerberosTestUtils.wrapSpnego(KerberosTestUtils.createApRequest(
+                "web.example.com", "EXAMPLE.COM", 23, 1, KerberosTestUtils.filled(100, 0x11),
+                KerberosTestUtils.filled(50, 0x22)))).isEmpty());
+    }
+}
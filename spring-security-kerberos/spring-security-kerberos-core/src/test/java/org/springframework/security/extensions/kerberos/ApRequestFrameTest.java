@@ -0,0 +1,103 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link ApRequestFrame}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class ApRequestFrameTest {
+
+    private static final byte[] TICKET_CIPHER = KerberosTestUtils.filled(300, 0x11);
+    private static final byte[] AUTHENTICATOR_CIPHER = KerberosTestUtils.filled(120, 0x22);
+    private static final byte[] AP_REQ = KerberosTestUtils.createApRequest("web.springsource.com", "SPRINGSOURCE.ORG",
+            18, 3, TICKET_CIPHER, AUTHENTICATOR_CIPHER);
+
+    @Test
+    public void testSpnegoToken() throws Exception {
+        assertFrame(KerberosTestUtils.wrapSpnego(AP_REQ));
+    }
+
+    @Test
+    public void testKerberosGssToken() throws Exception {
+        assertFrame(KerberosTestUtils.wrapGss(AP_REQ));
+    }
+
+    @Test
+    public void testMechToken() throws Exception {
+        byte[] gssToken = KerberosTestUtils.wrapGss(AP_REQ);
+        byte[] spnegoToken = KerberosTestUtils.wrapSpnego(AP_REQ);
+
+        ApRequestFrame frame = ApRequestFrame.parse(spnegoToken);
+        assertEquals(gssToken.length, frame.getMechTokenLength());
+        assertArrayEquals(gssToken, Arrays.copyOfRange(spnegoToken, frame.getMechTokenOffset(),
+                frame.getMechTokenOffset() + frame.getMechTokenLength()));
+
+        frame = ApRequestFrame.parse(gssToken);
+        assertEquals(0, frame.getMechTokenOffset());
+        assertEquals(gssToken.length, frame.getMechTokenLength());
+    }
+
+    @Test
+    public void testBareApRequest() throws Exception {
+        assertFrame(AP_REQ);
+    }
+
+    @Test
+    public void testNoApRequest() throws Exception {
+        assertNull(ApRequestFrame.parse("TlRMTVNTUAABAAAAB4IIog".getBytes()));
+        assertNull(ApRequestFrame.parse(new byte[0]));
+        assertNull(ApRequestFrame.parse(new byte[] { 0x60, 0x7f, 0x06 }));
+    }
+
+    @Test
+    public void testTicketWithoutKvno() throws Exception {
+        byte[] apReq = KerberosTestUtils.createApRequest("web.springsource.com", "SPRINGSOURCE.ORG", 23, -1,
+                TICKET_CIPHER, AUTHENTICATOR_CIPHER);
+
+        ApRequestFrame frame = ApRequestFrame.parse(KerberosTestUtils.wrapSpnego(apReq));
+
+        assertEquals(-1, frame.getTicketKvno());
+        assertEquals(23, frame.getTicketEncryptionType());
+        assertEquals(TICKET_CIPHER.length, frame.getTicketCipherLength());
+    }
+
+    private void assertFrame(byte[] token) {
+        ApRequestFrame frame = ApRequestFrame.parse(token);
+        assertNotNull(frame);
+        assertEquals(18, frame.getTicketEncryptionType());
+        assertEquals(3, frame.getTicketKvno());
+        assertEquals("SPRINGSOURCE.ORG", frame.getTicketRealm());
+        assertEquals("HTTP/web.springsource.com", frame.getTicketServerName());
+        assertEquals("HTTP/web.springsource.com@SPRINGSOURCE.ORG", frame.getServicePrincipal());
+        assertEquals(TICKET_CIPHER.length, frame.getTicketCipherLength());
+        assertEquals(0x11, token[frame.getTicketCipherOffset()]);
+        assertEquals(0x11, token[frame.getTicketCipherOffset() + TICKET_CIPHER.length - 1]);
+        assertEquals(AUTHENTICATOR_CIPHER.length, frame.getAuthenticatorCipherLength());
+        assertEquals(0x22, token[frame.getAuthenticatorCipherOffset()]);
+        assertEquals(token.length, frame.getAuthenticatorCipherOffset() + AUTHENTICATOR_CIPHER.length);
+    }
+}
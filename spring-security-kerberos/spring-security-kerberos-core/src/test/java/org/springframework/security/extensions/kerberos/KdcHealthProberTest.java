@@ -0,0 +1,181 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link KdcHealthProber}, with a fake KDC which answers every request with
+ * an error, a blackhole which accepts connections but never answers and a closed port.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class KdcHealthProberTest {
+
+    private ServerSocket kdc;
+    private ServerSocket blackhole;
+    private int closedPort;
+    private volatile int requestTag;
+    private File location;
+    private String previousLocation;
+    private Krb5Config config;
+    private KdcHealthProber prober;
+
+    @Before
+    public void before() throws Exception {
+        previousLocation = System.getProperty("java.security.krb5.conf");
+        kdc = new ServerSocket(0);
+        blackhole = new ServerSocket(0);
+        ServerSocket closed = new ServerSocket(0);
+        closedPort = closed.getLocalPort();
+        closed.close();
+        answer(kdc);
+        location = File.createTempFile("krb5", ".conf");
+        config = new Krb5Config();
+        config.setDefaultRealm("EXAMPLE.COM");
+        config.setLocation(location);
+        prober = new KdcHealthProber();
+        prober.setKrb5Config(config);
+        prober.setProbeInterval(0);
+        prober.setProbeTimeout(300);
+    }
+
+    @After
+    public void after() throws Exception {
+        prober.destroy();
+        kdc.close();
+        blackhole.close();
+        location.delete();
+        if (previousLocation == null) {
+            System.clearProperty("java.security.krb5.conf");
+        } else {
+            System.setProperty("java.security.krb5.conf", previousLocation);
+        }
+    }
+
+    @Test
+    public void testDeadKdcsAreRemoved() throws Exception {
+        String closed = "localhost:" + closedPort;
+        String hanging = "localhost:" + blackhole.getLocalPort();
+        String alive = "localhost:" + kdc.getLocalPort();
+        configure(closed, hanging, alive);
+
+        prober.afterPropertiesSet();
+
+        assertEquals(Collections.singletonList(alive), config.getActiveKdcs("EXAMPLE.COM"));
+        assertEquals(0x6a, requestTag);
+        assertEquals(Long.valueOf(-1), prober.getLatencies().get(closed));
+        assertEquals(Long.valueOf(-1), prober.getLatencies().get(hanging));
+        assertTrue(prober.getLatencies().get(alive) >= 0);
+        assertEquals(3, prober.getProbes());
+        assertEquals(2, prober.getFailures());
+        assertEquals(1, prober.getReorders());
+        assertFalse(config.render().contains(hanging));
+    }
+
+    @Test
+    public void testConfiguredOrderIfNoKdcAnswers() throws Exception {
+        List<String> kdcs = configure("localhost:" + closedPort, "localhost:" + blackhole.getLocalPort());
+
+        prober.afterPropertiesSet();
+
+        assertEquals(kdcs, config.getActiveKdcs("EXAMPLE.COM"));
+        assertEquals(0, prober.getReorders());
+    }
+
+    @Test
+    public void testKdcIsAddedBackWhenItAnswersAgain() throws Exception {
+        String down = "localhost:" + closedPort;
+        String alive = "localhost:" + kdc.getLocalPort();
+        configure(down, alive);
+        prober.afterPropertiesSet();
+        assertEquals(Collections.singletonList(alive), config.getActiveKdcs("EXAMPLE.COM"));
+
+        ServerSocket restarted = new ServerSocket(closedPort);
+        try {
+            answer(restarted);
+            prober.probe();
+        } finally {
+            restarted.close();
+        }
+
+        assertEquals(2, config.getActiveKdcs("EXAMPLE.COM").size());
+        assertEquals(2, prober.getReorders());
+    }
+
+    @Test
+    public void testIpv6KdcIsProbed() throws Exception {
+        String alive = "[::1]:" + kdc.getLocalPort();
+        configure("localhost:" + closedPort, alive);
+
+        prober.afterPropertiesSet();
+
+        assertEquals(Collections.singletonList(alive), config.getActiveKdcs("EXAMPLE.COM"));
+        assertTrue(prober.getLatencies().get(alive) >= 0);
+    }
+
+    private List<String> configure(String... kdcs) throws IOException {
+        List<String> list = Arrays.asList(kdcs);
+        config.setRealms(Collections.singletonMap("EXAMPLE.COM", list));
+        config.apply();
+        return list;
+    }
+
+    private void answer(final ServerSocket server) {
+        Thread answering = new Thread(new Runnable() {
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        Socket socket = server.accept();
+                        try {
+                            DataInputStream in = new DataInputStream(socket.getInputStream());
+                            byte[] request = new byte[in.readInt()];
+                            in.readFully(request);
+                            requestTag = request[0] & 0xff;
+                            OutputStream out = socket.getOutputStream();
+                            // KRB-ERROR, the prober doesn't look at the content
+                            out.write(new byte[] { 0, 0, 0, 3, 0x7e, 0x01, 0x00 });
+                            out.flush();
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        });
+        answering.setDaemon(true);
+        answering.start();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.security.Provider;
+import java.security.Security;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Test class for {@link KerberosCrypto}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class KerberosCryptoTest {
+
+    @After
+    public void after() {
+        // leaves Bouncy Castle last, where bootstrap() would add it
+        KerberosCrypto.install(KerberosCrypto.Backend.JDK);
+    }
+
+    @Test
+    public void testBouncyCastleFirst() throws Exception {
+        KerberosCrypto.install(KerberosCrypto.Backend.BOUNCY_CASTLE);
+
+        assertEquals("BC", Security.getProviders()[0].getName());
+        assertEquals("BC", Cipher.getInstance("AES/CBC/NoPadding").getProvider().getName());
+        assertEquals("BC", Mac.getInstance("HmacSHA1").getProvider().getName());
+        assertEquals(KerberosCrypto.Backend.BOUNCY_CASTLE, KerberosCrypto.getBackend());
+    }
+
+    @Test
+    public void testJdkFirst() throws Exception {
+        KerberosCrypto.install(KerberosCrypto.Backend.BOUNCY_CASTLE);
+        KerberosCrypto.install(KerberosCrypto.Backend.JDK);
+
+        Provider[] providers = Security.getProviders();
+        assertEquals("BC", providers[providers.length - 1].getName());
+        assertFalse("BC".equals(Cipher.getInstance("AES/CBC/NoPadding").getProvider().getName()));
+        assertEquals(1, count("BC"));
+    }
+
+    @Test
+    public void testBootstrapKeepsTheInstalledBackend() {
+        KerberosCrypto.install(KerberosCrypto.Backend.BOUNCY_CASTLE);
+        KerberosCrypto.bootstrap();
+        KerberosCrypto.bootstrap();
+
+        assertEquals("BC", Security.getProviders()[0].getName());
+        assertEquals(1, count("BC"));
+    }
+
+    @Test
+    public void testBootstrapKeepsTheApplicationsOrder() {
+        KerberosCrypto.install(KerberosCrypto.Backend.JDK);
+        Provider registered = Security.getProvider("BC");
+        Security.removeProvider("BC");
+        Security.insertProviderAt(registered, 1);
+
+        KerberosCrypto.bootstrap();
+
+        assertEquals("BC", Security.getProviders()[0].getName());
+        assertEquals(1, count("BC"));
+        // not installed by this library, the next install still reorders
+        Security.removeProvider("BC");
+        Security.addProvider(registered);
+    }
+
+    @Test
+    public void testTicketsAreDecryptedWithBouncyCastle() throws Exception {
+        KerberosCrypto.install(KerberosCrypto.Backend.BOUNCY_CASTLE);
+        String servicePrincipal = "HTTP/web.example.com@EXAMPLE.COM";
+        ServiceTicketFactory tickets = new ServiceTicketFactory(servicePrincipal,
+                ServiceTicketFactory.AES128_CTS_HMAC_SHA1_96, 1);
+        File keyTab = File.createTempFile("http", ".keytab");
+        tickets.writeKeyTab(keyTab);
+        SunJaasKerberosTicketValidator validator = new SunJaasKerberosTicketValidator();
+        validator.setServicePrincipal(servicePrincipal);
+        validator.setKeyTabLocation(new FileSystemResource(keyTab));
+        try {
+            validator.afterPropertiesSet();
+            assertEquals("alice@EXAMPLE.COM", validator.validateTicket(tickets.createSpnegoToken("alice", null)));
+        } finally {
+            validator.destroy();
+            keyTab.delete();
+        }
+    }
+
+    private static int count(String name) {
+        int count = 0;
+        for (Provider provider : Security.getProviders()) {
+            if (provider.getName().equals(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link KerberosLoginCache}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class KerberosLoginCacheTest {
+
+    private KerberosLoginCache cache;
+
+    @Before
+    public void before() {
+        cache = new KerberosLoginCache();
+    }
+
+    @Test
+    public void testHitWithSamePassword() {
+        assertNull(cache.get("alice", "secret"));
+        cache.put("alice", "secret", "alice@EXAMPLE.COM", Long.MAX_VALUE);
+
+        assertEquals("alice@EXAMPLE.COM", cache.get("alice", "secret"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRatio(), 0.001);
+    }
+
+    @Test
+    public void testOtherPasswordIsMiss() {
+        cache.put("alice", "secret", "alice@EXAMPLE.COM", Long.MAX_VALUE);
+
+        assertNull(cache.get("alice", "Secret"));
+        assertNull(cache.get("bob", "secret"));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testExpiresWithTicket() throws Exception {
+        cache.put("alice", "secret", "alice@EXAMPLE.COM", 1);
+        Thread.sleep(5);
+
+        assertNull(cache.get("alice", "secret"));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiredTicketIsNotCached() {
+        cache.put("alice", "secret", "alice@EXAMPLE.COM", 0);
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRemove() {
+        cache.put("alice", "secret", "alice@EXAMPLE.COM", Long.MAX_VALUE);
+        cache.remove("alice");
+        cache.remove("bob");
+
+        assertNull(cache.get("alice", "secret"));
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        cache.setMaxEntries(2);
+        cache.put("alice", "secret", "alice@EXAMPLE.COM", Long.MAX_VALUE);
+        cache.put("bob", "secret", "bob@EXAMPLE.COM", Long.MAX_VALUE);
+        cache.get("alice", "secret");
+        cache.put("carol", "secret", "carol@EXAMPLE.COM", Long.MAX_VALUE);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get("alice", "secret"));
+        assertNull(cache.get("bob", "secret"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownAlgorithm() {
+        cache.setAlgorithm("PBKDF2WithUnknown");
+        cache.put("alice", "secret", "alice@EXAMPLE.COM", Long.MAX_VALUE);
+    }
+}
@@ -17,8 +17,10 @@
 package org.springframework.security.extensions.kerberos;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
@@ -75,6 +77,17 @@ public class KerberosServiceAuthenticationProviderTest {
         assertEquals(USER_DETAILS, output.getPrincipal());
     }
 
+    @Test
+    public void testTokenIsNotRetained() throws Exception {
+        provider.setRetainToken(false);
+        KerberosServiceRequestToken output = (KerberosServiceRequestToken) callProviderAndReturnUser(USER_DETAILS);
+        assertNull(output.getToken());
+        assertArrayEquals(INPUT_TOKEN.getTokenDigest(), output.getTokenDigest());
+        assertEquals(new KerberosServiceRequestToken(USER_DETAILS, AUTHORITY_LIST, TEST_TOKEN), output);
+        // the user details may be cached elsewhere, they are not erased
+        assertEquals("empty", ((User) output.getPrincipal()).getPassword());
+    }
+
     @Test(expected=DisabledException.class)
     public void testUserIsDisabled() throws Exception {
         User disabledUser = new User(TEST_USER, "empty", false, true, true,true, AUTHORITY_LIST);
@@ -119,6 +132,40 @@ public class KerberosServiceAuthenticationProviderTest {
         provider.authenticate(INPUT_TOKEN);
     }
 
+    @Test
+    public void testClientIsPassedToActiveDirectoryValidator() throws Exception {
+        ActiveDirectoryTicketValidator adTicketValidator = mock(ActiveDirectoryTicketValidator.class);
+        provider.setTicketValidator(adTicketValidator);
+        KerberosServiceRequestToken input = new KerberosServiceRequestToken(TEST_TOKEN);
+        input.setDetails("192.168.0.1");
+        when(adTicketValidator.validateTicket(TEST_TOKEN, "192.168.0.1")).thenReturn(
+                new ActiveDirectoryTicketValidation(TEST_USER, Collections.<String> emptyList()));
+        when(userDetailsService.loadUserByUsername(TEST_USER)).thenReturn(USER_DETAILS);
+
+        assertEquals(TEST_USER, provider.authenticate(input).getName());
+        verify(adTicketValidator, never()).validateTicketAndGroupSids(any(byte[].class), any());
+        verify(adTicketValidator, never()).validateTicketAndGroupSids(any(byte[].class));
+    }
+
+    @Test
+    public void testServicePrincipalOfMultiSpnValidatorIsSet() throws Exception {
+        SunJaasKerberosTicketValidator app2 = mock(SunJaasKerberosTicketValidator.class);
+        MultiSpnKerberosTicketValidator multiSpnValidator = new MultiSpnKerberosTicketValidator();
+        multiSpnValidator.addValidator("HTTP/app2.example.com@EXAMPLE.COM", app2);
+        provider.setTicketValidator(multiSpnValidator);
+        byte[] token = KerberosTestUtils.wrapSpnego(KerberosTestUtils.createApRequest("app2.example.com",
+                "EXAMPLE.COM", 18, 1, KerberosTestUtils.filled(100, 0x11), KerberosTestUtils.filled(50, 0x22)));
+        when(app2.validateTicket(token, null)).thenReturn(new ActiveDirectoryTicketValidation(TEST_USER,
+                Collections.<String> emptyList(), "HTTP/app2.example.com@EXAMPLE.COM"));
+        when(userDetailsService.loadUserByUsername(TEST_USER)).thenReturn(USER_DETAILS);
+
+        KerberosServiceRequestToken output = (KerberosServiceRequestToken) provider.authenticate(
+                new KerberosServiceRequestToken(token));
+
+        assertEquals(TEST_USER, output.getName());
+        assertEquals("HTTP/app2.example.com@EXAMPLE.COM", output.getServicePrincipal());
+    }
+
     private Authentication callProviderAndReturnUser(UserDetails disabledUser) {
         // stubbing
         when(ticketValidator.validateTicket(TEST_TOKEN)).thenReturn(TEST_USER);
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+/**
+ * Test class for {@link KerberosServiceRequestToken}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class KerberosServiceRequestTokenTest {
+
+    private static final List<GrantedAuthority> AUTHORITIES = AuthorityUtils.createAuthorityList("ROLE_USER");
+    private static final byte[] TOKEN = KerberosTestUtils.filled(20000, 0x42);
+
+    @Test
+    public void testErasedTokenKeepsItsDigest() throws Exception {
+        KerberosServiceRequestToken token = new KerberosServiceRequestToken("alice", AUTHORITIES, TOKEN.clone());
+        KerberosServiceRequestToken erased = new KerberosServiceRequestToken("alice", AUTHORITIES, TOKEN.clone());
+
+        erased.eraseToken();
+
+        assertNull(erased.getToken());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(TOKEN), erased.getTokenDigest());
+        assertEquals(token, erased);
+        assertEquals(erased, token);
+        assertEquals(token.hashCode(), erased.hashCode());
+    }
+
+    @Test
+    public void testDifferentTokensAreNotEqual() {
+        byte[] other = TOKEN.clone();
+        other[other.length - 1] = 0;
+        KerberosServiceRequestToken token = new KerberosServiceRequestToken("alice", AUTHORITIES, TOKEN);
+        KerberosServiceRequestToken erased = new KerberosServiceRequestToken("alice", AUTHORITIES, other);
+        erased.eraseToken();
+
+        assertFalse(token.equals(erased));
+        assertFalse(erased.equals(token));
+    }
+
+    @Test
+    public void testErasedTokenIsSmallInTheSession() throws Exception {
+        KerberosServiceRequestToken token = new KerberosServiceRequestToken("alice", AUTHORITIES, TOKEN);
+        int retained = serialize(token).length;
+        token.eraseCredentials();
+
+        byte[] serialized = serialize(token);
+        KerberosServiceRequestToken restored = (KerberosServiceRequestToken) new ObjectInputStream(
+                new ByteArrayInputStream(serialized)).readObject();
+
+        assertTrue(retained > TOKEN.length);
+        assertTrue(serialized.length < retained - TOKEN.length + 100);
+        assertEquals(token, restored);
+        assertEquals(token.hashCode(), restored.hashCode());
+    }
+
+    @Test
+    public void testWithoutToken() {
+        KerberosServiceRequestToken token = new KerberosServiceRequestToken("alice", AUTHORITIES, null);
+
+        assertNull(token.getTokenDigest());
+        assertEquals(token, new KerberosServiceRequestToken("alice", AUTHORITIES, null));
+        assertEquals(token.hashCode(), new KerberosServiceRequestToken("alice", AUTHORITIES, null).hashCode());
+    }
+
+    private static byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Builds the DER framing of Kerberos and SPNEGO tokens. The encrypted parts are
+ * just opaque bytes, so these tokens can only be used for parsing, not for validation.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class KerberosTestUtils {
+
+    private static final byte[] SPNEGO_OID = { 0x2b, 0x06, 0x01, 0x05, 0x05, 0x02 };
+    private static final byte[] KERBEROS_OID = { 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x12, 0x01, 0x02, 0x02 };
+    private static final byte[] LEGACY_KERBEROS_OID = { 0x2a, (byte) 0x86, 0x48, (byte) 0x82, (byte) 0xf7, 0x12, 0x01, 0x02, 0x02 };
+
+    /**
+     * @return a bare AP-REQ for <code>HTTP/host@realm</code>
+     */
+    public static byte[] createApRequest(String host, String realm, int etype, int kvno, byte[] ticketCipher,
+            byte[] authenticatorCipher) {
+        byte[] sname = der(0x30, concat(der(0xa0, integer(2)), der(0xa1, der(0x30, concat(
+                der(0x1b, "HTTP".getBytes()), der(0x1b, host.getBytes()))))));
+        byte[] ticket = der(0x61, der(0x30, concat(der(0xa0, integer(5)), der(0xa1, der(0x1b, realm.getBytes())),
+                der(0xa2, sname), der(0xa3, encryptedData(etype, kvno, ticketCipher)))));
+        return der(0x6e, der(0x30, concat(der(0xa0, integer(5)), der(0xa1, integer(14)),
+                der(0xa2, der(0x03, new byte[] { 0, 0x20, 0, 0, 0 })), der(0xa3, ticket),
+                der(0xa4, encryptedData(etype, -1, authenticatorCipher)))));
+    }
+
+    /**
+     * @return the AP-REQ wrapped into a Kerberos GSS token
+     */
+    public static byte[] wrapGss(byte[] apRequest) {
+        return der(0x60, concat(der(0x06, KERBEROS_OID), new byte[] { 0x01, 0x00 }, apRequest));
+    }
+
+    /**
+     * @return the AP-REQ wrapped into a SPNEGO NegTokenInit, the way browsers send it
+     */
+    public static byte[] wrapSpnego(byte[] apRequest) {
+        byte[] mechTypes = der(0xa0, der(0x30, concat(der(0x06, LEGACY_KERBEROS_OID), der(0x06, KERBEROS_OID))));
+        byte[] mechToken = der(0xa2, der(0x04, wrapGss(apRequest)));
+        return der(0x60, concat(der(0x06, SPNEGO_OID), der(0xa0, der(0x30, concat(mechTypes, mechToken)))));
+    }
+
+    public static byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    static byte[] encryptedData(int etype, int kvno, byte[] cipher) {
+        byte[] kvnoField = kvno >= 0 ? der(0xa1, integer(kvno)) : new byte[0];
+        return der(0x30, concat(der(0xa0, integer(etype)), kvnoField, der(0xa2, der(0x04, cipher))));
+    }
+
+    /** @return the minimal DER encoding of the integer */
+    static byte[] integer(int value) {
+        int length = 4;
+        while (length > 1 && (value >> (length * 8 - 9)) == (value >> 31)) {
+            length--;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (value >> (8 * (length - 1 - i)));
+        }
+        return der(0x02, bytes);
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] der(int tag, byte[] content) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        if (content.length < 0x80) {
+            out.write(content.length);
+        } else if (content.length < 0x100) {
+            out.write(0x81);
+            out.write(content.length);
+        } else if (content.length < 0x10000) {
+            out.write(0x82);
+            out.write(content.length >> 8);
+            out.write(content.length);
+        } else {
+            out.write(0x83);
+            out.write(content.length >> 16);
+            out.write(content.length >> 8);
+            out.write(content.length);
+        }
+        out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileReader;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Test class for {@link Krb5Config}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class Krb5ConfigTest {
+
+    private Krb5Config config;
+    private File location;
+    private String previousLocation;
+
+    @Before
+    public void before() throws Exception {
+        previousLocation = System.getProperty("java.security.krb5.conf");
+        location = File.createTempFile("krb5", ".conf");
+        Map<String, List<String>> realms = new LinkedHashMap<String, List<String>>();
+        realms.put("EXAMPLE.COM", Arrays.asList("dc1.example.com", "dc2.example.com:8888"));
+        realms.put("OTHER.EXAMPLE.COM", Arrays.asList("dc.other.example.com"));
+        config = new Krb5Config();
+        config.setDefaultRealm("EXAMPLE.COM");
+        config.setRealms(realms);
+        config.setLocation(location);
+    }
+
+    @After
+    public void after() {
+        location.delete();
+        if (previousLocation == null) {
+            System.clearProperty("java.security.krb5.conf");
+        } else {
+            System.setProperty("java.security.krb5.conf", previousLocation);
+        }
+    }
+
+    @Test
+    public void testRender() {
+        config.setDomainRealms(Collections.singletonMap(".example.com", "EXAMPLE.COM"));
+        config.setKdcTimeout(5000);
+
+        assertEquals("[libdefaults]\n"
+                + "    default_realm = EXAMPLE.COM\n"
+                + "    udp_preference_limit = 1\n"
+                + "    kdc_timeout = 5000\n"
+                + "    max_retries = 1\n"
+                + "    dns_lookup_kdc = false\n"
+                + "    dns_lookup_realm = false\n"
+                + "[realms]\n"
+                + "    EXAMPLE.COM = {\n"
+                + "        kdc = dc1.example.com\n"
+                + "        kdc = dc2.example.com:8888\n"
+                + "    }\n"
+                + "    OTHER.EXAMPLE.COM = {\n"
+                + "        kdc = dc.other.example.com\n"
+                + "    }\n"
+                + "[domain_realm]\n"
+                + "    .example.com = EXAMPLE.COM\n", config.render());
+    }
+
+    @Test
+    public void testApplyWritesTheFile() throws Exception {
+        config.apply();
+
+        assertEquals(location.getAbsolutePath(), System.getProperty("java.security.krb5.conf"));
+        assertEquals(config.render(), FileCopyUtils.copyToString(new FileReader(location)));
+    }
+
+    @Test
+    public void testReorderRewritesTheFile() throws Exception {
+        config.apply();
+        int generation = Krb5Config.generation();
+
+        assertFalse(config.setActiveKdcs("EXAMPLE.COM", Arrays.asList("dc1.example.com", "dc2.example.com:8888")));
+        assertEquals(generation, Krb5Config.generation());
+
+        assertTrue(config.setActiveKdcs("EXAMPLE.COM", Arrays.asList("dc2.example.com:8888")));
+        assertEquals(generation + 1, Krb5Config.generation());
+        assertEquals(Arrays.asList("dc2.example.com:8888"), config.getActiveKdcs("EXAMPLE.COM"));
+        String written = FileCopyUtils.copyToString(new FileReader(location));
+        assertFalse(written.contains("dc1.example.com"));
+        assertTrue(written.contains("kdc = dc.other.example.com"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownRealm() throws Exception {
+        config.setActiveKdcs("UNKNOWN.COM", Arrays.asList("dc1.example.com"));
+    }
+
+    @Test
+    public void testParseKdc() {
+        assertKdc("dc1.example.com", 88, "dc1.example.com");
+        assertKdc("dc2.example.com", 8888, "dc2.example.com:8888");
+        assertKdc("::1", 88, "[::1]:88");
+        assertKdc("fe80::1", 88, "[fe80::1]");
+        assertKdc("fe80::1", 88, "fe80::1");
+        assertKdc("2001:db8::5", 750, "[2001:db8::5]:750");
+    }
+
+    @Test
+    public void testInvalidKdcIsRejected() {
+        for (String kdc : Arrays.asList("dc1.example.com:", "dc1.example.com:kdc", "dc1.example.com:0",
+                "dc1.example.com:65536", "[::1", "[::1]88", "[]:88", ":88")) {
+            try {
+                config.setRealms(Collections.singletonMap("EXAMPLE.COM", Collections.singletonList(kdc)));
+                fail("Expected IllegalArgumentException for " + kdc);
+            } catch (IllegalArgumentException expected) {
+                assertTrue(expected.getMessage().contains(kdc));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRealmWithoutKdc() throws Exception {
+        config.setRealms(Collections.singletonMap("EXAMPLE.COM", Collections.<String> emptyList()));
+        config.apply();
+    }
+
+    private static void assertKdc(String host, int port, String kdc) {
+        InetSocketAddress address = Krb5Config.parseKdc(kdc);
+        assertEquals(host, address.getHostString());
+        assertEquals(port, address.getPort());
+    }
+}
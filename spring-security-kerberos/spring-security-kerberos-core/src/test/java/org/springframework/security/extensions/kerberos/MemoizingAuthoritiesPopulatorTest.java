@@ -0,0 +1,174 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.GrantedAuthorityImpl;
+
+/**
+ * Test class for {@link MemoizingAuthoritiesPopulator}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class MemoizingAuthoritiesPopulatorTest {
+
+    private static final String DOMAIN = "S-1-5-21-185937884-2362668773-3192785854";
+    private static final List<String> SIDS = Arrays.asList(DOMAIN + "-513", DOMAIN + "-1139", "S-1-18-1");
+
+    private ActiveDirectoryAuthoritiesPopulator delegate;
+    private MemoizingAuthoritiesPopulator populator;
+
+    @Before
+    public void before() throws Exception {
+        delegate = mock(ActiveDirectoryAuthoritiesPopulator.class);
+        when(delegate.getGrantedAuthorities(anyListOf(String.class))).thenReturn(authorities("ROLE_USER"));
+        populator = new MemoizingAuthoritiesPopulator(delegate);
+        populator.afterPropertiesSet();
+    }
+
+    @Test
+    public void testSameSetIsMappedOnce() {
+        Collection<GrantedAuthority> first = populator.getGrantedAuthorities(SIDS);
+        List<String> reordered = Arrays.asList("S-1-18-1", DOMAIN + "-1139", DOMAIN + "-513", DOMAIN + "-513");
+        Collection<GrantedAuthority> second = populator.getGrantedAuthorities(reordered);
+        Collection<GrantedAuthority> third = populator.getGrantedAuthorities(SidSet.valueOf(SIDS));
+
+        assertSame(first, second);
+        assertSame(first, third);
+        verify(delegate, times(1)).getGrantedAuthorities(SIDS);
+        assertEquals(2, populator.getHits());
+        assertEquals(1, populator.getMisses());
+        assertEquals(2.0 / 3, populator.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void testDifferentSetsAreMappedSeparately() {
+        List<String> other = Arrays.asList(DOMAIN + "-513");
+        when(delegate.getGrantedAuthorities(other)).thenReturn(authorities("ROLE_GUEST"));
+
+        assertEquals("ROLE_USER", populator.getGrantedAuthorities(SIDS).iterator().next().getAuthority());
+        assertEquals("ROLE_GUEST", populator.getGrantedAuthorities(other).iterator().next().getAuthority());
+        assertEquals(2, populator.size());
+    }
+
+    @Test
+    public void testCachedAuthoritiesAreImmutable() {
+        Collection<GrantedAuthority> authorities = populator.getGrantedAuthorities(SIDS);
+        try {
+            authorities.clear();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        populator.setMaxEntries(2);
+        List<String> a = Arrays.asList(DOMAIN + "-1");
+        List<String> b = Arrays.asList(DOMAIN + "-2");
+        List<String> c = Arrays.asList(DOMAIN + "-3");
+
+        populator.getGrantedAuthorities(a);
+        populator.getGrantedAuthorities(b);
+        populator.getGrantedAuthorities(a);
+        populator.getGrantedAuthorities(c);
+        populator.getGrantedAuthorities(a);
+        populator.getGrantedAuthorities(b);
+
+        assertEquals(2, populator.size());
+        assertEquals(2, populator.getEvictions());
+        verify(delegate, times(1)).getGrantedAuthorities(a);
+        verify(delegate, times(2)).getGrantedAuthorities(b);
+    }
+
+    @Test
+    public void testSidSetIsPassedOn() {
+        when(delegate.getGrantedAuthorities(any(SidSet.class))).thenReturn(authorities("ROLE_ADMIN"));
+
+        populator.getGrantedAuthorities(SidSet.valueOf(SIDS));
+        populator.getGrantedAuthorities(SidSet.valueOf(SIDS));
+
+        verify(delegate, times(1)).getGrantedAuthorities(SidSet.valueOf(SIDS));
+        verify(delegate, never()).getGrantedAuthorities(anyListOf(String.class));
+    }
+
+    @Test
+    public void testNewMappingGenerationIsMappedAgain() {
+        when(delegate.getGrantedAuthorities(SIDS)).thenReturn(authorities("ROLE_ADMIN"), authorities("ROLE_USER"));
+        when(delegate.getMappingGeneration()).thenReturn(1L, 1L, 2L);
+
+        assertEquals("ROLE_ADMIN", populator.getGrantedAuthorities(SIDS).iterator().next().getAuthority());
+        assertEquals("ROLE_ADMIN", populator.getGrantedAuthorities(SIDS).iterator().next().getAuthority());
+        assertEquals("ROLE_USER", populator.getGrantedAuthorities(SIDS).iterator().next().getAuthority());
+        assertEquals(1, populator.size());
+        assertEquals(1, populator.getHits());
+    }
+
+    @Test
+    public void testReloadedMappingsAreUsed() throws Exception {
+        SidMappingAuthoritiesPopulator mappings = new SidMappingAuthoritiesPopulator();
+        mappings.setMappings(new ByteArrayResource((DOMAIN + "-1139=ROLE_ADMIN").getBytes("ISO-8859-1")));
+        mappings.afterPropertiesSet();
+        populator.setAuthoritiesPopulator(mappings);
+        assertEquals(1, populator.getGrantedAuthorities(SIDS).size());
+
+        mappings.setMappings(new ByteArrayResource((DOMAIN + "-513=ROLE_USER").getBytes("ISO-8859-1")));
+        mappings.reload();
+
+        assertEquals("ROLE_USER", populator.getGrantedAuthorities(SIDS).iterator().next().getAuthority());
+    }
+
+    @Test
+    public void testUnparsableSidsBypassTheCache() {
+        List<String> sids = Arrays.asList("S-1-5");
+
+        populator.getGrantedAuthorities(sids);
+        populator.getGrantedAuthorities(sids);
+
+        verify(delegate, times(2)).getGrantedAuthorities(sids);
+        assertEquals(0, populator.size());
+    }
+
+    @Test
+    public void testClear() {
+        populator.getGrantedAuthorities(SIDS);
+        populator.clear();
+        populator.getGrantedAuthorities(SIDS);
+
+        verify(delegate, times(2)).getGrantedAuthorities(SIDS);
+    }
+
+    private static Collection<GrantedAuthority> authorities(String role) {
+        Collection<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>();
+        authorities.add(new GrantedAuthorityImpl(role));
+        return authorities;
+    }
+}
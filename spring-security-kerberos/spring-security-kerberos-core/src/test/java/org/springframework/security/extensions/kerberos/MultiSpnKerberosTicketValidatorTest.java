@@ -0,0 +1,104 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+
+/**
+ * Test class for {@link MultiSpnKerberosTicketValidator}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class MultiSpnKerberosTicketValidatorTest {
+
+    private SunJaasKerberosTicketValidator app1;
+    private SunJaasKerberosTicketValidator app2;
+    private MultiSpnKerberosTicketValidator validator;
+
+    @Before
+    public void before() {
+        app1 = mock(SunJaasKerberosTicketValidator.class);
+        app2 = mock(SunJaasKerberosTicketValidator.class);
+        when(app1.validateTicket(any(byte[].class))).thenReturn("user1@EXAMPLE.COM");
+        when(app2.validateTicketAndGroupSids(any(byte[].class))).thenReturn(new ActiveDirectoryTicketValidation(
+                "user2@EXAMPLE.COM", Collections.<String> emptyList(), "HTTP/app2.example.com@EXAMPLE.COM"));
+        validator = new MultiSpnKerberosTicketValidator();
+        validator.addValidator("HTTP/app1.example.com@EXAMPLE.COM", app1);
+        validator.addValidator("HTTP/App2.Example.com", app2);
+    }
+
+    @Test
+    public void testRoutesByPrincipal() {
+        byte[] token = token("APP1.example.com", "example.com");
+
+        assertEquals("user1@EXAMPLE.COM", validator.validateTicket(token));
+        verify(app1).validateTicket(token);
+        verifyZeroInteractions(app2);
+    }
+
+    @Test
+    public void testPrincipalWithoutRealmMatchesAnyRealm() {
+        byte[] token = token("app2.example.com", "OTHER.EXAMPLE.COM");
+
+        ActiveDirectoryTicketValidation validation = validator.validateTicketAndGroupSids(token);
+
+        assertEquals("HTTP/app2.example.com@EXAMPLE.COM", validation.getServicePrincipal());
+        verifyZeroInteractions(app1);
+    }
+
+    @Test
+    public void testUnknownPrincipalIsRejectedWithoutDecryption() {
+        try {
+            validator.validateTicket(token("app3.example.com", "EXAMPLE.COM"));
+            fail("Expected BadCredentialsException");
+        } catch (BadCredentialsException expected) {
+        }
+        try {
+            // app1 is only configured for its realm
+            validator.validateTicket(token("app1.example.com", "OTHER.EXAMPLE.COM"));
+            fail("Expected BadCredentialsException");
+        } catch (BadCredentialsException expected) {
+        }
+        assertEquals(2, validator.getUnknownPrincipals());
+        verifyZeroInteractions(app1, app2);
+    }
+
+    @Test(expected = BadCredentialsException.class)
+    public void testNoApRequest() {
+        validator.validateTicket("TlRMTVNTUAABAAAAB4IIog".getBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicatePrincipal() {
+        validator.addValidator("http/app1.example.com@example.com", app2);
+    }
+
+    private static byte[] token(String host, String realm) {
+        return KerberosTestUtils.wrapSpnego(KerberosTestUtils.createApRequest(host, realm, 18, 1,
+                KerberosTestUtils.filled(100, 0x11), KerberosTestUtils.filled(50, 0x22)));
+    }
+}
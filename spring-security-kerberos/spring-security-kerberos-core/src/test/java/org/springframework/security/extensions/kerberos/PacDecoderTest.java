@@ -0,0 +1,128 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.sun.security.jgss.AuthorizationDataEntry;
+
+/**
+ * Test class for {@link PacDecoder}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class PacDecoderTest {
+
+    private static final String DOMAIN = "S-1-5-21-185937884-2362668773-3192785854";
+    private static final String RESOURCE_DOMAIN = "S-1-5-21-1-2-3";
+    // offsets in a PAC from PacTestUtils with one group and a domain SID with four sub authorities
+    private static final int GROUP_COUNT = 24 + 128;
+    private static final int GROUP_MAX_COUNT = 24 + 256;
+    private static final int EXTRA_SID_COUNT = 24 + 216;
+    private static final int EXTRA_SID_MAX_COUNT = 24 + 296;
+
+    @Test
+    public void testAllSidKinds() throws Exception {
+        byte[] pac = PacTestUtils.createPac(DOMAIN, 513, new int[] { 1139, 1140 }, new String[] { "S-1-18-1" },
+                RESOURCE_DOMAIN, new int[] { 4001 });
+
+        List<String> sids = PacDecoder.getGroupSids(pac);
+
+        assertEquals(Arrays.asList(DOMAIN + "-513", DOMAIN + "-1139", DOMAIN + "-1140", "S-1-18-1",
+                RESOURCE_DOMAIN + "-4001"), sids);
+    }
+
+    @Test
+    public void testIfRelevantAuthorizationData() throws Exception {
+        byte[] pac = PacTestUtils.createPac(DOMAIN, 513, new int[] { 1139 }, new String[0], null, new int[0]);
+        AuthorizationDataEntry[] authzData = new AuthorizationDataEntry[] {
+                new AuthorizationDataEntry(PacDecoder.AD_IF_RELEVANT, PacTestUtils.wrapIfRelevant(pac)) };
+
+        List<String> sids = PacDecoder.getGroupSids(authzData);
+
+        assertEquals(Arrays.asList(DOMAIN + "-513", DOMAIN + "-1139"), sids);
+    }
+
+    @Test
+    public void testManyGroups() throws Exception {
+        int[] rids = new int[1500];
+        for (int i = 0; i < rids.length; i++) {
+            rids[i] = 10000 + i;
+        }
+        byte[] pac = PacTestUtils.createPac(DOMAIN, 513, rids, new String[0], null, new int[0]);
+        AuthorizationDataEntry[] authzData = new AuthorizationDataEntry[] {
+                new AuthorizationDataEntry(PacDecoder.AD_IF_RELEVANT, PacTestUtils.wrapIfRelevant(pac)) };
+
+        List<String> sids = PacDecoder.getGroupSids(authzData);
+
+        assertEquals(1501, sids.size());
+        assertEquals(DOMAIN + "-11499", sids.get(1500));
+    }
+
+    @Test
+    public void testNoAuthorizationData() throws Exception {
+        assertTrue(PacDecoder.getGroupSids((AuthorizationDataEntry[]) null).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedPac() throws Exception {
+        byte[] pac = PacTestUtils.createPac(DOMAIN, 513, new int[] { 1139 }, new String[0], null, new int[0]);
+        PacDecoder.getGroupSids(Arrays.copyOf(pac, pac.length - 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeExtraSidCount() throws Exception {
+        PacDecoder.getGroupSids(withExtraSidCount(-1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExtraSidCountBeyondThePac() throws Exception {
+        PacDecoder.getGroupSids(withExtraSidCount(0x10000000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGroupCountBeyondThePac() throws Exception {
+        byte[] pac = PacTestUtils.createPac(DOMAIN, 513, new int[] { 1139 }, new String[0], null, new int[0]);
+        // count * 8 overflows to 8
+        patch(pac, GROUP_COUNT, 1, 0x20000001);
+        patch(pac, GROUP_MAX_COUNT, 1, 0x20000001);
+        PacDecoder.getGroupSids(pac);
+    }
+
+    private static byte[] withExtraSidCount(int count) {
+        byte[] pac = PacTestUtils.createPac(DOMAIN, 513, new int[] { 1139 }, new String[] { "S-1-5-32-544",
+                "S-1-18-1", RESOURCE_DOMAIN + "-7" }, null, new int[0]);
+        patch(pac, EXTRA_SID_COUNT, 3, count);
+        patch(pac, EXTRA_SID_MAX_COUNT, 3, count);
+        return pac;
+    }
+
+    private static void patch(byte[] pac, int offset, int expected, int value) {
+        assertEquals(expected, (pac[offset] & 0xff) | (pac[offset + 1] & 0xff) << 8 | (pac[offset + 2] & 0xff) << 16
+                | (pac[offset + 3] & 0xff) << 24);
+        for (int i = 0; i < 4; i++) {
+            pac[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Builds synthetic PACs with a logon info buffer, the way a domain controller encodes them.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class PacTestUtils {
+
+    /**
+     * @param domainSid the logon domain SID, e.g. <code>S-1-5-21-1-2-3</code>
+     * @param primaryGroupId RID of the primary group
+     * @param groupIds RIDs of the groups in the logon domain
+     * @param extraSids complete SIDs in string form
+     * @param resourceDomainSid the resource group domain SID or null
+     * @param resourceGroupIds RIDs of the resource groups
+     * @return the PAC with a single logon info buffer
+     */
+    public static byte[] createPac(String domainSid, int primaryGroupId, int[] groupIds, String[] extraSids,
+            String resourceDomainSid, int[] resourceGroupIds) {
+        byte[] logonInfo = createLogonInfo(domainSid, primaryGroupId, groupIds, extraSids, resourceDomainSid,
+                resourceGroupIds);
+        Writer pac = new Writer();
+        pac.writeInt(1); // buffers
+        pac.writeInt(0); // version
+        pac.writeInt(PacDecoder.PAC_LOGON_INFO);
+        pac.writeInt(logonInfo.length);
+        pac.writeInt(24); // offset
+        pac.writeInt(0);
+        pac.append(logonInfo);
+        return pac.toByteArray();
+    }
+
+    /**
+     * Wraps the PAC into an AD-IF-RELEVANT element, as found in the authorization data of a ticket.
+     */
+    public static byte[] wrapIfRelevant(byte[] pac) {
+        byte[] type = KerberosTestUtils.der(0xa0, KerberosTestUtils.der(0x02, new byte[] { 0, (byte) PacDecoder.AD_WIN2K_PAC }));
+        byte[] data = KerberosTestUtils.der(0xa1, KerberosTestUtils.der(0x04, pac));
+        return KerberosTestUtils.der(0x30, KerberosTestUtils.der(0x30, KerberosTestUtils.concat(type, data)));
+    }
+
+    private static byte[] createLogonInfo(String domainSid, int primaryGroupId, int[] groupIds, String[] extraSids,
+            String resourceDomainSid, int[] resourceGroupIds) {
+        Writer ndr = new Writer();
+        // common and private header
+        ndr.append(new byte[] { 1, 0x10, 8, 0, (byte) 0xcc, (byte) 0xcc, (byte) 0xcc, (byte) 0xcc });
+        ndr.writeInt(0); // object buffer length, not checked
+        ndr.writeInt(0);
+        int referent = 0x20000;
+        ndr.writeInt(referent++);
+
+        ndr.append(new byte[48]);
+        // effective name is the only string with content
+        ndr.writeInt(8 << 16 | 8);
+        ndr.writeInt(referent++);
+        for (int i = 0; i < 5; i++) {
+            ndr.writeInt(0);
+            ndr.writeInt(0);
+        }
+        ndr.writeInt(0); // logon count, bad password count
+        ndr.writeInt(1000); // user id
+        ndr.writeInt(primaryGroupId);
+        ndr.writeInt(groupIds.length);
+        ndr.writeInt(referent++);
+        ndr.writeInt(0x20); // user flags, extra sids
+        ndr.append(new byte[16]);
+        ndr.writeInt(0); // logon server
+        ndr.writeInt(0);
+        ndr.writeInt(0); // logon domain name
+        ndr.writeInt(0);
+        ndr.writeInt(referent++); // logon domain id
+        ndr.append(new byte[8]);
+        ndr.writeInt(0x10); // user account control
+        ndr.writeInt(0);
+        ndr.append(new byte[16]);
+        ndr.writeInt(0);
+        ndr.writeInt(0);
+        ndr.writeInt(extraSids.length);
+        ndr.writeInt(extraSids.length > 0 ? referent++ : 0);
+        ndr.writeInt(resourceDomainSid != null ? referent++ : 0);
+        ndr.writeInt(resourceGroupIds.length);
+        ndr.writeInt(resourceDomainSid != null ? referent++ : 0);
+
+        // effective name "user"
+        ndr.writeInt(4);
+        ndr.writeInt(0);
+        ndr.writeInt(4);
+        ndr.append(new byte[] { 'u', 0, 's', 0, 'e', 0, 'r', 0 });
+
+        writeGroupIds(ndr, groupIds);
+        writeSid(ndr, domainSid);
+        if (extraSids.length > 0) {
+            ndr.writeInt(extraSids.length);
+            for (int i = 0; i < extraSids.length; i++) {
+                ndr.writeInt(referent++);
+                ndr.writeInt(7);
+            }
+            for (String sid : extraSids) {
+                writeSid(ndr, sid);
+            }
+        }
+        if (resourceDomainSid != null) {
+            writeSid(ndr, resourceDomainSid);
+            writeGroupIds(ndr, resourceGroupIds);
+        }
+        return ndr.toByteArray();
+    }
+
+    private static void writeGroupIds(Writer ndr, int[] rids) {
+        ndr.writeInt(rids.length);
+        for (int rid : rids) {
+            ndr.writeInt(rid);
+            ndr.writeInt(7);
+        }
+    }
+
+    private static void writeSid(Writer ndr, String sid) {
+        String[] parts = sid.split("-");
+        int subAuthorities = parts.length - 3;
+        ndr.writeInt(subAuthorities);
+        ndr.write(Integer.parseInt(parts[1]));
+        ndr.write(subAuthorities);
+        long authority = Long.parseLong(parts[2]);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            ndr.write((int) (authority >>> shift));
+        }
+        for (int i = 3; i < parts.length; i++) {
+            ndr.writeInt((int) Long.parseLong(parts[i]));
+        }
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+        void writeInt(int value) {
+            write(value);
+            write(value >>> 8);
+            write(value >>> 16);
+            write(value >>> 24);
+        }
+
+        void append(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
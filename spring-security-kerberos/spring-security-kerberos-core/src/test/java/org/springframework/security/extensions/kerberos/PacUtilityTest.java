@@ -0,0 +1,99 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link PacUtility}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class PacUtilityTest {
+
+    private static final String SID = "S-1-5-21-185937884-2362668773-3192785854-1139";
+    // the PAC string representation of SID as produced by jaaslounge
+    private static final String PAC_SID = "\\01\\05\\00\\00\\00\\00\\00\\05\\15\\00\\00\\00\\dc\\2f\\15\\0b"
+            + "\\e5\\76\\d3\\8c\\be\\0b\\4e\\be\\73\\04\\00\\00";
+    private static final byte[] BINARY_SID = { 0x01, 0x05, 0x00, 0x00, 0x00, 0x00, 0x00, 0x05, 0x15, 0x00, 0x00,
+            0x00, (byte) 0xdc, 0x2f, 0x15, 0x0b, (byte) 0xe5, 0x76, (byte) 0xd3, (byte) 0x8c, (byte) 0xbe, 0x0b,
+            0x4e, (byte) 0xbe, 0x73, 0x04, 0x00, 0x00 };
+
+    @Test
+    public void testBinarySidToStringSid() {
+        assertEquals(SID, PacUtility.binarySidToStringSid(BINARY_SID));
+    }
+
+    @Test
+    public void testPacStringToStringSid() {
+        assertEquals(SID, PacUtility.binarySidToStringSid(PAC_SID));
+        assertEquals("S-1-1-0", PacUtility.binarySidToStringSid("\\01\\01\\00\\00\\00\\00\\00\\01\\00\\00\\00\\00"));
+    }
+
+    @Test
+    public void testStringSidToByteArraySid() {
+        assertArrayEquals(BINARY_SID, PacUtility.stringSidToByteArraySid(SID));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        String[] sids = { "S-1-5-32-544", "S-1-18-1", "S-1-0-0", "S-1-5-21-4294967295-1-2-513",
+                "S-1-281474976710655-1", "S-1-5" };
+        for (String sid : sids) {
+            assertEquals(sid, PacUtility.binarySidToStringSid(PacUtility.stringSidToByteArraySid(sid)));
+        }
+    }
+
+    @Test
+    public void testAppendAtOffset() {
+        byte[] buffer = new byte[BINARY_SID.length + 3];
+        System.arraycopy(BINARY_SID, 0, buffer, 3, BINARY_SID.length);
+        StringBuilder out = new StringBuilder("sid=");
+
+        PacUtility.appendStringSid(buffer, 3, out);
+
+        assertEquals("sid=" + SID, out.toString());
+        assertEquals(5, PacUtility.getSubAuthorityCount(buffer, 3));
+        assertEquals(5, PacUtility.getIdentifierAuthority(buffer, 3));
+        assertEquals(1139, PacUtility.getSubAuthority(buffer, 3, 4));
+        assertEquals(3192785854L, PacUtility.getSubAuthority(buffer, 3, 3) & 0xffffffffL);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedBinarySid() {
+        byte[] truncated = new byte[BINARY_SID.length - 1];
+        System.arraycopy(BINARY_SID, 0, truncated, 0, truncated.length);
+        PacUtility.binarySidToStringSid(truncated);
+    }
+
+    @Test
+    public void testInvalidStringSids() {
+        String[] invalid = { "", "S-1", "X-1-5-21", "S-1-5-", "S-1-5-21-abc", "S-256-5", "S-1-5-4294967296",
+                "S-1-5-1-2-3-4-5-6-7-8-9-10-11-12-13-14-15-16" };
+        for (String sid : invalid) {
+            try {
+                PacUtility.stringSidToByteArraySid(sid);
+                fail("Expected IllegalArgumentException for " + sid);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.springframework.security.extensions.kerberos.KerberosTestUtils.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Issues service tickets the way a KDC would, so tokens can be validated without a KDC or
+ * Active Directory. The service key is random and can be written to a keytab. Tickets are
+ * encrypted with aes128-cts-hmac-sha1-96 or aes256-cts-hmac-sha1-96 (RFC 3962) and may
+ * carry a PAC, which is signed with the service key.
+ *
+ * <p>Only plain JCE is used, no KDC and no internal JRE classes.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class ServiceTicketFactory {
+
+    public static final int AES128_CTS_HMAC_SHA1_96 = 17;
+    public static final int AES256_CTS_HMAC_SHA1_96 = 18;
+
+    private static final int KEY_USAGE_TICKET = 2;
+    private static final int KEY_USAGE_AUTHENTICATOR = 11;
+    private static final int KEY_USAGE_PAC_SIGNATURE = 17;
+    private static final int PAC_SERVER_CHECKSUM = 6;
+    private static final int PAC_PRIVSVR_CHECKSUM = 7;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String[] serviceName;
+    private final String realm;
+    private final int etype;
+    private final int kvno;
+    private final byte[] key;
+    private final byte[] kdcKey;
+    private final AtomicInteger sequence = new AtomicInteger();
+    private long ticketLifetime = 10 * 60 * 60 * 1000L;
+
+    /**
+     * @param servicePrincipal e.g. <code>HTTP/web.example.com@EXAMPLE.COM</code>
+     * @param etype {@link #AES128_CTS_HMAC_SHA1_96} or {@link #AES256_CTS_HMAC_SHA1_96}
+     * @param kvno version of the random service key
+     */
+    public ServiceTicketFactory(String servicePrincipal, int etype, int kvno) {
+        int at = servicePrincipal.lastIndexOf('@');
+        if (at < 0 || (etype != AES128_CTS_HMAC_SHA1_96 && etype != AES256_CTS_HMAC_SHA1_96)) {
+            throw new IllegalArgumentException("Need principal with realm and an AES encryption type");
+        }
+        this.serviceName = servicePrincipal.substring(0, at).split("/");
+        this.realm = servicePrincipal.substring(at + 1);
+        this.etype = etype;
+        this.kvno = kvno;
+        this.key = random(etype == AES128_CTS_HMAC_SHA1_96 ? 16 : 32);
+        this.kdcKey = random(this.key.length);
+    }
+
+    public String getServicePrincipal() {
+        return join(this.serviceName) + '@' + this.realm;
+    }
+
+    public byte[] getKey() {
+        return this.key.clone();
+    }
+
+    public int getKvno() {
+        return this.kvno;
+    }
+
+    /**
+     * @param ticketLifetime in milliseconds, default is 10 hours
+     */
+    public void setTicketLifetime(long ticketLifetime) {
+        this.ticketLifetime = ticketLifetime;
+    }
+
+    /**
+     * Writes a keytab with the keys of the given factories, so one file can hold several principals.
+     */
+    public static void writeKeyTab(File file, ServiceTicketFactory... factories) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeShort(0x0502);
+            for (ServiceTicketFactory factory : factories) {
+                byte[] entry = factory.keyTabEntry();
+                out.writeInt(entry.length);
+                out.write(entry);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public void writeKeyTab(File file) throws IOException {
+        writeKeyTab(file, this);
+    }
+
+    private byte[] keyTabEntry() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream entry = new DataOutputStream(bytes);
+        entry.writeShort(this.serviceName.length);
+        writeCounted(entry, this.realm.getBytes("US-ASCII"));
+        for (String component : this.serviceName) {
+            writeCounted(entry, component.getBytes("US-ASCII"));
+        }
+        entry.writeInt(1); // KRB5_NT_PRINCIPAL
+        entry.writeInt((int) (System.currentTimeMillis() / 1000));
+        entry.writeByte(this.kvno);
+        entry.writeShort(this.etype);
+        writeCounted(entry, this.key);
+        entry.writeInt(this.kvno);
+        entry.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeCounted(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param client the user name without realm, e.g. <code>alice</code>
+     * @param pac a PAC as built by {@link PacTestUtils}, or null for a ticket without PAC
+     * @return the token a browser would send for this service
+     */
+    public byte[] createSpnegoToken(String client, byte[] pac) {
+        return wrapSpnego(createApRequest(client, pac));
+    }
+
+    /**
+     * @return a bare AP-REQ, as it is inside the GSS token
+     */
+    public byte[] createApRequest(String client, byte[] pac) {
+        try {
+            long now = System.currentTimeMillis();
+            byte[] sessionKey = random(this.key.length);
+            byte[] cname = principalName(1, new String[] { client });
+
+            byte[] authorizationData = new byte[0];
+            if (pac != null) {
+                byte[] ifRelevant = PacTestUtils.wrapIfRelevant(signPac(pac));
+                authorizationData = der(0xaa, der(0x30, der(0x30, concat(der(0xa0, integer(1)),
+                        der(0xa1, der(0x04, ifRelevant))))));
+            }
+            // EncTicketPart ::= [APPLICATION 3] SEQUENCE
+            byte[] encTicketPart = der(0x63, der(0x30, concat(
+                    der(0xa0, der(0x03, new byte[] { 0, 0x40, 0x60, 0, 0 })), // forwardable, initial, pre-authent
+                    der(0xa1, der(0x30, concat(der(0xa0, integer(this.etype)), der(0xa1, der(0x04, sessionKey))))),
+                    der(0xa2, generalString(this.realm)),
+                    der(0xa3, cname),
+                    der(0xa4, der(0x30, concat(der(0xa0, integer(1)), der(0xa1, der(0x04, new byte[0]))))),
+                    der(0xa5, time(now)),
+                    der(0xa6, time(now)),
+                    der(0xa7, time(now + this.ticketLifetime)),
+                    authorizationData)));
+            byte[] ticket = der(0x61, der(0x30, concat(der(0xa0, integer(5)),
+                    der(0xa1, generalString(this.realm)),
+                    der(0xa2, principalName(2, this.serviceName)),
+                    der(0xa3, encryptedData(this.etype, this.kvno,
+                            encrypt(this.key, KEY_USAGE_TICKET, encTicketPart))))));
+
+            // RFC 4121 checksum: no channel bindings, no delegation, no mutual authentication
+            byte[] gssChecksum = new byte[24];
+            gssChecksum[0] = 16;
+            byte[] authenticator = der(0x62, der(0x30, concat(der(0xa0, integer(5)),
+                    der(0xa1, generalString(this.realm)),
+                    der(0xa2, cname),
+                    der(0xa3, der(0x30, concat(der(0xa0, integer(0x8003)), der(0xa1, der(0x04, gssChecksum))))),
+                    // distinct microseconds keep the replay cache of the acceptor happy
+                    der(0xa4, integer((this.sequence.getAndIncrement() & 0x7fffffff) % 1000000)),
+                    der(0xa5, time(now)))));
+
+            return der(0x6e, der(0x30, concat(der(0xa0, integer(5)), der(0xa1, integer(14)),
+                    der(0xa2, der(0x03, new byte[] { 0, 0, 0, 0, 0 })),
+                    der(0xa3, ticket),
+                    der(0xa4, encryptedData(this.etype, -1,
+                            encrypt(sessionKey, KEY_USAGE_AUTHENTICATOR, authenticator))))));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds the server and KDC signature buffers to a PAC with a single logon info buffer,
+     * the server signature is made with the service key.
+     */
+    byte[] signPac(byte[] pac) throws GeneralSecurityException {
+        int logonInfoLength = readInt(pac, 12);
+        int checksumLength = 12;
+        int logonInfoOffset = 8 + 3 * 16;
+        int serverOffset = align(logonInfoOffset + logonInfoLength);
+        int kdcOffset = align(serverOffset + 4 + checksumLength);
+        byte[] signed = new byte[kdcOffset + 4 + checksumLength];
+        writeInt(signed, 0, 3);
+        writeBuffer(signed, 8, PacDecoder.PAC_LOGON_INFO, logonInfoLength, logonInfoOffset);
+        writeBuffer(signed, 24, PAC_SERVER_CHECKSUM, 4 + checksumLength, serverOffset);
+        writeBuffer(signed, 40, PAC_PRIVSVR_CHECKSUM, 4 + checksumLength, kdcOffset);
+        System.arraycopy(pac, readInt(pac, 16), signed, logonInfoOffset, logonInfoLength);
+
+        int checksumType = this.etype == AES128_CTS_HMAC_SHA1_96 ? 15 : 16;
+        writeInt(signed, serverOffset, checksumType);
+        writeInt(signed, kdcOffset, checksumType);
+        // both signatures are zero while the server signature is calculated
+        byte[] serverChecksum = checksum(this.key, KEY_USAGE_PAC_SIGNATURE, signed);
+        System.arraycopy(serverChecksum, 0, signed, serverOffset + 4, checksumLength);
+        byte[] kdcChecksum = checksum(this.kdcKey, KEY_USAGE_PAC_SIGNATURE, serverChecksum);
+        System.arraycopy(kdcChecksum, 0, signed, kdcOffset + 4, checksumLength);
+        return signed;
+    }
+
+    private static void writeBuffer(byte[] pac, int offset, int type, int length, int bufferOffset) {
+        writeInt(pac, offset, type);
+        writeInt(pac, offset + 4, length);
+        writeInt(pac, offset + 8, bufferOffset);
+    }
+
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return bytes[offset] & 0xff | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+
+    // RFC 3961 simplified profile with the AES specifics of RFC 3962
+
+    static byte[] encrypt(byte[] baseKey, int usage, byte[] plaintext) throws GeneralSecurityException {
+        byte[] ke = deriveKey(baseKey, usage, 0xaa);
+        byte[] ki = deriveKey(baseKey, usage, 0x55);
+        byte[] data = concat(random(16), plaintext);
+        byte[] cipher = encryptCts(ke, data);
+        byte[] mac = hmac(ki, data);
+        return concat(cipher, Arrays.copyOf(mac, 12));
+    }
+
+    static byte[] checksum(byte[] baseKey, int usage, byte[] data) throws GeneralSecurityException {
+        return Arrays.copyOf(hmac(deriveKey(baseKey, usage, 0x99), data), 12);
+    }
+
+    static byte[] deriveKey(byte[] baseKey, int usage, int purpose) throws GeneralSecurityException {
+        byte[] constant = { (byte) (usage >>> 24), (byte) (usage >>> 16), (byte) (usage >>> 8), (byte) usage,
+                (byte) purpose };
+        Cipher aes = Cipher.getInstance("AES/ECB/NoPadding");
+        aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(baseKey, "AES"));
+        byte[] derived = new byte[baseKey.length];
+        byte[] block = nfold(constant, 16);
+        for (int i = 0; i < derived.length; i += 16) {
+            block = aes.doFinal(block);
+            System.arraycopy(block, 0, derived, i, Math.min(16, derived.length - i));
+        }
+        return derived;
+    }
+
+    /**
+     * CBC with ciphertext stealing, the last two blocks are swapped even if the last one is full.
+     */
+    static byte[] encryptCts(byte[] key, byte[] data) throws GeneralSecurityException {
+        Cipher aes = Cipher.getInstance("AES/CBC/NoPadding");
+        aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(new byte[16]));
+        if (data.length == 16) {
+            return aes.doFinal(data);
+        }
+        int blocks = (data.length + 15) / 16;
+        byte[] cbc = aes.doFinal(Arrays.copyOf(data, blocks * 16));
+        byte[] out = new byte[data.length];
+        int last = (blocks - 1) * 16;
+        int secondLast = last - 16;
+        System.arraycopy(cbc, 0, out, 0, secondLast);
+        System.arraycopy(cbc, last, out, secondLast, 16);
+        System.arraycopy(cbc, secondLast, out, last, data.length - last);
+        return out;
+    }
+
+    /**
+     * n-fold of RFC 3961 section 5.1
+     */
+    static byte[] nfold(byte[] in, int outBytes) {
+        int inBytes = in.length;
+        int lcm = outBytes * inBytes / gcd(outBytes, inBytes);
+        byte[] out = new byte[outBytes];
+        int carry = 0;
+        for (int i = lcm - 1; i >= 0; i--) {
+            int msbit = ((inBytes << 3) - 1) + (((inBytes << 3) + 13) * (i / inBytes))
+                    + ((inBytes - (i % inBytes)) << 3);
+            msbit %= inBytes << 3;
+            carry += (((in[((inBytes - 1) - (msbit >>> 3)) % inBytes] & 0xff) << 8
+                    | (in[(inBytes - (msbit >>> 3)) % inBytes] & 0xff)) >>> ((msbit & 7) + 1)) & 0xff;
+            carry += out[i % outBytes] & 0xff;
+            out[i % outBytes] = (byte) carry;
+            carry >>>= 8;
+        }
+        for (int i = outBytes - 1; carry != 0 && i >= 0; i--) {
+            carry += out[i] & 0xff;
+            out[i] = (byte) carry;
+            carry >>>= 8;
+        }
+        return out;
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(key, "HmacSHA1"));
+        return mac.doFinal(data);
+    }
+
+    private static byte[] principalName(int nameType, String[] components) {
+        byte[] names = new byte[0];
+        for (String component : components) {
+            names = concat(names, generalString(component));
+        }
+        return der(0x30, concat(der(0xa0, integer(nameType)), der(0xa1, der(0x30, names))));
+    }
+
+    private static byte[] generalString(String value) {
+        try {
+            return der(0x1b, value.getBytes("US-ASCII"));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] time(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return der(0x18, format.format(new Date(millis)).getBytes());
+    }
+
+    private static String join(String[] components) {
+        StringBuilder joined = new StringBuilder();
+        for (String component : components) {
+            if (joined.length() > 0) {
+                joined.append('/');
+            }
+            joined.append(component);
+        }
+        return joined.toString();
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+}
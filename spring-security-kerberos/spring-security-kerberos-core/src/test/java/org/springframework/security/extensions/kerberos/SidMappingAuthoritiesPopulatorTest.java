@@ -0,0 +1,197 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Test class for {@link SidMappingAuthoritiesPopulator}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class SidMappingAuthoritiesPopulatorTest {
+
+    private static final String DOMAIN = "S-1-5-21-185937884-2362668773-3192785854";
+    private static final String MAPPINGS = DOMAIN + "-1139=ROLE_ADMIN, ROLE_USER\n"
+            + DOMAIN + "-513=ROLE_USER\n"
+            + "S-1-5-32-544=ROLE_LOCAL_ADMIN\n";
+
+    private SidMappingAuthoritiesPopulator populator;
+    private File file;
+
+    @Before
+    public void before() throws Exception {
+        populator = new SidMappingAuthoritiesPopulator();
+        populator.setMappings(new ByteArrayResource(MAPPINGS.getBytes("ISO-8859-1")));
+        populator.afterPropertiesSet();
+    }
+
+    @After
+    public void after() {
+        populator.destroy();
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testMapping() {
+        Collection<GrantedAuthority> authorities = populator.getGrantedAuthorities(Arrays.asList(DOMAIN + "-513",
+                DOMAIN + "-1139", "S-1-18-1"));
+
+        assertEquals(Arrays.asList("ROLE_ADMIN", "ROLE_USER"), names(authorities));
+        assertEquals(3, populator.getMappedSidCount());
+    }
+
+    @Test
+    public void testSidSetMapping() {
+        SidSet sids = SidSet.valueOf(Arrays.asList("S-1-5-32-544", DOMAIN + "-513"));
+
+        assertEquals(Arrays.asList("ROLE_LOCAL_ADMIN", "ROLE_USER"), names(populator.getGrantedAuthorities(sids)));
+    }
+
+    @Test
+    public void testAuthorityNames() {
+        assertEquals(Arrays.asList("ROLE_ADMIN", "ROLE_LOCAL_ADMIN", "ROLE_USER"), populator.getAuthorityNames());
+    }
+
+    @Test
+    public void testUnmappedSids() {
+        assertTrue(populator.getGrantedAuthorities(Arrays.asList("S-1-5-21-9-9-9-513", "S-1-5", "garbage")).isEmpty());
+    }
+
+    @Test
+    public void testAuthoritiesAreImmutable() {
+        Collection<GrantedAuthority> first = populator.getGrantedAuthorities(Arrays.asList(DOMAIN + "-1139"));
+        Collection<GrantedAuthority> second = populator.getGrantedAuthorities(Arrays.asList(DOMAIN + "-513",
+                DOMAIN + "-1139"));
+
+        assertEquals(first, second);
+        assertEquals(first, populator.getGrantedAuthorities(SidSet.valueOf(Arrays.asList(DOMAIN + "-1139"))));
+        try {
+            first.clear();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testDefaultAuthorities() throws Exception {
+        populator.setDefaultAuthorities(Arrays.asList("ROLE_AUTHENTICATED"));
+        populator.afterPropertiesSet();
+
+        assertEquals(Arrays.asList("ROLE_AUTHENTICATED"), names(populator.getGrantedAuthorities(new ArrayList<String>())));
+        assertEquals(Arrays.asList("ROLE_AUTHENTICATED", "ROLE_USER"),
+                names(populator.getGrantedAuthorities(Arrays.asList(DOMAIN + "-513"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSidInMappings() throws Exception {
+        populator.setMappings(new ByteArrayResource("S-1-5=ROLE_X".getBytes("ISO-8859-1")));
+        populator.afterPropertiesSet();
+    }
+
+    @Test
+    public void testRefreshOnModification() throws Exception {
+        file = File.createTempFile("sid-mappings", ".properties");
+        write(DOMAIN + "-513=ROLE_USER");
+        file.setLastModified(System.currentTimeMillis() - 10000);
+        populator.setMappings(new FileSystemResource(file));
+        populator.afterPropertiesSet();
+        long reloads = populator.getReloads();
+        List<String> sids = Arrays.asList(DOMAIN + "-513");
+        assertEquals(Arrays.asList("ROLE_USER"), names(populator.getGrantedAuthorities(sids)));
+
+        write(DOMAIN + "-513=ROLE_STAFF");
+        // lookups don't check the file
+        assertEquals(Arrays.asList("ROLE_USER"), names(populator.getGrantedAuthorities(sids)));
+        populator.refresh();
+
+        assertEquals(Arrays.asList("ROLE_STAFF"), names(populator.getGrantedAuthorities(sids)));
+        assertEquals(reloads + 1, populator.getReloads());
+    }
+
+    @Test
+    public void testRefreshRunsInBackground() throws Exception {
+        file = File.createTempFile("sid-mappings", ".properties");
+        write(DOMAIN + "-513=ROLE_USER");
+        file.setLastModified(System.currentTimeMillis() - 10000);
+        populator.setMappings(new FileSystemResource(file));
+        populator.setRefreshInterval(1);
+        populator.afterPropertiesSet();
+        long generation = populator.getMappingGeneration();
+
+        write(DOMAIN + "-513=ROLE_STAFF");
+        for (int i = 0; i < 500 && populator.getMappingGeneration() == generation; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(Arrays.asList("ROLE_STAFF"), names(populator.getGrantedAuthorities(Arrays.asList(DOMAIN + "-513"))));
+    }
+
+    @Test
+    public void testFailedRefreshKeepsMappings() throws Exception {
+        file = File.createTempFile("sid-mappings", ".properties");
+        write(DOMAIN + "-513=ROLE_USER");
+        file.setLastModified(System.currentTimeMillis() - 10000);
+        populator.setMappings(new FileSystemResource(file));
+        populator.afterPropertiesSet();
+
+        write("not-a-sid=ROLE_STAFF");
+        List<String> sids = Arrays.asList(DOMAIN + "-513");
+
+        populator.refresh();
+        assertEquals(Arrays.asList("ROLE_USER"), names(populator.getGrantedAuthorities(sids)));
+        populator.refresh();
+        assertEquals(Arrays.asList("ROLE_USER"), names(populator.getGrantedAuthorities(sids)));
+        assertEquals(1, populator.getReloadFailures());
+    }
+
+    private void write(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<String> names(Collection<GrantedAuthority> authorities) {
+        List<String> names = new ArrayList<String>();
+        for (GrantedAuthority authority : authorities) {
+            names.add(authority.getAuthority());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link SidSet}, {@link Sid} and {@link SidDictionary}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class SidSetTest {
+
+    private static final String DOMAIN = "S-1-5-21-185937884-2362668773-3192785854";
+
+    @Test
+    public void testSidSharesDomainId() {
+        Sid users = Sid.valueOf(DOMAIN + "-513");
+        Sid admins = Sid.valueOf(DOMAIN + "-512");
+
+        assertEquals(users.getDomainId(), admins.getDomainId());
+        assertEquals(DOMAIN, users.getDomainSid());
+        assertEquals(513, users.getRid());
+        assertEquals(DOMAIN + "-513", users.toString());
+        assertEquals(users, Sid.valueOf(DOMAIN, 513));
+        assertEquals(users.getDomainId(), SidDictionary.getInstance().lookup(DOMAIN));
+    }
+
+    @Test
+    public void testUnsignedRid() {
+        Sid sid = Sid.valueOf("S-1-5-21-1-2-3-4294967295");
+        assertEquals(-1, sid.getRid());
+        assertEquals("S-1-5-21-1-2-3-4294967295", sid.toString());
+    }
+
+    @Test
+    public void testInvalidSids() {
+        String[] invalid = { "S-1-5", "S-1", "1-5-32-544", "S-1-5-32-x", "S-1-5-32-4294967296", "S-1-5-32--1" };
+        for (String sid : invalid) {
+            try {
+                Sid.valueOf(sid);
+                fail("Expected IllegalArgumentException for " + sid);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testMembership() {
+        SidSet set = SidSet.valueOf(Arrays.asList(DOMAIN + "-1139", "S-1-5-32-544", DOMAIN + "-513", DOMAIN + "-513"));
+
+        assertEquals(3, set.size());
+        assertTrue(set.contains(DOMAIN + "-513"));
+        assertTrue(set.contains(Sid.valueOf("S-1-5-32-544")));
+        assertTrue(set.contains(SidDictionary.getInstance().lookup(DOMAIN), 1139));
+        assertFalse(set.contains(DOMAIN + "-512"));
+    }
+
+    @Test
+    public void testContainsDoesNotInternUnknownDomains() {
+        SidSet set = SidSet.valueOf(Arrays.asList(DOMAIN + "-513"));
+        int size = SidDictionary.getInstance().size();
+
+        assertFalse(set.contains("S-1-5-21-999-999-999-513"));
+        assertEquals(size, SidDictionary.getInstance().size());
+        assertEquals(-1, SidDictionary.getInstance().lookup("S-1-5-21-999-999-999"));
+    }
+
+    @Test
+    public void testIntersection() {
+        SidSet user = SidSet.valueOf(Arrays.asList(DOMAIN + "-513", DOMAIN + "-1139", "S-1-18-1"));
+        SidSet mapped = SidSet.valueOf(Arrays.asList(DOMAIN + "-1139", DOMAIN + "-2000", "S-1-18-1"));
+        SidSet other = SidSet.valueOf(Arrays.asList(DOMAIN + "-2000"));
+
+        assertTrue(user.intersects(mapped));
+        assertEquals(2, user.intersectionSize(mapped));
+        assertFalse(user.intersects(other));
+        assertFalse(user.intersects(SidSet.EMPTY));
+        assertTrue(user.containsAll(SidSet.valueOf(Arrays.asList("S-1-18-1", DOMAIN + "-513"))));
+        assertFalse(user.containsAll(mapped));
+    }
+
+    @Test
+    public void testEqualityIgnoresOrder() {
+        SidSet a = SidSet.valueOf(Arrays.asList(DOMAIN + "-513", "S-1-18-1"));
+        SidSet b = SidSet.valueOf(Arrays.asList("S-1-18-1", DOMAIN + "-513"));
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(a, SidSet.of(Sid.valueOf("S-1-18-1"), Sid.valueOf(DOMAIN + "-513")));
+        assertSame(SidSet.EMPTY, SidSet.valueOf(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void testToStringList() {
+        SidSet set = SidSet.valueOf(Arrays.asList(DOMAIN + "-513", DOMAIN + "-512"));
+        assertEquals(Arrays.asList(DOMAIN + "-512", DOMAIN + "-513"), set.toStringList());
+    }
+
+    @Test
+    public void testSerializationUsesStringForm() throws Exception {
+        SidSet set = SidSet.valueOf(Arrays.asList(DOMAIN + "-513", "S-1-18-1"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(set);
+        out.writeObject(Sid.valueOf("S-1-18-1"));
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(set, in.readObject());
+        assertEquals(Sid.valueOf("S-1-18-1"), in.readObject());
+    }
+}
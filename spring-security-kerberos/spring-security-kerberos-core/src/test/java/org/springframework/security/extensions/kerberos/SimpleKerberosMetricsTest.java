@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.springframework.security.extensions.kerberos.KerberosMetrics.Failure;
+import org.springframework.security.extensions.kerberos.KerberosMetrics.Stage;
+
+/**
+ * Test class for {@link SimpleKerberosMetrics}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class SimpleKerberosMetricsTest {
+
+    private final SimpleKerberosMetrics metrics = new SimpleKerberosMetrics();
+
+    @Test
+    public void testBuckets() {
+        assertEquals(0, SimpleKerberosMetrics.bucket(-1));
+        assertEquals(0, SimpleKerberosMetrics.bucket(0));
+        assertEquals(1, SimpleKerberosMetrics.bucket(1));
+        assertEquals(2, SimpleKerberosMetrics.bucket(2));
+        assertEquals(2, SimpleKerberosMetrics.bucket(3));
+        assertEquals(11, SimpleKerberosMetrics.bucket(1024));
+        assertEquals(SimpleKerberosMetrics.BUCKETS - 1, SimpleKerberosMetrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testStageTimes() {
+        for (int i = 0; i < 99; i++) {
+            metrics.recordTime(Stage.GSS_ACCEPT, 1000);
+        }
+        metrics.recordTime(Stage.GSS_ACCEPT, 1000000);
+
+        assertEquals(100, metrics.getCount(Stage.GSS_ACCEPT));
+        assertEquals(99 * 1000 + 1000000, metrics.getTotalNanos(Stage.GSS_ACCEPT));
+        assertEquals(1023, metrics.getPercentile(Stage.GSS_ACCEPT, 50));
+        assertEquals(1023, metrics.getPercentile(Stage.GSS_ACCEPT, 99));
+        assertEquals((1 << 20) - 1, metrics.getPercentile(Stage.GSS_ACCEPT, 100));
+        assertEquals(0, metrics.getCount(Stage.PAC_DECODE));
+        assertEquals(0, metrics.getPercentile(Stage.PAC_DECODE, 50));
+    }
+
+    @Test
+    public void testOutcomes() {
+        metrics.recordSuccess();
+        metrics.recordFailure(Failure.TICKET_REJECTED);
+        metrics.recordFailure(Failure.TICKET_REJECTED);
+        metrics.recordFailure(Failure.USER_NOT_FOUND);
+
+        assertEquals(1, metrics.getSuccesses());
+        assertEquals(2, metrics.getFailures(Failure.TICKET_REJECTED));
+        assertEquals(0, metrics.getFailures(Failure.PAC_INVALID));
+        assertEquals(3, metrics.getFailures());
+    }
+
+    @Test
+    public void testSizeHistograms() {
+        metrics.recordTokenSize(1500);
+        metrics.recordGroupSids(0);
+        metrics.recordGroupSids(20);
+
+        assertEquals(1, metrics.getTokenSizes()[11]);
+        assertEquals(1, metrics.getGroupSidCounts()[0]);
+        assertEquals(1, metrics.getGroupSidCounts()[5]);
+    }
+}
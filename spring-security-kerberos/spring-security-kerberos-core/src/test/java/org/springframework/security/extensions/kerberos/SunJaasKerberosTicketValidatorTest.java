@@ -0,0 +1,205 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.security.authentication.BadCredentialsException;
+
+/**
+ * Test class for {@link SunJaasKerberosTicketValidator}, with tickets from a
+ * {@link ServiceTicketFactory} instead of a KDC.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class SunJaasKerberosTicketValidatorTest {
+
+    private static final String SERVICE_PRINCIPAL = "HTTP/web.example.com@EXAMPLE.COM";
+    private static final String DOMAIN = "S-1-5-21-185937884-2362668773-3192785854";
+
+    private ServiceTicketFactory tickets;
+    private SunJaasKerberosTicketValidator validator;
+    private File keyTab;
+
+    @Before
+    public void before() throws Exception {
+        tickets = new ServiceTicketFactory(SERVICE_PRINCIPAL, ServiceTicketFactory.AES256_CTS_HMAC_SHA1_96, 3);
+        keyTab = File.createTempFile("http", ".keytab");
+        tickets.writeKeyTab(keyTab);
+        validator = new SunJaasKerberosTicketValidator();
+        validator.setServicePrincipal(SERVICE_PRINCIPAL);
+        validator.setKeyTabLocation(new FileSystemResource(keyTab));
+    }
+
+    @After
+    public void after() {
+        validator.destroy();
+        keyTab.delete();
+    }
+
+    @Test
+    public void testValidateTicket() throws Exception {
+        validator.afterPropertiesSet();
+
+        assertEquals("alice@EXAMPLE.COM", validator.validateTicket(tickets.createSpnegoToken("alice", null)));
+        assertEquals(1, validator.getServiceKeys().length);
+    }
+
+    @Test
+    public void testGroupSidsFromTheSameDecryption() throws Exception {
+        validator.afterPropertiesSet();
+        byte[] pac = PacTestUtils.createPac(DOMAIN, 513, new int[] { 1139 }, new String[0], null, new int[0]);
+
+        ActiveDirectoryTicketValidation validation = validator.validateTicketAndGroupSids(tickets.createSpnegoToken(
+                "alice", pac));
+
+        assertEquals("alice@EXAMPLE.COM", validation.getUsername());
+        assertEquals(Arrays.asList(DOMAIN + "-513", DOMAIN + "-1139"), validation.getGroupSids());
+        assertEquals(SERVICE_PRINCIPAL, validation.getServicePrincipal());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        SimpleKerberosMetrics metrics = new SimpleKerberosMetrics();
+        validator.setMetrics(metrics);
+        validator.afterPropertiesSet();
+        byte[] pac = PacTestUtils.createPac(DOMAIN, 513, new int[] { 1139, 1140 }, new String[0], null, new int[0]);
+
+        validator.validateTicketAndGroupSids(tickets.createSpnegoToken("alice", pac));
+        validator.validateTicket(tickets.createSpnegoToken("bob", null));
+        try {
+            validator.validateTicket(new ServiceTicketFactory(SERVICE_PRINCIPAL,
+                    ServiceTicketFactory.AES256_CTS_HMAC_SHA1_96, 3).createSpnegoToken("alice", null));
+            fail("Expected BadCredentialsException");
+        } catch (BadCredentialsException expected) {
+        }
+
+        assertEquals(3, metrics.getCount(KerberosMetrics.Stage.GSS_ACCEPT));
+        assertEquals(1, metrics.getCount(KerberosMetrics.Stage.PAC_DECODE));
+        assertEquals(1, metrics.getGroupSidCounts()[2]);
+        assertEquals(1, metrics.getFailures(KerberosMetrics.Failure.TICKET_REJECTED));
+    }
+
+    @Test
+    public void testClientValidationWithoutCacheSkipsThePac() throws Exception {
+        SimpleKerberosMetrics metrics = new SimpleKerberosMetrics();
+        validator.setMetrics(metrics);
+        validator.afterPropertiesSet();
+        byte[] pac = PacTestUtils.createPac(DOMAIN, 513, new int[] { 1139 }, new String[0], null, new int[0]);
+
+        ActiveDirectoryTicketValidation validation = validator.validateTicket(tickets.createSpnegoToken("alice", pac),
+                "192.168.0.1");
+
+        assertEquals("alice@EXAMPLE.COM", validation.getUsername());
+        assertEquals(SERVICE_PRINCIPAL, validation.getServicePrincipal());
+        assertTrue(validation.getGroupSids().isEmpty());
+        assertEquals(0, metrics.getCount(KerberosMetrics.Stage.PAC_DECODE));
+    }
+
+    @Test
+    public void testTicketForAnotherKeyIsRejected() throws Exception {
+        validator.afterPropertiesSet();
+        ServiceTicketFactory otherKey = new ServiceTicketFactory(SERVICE_PRINCIPAL,
+                ServiceTicketFactory.AES256_CTS_HMAC_SHA1_96, 3);
+        try {
+            validator.validateTicket(otherKey.createSpnegoToken("alice", null));
+            fail("Expected BadCredentialsException");
+        } catch (BadCredentialsException expected) {
+        }
+    }
+
+    @Test
+    public void testResentTokenIsServedFromCache() throws Exception {
+        ValidatedTicketCache cache = new ValidatedTicketCache();
+        validator.setTicketCache(cache);
+        validator.afterPropertiesSet();
+        byte[] token = tickets.createSpnegoToken("alice", null);
+
+        assertEquals("alice@EXAMPLE.COM", validator.validateTicketAndGroupSids(token, "192.168.0.1").getUsername());
+        assertEquals("alice@EXAMPLE.COM", validator.validateTicketAndGroupSids(token, "192.168.0.1").getUsername());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testResentTokenFromOtherClientIsRejected() throws Exception {
+        ValidatedTicketCache cache = new ValidatedTicketCache();
+        validator.setTicketCache(cache);
+        validator.afterPropertiesSet();
+        byte[] token = tickets.createSpnegoToken("alice", null);
+        validator.validateTicketAndGroupSids(token, "192.168.0.1");
+
+        try {
+            validator.validateTicketAndGroupSids(token, "192.168.0.2");
+            fail("Expected BadCredentialsException");
+        } catch (BadCredentialsException expected) {
+        }
+        try {
+            // without a client the JRE sees the token and rejects it as a replay
+            validator.validateTicket(token);
+            fail("Expected BadCredentialsException");
+        } catch (BadCredentialsException expected) {
+        }
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testWithoutReusedAcceptorCredential() throws Exception {
+        validator.setReuseAcceptorCredential(false);
+        validator.afterPropertiesSet();
+
+        assertEquals("bob@EXAMPLE.COM", validator.validateTicket(tickets.createSpnegoToken("bob", null)));
+    }
+
+    @Test
+    public void testUnchangedKeyTabIsNotReloaded() throws Exception {
+        validator.setKeyTabCheckInterval(60 * 60 * 1000L);
+        validator.afterPropertiesSet();
+        validator.checkKeyTab();
+        validator.checkKeyTab();
+
+        assertEquals(3, validator.getServiceKeys()[0].getVersionNumber());
+    }
+
+    @Test
+    public void testChangedKeyTabIsReloaded() throws Exception {
+        // the scheduled check never runs, the test drives it
+        validator.setKeyTabCheckInterval(60 * 60 * 1000L);
+        validator.afterPropertiesSet();
+        ServiceTicketFactory rotated = new ServiceTicketFactory(SERVICE_PRINCIPAL,
+                ServiceTicketFactory.AES256_CTS_HMAC_SHA1_96, 4);
+        rotated.writeKeyTab(keyTab);
+        keyTab.setLastModified(keyTab.lastModified() + 2000);
+
+        // the file system reports the change asynchronously
+        for (int i = 0; i < 200 && validator.getServiceKeys()[0].getVersionNumber() != 4; i++) {
+            validator.checkKeyTab();
+            Thread.sleep(25);
+        }
+
+        assertEquals(4, validator.getServiceKeys()[0].getVersionNumber());
+        assertEquals("carol@EXAMPLE.COM", validator.validateTicket(rotated.createSpnegoToken("carol", null)));
+    }
+}
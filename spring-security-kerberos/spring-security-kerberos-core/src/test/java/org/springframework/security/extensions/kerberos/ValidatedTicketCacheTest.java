@@ -0,0 +1,154 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+
+/**
+ * Test class for {@link ValidatedTicketCache}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class ValidatedTicketCacheTest {
+
+    private static final ActiveDirectoryTicketValidation VALIDATION = new ActiveDirectoryTicketValidation(
+            "Testuser@SPRINGSOURCE.ORG", Collections.singletonList("S-1-5-21-1-2-3-513"));
+    private static final String CLIENT = "192.168.0.1";
+
+    private ValidatedTicketCache cache;
+
+    @Before
+    public void before() {
+        cache = new ValidatedTicketCache();
+    }
+
+    @Test
+    public void testHitForResentToken() throws Exception {
+        ApRequestFrame frame = frame(0x11, 0x22);
+        assertNull(cache.get(frame, CLIENT));
+        cache.put(frame, CLIENT, VALIDATION, Long.MAX_VALUE);
+
+        assertSame(VALIDATION, cache.get(frame(0x11, 0x22), CLIENT));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRatio(), 0.001);
+    }
+
+    @Test
+    public void testNewAuthenticatorIsMiss() throws Exception {
+        cache.put(frame(0x11, 0x22), CLIENT, VALIDATION, Long.MAX_VALUE);
+        assertNull(cache.get(frame(0x11, 0x23), CLIENT));
+    }
+
+    @Test(expected = KerberosReplayException.class)
+    public void testAuthenticatorWithOtherTicketIsReplay() throws Exception {
+        cache.put(frame(0x11, 0x22), CLIENT, VALIDATION, Long.MAX_VALUE);
+        try {
+            cache.get(frame(0x12, 0x22), CLIENT);
+        } finally {
+            assertEquals(1, cache.getReplaysDetected());
+        }
+    }
+
+    @Test
+    public void testSameTokenFromOtherClientIsReplay() throws Exception {
+        cache.put(frame(0x11, 0x22), CLIENT, VALIDATION, Long.MAX_VALUE);
+        try {
+            cache.get(frame(0x11, 0x22), "192.168.0.2");
+            fail("Expected KerberosReplayException");
+        } catch (KerberosReplayException expected) {
+        }
+        assertEquals(1, cache.getReplaysDetected());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testExpiresWithTicket() throws Exception {
+        cache.put(frame(0x11, 0x22), CLIENT, VALIDATION, 1);
+        Thread.sleep(5);
+        assertNull(cache.get(frame(0x11, 0x22), CLIENT));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiredTicketIsNotCached() throws Exception {
+        cache.put(frame(0x11, 0x22), CLIENT, VALIDATION, 0);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        cache.setMaxEntries(2);
+        cache.put(frame(0x11, 0x01), CLIENT, VALIDATION, Long.MAX_VALUE);
+        cache.put(frame(0x11, 0x02), CLIENT, VALIDATION, Long.MAX_VALUE);
+        cache.get(frame(0x11, 0x01), CLIENT);
+        cache.put(frame(0x11, 0x03), CLIENT, VALIDATION, Long.MAX_VALUE);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get(frame(0x11, 0x01), CLIENT));
+        assertNull(cache.get(frame(0x11, 0x02), CLIENT));
+    }
+
+    @Test
+    public void testEntryIsConsumedAfterMaxUses() throws Exception {
+        cache.setMaxUses(2);
+        cache.put(frame(0x11, 0x22), CLIENT, VALIDATION, Long.MAX_VALUE);
+
+        assertSame(VALIDATION, cache.get(frame(0x11, 0x22), CLIENT));
+        assertSame(VALIDATION, cache.get(frame(0x11, 0x22), CLIENT));
+        assertNull(cache.get(frame(0x11, 0x22), CLIENT));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDetailsWithoutSessionAreNotCacheable() throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRemoteAddr()).thenReturn(CLIENT);
+        assertFalse(cache.isCacheable(new WebAuthenticationDetails(request)));
+        assertFalse(cache.isCacheable(null));
+
+        HttpSession session = mock(HttpSession.class);
+        when(session.getId()).thenReturn("F00D");
+        when(request.getSession(false)).thenReturn(session);
+        assertTrue(cache.isCacheable(new WebAuthenticationDetails(request)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTimeToLiveBeyondClockSkew() throws Exception {
+        cache.setTimeToLive(ValidatedTicketCache.MAX_TIME_TO_LIVE + 1);
+    }
+
+    private static ApRequestFrame frame(int ticket, int authenticator) {
+        return ApRequestFrame.parse(KerberosTestUtils.wrapSpnego(KerberosTestUtils.createApRequest(
+                "web.springsource.com", "SPRINGSOURCE.ORG", 23, 3, KerberosTestUtils.filled(200, ticket),
+                KerberosTestUtils.filled(80, authenticator))));
+    }
+}
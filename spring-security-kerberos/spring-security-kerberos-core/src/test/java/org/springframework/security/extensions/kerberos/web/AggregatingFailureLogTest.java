@@ -0,0 +1,150 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.apache.commons.logging.Log;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+/**
+ * Test class for {@link AggregatingFailureLog}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class AggregatingFailureLogTest {
+
+    private static final BadCredentialsException SKEW = new BadCredentialsException(
+            "Kerberos validation not succesfull", new IllegalStateException("Clock skew too great"));
+
+    private Log log;
+
+    @Before
+    public void before() {
+        log = mock(Log.class);
+        when(log.isWarnEnabled()).thenReturn(true);
+    }
+
+    @Test
+    public void testFirstFailureWithStackTraceThenCounted() {
+        AggregatingFailureLog failureLog = new AggregatingFailureLog(log, 60 * 1000L);
+
+        for (int i = 0; i < 100; i++) {
+            failureLog.failed("YIIF...", SKEW);
+        }
+
+        verify(log, times(1)).warn("Negotiate Header was invalid: YIIF...", SKEW);
+        verify(log, never()).warn(any());
+        failureLog.flush();
+        ArgumentCaptor<Object> summary = ArgumentCaptor.forClass(Object.class);
+        verify(log).warn(summary.capture());
+        assertEquals("Negotiate Header was invalid 99 times since the last report: BadCredentialsException: "
+                + "Kerberos validation not succesfull (IllegalStateException: Clock skew too great)",
+                summary.getValue());
+    }
+
+    @Test
+    public void testSummaryAfterInterval() {
+        TestClock clock = new TestClock();
+        AggregatingFailureLog failureLog = new AggregatingFailureLog(log, 60 * 1000L, clock);
+
+        failureLog.failed("YIIF...", SKEW);
+        failureLog.failed("YIIF...", SKEW);
+        clock.millis += 59 * 1000L;
+        failureLog.failed("YIIF...", SKEW);
+        verify(log, never()).warn(any());
+        clock.millis += 1000L;
+        failureLog.failed("YIIG...", SKEW);
+
+        verify(log).warn("Negotiate Header was invalid: YIIF...", SKEW);
+        ArgumentCaptor<Object> summary = ArgumentCaptor.forClass(Object.class);
+        verify(log).warn(summary.capture());
+        assertTrue(summary.getValue().toString().startsWith("Negotiate Header was invalid 3 times"));
+        assertTrue(summary.getValue().toString().endsWith(", last header YIIG..."));
+    }
+
+    @Test
+    public void testCausesAreCountedSeparately() {
+        AggregatingFailureLog failureLog = new AggregatingFailureLog(log, 60 * 1000L);
+        UsernameNotFoundException notFound = new UsernameNotFoundException("alice");
+
+        failureLog.failed("YIIF...", SKEW);
+        failureLog.failed("YIIG...", notFound);
+
+        verify(log).warn("Negotiate Header was invalid: YIIF...", SKEW);
+        verify(log).warn("Negotiate Header was invalid: YIIG...", notFound);
+    }
+
+    @Test
+    public void testNumberOfCausesIsBounded() {
+        AggregatingFailureLog failureLog = new AggregatingFailureLog(log, 60 * 1000L);
+
+        for (int i = 0; i < AggregatingFailureLog.MAX_CAUSES + 10; i++) {
+            failureLog.failed("YIIF...", new UsernameNotFoundException("user" + i));
+        }
+
+        verify(log, times(AggregatingFailureLog.MAX_CAUSES + 1)).warn(anyString(),
+                any(UsernameNotFoundException.class));
+    }
+
+    @Test
+    public void testWithoutInterval() {
+        AggregatingFailureLog failureLog = new AggregatingFailureLog(log, 0);
+
+        failureLog.failed("YIIF...", SKEW);
+        failureLog.failed("YIIF...", SKEW);
+
+        verify(log, times(2)).warn("Negotiate Header was invalid: YIIF...", SKEW);
+    }
+
+    private static class TestClock extends Clock {
+        long millis = 1000000L;
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
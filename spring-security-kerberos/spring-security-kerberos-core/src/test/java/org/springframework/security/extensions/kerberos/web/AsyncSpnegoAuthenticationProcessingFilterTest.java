@@ -0,0 +1,224 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.extensions.kerberos.KerberosServiceRequestToken;
+import org.springframework.security.extensions.kerberos.KerberosTestUtils;
+import org.springframework.security.web.authentication.AuthenticationFailureHandler;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+
+/**
+ * Test class for {@link AsyncSpnegoAuthenticationProcessingFilter}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class AsyncSpnegoAuthenticationProcessingFilterTest {
+
+    private static final byte[] TEST_TOKEN = KerberosTestUtils.wrapSpnego(KerberosTestUtils.createApRequest(
+            "web.example.com", "EXAMPLE.COM", 18, 1, KerberosTestUtils.filled(100, 0x11),
+            KerberosTestUtils.filled(50, 0x22)));
+    private static final Authentication AUTHENTICATION = new KerberosServiceRequestToken("test",
+            AuthorityUtils.createAuthorityList("ROLE_ADMIN"), TEST_TOKEN);
+
+    private AsyncSpnegoAuthenticationProcessingFilter filter;
+    private AuthenticationManager authenticationManager;
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private AsyncContext asyncContext;
+    private FilterChain chain;
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    @Before
+    public void before() throws Exception {
+        authenticationManager = mock(AuthenticationManager.class);
+        filter = new AsyncSpnegoAuthenticationProcessingFilter();
+        filter.setAuthenticationManager(authenticationManager);
+        filter.setExecutor(new Executor() {
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+        filter.afterPropertiesSet();
+        request = mock(HttpServletRequest.class);
+        response = mock(HttpServletResponse.class);
+        chain = mock(FilterChain.class);
+        asyncContext = mock(AsyncContext.class);
+        when(request.getHeader("Authorization")).thenReturn("Negotiate " + new String(Base64.encode(TEST_TOKEN)));
+        when(request.getDispatcherType()).thenReturn(DispatcherType.REQUEST);
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.startAsync()).thenReturn(asyncContext);
+        when(asyncContext.getRequest()).thenReturn(request);
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(request).setAttribute(anyString(), anyObject());
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                attributes.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(request).removeAttribute(anyString());
+        when(request.getAttribute(anyString())).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                return attributes.get(invocation.getArguments()[0]);
+            }
+        });
+    }
+
+    @After
+    public void after() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testValidatedOnExecutorAndResumedOnDispatch() throws Exception {
+        when(authenticationManager.authenticate(requestToken(TEST_TOKEN))).thenReturn(
+                AUTHENTICATION);
+
+        filter.doFilter(request, response, chain);
+
+        verify(asyncContext).setTimeout(10 * 1000L);
+        verifyZeroInteractions(authenticationManager);
+        runTasks();
+        verify(asyncContext).dispatch();
+        verify(chain, never()).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+
+        asyncDispatch();
+
+        verify(chain).doFilter(request, response);
+        assertEquals(AUTHENTICATION, SecurityContextHolder.getContext().getAuthentication());
+        assertNull(request.getAttribute(AsyncSpnegoAuthenticationProcessingFilter.RESULT_ATTRIBUTE));
+    }
+
+    @Test
+    public void testFailureIsHandledOnDispatch() throws Exception {
+        AuthenticationFailureHandler failureHandler = mock(AuthenticationFailureHandler.class);
+        filter.setFailureHandler(failureHandler);
+        BadCredentialsException failure = new BadCredentialsException("Kerberos validation not succesfull");
+        when(authenticationManager.authenticate(any(Authentication.class))).thenThrow(failure);
+
+        filter.doFilter(request, response, chain);
+        runTasks();
+        verifyZeroInteractions(failureHandler);
+        asyncDispatch();
+
+        verify(failureHandler).onAuthenticationFailure(request, response, failure);
+        verify(chain, never()).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+    }
+
+    @Test
+    public void testFullExecutorIsOverloaded() throws Exception {
+        filter.setExecutor(new Executor() {
+            public void execute(Runnable task) {
+                throw new RejectedExecutionException();
+            }
+        });
+
+        filter.doFilter(request, response, chain);
+        asyncDispatch();
+
+        verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(response).setHeader("Retry-After", "1");
+        verifyZeroInteractions(authenticationManager);
+    }
+
+    @Test
+    public void testTimeoutWinsOverLateResult() throws Exception {
+        when(authenticationManager.authenticate(any(Authentication.class))).thenReturn(AUTHENTICATION);
+
+        filter.doFilter(request, response, chain);
+        ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+        verify(asyncContext).addListener(listener.capture());
+        listener.getValue().onTimeout(null);
+        runTasks();
+
+        verify(asyncContext, times(1)).dispatch();
+        asyncDispatch();
+        verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(chain, never()).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+    }
+
+    @Test
+    public void testSynchronousWithoutAsyncSupport() throws Exception {
+        when(request.isAsyncSupported()).thenReturn(false);
+        when(authenticationManager.authenticate(any(Authentication.class))).thenReturn(AUTHENTICATION);
+
+        filter.doFilter(request, response, chain);
+
+        verify(request, never()).startAsync();
+        assertTrue(tasks.isEmpty());
+        verify(chain).doFilter(request, response);
+    }
+
+    private void runTasks() {
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        tasks.clear();
+    }
+
+    private void asyncDispatch() throws Exception {
+        when(request.getDispatcherType()).thenReturn(DispatcherType.ASYNC);
+        filter.doFilter(request, response, chain);
+    }
+
+    /**
+     * @return the authentication request the filter passes on, with the details of the request
+     */
+    private KerberosServiceRequestToken requestToken(byte[] token) {
+        KerberosServiceRequestToken requestToken = new KerberosServiceRequestToken(token);
+        requestToken.setDetails(new WebAuthenticationDetails(request));
+        return requestToken;
+    }
+}
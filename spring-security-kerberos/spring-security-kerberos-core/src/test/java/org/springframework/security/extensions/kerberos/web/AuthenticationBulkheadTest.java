@@ -0,0 +1,110 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link AuthenticationBulkhead}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class AuthenticationBulkheadTest {
+
+    private AuthenticationBulkhead bulkhead;
+
+    @Before
+    public void before() {
+        bulkhead = new AuthenticationBulkhead();
+        bulkhead.setMaxConcurrent(2);
+    }
+
+    @Test
+    public void testPermitsAreReturned() {
+        assertTrue(bulkhead.acquire());
+        assertTrue(bulkhead.acquire());
+        assertEquals(2, bulkhead.getActive());
+        bulkhead.release();
+        bulkhead.release();
+
+        assertEquals(0, bulkhead.getActive());
+        assertEquals(2, bulkhead.getAdmitted());
+        assertEquals(0, bulkhead.getQueued());
+    }
+
+    @Test
+    public void testRejectedWithoutWaitingIfQueueIsFull() {
+        bulkhead.setMaxWaiting(0);
+        bulkhead.setMaxWait(10 * 1000L);
+        bulkhead.acquire();
+        bulkhead.acquire();
+
+        long start = System.nanoTime();
+        assertFalse(bulkhead.acquire());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, bulkhead.getRejected());
+        assertEquals(0, bulkhead.getTimedOut());
+    }
+
+    @Test
+    public void testRejectedAfterMaxWait() {
+        bulkhead.setMaxWait(1);
+        bulkhead.acquire();
+        bulkhead.acquire();
+
+        assertFalse(bulkhead.acquire());
+        assertEquals(1, bulkhead.getQueued());
+        assertEquals(1, bulkhead.getTimedOut());
+        assertEquals(1, bulkhead.getRejected());
+        assertEquals(0, bulkhead.getWaiting());
+    }
+
+    @Test
+    public void testWaitingRequestGetsReleasedPermit() throws Exception {
+        bulkhead.setMaxWait(10 * 1000L);
+        bulkhead.acquire();
+        bulkhead.acquire();
+        final AtomicBoolean acquired = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                acquired.set(bulkhead.acquire());
+                done.countDown();
+            }
+        };
+        waiter.start();
+        while (bulkhead.getWaiting() == 0) {
+            Thread.sleep(1);
+        }
+        bulkhead.release();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(acquired.get());
+        assertEquals(1, bulkhead.getQueued());
+        assertEquals(0, bulkhead.getRejected());
+    }
+}
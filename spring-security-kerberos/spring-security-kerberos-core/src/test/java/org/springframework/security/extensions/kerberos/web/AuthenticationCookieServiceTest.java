@@ -0,0 +1,200 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.extensions.kerberos.KerberosServiceRequestToken;
+
+/**
+ * Test class for {@link AuthenticationCookieService}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class AuthenticationCookieServiceTest {
+
+    private static final String KEY = "MDEyMzQ1Njc4OWFiY2RlZjAxMjM0NTY3ODlhYmNkZWY=";
+    private static final String OTHER_KEY = "ZmVkY2JhOTg3NjU0MzIxMGZlZGNiYTk4NzY1NDMyMTA=";
+    private static final List<GrantedAuthority> AUTHORITIES = AuthorityUtils.createAuthorityList("ROLE_ADMIN",
+            "ROLE_USER");
+    private static final Authentication AUTHENTICATION = new KerberosServiceRequestToken("alice@EXAMPLE.COM",
+            AUTHORITIES, new byte[0], "HTTP/web.example.com@EXAMPLE.COM");
+
+    private AuthenticationCookieService service;
+
+    @Before
+    public void before() throws Exception {
+        service = new AuthenticationCookieService();
+        service.setKeys(Arrays.asList(KEY));
+        service.afterPropertiesSet();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        assertAuthentication(service.decode(service.encode(AUTHENTICATION)));
+        assertEquals(1, service.getAccepted());
+    }
+
+    @Test
+    public void testEncrypted() {
+        service.setEncrypt(true);
+        String cookie = service.encode(AUTHENTICATION);
+
+        assertFalse(cookie.equals(service.encode(AUTHENTICATION)));
+        assertAuthentication(service.decode(cookie));
+    }
+
+    @Test
+    public void testTamperedCookieIsRejected() {
+        char[] cookie = service.encode(AUTHENTICATION).toCharArray();
+        cookie[30] = cookie[30] == 'A' ? 'B' : 'A';
+
+        assertNull(service.decode(new String(cookie)));
+        assertNull(service.decode("garbage"));
+        assertNull(service.decode(""));
+        assertEquals(3, service.getRejected());
+    }
+
+    @Test
+    public void testExpiredCookieIsRejected() {
+        assertNull(service.decode(service.encode(AUTHENTICATION, System.currentTimeMillis() - 1)));
+    }
+
+    @Test
+    public void testKeyRotation() {
+        String oldCookie = service.encode(AUTHENTICATION);
+        service.setKeys(Arrays.asList(OTHER_KEY, KEY));
+        String newCookie = service.encode(AUTHENTICATION);
+
+        assertAuthentication(service.decode(oldCookie));
+        assertAuthentication(service.decode(newCookie));
+
+        service.setKeys(Arrays.asList(OTHER_KEY));
+        assertNull(service.decode(oldCookie));
+        assertAuthentication(service.decode(newCookie));
+    }
+
+    @Test
+    public void testAuthorityNamesKeepTheCookieSmall() {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            names.add("ROLE_GROUP_WITH_A_LONG_NAME_" + i);
+        }
+        Authentication authentication = new KerberosServiceRequestToken("alice@EXAMPLE.COM",
+                AuthorityUtils.createAuthorityList(names.toArray(new String[names.size()])), new byte[0], null);
+        String verbose = service.encode(authentication);
+        service.setAuthorityNames(names);
+        String compact = service.encode(authentication);
+
+        assertTrue(verbose.length() > 4096);
+        assertTrue(compact.length() < 1024);
+        assertEquals(authentication.getAuthorities(), service.decode(compact).getAuthorities());
+    }
+
+    @Test
+    public void testUnknownAuthoritiesAreWrittenOut() {
+        service.setAuthorityNames(Arrays.asList("ROLE_USER"));
+
+        assertAuthentication(service.decode(service.encode(AUTHENTICATION)));
+    }
+
+    @Test
+    public void testCookieWithOtherAuthorityNamesIsRejected() {
+        service.setAuthorityNames(Arrays.asList("ROLE_ADMIN", "ROLE_USER"));
+        String cookie = service.encode(AUTHENTICATION);
+        service.setAuthorityNames(Arrays.asList("ROLE_USER", "ROLE_ADMIN"));
+
+        assertNull(service.decode(cookie));
+        assertEquals(1, service.getRejected());
+    }
+
+    @Test
+    public void testOversizedCookieIsNotIssued() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(request.getContextPath()).thenReturn("");
+        service.setMaxCookieSize(64);
+
+        service.writeCookie(request, response, AUTHENTICATION);
+        service.writeCookie(request, response, AUTHENTICATION);
+
+        verifyZeroInteractions(response);
+        assertEquals(2, service.getOversized());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShortKey() {
+        service.setKeys(Arrays.asList("c2hvcnQ="));
+    }
+
+    @Test
+    public void testWriteAndReadCookie() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(request.getContextPath()).thenReturn("/app");
+
+        service.writeCookie(request, response, AUTHENTICATION);
+
+        ArgumentCaptor<String> header = ArgumentCaptor.forClass(String.class);
+        verify(response).addHeader(eq("Set-Cookie"), header.capture());
+        String value = header.getValue();
+        assertTrue(value, value.matches("SPNEGO_AUTH=[A-Za-z0-9_-]+; Path=/app; Max-Age=300; Secure; HttpOnly"));
+        when(request.getCookies()).thenReturn(new Cookie[] { new Cookie("other", "x"),
+                new Cookie("SPNEGO_AUTH", value.substring(12, value.indexOf(';'))) });
+        assertAuthentication(service.readCookie(request));
+    }
+
+    @Test
+    public void testLogoutRemovesCookie() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(request.getContextPath()).thenReturn("");
+
+        service.logout(request, response, AUTHENTICATION);
+
+        verify(response).addHeader("Set-Cookie", "SPNEGO_AUTH=; Path=/; Max-Age=0; Secure; HttpOnly");
+    }
+
+    private static void assertAuthentication(Authentication authentication) {
+        assertNotNull(authentication);
+        assertTrue(authentication.isAuthenticated());
+        assertEquals("alice@EXAMPLE.COM", authentication.getName());
+        assertEquals("alice@EXAMPLE.COM", ((UserDetails) authentication.getPrincipal()).getUsername());
+        assertEquals(AUTHORITIES, authentication.getAuthorities());
+        assertEquals("HTTP/web.example.com@EXAMPLE.COM",
+                ((KerberosServiceRequestToken) authentication).getServicePrincipal());
+    }
+}
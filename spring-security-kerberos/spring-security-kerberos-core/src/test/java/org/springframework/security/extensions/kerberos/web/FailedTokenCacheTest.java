@@ -0,0 +1,104 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.extensions.kerberos.KerberosReplayException;
+
+/**
+ * Test class for {@link FailedTokenCache}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class FailedTokenCacheTest {
+
+    private static final BadCredentialsException FAILURE = new BadCredentialsException("Clock skew too great");
+
+    private FailedTokenCache cache;
+
+    @Before
+    public void before() {
+        cache = new FailedTokenCache();
+    }
+
+    @Test
+    public void testHitForRepeatedToken() {
+        assertNull(cache.get(new byte[] { 1, 2, 3 }));
+        cache.put(new byte[] { 1, 2, 3 }, FAILURE);
+
+        assertSame(FAILURE, cache.get(new byte[] { 1, 2, 3 }));
+        assertNull(cache.get(new byte[] { 1, 2, 4 }));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testExpires() throws Exception {
+        cache.setTimeToLive(1);
+        cache.put(new byte[] { 1 }, FAILURE);
+        Thread.sleep(5);
+
+        assertNull(cache.get(new byte[] { 1 }));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        cache.setMaxEntries(2);
+        cache.put(new byte[] { 1 }, FAILURE);
+        cache.put(new byte[] { 2 }, FAILURE);
+        cache.get(new byte[] { 1 });
+        cache.put(new byte[] { 3 }, FAILURE);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get(new byte[] { 1 }));
+        assertNull(cache.get(new byte[] { 2 }));
+    }
+
+    @Test
+    public void testServiceFailureIsNotCached() {
+        cache.put(new byte[] { 1 }, new AuthenticationServiceException("LDAP not available"));
+
+        assertNull(cache.get(new byte[] { 1 }));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testReplayIsNotCached() {
+        cache.put(new byte[] { 1 }, new KerberosReplayException("Kerberos authenticator was replayed by another client"));
+
+        assertNull(cache.get(new byte[] { 1 }));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testClear() {
+        cache.put(new byte[] { 1 }, FAILURE);
+        cache.clear();
+
+        assertNull(cache.get(new byte[] { 1 }));
+    }
+}
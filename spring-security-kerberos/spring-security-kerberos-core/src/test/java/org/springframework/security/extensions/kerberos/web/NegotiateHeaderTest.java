@@ -0,0 +1,121 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.web;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.security.extensions.kerberos.KerberosTestUtils;
+import org.springframework.security.extensions.kerberos.web.NegotiateHeader.TokenType;
+
+/**
+ * Test class for {@link NegotiateHeader}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class NegotiateHeaderTest {
+
+    private static final int OFFSET = NegotiateHeader.PREFIX.length();
+
+    @Test
+    public void testDecodeAllLengths() {
+        Random random = new Random(42);
+        for (int length = 1; length < 100; length++) {
+            byte[] token = new byte[length];
+            random.nextBytes(token);
+            String header = NegotiateHeader.PREFIX + new String(Base64.encode(token));
+
+            assertEquals(length, NegotiateHeader.decodedLength(header, OFFSET));
+            assertTrue(Arrays.equals(token, NegotiateHeader.decode(header, OFFSET, length)));
+        }
+    }
+
+    @Test
+    public void testWithoutPaddingAndWithTrailingWhitespace() {
+        assertEquals("TestToken", decode("Negotiate VGVzdFRva2Vu"));
+        assertEquals("Test", decode("Negotiate VGVzdA"));
+        assertEquals("Test", decode("Negotiate VGVzdA== \r\n"));
+        assertEquals("Tes", decode("Negotiate VGVz"));
+    }
+
+    @Test
+    public void testInvalidLengths() {
+        assertEquals(-1, NegotiateHeader.decodedLength("Negotiate ", OFFSET));
+        assertEquals(-1, NegotiateHeader.decodedLength("Negotiate  ", OFFSET));
+        assertEquals(-1, NegotiateHeader.decodedLength("Negotiate VGVzd", OFFSET));
+        assertEquals(-1, NegotiateHeader.decodedLength("Negotiate VGVzdA=", OFFSET));
+        assertEquals(-1, NegotiateHeader.decodedLength("Negotiate ====", OFFSET));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCharacter() {
+        decode("Negotiate VGV*dFRva2Vu");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPaddingInTheMiddle() {
+        decode("Negotiate VG==dFRva2Vu");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonAsciiCharacter() {
+        decode("Negotiate VGVzdFRva2Vü");
+    }
+
+    @Test
+    public void testFingerprint() {
+        char[] text = new char[40000];
+        Arrays.fill(text, 'A');
+        String header = NegotiateHeader.PREFIX + new String(text);
+        String other = header.substring(0, header.length() - 1) + "B";
+
+        String fingerprint = NegotiateHeader.fingerprint(header, OFFSET);
+        assertTrue(fingerprint, fingerprint.startsWith("AAAAAAAAAAAAAAAA...(40000 chars, #"));
+        assertTrue(fingerprint.length() < 50);
+        assertFalse(fingerprint.equals(NegotiateHeader.fingerprint(other, OFFSET)));
+        assertTrue(NegotiateHeader.fingerprint("Negotiate VGVz\n", OFFSET).startsWith("VGVz?(5 chars, #"));
+    }
+
+    @Test
+    public void testClassify() {
+        byte[] apRequest = KerberosTestUtils.createApRequest("web.example.com", "EXAMPLE.COM", 18, 1,
+                KerberosTestUtils.filled(100, 0x11), KerberosTestUtils.filled(50, 0x22));
+        byte[] spnego = KerberosTestUtils.wrapSpnego(apRequest);
+
+        assertEquals(TokenType.KERBEROS, NegotiateHeader.classify(spnego));
+        assertEquals(TokenType.KERBEROS, NegotiateHeader.classify(KerberosTestUtils.wrapGss(apRequest)));
+        assertEquals(TokenType.KERBEROS, NegotiateHeader.classify(apRequest));
+        assertEquals(TokenType.NTLM, NegotiateHeader.classify(Base64.decode(
+                "TlRMTVNTUAABAAAAl4II4gAAAAAAAAAAAAAAAAAAAAAGAbEdAAAADw==".getBytes())));
+        // NegTokenInit offering NTLM with a type 1 message
+        assertEquals(TokenType.NTLM, NegotiateHeader.classify(Base64.decode(("YE4GBisGAQUFAqBEMEKgDjAMBgorBgEEAYI3A"
+                + "gIKojAELk5UTE1TU1AAAQAAAJeCCOIAAAAAAAAAAAAAAAAAAAAABgGxHQAAAA8=").getBytes())));
+        assertEquals(TokenType.MALFORMED, NegotiateHeader.classify(Arrays.copyOf(spnego, spnego.length - 1)));
+        assertEquals(TokenType.MALFORMED, NegotiateHeader.classify("TestToken".getBytes()));
+        assertEquals(TokenType.MALFORMED, NegotiateHeader.classify(new byte[0]));
+    }
+
+    private static String decode(String header) {
+        return new String(NegotiateHeader.decode(header, OFFSET, NegotiateHeader.decodedLength(header, OFFSET)));
+    }
+}
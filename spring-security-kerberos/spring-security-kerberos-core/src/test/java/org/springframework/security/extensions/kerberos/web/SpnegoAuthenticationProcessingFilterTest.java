@@ -37,10 +37,15 @@ import org.springframework.security.authentication.UsernamePasswordAuthenticatio
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.codec.Base64;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.extensions.kerberos.KerberosMetrics;
 import org.springframework.security.extensions.kerberos.KerberosServiceRequestToken;
+import org.springframework.security.extensions.kerberos.KerberosTestUtils;
+import org.springframework.security.extensions.kerberos.SimpleKerberosMetrics;
 import org.springframework.security.web.authentication.AuthenticationFailureHandler;
 import org.springframework.security.web.authentication.AuthenticationSuccessHandler;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
 
 /**
  * Test class for {@link SpnegoAuthenticationProcessingFilter}
@@ -60,8 +65,10 @@ public class SpnegoAuthenticationProcessingFilterTest {
     private AuthenticationFailureHandler failureHandler;
 
     // data
-    private static final byte[] TEST_TOKEN = "TestToken".getBytes();
-    private static final String TEST_TOKEN_BASE64 = "VGVzdFRva2Vu";
+    private static final byte[] TEST_TOKEN = KerberosTestUtils.wrapSpnego(KerberosTestUtils.createApRequest(
+            "web.example.com", "EXAMPLE.COM", 18, 1, KerberosTestUtils.filled(100, 0x11),
+            KerberosTestUtils.filled(50, 0x22)));
+    private static final String TEST_TOKEN_BASE64 = new String(Base64.encode(TEST_TOKEN));
     private static final Authentication AUTHENTICATION = new KerberosServiceRequestToken("test",
             AuthorityUtils.createAuthorityList("ROLE_ADMIN"), TEST_TOKEN);
     private static final String HEADER = "Authorization";
@@ -97,7 +104,7 @@ public class SpnegoAuthenticationProcessingFilterTest {
     private void everythingWorks() throws IOException, ServletException {
         // stubbing
         when(request.getHeader(HEADER)).thenReturn(TOKEN_PREFIX + TEST_TOKEN_BASE64);
-        when(authenticationManager.authenticate(new KerberosServiceRequestToken(TEST_TOKEN))).thenReturn(AUTHENTICATION);
+        when(authenticationManager.authenticate(requestToken(TEST_TOKEN))).thenReturn(AUTHENTICATION);
 
         // testing
         filter.doFilter(request, response, chain);
@@ -105,6 +112,113 @@ public class SpnegoAuthenticationProcessingFilterTest {
         assertEquals(AUTHENTICATION, SecurityContextHolder.getContext().getAuthentication());
     }
 
+    @Test
+    public void testMetrics() throws Exception {
+        SimpleKerberosMetrics metrics = new SimpleKerberosMetrics();
+        filter.setMetrics(metrics);
+        everythingWorks();
+
+        assertEquals(1, metrics.getCount(KerberosMetrics.Stage.HEADER_DECODE));
+        assertEquals(1, metrics.getCount(KerberosMetrics.Stage.AUTHENTICATION));
+        assertEquals(1, metrics.getTokenSizes()[64 - Long.numberOfLeadingZeros(TEST_TOKEN.length)]);
+    }
+
+    @Test
+    public void testTokenTooLarge() throws Exception {
+        SimpleKerberosMetrics metrics = new SimpleKerberosMetrics();
+        filter.setMetrics(metrics);
+        filter.setMaxTokenSize(8);
+        when(request.getHeader(HEADER)).thenReturn(TOKEN_PREFIX + TEST_TOKEN_BASE64);
+
+        filter.doFilter(request, response, chain);
+
+        verify(authenticationManager, never()).authenticate(any(Authentication.class));
+        verify(chain, never()).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+        verify(response).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        assertEquals(1, metrics.getFailures(KerberosMetrics.Failure.TOKEN_TOO_LARGE));
+    }
+
+    @Test
+    public void testNtlmTokenIsChallenged() throws Exception {
+        SimpleKerberosMetrics metrics = new SimpleKerberosMetrics();
+        filter.setMetrics(metrics);
+        filter.setRejectUnsupportedTokens(true);
+        createHandler();
+        when(request.getHeader(HEADER)).thenReturn(TOKEN_PREFIX + "TlRMTVNTUAABAAAAl4II4gAAAAAAAAAAAAAAAAAAAAAGAbEdAAAADw==");
+
+        filter.doFilter(request, response, chain);
+
+        verify(authenticationManager, never()).authenticate(any(Authentication.class));
+        verify(failureHandler, never()).onAuthenticationFailure(any(HttpServletRequest.class),
+                any(HttpServletResponse.class), any(AuthenticationException.class));
+        verify(chain, never()).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+        verify(response).addHeader("WWW-Authenticate", "Negotiate");
+        verify(response).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        assertEquals(1, metrics.getFailures(KerberosMetrics.Failure.NTLM_TOKEN));
+    }
+
+    @Test
+    public void testTruncatedTokenIsChallenged() throws Exception {
+        SimpleKerberosMetrics metrics = new SimpleKerberosMetrics();
+        filter.setMetrics(metrics);
+        filter.setRejectUnsupportedTokens(true);
+        byte[] truncated = new byte[TEST_TOKEN.length - 20];
+        System.arraycopy(TEST_TOKEN, 0, truncated, 0, truncated.length);
+        when(request.getHeader(HEADER)).thenReturn(TOKEN_PREFIX + new String(Base64.encode(truncated)));
+
+        filter.doFilter(request, response, chain);
+
+        verify(authenticationManager, never()).authenticate(any(Authentication.class));
+        verify(response).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        assertEquals(1, metrics.getFailures(KerberosMetrics.Failure.MALFORMED_TOKEN));
+    }
+
+    @Test
+    public void testUnsupportedTokenPassedOnByDefault() throws Exception {
+        when(request.getHeader(HEADER)).thenReturn(TOKEN_PREFIX + "VGVzdFRva2Vu");
+        when(authenticationManager.authenticate(requestToken("TestToken".getBytes()))).thenReturn(
+                AUTHENTICATION);
+
+        filter.doFilter(request, response, chain);
+
+        verify(chain).doFilter(request, response);
+        assertEquals(AUTHENTICATION, SecurityContextHolder.getContext().getAuthentication());
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testMalformedHeader() throws Exception {
+        SimpleKerberosMetrics metrics = new SimpleKerberosMetrics();
+        filter.setMetrics(metrics);
+        createHandler();
+        when(request.getHeader(HEADER)).thenReturn(TOKEN_PREFIX + "VGV*dFRva2Vu");
+
+        filter.doFilter(request, response, chain);
+
+        verify(authenticationManager, never()).authenticate(any(Authentication.class));
+        verify(failureHandler).onAuthenticationFailure(eq(request), eq(response), any(BadCredentialsException.class));
+        assertEquals(1, metrics.getFailures(KerberosMetrics.Failure.MALFORMED_HEADER));
+    }
+
+    @Test
+    public void testAuthenticationCookie() throws Exception {
+        AuthenticationCookieService cookieService = mock(AuthenticationCookieService.class);
+        filter.setAuthenticationCookieService(cookieService);
+        everythingWorks();
+        verify(cookieService).writeCookie(request, response, AUTHENTICATION);
+        SecurityContextHolder.clearContext();
+
+        Authentication fromCookie = new KerberosServiceRequestToken("test", AuthorityUtils.createAuthorityList(
+                "ROLE_ADMIN"), new byte[0]);
+        when(cookieService.readCookie(request)).thenReturn(fromCookie);
+        filter.doFilter(request, response, chain);
+
+        verify(authenticationManager, times(1)).authenticate(any(Authentication.class));
+        verify(chain, times(2)).doFilter(request, response);
+        assertEquals(fromCookie, SecurityContextHolder.getContext().getAuthentication());
+        SecurityContextHolder.clearContext();
+    }
+
     @Test
     public void testNoHeader() throws Exception {
         filter.doFilter(request, response, chain);
@@ -183,6 +297,60 @@ public class SpnegoAuthenticationProcessingFilterTest {
         }
     }
 
+    @Test
+    public void testRepeatedFailureIsRejectedFromCache() throws Exception {
+        SimpleKerberosMetrics metrics = new SimpleKerberosMetrics();
+        filter.setMetrics(metrics);
+        filter.setFailedTokenCache(new FailedTokenCache());
+        createHandler();
+
+        authenticationFails();
+        filter.doFilter(request, response, chain);
+
+        verify(authenticationManager, times(1)).authenticate(any(Authentication.class));
+        verify(failureHandler, times(2)).onAuthenticationFailure(request, response, BCE);
+        assertEquals(1, metrics.getFailures(KerberosMetrics.Failure.KNOWN_BAD_TOKEN));
+        assertEquals(1, metrics.getCount(KerberosMetrics.Stage.AUTHENTICATION));
+    }
+
+    @Test
+    public void testPermitIsReturnedAfterAuthentication() throws Exception {
+        AuthenticationBulkhead bulkhead = new AuthenticationBulkhead();
+        bulkhead.setMaxConcurrent(1);
+        filter.setAuthenticationBulkhead(bulkhead);
+
+        everythingWorks();
+        SecurityContextHolder.clearContext();
+        reset(chain);
+        authenticationFails();
+
+        assertEquals(0, bulkhead.getActive());
+        assertEquals(2, bulkhead.getAdmitted());
+    }
+
+    @Test
+    public void testOverloadedRequestIsRejected() throws Exception {
+        SimpleKerberosMetrics metrics = new SimpleKerberosMetrics();
+        filter.setMetrics(metrics);
+        AuthenticationBulkhead bulkhead = new AuthenticationBulkhead();
+        bulkhead.setMaxConcurrent(1);
+        bulkhead.setMaxWaiting(0);
+        bulkhead.setRetryAfter(3);
+        bulkhead.acquire();
+        filter.setAuthenticationBulkhead(bulkhead);
+        createHandler();
+        when(request.getHeader(HEADER)).thenReturn(TOKEN_PREFIX + TEST_TOKEN_BASE64);
+
+        filter.doFilter(request, response, chain);
+
+        verify(response).setHeader("Retry-After", "3");
+        verify(response).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        verify(chain, never()).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+        verifyZeroInteractions(authenticationManager, failureHandler);
+        assertEquals(1, metrics.getFailures(KerberosMetrics.Failure.OVERLOADED));
+        assertEquals(1, metrics.getCount(KerberosMetrics.Stage.BULKHEAD_WAIT));
+    }
+
     private void authenticationFails() throws IOException, ServletException {
         // stubbing
         when(request.getHeader(HEADER)).thenReturn(TOKEN_PREFIX + TEST_TOKEN_BASE64);
@@ -207,4 +375,12 @@ public class SpnegoAuthenticationProcessingFilterTest {
         SecurityContextHolder.clearContext();
     }
 
+    /**
+     * @return the authentication request the filter passes on, with the details of the request
+     */
+    private KerberosServiceRequestToken requestToken(byte[] token) {
+        KerberosServiceRequestToken requestToken = new KerberosServiceRequestToken(token);
+        requestToken.setDetails(new WebAuthenticationDetails(request));
+        return requestToken;
+    }
 }
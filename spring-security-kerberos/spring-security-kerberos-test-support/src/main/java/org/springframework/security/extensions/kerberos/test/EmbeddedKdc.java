@@ -0,0 +1,291 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.Subject;
+import javax.security.auth.callback.Callback;
+import javax.security.auth.callback.CallbackHandler;
+import javax.security.auth.callback.NameCallback;
+import javax.security.auth.callback.PasswordCallback;
+import javax.security.auth.callback.UnsupportedCallbackException;
+import javax.security.auth.login.AppConfigurationEntry;
+import javax.security.auth.login.Configuration;
+import javax.security.auth.login.LoginContext;
+
+import org.apache.kerby.kerberos.kerb.server.SimpleKdcServer;
+import org.ietf.jgss.GSSContext;
+import org.ietf.jgss.GSSManager;
+import org.ietf.jgss.GSSName;
+import org.ietf.jgss.Oid;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * A KDC inside the JVM, listening on a free TCP port of the loopback interface. Creates
+ * users and service principals, writes keytabs and gets SPNEGO tokens for a user, so the
+ * whole Kerberos path can be tested without Active Directory. Based on Apache Kerby.
+ *
+ * <p>Starting the KDC points <code>java.security.krb5.conf</code> to a generated
+ * <code>krb5.conf</code> for this realm, which affects the whole JVM. The tickets don't
+ * contain a PAC, use a <code>ServiceTicketFactory</code> for tokens with group SIDs.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class EmbeddedKdc implements InitializingBean, DisposableBean {
+
+    private static final String KRB5_PRINCIPAL_NAME = "1.2.840.113554.1.2.2.1";
+    private static final String SPNEGO_MECHANISM = "1.3.6.1.5.5.2";
+
+    private String realm = "EXAMPLE.COM";
+    private File workDir;
+    private boolean temporaryWorkDir;
+    private SimpleKdcServer kdc;
+    private int port;
+
+    public synchronized void start() throws Exception {
+        Assert.state(this.kdc == null, "KDC is already running");
+        if (this.workDir == null) {
+            this.workDir = File.createTempFile("kdc", "");
+            this.workDir.delete();
+            this.workDir.mkdirs();
+            this.temporaryWorkDir = true;
+        }
+        this.port = freePort();
+        SimpleKdcServer server = new SimpleKdcServer();
+        server.setWorkDir(this.workDir);
+        server.setKdcHost("localhost");
+        server.setKdcRealm(this.realm);
+        server.setAllowUdp(false);
+        server.setKdcTcpPort(this.port);
+        server.init();
+        server.start();
+        this.kdc = server;
+        writeKrb5Conf();
+    }
+
+    public synchronized void stop() throws Exception {
+        if (this.kdc != null) {
+            this.kdc.stop();
+            this.kdc = null;
+        }
+        if (this.temporaryWorkDir) {
+            FileSystemUtils.deleteRecursively(this.workDir);
+            this.workDir = null;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        start();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        stop();
+    }
+
+    /**
+     * @param name user name without realm
+     */
+    public synchronized void createUser(String name, String password) throws Exception {
+        running().createPrincipal(qualify(name), password);
+    }
+
+    /**
+     * Creates service principals with random keys and writes them all into one keytab.
+     *
+     * @param keyTab the keytab to write, an existing file is replaced
+     * @param servicePrincipals e.g. <code>HTTP/localhost</code>, the realm of the KDC is added if missing
+     */
+    public synchronized void createServicePrincipals(File keyTab, String... servicePrincipals) throws Exception {
+        String[] principals = new String[servicePrincipals.length];
+        for (int i = 0; i < principals.length; i++) {
+            principals[i] = qualify(servicePrincipals[i]);
+        }
+        keyTab.delete();
+        running().createAndExportPrincipals(keyTab, principals);
+    }
+
+    /**
+     * Logs in the user with its password and creates the SPNEGO tokens a browser would send.
+     * The service ticket is only requested once, every token has its own authenticator.
+     *
+     * @param servicePrincipal the target service, the realm of the KDC is added if missing
+     * @param count number of tokens
+     */
+    public List<byte[]> createSpnegoTokens(String user, String password, String servicePrincipal, final int count)
+            throws Exception {
+        running();
+        LoginContext login = new LoginContext("", new Subject(), new PasswordHandler(qualify(user), password),
+                new ClientLoginConfig(qualify(user)));
+        login.login();
+        final String target = qualify(servicePrincipal);
+        try {
+            return Subject.doAs(login.getSubject(), new PrivilegedExceptionAction<List<byte[]>>() {
+                public List<byte[]> run() throws Exception {
+                    GSSManager manager = GSSManager.getInstance();
+                    GSSName name = manager.createName(target, new Oid(KRB5_PRINCIPAL_NAME));
+                    List<byte[]> tokens = new ArrayList<byte[]>(count);
+                    for (int i = 0; i < count; i++) {
+                        GSSContext context = manager.createContext(name, new Oid(SPNEGO_MECHANISM), null,
+                                GSSContext.DEFAULT_LIFETIME);
+                        try {
+                            context.requestMutualAuth(false);
+                            context.requestCredDeleg(false);
+                            tokens.add(context.initSecContext(new byte[0], 0, 0));
+                        } finally {
+                            context.dispose();
+                        }
+                    }
+                    return tokens;
+                }
+            });
+        } finally {
+            login.logout();
+        }
+    }
+
+    public byte[] createSpnegoToken(String user, String password, String servicePrincipal) throws Exception {
+        return createSpnegoTokens(user, password, servicePrincipal, 1).get(0);
+    }
+
+    /**
+     * @param realm default is <code>EXAMPLE.COM</code>
+     */
+    public void setRealm(String realm) {
+        this.realm = realm;
+    }
+
+    public String getRealm() {
+        return this.realm;
+    }
+
+    /**
+     * @param workDir where the KDC keeps its database and the krb5.conf, default is a temporary
+     *        directory which is removed on stop
+     */
+    public void setWorkDir(File workDir) {
+        this.workDir = workDir;
+    }
+
+    /**
+     * @return the TCP port of the running KDC
+     */
+    public int getPort() {
+        return this.port;
+    }
+
+    public File getKrb5Conf() {
+        return new File(this.workDir, "krb5.conf");
+    }
+
+    private SimpleKdcServer running() {
+        Assert.state(this.kdc != null, "KDC is not running");
+        return this.kdc;
+    }
+
+    private String qualify(String principal) {
+        return principal.indexOf('@') < 0 ? principal + '@' + this.realm : principal;
+    }
+
+    private void writeKrb5Conf() throws IOException {
+        File conf = getKrb5Conf();
+        Writer out = new FileWriter(conf);
+        try {
+            out.write("[libdefaults]\n");
+            out.write("    default_realm = " + this.realm + "\n");
+            out.write("    udp_preference_limit = 1\n");
+            out.write("    dns_lookup_kdc = false\n");
+            out.write("    dns_lookup_realm = false\n");
+            out.write("[realms]\n");
+            out.write("    " + this.realm + " = {\n");
+            out.write("        kdc = localhost:" + this.port + "\n");
+            out.write("    }\n");
+        } finally {
+            out.close();
+        }
+        // the login modules refresh the configuration, see ClientLoginConfig
+        System.setProperty("java.security.krb5.conf", conf.getAbsolutePath());
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static class PasswordHandler implements CallbackHandler {
+        private final String name;
+        private final String password;
+
+        PasswordHandler(String name, String password) {
+            this.name = name;
+            this.password = password;
+        }
+
+        public void handle(Callback[] callbacks) throws IOException, UnsupportedCallbackException {
+            for (Callback callback : callbacks) {
+                if (callback instanceof NameCallback) {
+                    ((NameCallback) callback).setName(this.name);
+                } else if (callback instanceof PasswordCallback) {
+                    ((PasswordCallback) callback).setPassword(this.password.toCharArray());
+                } else {
+                    throw new UnsupportedCallbackException(callback);
+                }
+            }
+        }
+    }
+
+    private static class ClientLoginConfig extends Configuration {
+        private final String principal;
+
+        ClientLoginConfig(String principal) {
+            this.principal = principal;
+        }
+
+        @Override
+        public AppConfigurationEntry[] getAppConfigurationEntry(String name) {
+            Map<String, String> options = new HashMap<String, String>();
+            options.put("principal", this.principal);
+            options.put("useTicketCache", "false");
+            options.put("storeKey", "false");
+            // picks up the krb5.conf of this KDC, even if another one was read before
+            options.put("refreshKrb5Config", "true");
+            return new AppConfigurationEntry[] { new AppConfigurationEntry(
+                    "com.sun.security.auth.module.Krb5LoginModule",
+                    AppConfigurationEntry.LoginModuleControlFlag.REQUIRED, options) };
+        }
+    }
+}
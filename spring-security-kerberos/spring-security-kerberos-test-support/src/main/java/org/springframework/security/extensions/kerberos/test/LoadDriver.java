@@ -0,0 +1,135 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.util.Assert;
+
+/**
+ * Pushes tokens through a filter chain from several threads and reports throughput and
+ * latency percentiles. Usually the filter is a <code>SpnegoAuthenticationProcessingFilter</code>
+ * with the provider and user details service under test behind it.
+ *
+ * <p>Every token is sent exactly once, so the replay cache of the acceptor doesn't get in the
+ * way. A request counts as failed if the rest of the chain isn't reached with an authenticated
+ * user. Run the driver once before measuring, to warm up the JIT.</p>
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class LoadDriver {
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String requestUri = "/secure/";
+
+    /**
+     * @param filter the filter under test, must be thread safe
+     * @param tokens the SPNEGO tokens, one request each
+     */
+    public LoadReport run(final Filter filter, List<byte[]> tokens) throws InterruptedException {
+        final String[] headers = new String[tokens.size()];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = "Negotiate " + new String(Base64.encode(tokens.get(i)));
+        }
+        final long[] latencies = new long[headers.length];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] workers = new Thread[this.threads];
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Thread("load-driver-" + t) {
+                @Override
+                public void run() {
+                    RecordingChain chain = new RecordingChain();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = next.getAndIncrement(); i < headers.length; i = next.getAndIncrement()) {
+                        MockHttpServletRequest request = new MockHttpServletRequest("GET", requestUri);
+                        request.addHeader("Authorization", headers[i]);
+                        MockHttpServletResponse response = new MockHttpServletResponse();
+                        chain.authentication = null;
+                        long begin = System.nanoTime();
+                        try {
+                            filter.doFilter(request, response, chain);
+                        } catch (Exception e) {
+                            chain.authentication = null;
+                        } finally {
+                            SecurityContextHolder.clearContext();
+                        }
+                        latencies[i] = System.nanoTime() - begin;
+                        if (chain.authentication == null || !chain.authentication.isAuthenticated()) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return new LoadReport(this.threads, failures.get(), System.nanoTime() - begin, latencies);
+    }
+
+    /**
+     * @param threads number of concurrent clients, default is the number of processors
+     */
+    public void setThreads(int threads) {
+        Assert.isTrue(threads > 0, "threads must be positive");
+        this.threads = threads;
+    }
+
+    /**
+     * @param requestUri default is <code>/secure/</code>
+     */
+    public void setRequestUri(String requestUri) {
+        this.requestUri = requestUri;
+    }
+
+    /**
+     * End of the chain, remembers who was authenticated when it was reached.
+     */
+    private static class RecordingChain implements FilterChain {
+        Authentication authentication;
+
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            this.authentication = SecurityContextHolder.getContext().getAuthentication();
+        }
+    }
+}
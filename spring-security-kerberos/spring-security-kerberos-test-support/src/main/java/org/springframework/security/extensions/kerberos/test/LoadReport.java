@@ -0,0 +1,88 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.test;
+
+import java.util.Arrays;
+
+/**
+ * Outcome of a {@link LoadDriver} run: throughput and the latency distribution
+ * of all requests, failed ones included.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class LoadReport {
+
+    private final int threads;
+    private final int failures;
+    private final long elapsedNanos;
+    private final long[] latencies;
+
+    LoadReport(int threads, int failures, long elapsedNanos, long[] latencies) {
+        this.threads = threads;
+        this.failures = failures;
+        this.elapsedNanos = elapsedNanos;
+        this.latencies = latencies.clone();
+        Arrays.sort(this.latencies);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getRequests() {
+        return latencies.length;
+    }
+
+    /** @return requests which didn't end up authenticated */
+    public int getFailures() {
+        return failures;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /** @return requests per second */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : latencies.length * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99.9
+     * @return the latency in nanoseconds which the given percentage of requests didn't exceed
+     */
+    public long getLatency(double percentile) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+        return latencies[Math.min(Math.max(rank, 1), latencies.length) - 1];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d requests on %d threads, %d failed, %.1f/s, latency ms p50 %.3f p90 %.3f p99 %.3f "
+                + "p99.9 %.3f max %.3f", latencies.length, threads, failures, getThroughput(), millis(50),
+                millis(90), millis(99), millis(99.9), millis(100));
+    }
+
+    private double millis(double percentile) {
+        return getLatency(percentile) / 1e6;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.security.extensions.kerberos.PacTestUtils;
+import org.springframework.security.extensions.kerberos.ServiceTicketFactory;
+
+/**
+ * Tokens with PACs of a given size, issued offline by a {@link ServiceTicketFactory}.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public final class SyntheticTokens {
+
+    public static final String DOMAIN_SID = "S-1-5-21-185937884-2362668773-3192785854";
+
+    private SyntheticTokens() {
+    }
+
+    /**
+     * @param groups total number of group SIDs: the primary group <code>513</code>, the domain
+     *        groups <code>10000</code> and following and, from two groups on, the extra SID
+     *        <code>S-1-18-1</code>
+     */
+    public static byte[] createPac(int groups) {
+        int[] rids = new int[Math.max(groups - 2, 0)];
+        for (int i = 0; i < rids.length; i++) {
+            rids[i] = 10000 + i;
+        }
+        String[] extraSids = groups > 1 ? new String[] { "S-1-18-1" } : new String[0];
+        return PacTestUtils.createPac(DOMAIN_SID, 513, rids, extraSids, null, new int[0]);
+    }
+
+    /**
+     * @param count number of tokens, each for another user <code>user0</code>, <code>user1</code>, ...
+     * @param groups group SIDs in the PAC of each token, no PAC if negative
+     */
+    public static List<byte[]> createTokens(ServiceTicketFactory tickets, int count, int groups) {
+        byte[] pac = groups >= 0 ? createPac(groups) : null;
+        List<byte[]> tokens = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            tokens.add(tickets.createSpnegoToken("user" + i, pac));
+        }
+        return tokens;
+    }
+}
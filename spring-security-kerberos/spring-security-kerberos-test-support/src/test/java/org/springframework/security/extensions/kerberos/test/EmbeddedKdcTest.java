@@ -0,0 +1,98 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.security.auth.login.LoginException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosTicketValidator;
+
+/**
+ * Test class for {@link EmbeddedKdc}
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class EmbeddedKdcTest {
+
+    private static EmbeddedKdc kdc;
+    private static File keyTab;
+
+    @BeforeClass
+    public static void startKdc() throws Exception {
+        kdc = new EmbeddedKdc();
+        kdc.afterPropertiesSet();
+        kdc.createUser("alice", "secret");
+        keyTab = File.createTempFile("http", ".keytab");
+        kdc.createServicePrincipals(keyTab, "HTTP/localhost");
+    }
+
+    @AfterClass
+    public static void stopKdc() throws Exception {
+        kdc.destroy();
+        keyTab.delete();
+    }
+
+    @Test
+    public void testTokensAreAcceptedByTheValidator() throws Exception {
+        SunJaasKerberosTicketValidator validator = new SunJaasKerberosTicketValidator();
+        validator.setServicePrincipal("HTTP/localhost@EXAMPLE.COM");
+        validator.setKeyTabLocation(new FileSystemResource(keyTab));
+        validator.afterPropertiesSet();
+        try {
+            List<byte[]> tokens = kdc.createSpnegoTokens("alice", "secret", "HTTP/localhost", 3);
+
+            assertEquals(3, new HashSet<String>(Arrays.asList(encode(tokens))).size());
+            for (byte[] token : tokens) {
+                assertEquals("alice@EXAMPLE.COM", validator.validateTicket(token));
+            }
+        } finally {
+            validator.destroy();
+        }
+    }
+
+    @Test(expected = LoginException.class)
+    public void testWrongPassword() throws Exception {
+        kdc.createSpnegoToken("alice", "wrong", "HTTP/localhost");
+    }
+
+    @Test
+    public void testKrb5ConfPointsToTheKdc() throws Exception {
+        assertEquals(kdc.getKrb5Conf().getAbsolutePath(), System.getProperty("java.security.krb5.conf"));
+        assertTrue(kdc.getPort() > 0);
+    }
+
+    private static String[] encode(List<byte[]> tokens) {
+        String[] encoded = new String[tokens.size()];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = new String(Base64.encode(tokens.get(i)));
+        }
+        return encoded;
+    }
+}
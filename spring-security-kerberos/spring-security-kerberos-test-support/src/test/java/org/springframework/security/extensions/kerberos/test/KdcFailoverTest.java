@@ -0,0 +1,99 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.test;
+
+import static org.junit.Assert.*;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.extensions.kerberos.KdcHealthProber;
+import org.springframework.security.extensions.kerberos.Krb5Config;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosClient;
+
+/**
+ * Test class for {@link KdcHealthProber} against an {@link EmbeddedKdc}, with a KDC in
+ * front of it which accepts connections but never answers.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class KdcFailoverTest {
+
+    private static final int KDC_TIMEOUT = 2000;
+
+    private EmbeddedKdc kdc;
+    private ServerSocket blackhole;
+    private Krb5Config krb5Config;
+    private KdcHealthProber prober;
+    private String hanging;
+    private String alive;
+
+    @Before
+    public void before() throws Exception {
+        kdc = new EmbeddedKdc();
+        kdc.afterPropertiesSet();
+        kdc.createUser("alice", "secret");
+        blackhole = new ServerSocket(0);
+        hanging = "localhost:" + blackhole.getLocalPort();
+        alive = "localhost:" + kdc.getPort();
+        krb5Config = new Krb5Config();
+        krb5Config.setDefaultRealm(kdc.getRealm());
+        krb5Config.setRealms(Collections.<String, List<String>> singletonMap(kdc.getRealm(),
+                Arrays.asList(hanging, alive)));
+        krb5Config.setKdcTimeout(KDC_TIMEOUT);
+        krb5Config.apply();
+        prober = new KdcHealthProber();
+        prober.setKrb5Config(krb5Config);
+        prober.setProbeInterval(0);
+        prober.setProbeTimeout(500);
+    }
+
+    @After
+    public void after() throws Exception {
+        prober.destroy();
+        blackhole.close();
+        kdc.destroy();
+        krb5Config.getLocation().delete();
+    }
+
+    @Test
+    public void testHangingKdcIsNotTried() throws Exception {
+        prober.afterPropertiesSet();
+
+        assertEquals(Collections.singletonList(alive), krb5Config.getActiveKdcs(kdc.getRealm()));
+        assertTrue(prober.getLatencies().get(alive) >= 0);
+        assertEquals(Long.valueOf(-1), prober.getLatencies().get(hanging));
+
+        long start = System.currentTimeMillis();
+        assertEquals("alice@EXAMPLE.COM", new SunJaasKerberosClient().login("alice", "secret"));
+        assertTrue(System.currentTimeMillis() - start < KDC_TIMEOUT);
+    }
+
+    @Test
+    public void testHangingKdcCostsTheTimeoutWithoutProber() throws Exception {
+        long start = System.currentTimeMillis();
+        assertEquals("alice@EXAMPLE.COM", new SunJaasKerberosClient().login("alice", "secret"));
+        assertTrue(System.currentTimeMillis() - start >= KDC_TIMEOUT);
+    }
+}
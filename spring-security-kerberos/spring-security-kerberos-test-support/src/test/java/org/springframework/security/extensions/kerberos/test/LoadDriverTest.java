@@ -0,0 +1,119 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.extensions.kerberos.ActiveDirectoryAuthenticationProvider;
+import org.springframework.security.extensions.kerberos.ActiveDirectoryUserDetailsService;
+import org.springframework.security.extensions.kerberos.ServiceTicketFactory;
+import org.springframework.security.extensions.kerberos.SidMappingAuthoritiesPopulator;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosTicketValidator;
+import org.springframework.security.extensions.kerberos.web.SpnegoAuthenticationProcessingFilter;
+
+/**
+ * Test class for {@link LoadDriver}, through the filter, provider, validator and
+ * authorities populator with synthetic tokens.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class LoadDriverTest {
+
+    private static final String SERVICE_PRINCIPAL = "HTTP/web.example.com@EXAMPLE.COM";
+
+    private ServiceTicketFactory tickets;
+    private File keyTab;
+    private SunJaasKerberosTicketValidator validator;
+    private SpnegoAuthenticationProcessingFilter filter;
+    private LoadDriver driver;
+
+    @Before
+    public void before() throws Exception {
+        tickets = new ServiceTicketFactory(SERVICE_PRINCIPAL, ServiceTicketFactory.AES256_CTS_HMAC_SHA1_96, 1);
+        keyTab = File.createTempFile("http", ".keytab");
+        tickets.writeKeyTab(keyTab);
+        validator = new SunJaasKerberosTicketValidator();
+        validator.setServicePrincipal(SERVICE_PRINCIPAL);
+        validator.setKeyTabLocation(new FileSystemResource(keyTab));
+        validator.afterPropertiesSet();
+
+        SidMappingAuthoritiesPopulator populator = new SidMappingAuthoritiesPopulator();
+        populator.setMappings(new ByteArrayResource((SyntheticTokens.DOMAIN_SID + "-10001=ROLE_ADMIN\n").getBytes()));
+        populator.setDefaultAuthorities(Arrays.asList("ROLE_USER"));
+        populator.afterPropertiesSet();
+        ActiveDirectoryUserDetailsService userDetailsService = new ActiveDirectoryUserDetailsService();
+        userDetailsService.setAuthoritiesPopulator(populator);
+        ActiveDirectoryAuthenticationProvider provider = new ActiveDirectoryAuthenticationProvider();
+        provider.setTicketValidator(validator);
+        provider.setUserDetailsService(userDetailsService);
+        provider.afterPropertiesSet();
+        ProviderManager authenticationManager = new ProviderManager();
+        authenticationManager.setProviders(Arrays.<AuthenticationProvider> asList(provider));
+        authenticationManager.afterPropertiesSet();
+
+        filter = new SpnegoAuthenticationProcessingFilter();
+        filter.setAuthenticationManager(authenticationManager);
+        filter.afterPropertiesSet();
+        driver = new LoadDriver();
+        driver.setThreads(4);
+    }
+
+    @After
+    public void after() {
+        validator.destroy();
+        keyTab.delete();
+    }
+
+    @Test
+    public void testAllRequestsAuthenticated() throws Exception {
+        List<byte[]> tokens = SyntheticTokens.createTokens(tickets, 200, 20);
+
+        LoadReport report = driver.run(filter, tokens);
+
+        assertEquals(200, report.getRequests());
+        assertEquals(0, report.getFailures());
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getLatency(99) >= report.getLatency(50));
+        assertTrue(report.getLatency(100) > 0);
+    }
+
+    @Test
+    public void testRejectedTokensAreFailures() throws Exception {
+        ServiceTicketFactory otherKey = new ServiceTicketFactory(SERVICE_PRINCIPAL,
+                ServiceTicketFactory.AES256_CTS_HMAC_SHA1_96, 1);
+        List<byte[]> tokens = SyntheticTokens.createTokens(tickets, 10, 1);
+        tokens.addAll(SyntheticTokens.createTokens(otherKey, 5, 1));
+
+        LoadReport report = driver.run(filter, tokens);
+
+        assertEquals(15, report.getRequests());
+        assertEquals(5, report.getFailures());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2009 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.security.extensions.kerberos.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.extensions.kerberos.KerberosLoginCache;
+import org.springframework.security.extensions.kerberos.SunJaasKerberosClient;
+
+/**
+ * Test class for {@link SunJaasKerberosClient} with a {@link KerberosLoginCache}, against
+ * an {@link EmbeddedKdc}.
+ *
+ * @author Grant Cermak
+ * @since 1.1
+ * @version $Id$
+ */
+public class SunJaasKerberosClientTest {
+
+    private static EmbeddedKdc kdc;
+    private static File keyTab;
+    private KerberosLoginCache loginCache;
+    private SunJaasKerberosClient client;
+
+    @BeforeClass
+    public static void startKdc() throws Exception {
+        kdc = new EmbeddedKdc();
+        kdc.afterPropertiesSet();
+        kdc.createUser("alice", "secret");
+        keyTab = File.createTempFile("http", ".keytab");
+        kdc.createServicePrincipals(keyTab, "HTTP/localhost");
+        // the client doesn't reload the Kerberos configuration, the login of the KDC does
+        kdc.createSpnegoToken("alice", "secret", "HTTP/localhost");
+    }
+
+    @AfterClass
+    public static void stopKdc() throws Exception {
+        kdc.destroy();
+        keyTab.delete();
+    }
+
+    @Before
+    public void before() {
+        loginCache = new KerberosLoginCache();
+        client = new SunJaasKerberosClient();
+        client.setLoginCache(loginCache);
+    }
+
+    @Test
+    public void testRepeatedLoginIsServedFromCache() throws Exception {
+        assertEquals("alice@EXAMPLE.COM", client.login("alice", "secret"));
+        assertEquals(1, loginCache.size());
+
+        assertEquals("alice@EXAMPLE.COM", client.login("alice", "secret"));
+        assertEquals(1, loginCache.getHits());
+        assertEquals(1, loginCache.getMisses());
+    }
+
+    @Test
+    public void testFailedLoginRemovesTheUser() throws Exception {
+        client.login("alice", "secret");
+        try {
+            client.login("alice", "wrong");
+            fail("Expected BadCredentialsException");
+        } catch (BadCredentialsException expected) {
+        }
+
+        assertEquals(0, loginCache.size());
+        assertEquals(1, loginCache.getInvalidations());
+    }
+}